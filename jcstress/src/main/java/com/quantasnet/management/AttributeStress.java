@@ -0,0 +1,94 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.quantasnet.management;
+
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Description;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.II_Result;
+
+import javax.management.Attribute;
+
+import static org.openjdk.jcstress.annotations.Expect.ACCEPTABLE;
+import static org.openjdk.jcstress.annotations.Expect.FORBIDDEN;
+
+/**
+ * A writer and a reader of the same attribute of one MBean<br />
+ * <br />
+ * r1 is the value read, -1 when the read failed, r2 the value after both finished<br />
+ *
+ * @author Quantas
+ */
+@JCStressTest
+@Description("Concurrent getAttribute and setAttribute of the same attribute")
+@Outcome(id = "0, 1", expect = ACCEPTABLE, desc = "Read before the write")
+@Outcome(id = "1, 1", expect = ACCEPTABLE, desc = "Read after the write")
+@Outcome(expect = FORBIDDEN, desc = "The read or the write failed")
+@State
+public class AttributeStress
+{
+    private final Target target = new Target();
+    private final DynamicManagementMBean mbean = new DynamicManagementMBean(target, "");
+
+    @Actor
+    public void writer()
+    {
+        try
+        {
+            mbean.setAttribute(new Attribute("value", 1));
+        }
+        catch (Exception e)
+        {
+            // the value stays 0, which the arbiter reports
+        }
+    }
+
+    @Actor
+    public void reader(final II_Result r)
+    {
+        try
+        {
+            r.r1 = (Integer) mbean.getAttribute("value");
+        }
+        catch (Exception e)
+        {
+            r.r1 = -1;
+        }
+    }
+
+    @Arbiter
+    public void arbiter(final II_Result r)
+    {
+        r.r2 = target.value;
+    }
+
+    public static final class Target
+    {
+        @Managed(writable = true)
+        private int value;
+    }
+}
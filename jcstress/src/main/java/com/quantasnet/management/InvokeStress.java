@@ -0,0 +1,102 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.quantasnet.management;
+
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Description;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.III_Result;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.openjdk.jcstress.annotations.Expect.ACCEPTABLE;
+import static org.openjdk.jcstress.annotations.Expect.FORBIDDEN;
+
+/**
+ * Two callers of the same overloaded operation of one MBean<br />
+ * <br />
+ * r1 and r2 are the results, -1 when the invoke failed, r3 the number of calls that reached the instance<br />
+ *
+ * @author Quantas
+ */
+@JCStressTest
+@Description("Concurrent invoke of the same operation")
+@Outcome(id = {"1, 2, 2", "2, 1, 2"}, expect = ACCEPTABLE, desc = "Each invoke called the method exactly once")
+@Outcome(expect = FORBIDDEN, desc = "An invoke failed, or called the method more than once")
+@State
+public class InvokeStress
+{
+    private final Target target = new Target();
+    private final DynamicManagementMBean mbean = new DynamicManagementMBean(target, "");
+
+    @Actor
+    public void caller1(final III_Result r)
+    {
+        r.r1 = invoke();
+    }
+
+    @Actor
+    public void caller2(final III_Result r)
+    {
+        r.r2 = invoke();
+    }
+
+    @Arbiter
+    public void arbiter(final III_Result r)
+    {
+        r.r3 = target.count.get();
+    }
+
+    private int invoke()
+    {
+        try
+        {
+            return (Integer) mbean.invoke("increment", new Object[0], new String[0]);
+        }
+        catch (Exception e)
+        {
+            return -1;
+        }
+    }
+
+    public static final class Target
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Managed
+        public int increment()
+        {
+            return count.incrementAndGet();
+        }
+
+        @Managed
+        public int increment(final int delta)
+        {
+            return count.addAndGet(delta);
+        }
+    }
+}
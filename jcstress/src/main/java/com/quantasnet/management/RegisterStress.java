@@ -0,0 +1,163 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.quantasnet.management;
+
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Description;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.ZZ_Result;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.openjdk.jcstress.annotations.Expect.ACCEPTABLE;
+import static org.openjdk.jcstress.annotations.Expect.FORBIDDEN;
+
+/**
+ * Races between register, unregister and re-register of the same instance<br />
+ * <br />
+ * r1 is whether the MBeanServer has the name after both finished, r2 whether the ManagementProcessor has it<br />
+ * Every state uses its own name, the arbiter unregisters whatever is left<br />
+ *
+ * @author Quantas
+ */
+public class RegisterStress
+{
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private RegisterStress()
+    {
+        // no-op
+    }
+
+    @JCStressTest
+    @Description("Concurrent register and unregister of the same instance")
+    @Outcome(id = "true, true", expect = ACCEPTABLE, desc = "Unregister first, the instance stays registered")
+    @Outcome(id = "false, false", expect = ACCEPTABLE, desc = "Register first, the instance is gone")
+    @Outcome(expect = FORBIDDEN, desc = "The MBeanServer and the bookkeeping disagree")
+    @State
+    public static class RegisterUnregister
+    {
+        private final Target target = new Target();
+        private final ObjectName name = target.name();
+
+        @Actor
+        public void register()
+        {
+            ManagementProcessor.register(target, "", name);
+        }
+
+        @Actor
+        public void unregister()
+        {
+            ManagementProcessor.unregister(target);
+        }
+
+        @Arbiter
+        public void arbiter(final ZZ_Result r)
+        {
+            check(target, name, r);
+        }
+    }
+
+    @JCStressTest
+    @Description("Concurrent re-register and unregister of the same instance")
+    @Outcome(id = "true, true", expect = ACCEPTABLE, desc = "Re-registered last")
+    @Outcome(id = "false, false", expect = ACCEPTABLE, desc = "Unregistered last")
+    @Outcome(expect = FORBIDDEN, desc = "The MBeanServer and the bookkeeping disagree")
+    @State
+    public static class Reregister
+    {
+        private final Target target = new Target();
+        private final ObjectName name = target.name();
+
+        public Reregister()
+        {
+            ManagementProcessor.register(target, "", name);
+        }
+
+        @Actor
+        public void reregister()
+        {
+            ManagementProcessor.unregister(target);
+            ManagementProcessor.register(target, "", name);
+        }
+
+        @Actor
+        public void unregister()
+        {
+            ManagementProcessor.unregister(target);
+        }
+
+        @Arbiter
+        public void arbiter(final ZZ_Result r)
+        {
+            check(target, name, r);
+        }
+    }
+
+    private static void check(final Target target, final ObjectName name, final ZZ_Result r)
+    {
+        r.r1 = ManagementFactory.getPlatformMBeanServer().isRegistered(name);
+        r.r2 = false;
+        for (final Registration registration : ManagementProcessor.registrations())
+        {
+            if (registration.getObjectName().equals(name))
+            {
+                r.r2 = true;
+                break;
+            }
+        }
+
+        if (r.r1 || r.r2)
+        {
+            ManagementProcessor.unregister(target);
+        }
+    }
+
+    public static final class Target
+    {
+        private final long id = SEQUENCE.incrementAndGet();
+
+        @Managed
+        private long value;
+
+        private ObjectName name()
+        {
+            try
+            {
+                return new ObjectName("com.quantasnet.management.stress:type=Target,id=" + id);
+            }
+            catch (MalformedObjectNameException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,413 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.ReflectionException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * Synthetic MBean exposing the count of the registered instances of a class, or of a group of classes, and the sum,
+ * minimum and maximum of their numeric attributes, see {@link ManagedAggregate}.<br />
+ * The values are computed by sweeping the live instances through their direct accessors when the aggregate is read,
+ * large groups are swept in parallel on a pool of their own and getAttributes computes all the requested values in a single sweep.
+ */
+/*package*/ final class AggregateMBean implements DynamicMBean
+{
+    /*package*/ static final String COUNT = "count";
+    /*package*/ static final String SUM = "Sum";
+    /*package*/ static final String MIN = "Min";
+    /*package*/ static final String MAX = "Max";
+
+    private static final int PARALLEL_THRESHOLD = 1024;
+
+    private final String group;
+    private final Set<DynamicManagementMBean> members = ConcurrentHashMap.newKeySet();
+    private final Set<Class<?>> classes = ConcurrentHashMap.newKeySet();
+
+    // attribute name -> true if integral, copy-on-write
+    private volatile Map<String, Boolean> numericAttributes = new LinkedHashMap<String, Boolean>();
+    private volatile MBeanInfo info;
+
+    public AggregateMBean(final String group)
+    {
+        this.group = group;
+        this.info = buildInfo(numericAttributes);
+    }
+
+    /**
+     * Add a registered instance
+     *
+     * @param mbean    MBean of the instance
+     * @param objClass Class of the instance
+     */
+    public void add(final DynamicManagementMBean mbean, final Class<?> objClass)
+    {
+        if (classes.add(objClass))
+        {
+            addNumericAttributes(mbean.getMBeanInfo().getAttributes());
+        }
+
+        members.add(mbean);
+    }
+
+    /**
+     * Remove an unregistered instance
+     *
+     * @param mbean MBean of the instance
+     * @return true if there are no instances left
+     */
+    public boolean remove(final DynamicManagementMBean mbean)
+    {
+        members.remove(mbean);
+        return members.isEmpty();
+    }
+
+    public Object getAttribute(final String attribute) throws AttributeNotFoundException, MBeanException, ReflectionException
+    {
+        if (COUNT.equals(attribute))
+        {
+            return members.size();
+        }
+
+        final String base = baseName(attribute);
+        if (base == null)
+        {
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        final List<String> bases = new ArrayList<String>();
+        bases.add(base);
+
+        return sweep(bases)[0].value(attribute.substring(base.length()));
+    }
+
+    public void setAttribute(final Attribute attribute) throws AttributeNotFoundException
+    {
+        throw new AttributeNotFoundException("Aggregate attributes are read only: " + attribute.getName());
+    }
+
+    public AttributeList getAttributes(final String[] attributes)
+    {
+        final List<String> bases = new ArrayList<String>();
+        for (final String attribute : attributes)
+        {
+            final String base = baseName(attribute);
+            if (base != null && !bases.contains(base))
+            {
+                bases.add(base);
+            }
+        }
+
+        final Stats[] stats = bases.isEmpty() ? new Stats[0] : sweep(bases);
+
+        final AttributeList values = new AttributeList();
+        for (final String attribute : attributes)
+        {
+            if (COUNT.equals(attribute))
+            {
+                values.add(new Attribute(attribute, members.size()));
+            }
+            else
+            {
+                final String base = baseName(attribute);
+                if (base != null)
+                {
+                    values.add(new Attribute(attribute, stats[bases.indexOf(base)].value(attribute.substring(base.length()))));
+                }
+            }
+        }
+
+        return values;
+    }
+
+    public AttributeList setAttributes(final AttributeList attributes)
+    {
+        return new AttributeList();
+    }
+
+    public Object invoke(final String actionName, final Object[] params, final String[] signature) throws MBeanException
+    {
+        throw new MBeanException(new UnsupportedOperationException(actionName), "Aggregates have no operations");
+    }
+
+    public MBeanInfo getMBeanInfo()
+    {
+        return info;
+    }
+
+    private synchronized void addNumericAttributes(final MBeanAttributeInfo[] attributes)
+    {
+        final Map<String, Boolean> updated = new LinkedHashMap<String, Boolean>(numericAttributes);
+        boolean changed = false;
+        for (final MBeanAttributeInfo attrInfo : attributes)
+        {
+            final Boolean integral = integral(attrInfo.getType());
+            if (!attrInfo.isReadable() || integral == null)
+            {
+                continue;
+            }
+
+            // classes of a group may declare an attribute with different types, any floating point one makes it a double
+            final Boolean known = updated.get(attrInfo.getName());
+            if (known == null || (known && !integral))
+            {
+                updated.put(attrInfo.getName(), integral);
+                changed = true;
+            }
+        }
+
+        if (changed)
+        {
+            info = buildInfo(updated);
+            numericAttributes = updated;
+        }
+    }
+
+    private MBeanInfo buildInfo(final Map<String, Boolean> attributes)
+    {
+        final List<MBeanAttributeInfo> attrList = new ArrayList<MBeanAttributeInfo>();
+        attrList.add(new MBeanAttributeInfo(COUNT, Integer.class.getName(), "Number of registered instances", true, false, false));
+
+        for (final Map.Entry<String, Boolean> entry : attributes.entrySet())
+        {
+            final String type = entry.getValue() ? Long.class.getName() : Double.class.getName();
+            for (final String suffix : new String[]{SUM, MIN, MAX})
+            {
+                attrList.add(new MBeanAttributeInfo(entry.getKey() + suffix, type, suffix + " of " + entry.getKey() + " over all instances", true, false, false));
+            }
+        }
+
+        return new MBeanInfo(AggregateMBean.class.getName(), "Aggregate of " + group, attrList.toArray(new MBeanAttributeInfo[attrList.size()]), null, null, null);
+    }
+
+    /**
+     * @return the numeric attribute an aggregate attribute is computed from, null if it is not an aggregate attribute
+     */
+    private String baseName(final String attribute)
+    {
+        for (final String suffix : new String[]{SUM, MIN, MAX})
+        {
+            if (attribute.endsWith(suffix))
+            {
+                final String base = attribute.substring(0, attribute.length() - suffix.length());
+                if (numericAttributes.containsKey(base))
+                {
+                    return base;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Read the attributes of every live instance once
+     */
+    private Stats[] sweep(final List<String> bases)
+    {
+        final Map<String, Boolean> numeric = numericAttributes;
+        final Collection<DynamicManagementMBean> snapshot = members;
+
+        if (snapshot.size() < PARALLEL_THRESHOLD)
+        {
+            final Stats[] stats = newStats(bases, numeric);
+            for (final DynamicManagementMBean member : snapshot)
+            {
+                accumulate(stats, member, bases);
+            }
+            return stats;
+        }
+
+        // a pool of our own, so slow accessors do not hold up the common pool of the application
+        return Sweeper.POOL.submit(() -> snapshot.parallelStream().collect(
+                () -> newStats(bases, numeric),
+                (stats, member) -> accumulate(stats, member, bases),
+                AggregateMBean::combine)).join();
+    }
+
+    private static Stats[] newStats(final List<String> bases, final Map<String, Boolean> numeric)
+    {
+        final Stats[] stats = new Stats[bases.size()];
+        for (int i = 0; i < stats.length; i++)
+        {
+            stats[i] = new Stats(Boolean.TRUE.equals(numeric.get(bases.get(i))));
+        }
+        return stats;
+    }
+
+    private static void accumulate(final Stats[] stats, final DynamicManagementMBean member, final List<String> bases)
+    {
+        final Map<DynamicAttributeSource, Map<String, ?>> sweep = new HashMap<DynamicAttributeSource, Map<String, ?>>();
+        for (int i = 0; i < stats.length; i++)
+        {
+            final Object value;
+            try
+            {
+                value = member.sample(bases.get(i), sweep);
+            }
+            catch (Exception e)
+            {
+                // classes in a group may not share every attribute, a failed read counts as no value
+                continue;
+            }
+
+            if (value instanceof Number)
+            {
+                stats[i].add((Number) value);
+            }
+        }
+    }
+
+    private static void combine(final Stats[] into, final Stats[] from)
+    {
+        for (int i = 0; i < into.length; i++)
+        {
+            into[i].combine(from[i]);
+        }
+    }
+
+    /**
+     * @return true for integral types, false for floating point types, null for non numeric types
+     */
+    /*package*/ static Boolean integral(final String type)
+    {
+        if ("long".equals(type) || "int".equals(type) || "short".equals(type) || "byte".equals(type)
+                || Long.class.getName().equals(type) || Integer.class.getName().equals(type)
+                || Short.class.getName().equals(type) || Byte.class.getName().equals(type))
+        {
+            return Boolean.TRUE;
+        }
+
+        if ("double".equals(type) || "float".equals(type) || Double.class.getName().equals(type) || Float.class.getName().equals(type))
+        {
+            return Boolean.FALSE;
+        }
+
+        return null;
+    }
+
+    /**
+     * Holder of the pool large groups are swept in, its threads are only started by the first one
+     */
+    private static final class Sweeper
+    {
+        private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), new ForkJoinPool.ForkJoinWorkerThreadFactory()
+        {
+            public ForkJoinWorkerThread newThread(final ForkJoinPool pool)
+            {
+                final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("ManagementProcessor-aggregate-" + thread.getPoolIndex());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, null, false);
+    }
+
+    private static final class Stats
+    {
+        private final boolean integral;
+        private int count;
+        private long longSum;
+        private long longMin = Long.MAX_VALUE;
+        private long longMax = Long.MIN_VALUE;
+        private double doubleSum;
+        private double doubleMin = Double.POSITIVE_INFINITY;
+        private double doubleMax = Double.NEGATIVE_INFINITY;
+
+        private Stats(final boolean integral)
+        {
+            this.integral = integral;
+        }
+
+        private void add(final Number number)
+        {
+            count++;
+            if (integral)
+            {
+                final long value = number.longValue();
+                longSum += value;
+                longMin = Math.min(longMin, value);
+                longMax = Math.max(longMax, value);
+            }
+            else
+            {
+                final double value = number.doubleValue();
+                doubleSum += value;
+                doubleMin = Math.min(doubleMin, value);
+                doubleMax = Math.max(doubleMax, value);
+            }
+        }
+
+        private void combine(final Stats other)
+        {
+            count += other.count;
+            longSum += other.longSum;
+            longMin = Math.min(longMin, other.longMin);
+            longMax = Math.max(longMax, other.longMax);
+            doubleSum += other.doubleSum;
+            doubleMin = Math.min(doubleMin, other.doubleMin);
+            doubleMax = Math.max(doubleMax, other.doubleMax);
+        }
+
+        /**
+         * @return the sum, null for the minimum and maximum of no values
+         */
+        private Object value(final String suffix)
+        {
+            if (SUM.equals(suffix))
+            {
+                return integral ? (Object) longSum : (Object) doubleSum;
+            }
+
+            if (count == 0)
+            {
+                return null;
+            }
+
+            if (MIN.equals(suffix))
+            {
+                return integral ? (Object) longMin : (Object) doubleMin;
+            }
+
+            return integral ? (Object) longMax : (Object) doubleMax;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+/**
+ * Finds the {@link ManagedGroup} a set of attributes is published through, see {@link Managed#group()}
+ */
+/*package*/ class AttributeGroup
+{
+    final String name;
+    final Field field;
+    final Method method;
+
+    private AttributeGroup(final String name, final Field field, final Method method)
+    {
+        this.name = name;
+        this.field = field;
+        this.method = method;
+    }
+
+    /**
+     * @param objClass Class of the managed object
+     * @param name     Name of the ManagedGroup field or no argument method
+     * @return the group
+     * @throws IllegalArgumentException if there is no such field or method
+     */
+    public static AttributeGroup resolve(final Class<?> objClass, final String name)
+    {
+        for (Class<?> clazz = objClass; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass())
+        {
+            for (final Field field : clazz.getDeclaredFields())
+            {
+                if (field.getName().equals(name) && ManagedGroup.class.isAssignableFrom(field.getType()))
+                {
+                    field.setAccessible(true);
+                    return new AttributeGroup(name, field, null);
+                }
+            }
+
+            for (final Method method : clazz.getDeclaredMethods())
+            {
+                if (method.getName().equals(name) && method.getParameterTypes().length == 0 && ManagedGroup.class.isAssignableFrom(method.getReturnType()))
+                {
+                    method.setAccessible(true);
+                    return new AttributeGroup(name, null, method);
+                }
+            }
+        }
+
+        throw new IllegalArgumentException("No ManagedGroup field or method named " + name + " on " + objClass.getName());
+    }
+
+    /**
+     * @param objInstance Instance of the managed object
+     * @return the group of the instance
+     * @throws Exception if the group could not be read or is null
+     */
+    public ManagedGroup get(final Object objInstance) throws Exception
+    {
+        final ManagedGroup group = (ManagedGroup) (field == null ? method.invoke(objInstance) : field.get(objInstance));
+        if (group == null)
+        {
+            throw new IllegalStateException("ManagedGroup " + name + " is not available");
+        }
+
+        return group;
+    }
+}
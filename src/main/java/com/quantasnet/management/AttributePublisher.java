@@ -0,0 +1,196 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes samples of attributes of a registered MBean to in-process subscribers, see
+ * {@link ManagementProcessor#publisher(Object, long, boolean, String...)}.<br />
+ * Every subscription is a Sampler on the shared MonitorEngine, attributes are read through the MBean's accessors and
+ * only while the subscriber has outstanding demand, a subscriber that falls behind receives the latest values instead
+ * of a backlog. Items are delivered on the scheduler thread, so onNext must not block.
+ */
+/*package*/ final class AttributePublisher implements Flow.Publisher<Map<String, Object>>
+{
+    private static final Logger LOG = LoggerFactory.getLogger(AttributePublisher.class);
+
+    private final DynamicManagementMBean mbean;
+    private final String[] attributes;
+    private final long period;
+    private final boolean changesOnly;
+
+    public AttributePublisher(final DynamicManagementMBean mbean, final String[] attributes, final long period, final boolean changesOnly)
+    {
+        this.mbean = mbean;
+        this.attributes = attributes.clone();
+        this.period = period;
+        this.changesOnly = changesOnly;
+    }
+
+    public void subscribe(final Flow.Subscriber<? super Map<String, Object>> subscriber)
+    {
+        final AttributeSubscription subscription = new AttributeSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        subscription.start();
+    }
+
+    private final class AttributeSubscription implements Flow.Subscription, Sampler
+    {
+        private final Flow.Subscriber<? super Map<String, Object>> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+
+        // guarded by this
+        private Object[] last;
+        private boolean done;
+
+        private AttributeSubscription(final Flow.Subscriber<? super Map<String, Object>> subscriber)
+        {
+            this.subscriber = subscriber;
+        }
+
+        private synchronized void start()
+        {
+            if (!done)
+            {
+                MonitorEngine.INSTANCE.add(this);
+            }
+        }
+
+        public void request(final long n)
+        {
+            if (n <= 0)
+            {
+                fail(new IllegalArgumentException("Non-positive request: " + n));
+                return;
+            }
+
+            long current;
+            long next;
+            do
+            {
+                current = demand.get();
+                next = current + n < 0 ? Long.MAX_VALUE : current + n;
+            }
+            while (!demand.compareAndSet(current, next));
+        }
+
+        public synchronized void cancel()
+        {
+            done = true;
+            MonitorEngine.INSTANCE.remove(this);
+        }
+
+        public long getPeriod()
+        {
+            return period;
+        }
+
+        public synchronized void sample()
+        {
+            if (done)
+            {
+                return;
+            }
+
+            // completion is signalled without demand, a subscriber that stopped requesting is not left behind
+            if (!mbean.isRegistered())
+            {
+                cancel();
+                subscriber.onComplete();
+                return;
+            }
+
+            if (demand.get() == 0)
+            {
+                return;
+            }
+
+            final Object[] values = new Object[attributes.length];
+            final Map<DynamicAttributeSource, Map<String, ?>> sweep = new HashMap<DynamicAttributeSource, Map<String, ?>>();
+            try
+            {
+                for (int i = 0; i < attributes.length; i++)
+                {
+                    values[i] = mbean.sample(attributes[i], sweep);
+                }
+            }
+            catch (Exception e)
+            {
+                // a transient failure, such as an open breaker, skips the tick and keeps the subscription
+                LOG.debug("Error reading published attributes, skipping the tick", e);
+                return;
+            }
+
+            if (changesOnly && last != null && Objects.deepEquals(last, values))
+            {
+                return;
+            }
+
+            last = values;
+            // Long.MAX_VALUE is unbounded demand and is never used up
+            long current;
+            do
+            {
+                current = demand.get();
+            }
+            while (current != Long.MAX_VALUE && !demand.compareAndSet(current, current - 1));
+
+            final Map<String, Object> item = new LinkedHashMap<String, Object>();
+            for (int i = 0; i < attributes.length; i++)
+            {
+                item.put(attributes[i], values[i]);
+            }
+
+            try
+            {
+                subscriber.onNext(Collections.unmodifiableMap(item));
+            }
+            catch (RuntimeException e)
+            {
+                LOG.error("Subscriber failed, cancelling its subscription", e);
+                cancel();
+            }
+        }
+
+        private synchronized void fail(final Throwable t)
+        {
+            if (!done)
+            {
+                cancel();
+                subscriber.onError(t);
+            }
+        }
+    }
+}
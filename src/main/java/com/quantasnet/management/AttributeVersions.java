@@ -0,0 +1,237 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Tracks a version per readable attribute of an MBean, see {@link ManagementProcessor#changedSince(long)}.<br />
+ * Versions come from one clock shared by all MBeans and are bumped when a write goes through the MBean or when the
+ * background sample sees a different value. Values are compared with equals, so changes made inside a mutable object
+ * that is returned as is, such as a live collection, are not seen.<br />
+ * Attributes bound to an executor of the managed object are not read by the background sample, which runs on the
+ * shared scheduler thread, but by the poller in {@link #sampleOwned()}. Tracking stops once nobody has polled for
+ * IDLE_TIMEOUT.
+ */
+/*package*/ final class AttributeVersions implements Sampler
+{
+    private static final Logger LOG = LoggerFactory.getLogger(AttributeVersions.class);
+
+    /*package*/ static final long PERIOD = 1000L;
+
+    /*package*/ static final long IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+
+    private static final AtomicLong CLOCK = new AtomicLong();
+
+    // samplers hold the read lock from taking a version until its entry is stored, readers of the clock take the
+    // write lock, so a version is never handed out to a poller before the change it covers is visible
+    private static final ReadWriteLock VERSION_LOCK = new ReentrantReadWriteLock();
+
+    /*package*/ static volatile long idleTimeout = IDLE_TIMEOUT;
+
+    private static volatile long lastPoll = System.currentTimeMillis();
+
+    private final DynamicManagementMBean mbean;
+    private final String[] names;
+
+    // attributes read on the executor of the managed object, sampled by the poller only
+    private final boolean[] owned;
+
+    // immutable entries so readers see a value and its version together without locking
+    private final AtomicReferenceArray<Entry> entries;
+
+    // highest version of any attribute, lets readers skip an idle MBean with a single read
+    private volatile long maxVersion;
+
+    public AttributeVersions(final DynamicManagementMBean mbean, final String[] names, final boolean[] owned)
+    {
+        this.mbean = mbean;
+        this.names = names;
+        this.owned = owned;
+        this.entries = new AtomicReferenceArray<Entry>(names.length);
+    }
+
+    /**
+     * @return the current version of the shared clock, every change up to it has been stored
+     */
+    public static long currentVersion()
+    {
+        VERSION_LOCK.writeLock().lock();
+        try
+        {
+            return CLOCK.get();
+        }
+        finally
+        {
+            VERSION_LOCK.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remember that a poller asked for changes, tracking stops when this has not been called for IDLE_TIMEOUT
+     */
+    public static void polled()
+    {
+        lastPoll = System.currentTimeMillis();
+    }
+
+    /**
+     * @return true if nobody asked for changes for longer than the idle timeout
+     */
+    public static boolean isIdle()
+    {
+        return System.currentTimeMillis() - lastPoll > idleTimeout;
+    }
+
+    public long getPeriod()
+    {
+        return PERIOD;
+    }
+
+    /**
+     * Read every attribute not bound to an executor and bump the version of the ones whose value changed
+     */
+    public synchronized void sample()
+    {
+        if (isIdle())
+        {
+            ManagementProcessor.stopVersionTrackingIfIdle();
+            return;
+        }
+
+        for (int i = 0; i < names.length; i++)
+        {
+            if (!owned[i])
+            {
+                record(i, names[i]);
+            }
+        }
+    }
+
+    /**
+     * Read the attributes bound to an executor, on the calling thread which waits for the executor
+     */
+    public synchronized void sampleOwned()
+    {
+        for (int i = 0; i < names.length; i++)
+        {
+            if (owned[i])
+            {
+                record(i, names[i]);
+            }
+        }
+    }
+
+    /**
+     * Re-read an attribute after it was written through the MBean
+     *
+     * @param attribute Name of the attribute
+     */
+    public synchronized void touch(final String attribute)
+    {
+        for (int i = 0; i < names.length; i++)
+        {
+            if (names[i].equals(attribute))
+            {
+                record(i, attribute);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Add the attributes that changed after a version
+     *
+     * @param version Version returned by an earlier call, 0 for everything
+     * @param changes Map to add the changed attribute names and values to
+     */
+    public void collect(final long version, final Map<String, Object> changes)
+    {
+        if (maxVersion <= version)
+        {
+            return;
+        }
+
+        for (int i = 0; i < names.length; i++)
+        {
+            final Entry entry = entries.get(i);
+            if (entry != null && entry.version > version)
+            {
+                changes.put(names[i], entry.value);
+            }
+        }
+    }
+
+    private void record(final int index, final String attribute)
+    {
+        final Object value;
+        try
+        {
+            value = mbean.read(attribute);
+        }
+        catch (Exception e)
+        {
+            LOG.debug("Error sampling attribute " + attribute, e);
+            return;
+        }
+
+        final Entry entry = entries.get(index);
+        if (entry == null || !Objects.deepEquals(entry.value, value))
+        {
+            VERSION_LOCK.readLock().lock();
+            try
+            {
+                final long version = CLOCK.incrementAndGet();
+                entries.set(index, new Entry(value, version));
+                maxVersion = version;
+            }
+            finally
+            {
+                VERSION_LOCK.readLock().unlock();
+            }
+        }
+    }
+
+    private static final class Entry
+    {
+        private final Object value;
+        private final long version;
+
+        private Entry(final Object value, final long version)
+        {
+            this.value = value;
+            this.version = version;
+        }
+    }
+}
@@ -24,41 +24,62 @@
 
 package com.quantasnet.management;
 
+import javax.management.InvalidAttributeValueException;
 import javax.management.MBeanAttributeInfo;
+import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.math.BigDecimal;
 
 /**
- * Holding class for internal information
+ * Holding class for internal information, the accessible getter/setter methods or field of an attribute are
+ * resolved once so reads and writes do not need to look them up again
  */
 /*package*/ class AttributeWithMethods
 {
     final MBeanAttributeInfo mbeanAttribute;
     final Method getOrIsMethod;
     final Method setMethod;
+    final Field field;
 
     public AttributeWithMethods(final MBeanAttributeInfo mbeanAttribute, final Method getOrIsMethod, final Method setMethod)
     {
         this.mbeanAttribute = mbeanAttribute;
+        this.getOrIsMethod = getOrIsMethod;
+        this.setMethod = setMethod;
+        this.field = null;
 
-        if (getOrIsMethod == null)
+        if (getOrIsMethod != null)
         {
-            this.getOrIsMethod = null;
-        }
-        else
-        {
-            this.getOrIsMethod = getOrIsMethod;
+            getOrIsMethod.setAccessible(true);
         }
 
-        if (setMethod == null)
-        {
-            this.setMethod = null;
-        }
-        else
+        if (setMethod != null)
         {
-            this.setMethod = setMethod;
+            setMethod.setAccessible(true);
         }
     }
 
+    /**
+     * For attributes that are not backed by methods or a field, which override the reads and writes
+     */
+    protected AttributeWithMethods(final MBeanAttributeInfo mbeanAttribute)
+    {
+        this.mbeanAttribute = mbeanAttribute;
+        this.getOrIsMethod = null;
+        this.setMethod = null;
+        this.field = null;
+    }
+
+    public AttributeWithMethods(final MBeanAttributeInfo mbeanAttribute, final Field field)
+    {
+        this.mbeanAttribute = mbeanAttribute;
+        this.getOrIsMethod = null;
+        this.setMethod = null;
+        this.field = field;
+
+        field.setAccessible(true);
+    }
+
     public MBeanAttributeInfo getMbeanAttribute()
     {
         return mbeanAttribute;
@@ -73,4 +94,237 @@ import java.lang.reflect.Method;
     {
         return getOrIsMethod;
     }
+
+    public Field getField()
+    {
+        return field;
+    }
+
+    /**
+     * Read the attribute on the current thread
+     *
+     * @param objInstance Instance of the managed object
+     * @return the value of the attribute
+     * @throws Exception if the attribute is not readable or the read failed
+     */
+    public Object read(final Object objInstance) throws Exception
+    {
+        if (!mbeanAttribute.isReadable())
+        {
+            throw new Exception("Attribute not readable: " + mbeanAttribute.getName());
+        }
+
+        return field == null ? getOrIsMethod.invoke(objInstance) : field.get(objInstance);
+    }
+
+    /**
+     * Write the attribute on the current thread
+     *
+     * @param objInstance Instance of the managed object
+     * @param value       New value of the attribute
+     * @throws Exception if the attribute is not writable or the write failed
+     */
+    public void write(final Object objInstance, final Object value) throws Exception
+    {
+        if (!mbeanAttribute.isWritable())
+        {
+            throw new Exception("Attribute not writable: " + mbeanAttribute.getName());
+        }
+
+        if (field == null)
+        {
+            setMethod.invoke(objInstance, value);
+        }
+        else
+        {
+            field.set(objInstance, value);
+        }
+    }
+
+    /**
+     * @return true if the current value can be read back to restore it, even if the attribute is not readable
+     */
+    public boolean isRestorable()
+    {
+        return field != null || getOrIsMethod != null;
+    }
+
+    /**
+     * Read the current value to restore it later, ignoring the readable flag
+     *
+     * @param objInstance Instance of the managed object
+     * @return the current value
+     * @throws Exception if the read failed
+     */
+    public Object current(final Object objInstance) throws Exception
+    {
+        return field == null ? getOrIsMethod.invoke(objInstance) : field.get(objInstance);
+    }
+
+    /**
+     * Check a value can be written and convert it to the type of the attribute, numbers are converted between
+     * numeric types when no information is lost and Strings are parsed into numbers, booleans, characters and enums
+     *
+     * @param value Value sent by the client
+     * @return the value to write
+     * @throws InvalidAttributeValueException if the attribute is not writable or the value does not fit its type
+     */
+    public Object convert(final Object value) throws InvalidAttributeValueException
+    {
+        if (!mbeanAttribute.isWritable())
+        {
+            throw new InvalidAttributeValueException("Attribute not writable: " + mbeanAttribute.getName());
+        }
+
+        final Class<?> type = getType();
+        if (value == null)
+        {
+            if (type.isPrimitive())
+            {
+                throw new InvalidAttributeValueException("Null value for primitive attribute " + mbeanAttribute.getName());
+            }
+            return null;
+        }
+
+        final Class<?> boxed = box(type);
+        if (boxed.isInstance(value))
+        {
+            return value;
+        }
+
+        Object converted = null;
+        try
+        {
+            if (value instanceof Number)
+            {
+                converted = convertNumber((Number) value, boxed);
+            }
+            else if (value instanceof String)
+            {
+                converted = parse((String) value, boxed);
+            }
+        }
+        catch (IllegalArgumentException e)
+        {
+            // bad number format or unknown enum constant, reported below
+        }
+
+        if (converted == null)
+        {
+            throw new InvalidAttributeValueException("Value " + value + " of type " + value.getClass().getName() + " does not fit attribute " + mbeanAttribute.getName() + " of type " + type.getName());
+        }
+
+        return converted;
+    }
+
+    /**
+     * @return the type values are converted to
+     */
+    protected Class<?> getType()
+    {
+        return field == null ? setMethod.getParameterTypes()[0] : field.getType();
+    }
+
+    private static Object convertNumber(final Number number, final Class<?> type)
+    {
+        if (type == Double.class)
+        {
+            return number.doubleValue();
+        }
+
+        if (type == Float.class)
+        {
+            return number.floatValue();
+        }
+
+        final long value;
+        try
+        {
+            // exact, a fraction or a value out of the range of a long is not silently truncated
+            value = (number instanceof BigDecimal ? (BigDecimal) number : new BigDecimal(number.toString())).longValueExact();
+        }
+        catch (ArithmeticException e)
+        {
+            return null;
+        }
+
+        if (type == Long.class)
+        {
+            return value;
+        }
+        if (type == Integer.class && value == (int) value)
+        {
+            return (int) value;
+        }
+        if (type == Short.class && value == (short) value)
+        {
+            return (short) value;
+        }
+        if (type == Byte.class && value == (byte) value)
+        {
+            return (byte) value;
+        }
+
+        return null;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object parse(final String value, final Class<?> type)
+    {
+        if (type == Boolean.class)
+        {
+            return "true".equalsIgnoreCase(value) ? Boolean.TRUE : "false".equalsIgnoreCase(value) ? Boolean.FALSE : null;
+        }
+        if (type == Character.class)
+        {
+            return value.length() == 1 ? value.charAt(0) : null;
+        }
+        if (type.isEnum())
+        {
+            return Enum.valueOf((Class<? extends Enum>) type, value);
+        }
+        if (Number.class.isAssignableFrom(type))
+        {
+            return convertNumber(new BigDecimal(value.trim()), type);
+        }
+
+        return null;
+    }
+
+    private static Class<?> box(final Class<?> type)
+    {
+        if (!type.isPrimitive())
+        {
+            return type;
+        }
+        if (type == Integer.TYPE)
+        {
+            return Integer.class;
+        }
+        if (type == Long.TYPE)
+        {
+            return Long.class;
+        }
+        if (type == Boolean.TYPE)
+        {
+            return Boolean.class;
+        }
+        if (type == Double.TYPE)
+        {
+            return Double.class;
+        }
+        if (type == Float.TYPE)
+        {
+            return Float.class;
+        }
+        if (type == Short.TYPE)
+        {
+            return Short.class;
+        }
+        if (type == Byte.TYPE)
+        {
+            return Byte.class;
+        }
+        return Character.class;
+    }
 }
@@ -0,0 +1,72 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import javax.management.ObjectName;
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Attributes that changed since a version, returned by {@link ManagementProcessor#changedSince(long)}<br />
+ * Pass {@link #getVersion()} to the next call to only receive what changed in between.
+ *
+ * @author Quantas
+ */
+public final class ChangeSet implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private final long version;
+    private final Map<ObjectName, Map<String, Object>> changes;
+
+    /*package*/ ChangeSet(final long version, final Map<ObjectName, Map<String, Object>> changes)
+    {
+        this.version = version;
+        this.changes = changes;
+    }
+
+    /**
+     * @return the version to pass to the next call
+     */
+    public long getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * @return changed attribute names and values by MBean, MBeans without changes are left out
+     */
+    public Map<ObjectName, Map<String, Object>> getChanges()
+    {
+        return Collections.unmodifiableMap(changes);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ChangeSet[version=" + version + ", changes=" + changes + "]";
+    }
+}
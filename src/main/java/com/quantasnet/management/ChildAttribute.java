@@ -0,0 +1,232 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * A @Managed field whose type is itself managed, exposed as the ObjectName of a child MBean.<br />
+ * Reading the attribute only derives the name, the child is introspected and registered when the children are
+ * enumerated, see {@link ManagementProcessor#registerChildren()}, and is unregistered with its parent. The child name is
+ * the parent name with a child key, nested children extend the key with a dot, e.g.
+ * <code>com.acme:type=Server,child=pool.cache</code>.
+ */
+/*package*/ final class ChildAttribute
+{
+    /*package*/ static final String CHILD_KEY = "child";
+
+    final DynamicManagementMBean parent;
+    final String attribute;
+    final Field field;
+    final String description;
+
+    // guarded by this
+    private Object child;
+    private ObjectName childName;
+
+    public ChildAttribute(final DynamicManagementMBean parent, final String attribute, final Field field, final String description)
+    {
+        this.parent = parent;
+        this.attribute = attribute;
+        this.field = field;
+        this.description = description;
+
+        field.setAccessible(true);
+    }
+
+    /**
+     * Check if instances of a type would get an MBean of their own, so a field of that type can be a child
+     *
+     * @param type Declared type of the field
+     * @return true if the type declares @Managed members or provides attributes
+     */
+    public static boolean isManagedType(final Class<?> type)
+    {
+        if (type.isPrimitive() || type.isArray() || type.getName().startsWith("java.") || type.getName().startsWith("javax."))
+        {
+            return false;
+        }
+
+        if (ManagedAttributeProvider.class.isAssignableFrom(type))
+        {
+            return true;
+        }
+
+        for (Class<?> clazz = type; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass())
+        {
+            if (clazz.isAnnotationPresent(Managed.class))
+            {
+                return true;
+            }
+
+            for (final Method method : clazz.getDeclaredMethods())
+            {
+                if (method.isAnnotationPresent(Managed.class))
+                {
+                    return true;
+                }
+            }
+        }
+
+        for (final Field declared : type.getDeclaredFields())
+        {
+            if (declared.isAnnotationPresent(Managed.class) && !Modifier.isStatic(declared.getModifiers()))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Get the name of the current value of the field without registering it, reads must not change what is registered
+     *
+     * @param obj Instance of the parent
+     * @return the name the child has or will be registered under, null if the field is null or the parent is not
+     * registered
+     * @throws Exception if the field could not be read
+     */
+    public synchronized ObjectName name(final Object obj) throws Exception
+    {
+        final Object value = field.get(obj);
+        if (value == null)
+        {
+            return null;
+        }
+
+        if (value == child)
+        {
+            return childName;
+        }
+
+        final ObjectName existing = ManagementProcessor.findObjectName(value);
+        if (existing != null)
+        {
+            return existing;
+        }
+
+        final ObjectName parentName = parent.getObjectName();
+        return parentName == null ? null : childName(parentName, attribute);
+    }
+
+    /**
+     * Register the current value of the field if it is not registered yet, replacing a previous value
+     *
+     * @param obj Instance of the parent
+     * @return the name of the child, null if the field is null or the child could not be registered
+     * @throws Exception if the field could not be read
+     */
+    public synchronized ObjectName materialize(final Object obj) throws Exception
+    {
+        final Object value = field.get(obj);
+        if (value == child)
+        {
+            return childName;
+        }
+
+        release();
+
+        if (value == null)
+        {
+            return null;
+        }
+
+        // already registered on its own, or higher up in the tree when the graph has a cycle
+        final ObjectName existing = ManagementProcessor.findObjectName(value);
+        if (existing != null)
+        {
+            return existing;
+        }
+
+        final ObjectName parentName = parent.getObjectName();
+        if (parentName == null)
+        {
+            return null;
+        }
+
+        final ObjectName name = childName(parentName, attribute);
+        ManagementProcessor.register(value, description, name);
+        if (name.equals(ManagementProcessor.findObjectName(value)))
+        {
+            child = value;
+            childName = name;
+        }
+
+        return childName;
+    }
+
+    /**
+     * @return the registered child, null if it has not been materialized
+     */
+    public synchronized Object getChild()
+    {
+        return child;
+    }
+
+    /**
+     * Unregister the child if it is still registered under the name it was given
+     */
+    public synchronized void release()
+    {
+        if (child != null)
+        {
+            if (childName.equals(ManagementProcessor.findObjectName(child)))
+            {
+                ManagementProcessor.unregister(child);
+            }
+
+            child = null;
+            childName = null;
+        }
+    }
+
+    /**
+     * Derive the name of a child from the name of its parent
+     *
+     * @param parentName Name of the parent MBean
+     * @param attribute  Name of the field holding the child
+     * @return the name of the child
+     * @throws JMException if the name is not valid
+     */
+    public static ObjectName childName(final ObjectName parentName, final String attribute) throws JMException
+    {
+        final String keys = parentName.getKeyPropertyListString();
+        final String path = parentName.getKeyProperty(CHILD_KEY);
+
+        if (path == null)
+        {
+            return new ObjectName(parentName.getDomain() + ":" + keys + "," + CHILD_KEY + "=" + attribute);
+        }
+
+        final String child = CHILD_KEY + "=" + path;
+        final int index = keys.startsWith(child) ? 0 : keys.indexOf("," + child) + 1;
+        return new ObjectName(parentName.getDomain() + ":" + keys.substring(0, index) + child + "." + attribute + keys.substring(index + child.length()));
+    }
+}
@@ -0,0 +1,241 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import org.slf4j.Logger;
+
+import javax.management.MBeanException;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Failure accounting of one attribute or operation, see {@link Managed#failureThreshold()}.<br />
+ * After the threshold of consecutive failures the member is not called for the cool down and fails with one
+ * preallocated exception, then a single call is let through to find out if it recovered. Stack traces of failures are
+ * logged at most once per {@link #LOG_INTERVAL} per member, with the number of failures suppressed in between.
+ */
+/*package*/ final class CircuitBreaker
+{
+    /*package*/ static final String CLOSED = "CLOSED";
+    /*package*/ static final String OPEN = "OPEN";
+    /*package*/ static final String HALF_OPEN = "HALF_OPEN";
+
+    /*package*/ static final long LOG_INTERVAL = 60000L;
+
+    private static final String[] HEALTH_ITEMS = {"objectName", "member", "failures", "consecutiveFailures", "state"};
+    private static final TabularType HEALTH_TYPE;
+
+    static
+    {
+        try
+        {
+            final CompositeType row = new CompositeType("MemberHealth", "Failures of an attribute or operation",
+                    HEALTH_ITEMS, new String[]{"MBean", "Attribute or operation", "Failures since registration",
+                            "Failures since the last success", "CLOSED, OPEN or HALF_OPEN"},
+                    new OpenType<?>[]{SimpleType.STRING, SimpleType.STRING, SimpleType.LONG, SimpleType.INTEGER, SimpleType.STRING});
+            HEALTH_TYPE = new TabularType("MemberHealth", "Failing attributes and operations", row,
+                    new String[]{"objectName", "member"});
+        }
+        catch (OpenDataException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    final String member;
+    final int threshold;
+    final long coolDownNanos;
+
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicBoolean trial = new AtomicBoolean();
+    private volatile boolean open;
+    private volatile long openUntil;
+
+    private final AtomicLong nextLog = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+
+    // thrown while open, built once so a scrape of a broken member costs no allocation
+    private final MBeanException openException;
+
+    public CircuitBreaker(final String member, final Managed mgmt)
+    {
+        this.member = member;
+        this.threshold = mgmt == null ? 5 : Math.max(1, mgmt.failureThreshold());
+        this.coolDownNanos = TimeUnit.MILLISECONDS.toNanos(mgmt == null ? 30000L : mgmt.coolDown());
+        this.openException = new MBeanException(new OpenException(member), "Circuit open for " + member);
+    }
+
+    /**
+     * Fail fast while the breaker is open, once the cool down has passed a single caller is let through
+     *
+     * @throws MBeanException the preallocated exception if the member must not be called
+     */
+    public void check() throws MBeanException
+    {
+        if (open && (System.nanoTime() - openUntil < 0 || !trial.compareAndSet(false, true)))
+        {
+            throw openException;
+        }
+    }
+
+    /**
+     * Record a successful call, closing the breaker
+     */
+    public void success()
+    {
+        // plain reads first, the common case writes nothing
+        if (consecutiveFailures.get() != 0)
+        {
+            consecutiveFailures.set(0);
+        }
+
+        if (open)
+        {
+            open = false;
+            trial.set(false);
+        }
+    }
+
+    /**
+     * Record a call that failed on its caller's input, e.g. an IllegalArgumentException of an operation.<br />
+     * It counts neither way, while half open the next call is let through instead.
+     */
+    public void rejected()
+    {
+        trial.set(false);
+    }
+
+    /**
+     * Record a failed call, opening the breaker at the threshold
+     *
+     * @param log     Logger to report the failure to, null to only count it
+     * @param action  What failed, e.g. "Error getting attribute"
+     * @param failure Exception thrown by the member
+     */
+    public void failure(final Logger log, final String action, final Throwable failure)
+    {
+        failures.incrementAndGet();
+        if (consecutiveFailures.incrementAndGet() >= threshold)
+        {
+            openUntil = System.nanoTime() + coolDownNanos;
+            open = true;
+            trial.set(false);
+        }
+
+        if (log == null)
+        {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        final long next = nextLog.get();
+        if (now >= next && nextLog.compareAndSet(next, now + LOG_INTERVAL))
+        {
+            final long count = suppressed.getAndSet(0);
+            log.error(action + ": " + member + (count == 0 ? "" : " (" + count + " similar failures not logged)"), failure);
+        }
+        else
+        {
+            suppressed.incrementAndGet();
+        }
+    }
+
+    public long getFailures()
+    {
+        return failures.get();
+    }
+
+    public int getConsecutiveFailures()
+    {
+        return consecutiveFailures.get();
+    }
+
+    /**
+     * @return CLOSED, OPEN or HALF_OPEN once the cool down has passed
+     */
+    public String getState()
+    {
+        if (!open)
+        {
+            return CLOSED;
+        }
+
+        return System.nanoTime() - openUntil < 0 ? OPEN : HALF_OPEN;
+    }
+
+    /**
+     * @return a row for every member of the registered MBeans that has failed at least once
+     */
+    /*package*/ static TabularData health() throws OpenDataException
+    {
+        final TabularDataSupport health = new TabularDataSupport(HEALTH_TYPE);
+        for (final Registration registration : ManagementProcessor.registrations())
+        {
+            if (!(registration.getMbean() instanceof DynamicManagementMBean))
+            {
+                continue;
+            }
+
+            final ObjectName objectName = registration.getObjectName();
+            for (final Map.Entry<String, CircuitBreaker> entry : ((DynamicManagementMBean) registration.getMbean()).getBreakers().entrySet())
+            {
+                final CircuitBreaker breaker = entry.getValue();
+                if (breaker.getFailures() > 0)
+                {
+                    health.put(new CompositeDataSupport(HEALTH_TYPE.getRowType(), HEALTH_ITEMS, new Object[]{
+                            objectName.toString(), entry.getKey(), breaker.getFailures(), breaker.getConsecutiveFailures(),
+                            breaker.getState()}));
+                }
+            }
+        }
+        return health;
+    }
+
+    /**
+     * Cause of the preallocated exception, without a stack trace
+     */
+    /*package*/ static final class OpenException extends Exception
+    {
+        private static final long serialVersionUID = 1L;
+
+        private OpenException(final String member)
+        {
+            super("Failing repeatedly, not called until the cool down has passed: " + member, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.openmbean.ArrayType;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * A Collection or Map attribute exposed as a summary plus paged access, see {@link Managed#summarize()}.<br />
+ * The attribute reads as its size and the first few elements, the elements are read through the generated
+ * &lt;name&gt;Page(offset, limit) operation. Every copy is bounded by {@link #MAX_PAGE} elements, elements are rendered
+ * as Strings so any collection fits the open types, and a collection modified while it is walked is walked again.
+ */
+/*package*/ final class CollectionAttribute
+{
+    /*package*/ static final String PAGE_SUFFIX = "Page";
+
+    /**
+     * Most elements returned by one page, or included in a summary
+     */
+    /*package*/ static final int MAX_PAGE = 1000;
+
+    private static final int ATTEMPTS = 3;
+
+    private static final String SIZE = "size";
+    private static final String HEAD = "head";
+    private static final String INDEX = "index";
+    private static final String KEY = "key";
+    private static final String VALUE = "value";
+
+    /*package*/ static final CompositeType SUMMARY_TYPE;
+    private static final TabularType LIST_PAGE_TYPE;
+    private static final TabularType MAP_PAGE_TYPE;
+
+    static
+    {
+        try
+        {
+            SUMMARY_TYPE = new CompositeType("CollectionSummary", "Size and first elements of a collection",
+                    new String[]{SIZE, HEAD}, new String[]{"Number of elements", "First elements"},
+                    new OpenType<?>[]{SimpleType.INTEGER, new ArrayType<String[]>(1, SimpleType.STRING)});
+
+            final CompositeType listRow = new CompositeType("CollectionElement", "Element of a collection",
+                    new String[]{INDEX, VALUE}, new String[]{"Position", "Element"},
+                    new OpenType<?>[]{SimpleType.INTEGER, SimpleType.STRING});
+            LIST_PAGE_TYPE = new TabularType("CollectionPage", "Page of a collection", listRow, new String[]{INDEX});
+
+            final CompositeType mapRow = new CompositeType("MapEntry", "Entry of a map",
+                    new String[]{INDEX, KEY, VALUE}, new String[]{"Position", "Key", "Value"},
+                    new OpenType<?>[]{SimpleType.INTEGER, SimpleType.STRING, SimpleType.STRING});
+            MAP_PAGE_TYPE = new TabularType("MapPage", "Page of a map", mapRow, new String[]{INDEX});
+        }
+        catch (OpenDataException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    final String attribute;
+    final boolean map;
+    final int head;
+
+    public CollectionAttribute(final String attribute, final Class<?> type, final int head)
+    {
+        this.attribute = attribute;
+        this.map = Map.class.isAssignableFrom(type);
+        this.head = Math.max(0, Math.min(head, MAX_PAGE));
+    }
+
+    /**
+     * @param type Type of the attribute
+     * @return true if the attribute holds a Collection or a Map
+     */
+    public static boolean isCollection(final Class<?> type)
+    {
+        return Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type);
+    }
+
+    /**
+     * @return the name of the generated page operation
+     */
+    public String getPageOperation()
+    {
+        return attribute + PAGE_SUFFIX;
+    }
+
+    public MBeanAttributeInfo attributeInfo(final String description)
+    {
+        return new MBeanAttributeInfo(attribute, CompositeData.class.getName(), description, true, false, false);
+    }
+
+    public MBeanOperationInfo operationInfo()
+    {
+        final MBeanParameterInfo[] signature = {
+                new MBeanParameterInfo("offset", Integer.TYPE.getName(), "Position of the first element"),
+                new MBeanParameterInfo("limit", Integer.TYPE.getName(), "Most elements to return, at most " + MAX_PAGE)};
+        return new MBeanOperationInfo(getPageOperation(), "Page of the elements of " + attribute, signature, TabularData.class.getName(), MBeanOperationInfo.INFO);
+    }
+
+    /**
+     * @param value Current value of the attribute
+     * @return the size and first elements, null if the value is null
+     */
+    public CompositeData summarize(final Object value) throws OpenDataException
+    {
+        if (value == null)
+        {
+            return null;
+        }
+
+        final int size = map ? ((Map<?, ?>) value).size() : ((Collection<?>) value).size();
+        final List<Object[]> elements = head == 0 ? new ArrayList<Object[]>() : copy(value, 0, head);
+
+        final String[] first = new String[elements.size()];
+        for (int i = 0; i < first.length; i++)
+        {
+            final Object[] element = elements.get(i);
+            first[i] = map ? element[0] + "=" + element[1] : String.valueOf(element[0]);
+        }
+
+        return new CompositeDataSupport(SUMMARY_TYPE, new String[]{SIZE, HEAD}, new Object[]{size, first});
+    }
+
+    /**
+     * @param value  Current value of the attribute
+     * @param offset Position of the first element
+     * @param limit  Most elements to return
+     * @return the elements from offset, at most limit and at most {@link #MAX_PAGE} of them
+     */
+    public TabularData page(final Object value, final int offset, final int limit) throws OpenDataException
+    {
+        final TabularType type = map ? MAP_PAGE_TYPE : LIST_PAGE_TYPE;
+        final TabularDataSupport page = new TabularDataSupport(type);
+        if (value == null || offset < 0 || limit <= 0)
+        {
+            return page;
+        }
+
+        final List<Object[]> elements = copy(value, offset, Math.min(limit, MAX_PAGE));
+        for (int i = 0; i < elements.size(); i++)
+        {
+            final Object[] element = elements.get(i);
+            if (map)
+            {
+                page.put(new CompositeDataSupport(type.getRowType(), new String[]{INDEX, KEY, VALUE},
+                        new Object[]{offset + i, String.valueOf(element[0]), String.valueOf(element[1])}));
+            }
+            else
+            {
+                page.put(new CompositeDataSupport(type.getRowType(), new String[]{INDEX, VALUE}, new Object[]{offset + i, String.valueOf(element[0])}));
+            }
+        }
+
+        return page;
+    }
+
+    /**
+     * Copy at most limit elements from offset, walking the collection again if it was modified while being walked
+     */
+    private List<Object[]> copy(final Object value, final int offset, final int limit)
+    {
+        for (int attempt = 1; ; attempt++)
+        {
+            try
+            {
+                if (value instanceof List && value instanceof RandomAccess)
+                {
+                    return copyList((List<?>) value, offset, limit);
+                }
+
+                final Iterator<?> it = map ? ((Map<?, ?>) value).entrySet().iterator() : ((Collection<?>) value).iterator();
+                return copy(it, offset, limit);
+            }
+            catch (ConcurrentModificationException e)
+            {
+                if (attempt == ATTEMPTS)
+                {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private static List<Object[]> copyList(final List<?> list, final int offset, final int limit)
+    {
+        final List<Object[]> elements = new ArrayList<Object[]>(Math.min(limit, Math.max(0, list.size() - offset)));
+        try
+        {
+            for (int i = offset; i < offset + limit && i < list.size(); i++)
+            {
+                elements.add(new Object[]{list.get(i)});
+            }
+        }
+        catch (IndexOutOfBoundsException e)
+        {
+            // the list shrank under us, keep what was read
+        }
+        return elements;
+    }
+
+    private List<Object[]> copy(final Iterator<?> it, final int offset, final int limit)
+    {
+        for (int skipped = 0; skipped < offset && it.hasNext(); skipped++)
+        {
+            it.next();
+        }
+
+        final List<Object[]> elements = new ArrayList<Object[]>();
+        while (elements.size() < limit && it.hasNext())
+        {
+            final Object next = it.next();
+            if (map)
+            {
+                final Map.Entry<?, ?> entry = (Map.Entry<?, ?>) next;
+                elements.add(new Object[]{entry.getKey(), entry.getValue()});
+            }
+            else
+            {
+                elements.add(new Object[]{next});
+            }
+        }
+        return elements;
+    }
+}
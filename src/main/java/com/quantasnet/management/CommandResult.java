@@ -0,0 +1,117 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import java.io.Serializable;
+
+/**
+ * Outcome of one {@link ManagementCommand} of a batch, either the value it returned, the error it failed with, or
+ * skipped when an earlier command failed and the batch stops on errors<br />
+ * The error is kept as text, the client may not have the classes of the exception.
+ *
+ * @author Quantas
+ */
+public final class CommandResult implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private final ManagementCommand command;
+    private final Object value;
+    private final String error;
+    private final boolean skipped;
+
+    private CommandResult(final ManagementCommand command, final Object value, final String error, final boolean skipped)
+    {
+        this.command = command;
+        this.value = value;
+        this.error = error;
+        this.skipped = skipped;
+    }
+
+    /*package*/ static CommandResult success(final ManagementCommand command, final Object value)
+    {
+        return new CommandResult(command, value, null, false);
+    }
+
+    /*package*/ static CommandResult failure(final ManagementCommand command, final Exception e)
+    {
+        // report the exception of the MBean, not the layers of JMX wrapping it
+        Throwable cause = e;
+        while (cause.getCause() != null)
+        {
+            cause = cause.getCause();
+        }
+
+        return new CommandResult(command, null, cause.getClass().getName() + ": " + cause.getMessage(), false);
+    }
+
+    /*package*/ static CommandResult skipped(final ManagementCommand command)
+    {
+        return new CommandResult(command, null, null, true);
+    }
+
+    public ManagementCommand getCommand()
+    {
+        return command;
+    }
+
+    /**
+     * @return the attribute value or operation result, null for writes and failures
+     */
+    public Object getValue()
+    {
+        return value;
+    }
+
+    /**
+     * @return the error the command failed with, null if it did not fail
+     */
+    public String getError()
+    {
+        return error;
+    }
+
+    /**
+     * @return true if the command ran without error
+     */
+    public boolean isSuccessful()
+    {
+        return error == null && !skipped;
+    }
+
+    /**
+     * @return true if the command did not run because an earlier command failed
+     */
+    public boolean isSkipped()
+    {
+        return skipped;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "CommandResult[" + command + (skipped ? " skipped" : error == null ? " = " + value : " failed: " + error) + "]";
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.quantasnet.management;
+
+import javax.management.MBeanAttributeInfo;
+import java.util.Collections;
+
+/**
+ * A component of the record held by a {@link ManagedConfig}, the config stands in for the object's field so reads
+ * and writes ignore the instance
+ */
+/*package*/ final class ConfigAttribute extends AttributeWithMethods
+{
+    final ManagedConfig<?> config;
+    final int component;
+    final Class<?> type;
+
+    public ConfigAttribute(final MBeanAttributeInfo mbeanAttribute, final ManagedConfig<?> config, final int component, final Class<?> type)
+    {
+        super(mbeanAttribute);
+        this.config = config;
+        this.component = component;
+        this.type = type;
+    }
+
+    public ManagedConfig<?> getConfig()
+    {
+        return config;
+    }
+
+    /**
+     * @return the name of the record component, the attribute name is prefixed with the name of the field
+     */
+    public String getComponentName()
+    {
+        return config.getComponents()[component].getName();
+    }
+
+    @Override
+    public Object read(final Object objInstance) throws Exception
+    {
+        return config.read(component);
+    }
+
+    /**
+     * Publish new settings with only this component changed, see DynamicManagementMBean.setAttributes for changing
+     * several together
+     */
+    @Override
+    public void write(final Object objInstance, final Object value) throws Exception
+    {
+        config.update(Collections.singletonMap(getComponentName(), convert(value)));
+    }
+
+    @Override
+    public boolean isRestorable()
+    {
+        return true;
+    }
+
+    @Override
+    public Object current(final Object objInstance) throws Exception
+    {
+        return config.read(component);
+    }
+
+    @Override
+    protected Class<?> getType()
+    {
+        return type;
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Holding class for a source of dynamic attributes, either a @Managed(dynamic = true) method or a
+ * ManagedAttributeProvider implementation
+ */
+/*package*/ class DynamicAttributeSource
+{
+    final Method method;
+    final ManagedExecutor executor;
+
+    public DynamicAttributeSource(final Method method, final ManagedExecutor executor)
+    {
+        this.method = method;
+        this.executor = executor;
+
+        if (method != null)
+        {
+            method.setAccessible(true);
+        }
+    }
+
+    /**
+     * Read the current attributes from the source
+     *
+     * @param objInstance Instance of the managed object
+     * @return Map of attribute name to value, never null
+     * @throws Exception if the source could not be read
+     */
+    public Map<String, ?> read(final Object objInstance) throws Exception
+    {
+        if (executor == null)
+        {
+            return readDirect(objInstance);
+        }
+
+        return executor.call(objInstance, new Callable<Map<String, ?>>()
+        {
+            public Map<String, ?> call() throws Exception
+            {
+                return readDirect(objInstance);
+            }
+        });
+    }
+
+    /**
+     * Read one attribute from the source, a ManagedAttributeProvider may do so without building all of its attributes
+     *
+     * @param objInstance Instance of the managed object
+     * @param attribute   Name of the attribute
+     * @return the value of the attribute, null if the source does not have it
+     * @throws Exception if the source could not be read
+     */
+    public Object read(final Object objInstance, final String attribute) throws Exception
+    {
+        if (method != null)
+        {
+            return read(objInstance).get(attribute);
+        }
+
+        if (executor == null)
+        {
+            return ((ManagedAttributeProvider) objInstance).getManagedAttribute(attribute);
+        }
+
+        return executor.call(objInstance, new Callable<Object>()
+        {
+            public Object call()
+            {
+                return ((ManagedAttributeProvider) objInstance).getManagedAttribute(attribute);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, ?> readDirect(final Object objInstance) throws Exception
+    {
+        final Map<String, ?> values;
+
+        if (method == null)
+        {
+            values = ((ManagedAttributeProvider) objInstance).getManagedAttributes();
+        }
+        else
+        {
+            values = (Map<String, ?>) method.invoke(objInstance);
+        }
+
+        if (values == null)
+        {
+            return Collections.emptyMap();
+        }
+
+        return values;
+    }
+}
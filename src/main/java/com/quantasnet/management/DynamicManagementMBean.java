@@ -1,668 +1,2440 @@
-/**
- * The MIT License (MIT)
- *
- * Copyright (c) 2013 Andrew Landsverk
- *
- * Permission is hereby granted, free of charge, to any person obtaining a copy
- * of this software and associated documentation files (the "Software"), to deal
- * in the Software without restriction, including without limitation the rights
- * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
- * copies of the Software, and to permit persons to whom the Software is
- * furnished to do so, subject to the following conditions:
- *
- * The above copyright notice and this permission notice shall be included in
- * all copies or substantial portions of the Software.
- *
- * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
- * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
- * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
- * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
- * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
- * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
- * THE SOFTWARE.
- */
-
-package com.quantasnet.management;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import javax.management.Attribute;
-import javax.management.AttributeList;
-import javax.management.AttributeNotFoundException;
-import javax.management.DynamicMBean;
-import javax.management.IntrospectionException;
-import javax.management.InvalidAttributeValueException;
-import javax.management.MBeanAttributeInfo;
-import javax.management.MBeanConstructorInfo;
-import javax.management.MBeanException;
-import javax.management.MBeanInfo;
-import javax.management.MBeanOperationInfo;
-import javax.management.ReflectionException;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
-/**
- * This class takes the object passed in and parses all the @Managed annotations for the constructors/methods/fields<br />
- * Once all the annotations are found it will then build the MBeanInfo object containing the methods/fields/constructors<br />
- * This class should not be used directly, but invoked through the ManagementProcessor's register method, which will call<br />
- * this class to create the object then register it with the PlatformMBeanServer.<br />
- * <br />
- * <p/>
- * TODO class needs some refactoring
- *
- * @author Quantas
- */
-/*package*/ final class DynamicManagementMBean implements DynamicMBean
-{
-    private static final Logger LOG = LoggerFactory.getLogger(DynamicManagementMBean.class);
-
-    private static final String SET = "set";
-    private static final String GET = "get";
-    private static final String IS = "is";
-
-    private Object objInstance;
-    private Class<?> objClass;
-    private MBeanInfo info;
-
-    private MBeanAttributeInfo[] attributes;
-    private MBeanOperationInfo[] operations;
-    private MBeanConstructorInfo[] mgmtConstructors;
-
-    // Notifications are Not Implemented at this time
-    //private MBeanNotificationInfo[] notifications;
-
-    private final Map<String, AttributeWithMethods> attributeMethodMap = new HashMap<String, AttributeWithMethods>();
-
-    private final Map<Method, String> methodMap = new HashMap<Method, String>();
-
-    /**
-     * @param objInstance The instance of the object to be Managed
-     * @param description Description of the object for JMX
-     */
-    public DynamicManagementMBean(final Object objInstance, final String description)
-    {
-        this.objInstance = objInstance;
-
-        objClass = objInstance.getClass();
-
-        final List<Method> methods = getMethods(objClass);
-
-        final Field[] fields = objClass.getDeclaredFields();
-        final Constructor<?>[] constructors = objClass.getDeclaredConstructors();
-
-        attributes = null;
-        operations = null;
-        mgmtConstructors = null;
-
-        createMBeans(methods, fields, constructors);
-
-        info = new MBeanInfo(this.objClass.getName(), description, attributes, mgmtConstructors, operations, null/*notifications*/);
-    }
-
-    public Object getAttribute(final String attribute) throws AttributeNotFoundException, MBeanException, ReflectionException
-    {
-        Object value = null;
-
-        try
-        {
-            boolean foundAttribute = false;
-
-            for (final MBeanAttributeInfo mbeanAttr : attributes)
-            {
-                if (mbeanAttr.getName().equals(attribute))
-                {
-                    foundAttribute = true;
-
-                    if (mbeanAttr.isReadable())
-                    {
-                        for (final Map.Entry<String, AttributeWithMethods> entry : attributeMethodMap.entrySet())
-                        {
-                            final String entryName = entry.getKey();
-                            final AttributeWithMethods attributeWithMethods = entry.getValue();
-
-                            if (entryName.equals(attribute))
-                            {
-                                final Method method = attributeWithMethods.getGetOrIsMethod();
-                                final boolean isAccessible = method.isAccessible();
-                                if (!isAccessible)
-                                {
-                                    method.setAccessible(true);
-                                }
-
-                                value = method.invoke(objInstance, null);
-
-                                method.setAccessible(isAccessible);
-
-                                return value;
-                            }
-                        }
-
-                        //TODO maybe remove the extra reflection here
-                        final Field field = objClass.getDeclaredField(attribute);
-
-                        final boolean isAccessible = field.isAccessible();
-                        if (!isAccessible)
-                        {
-                            field.setAccessible(true);
-                        }
-
-                        value = field.get(objInstance);
-
-                        field.setAccessible(isAccessible);
-                    }
-                    else
-                    {
-                        throw new Exception("Attribute not readable: " + attribute);
-                    }
-                }
-            }
-
-            if (!foundAttribute)
-            {
-                throw new AttributeNotFoundException();
-            }
-        }
-        catch (Exception e)
-        {
-            throw new MBeanException(e);
-        }
-
-        return value;
-    }
-
-    public void setAttribute(final Attribute attribute) throws AttributeNotFoundException, InvalidAttributeValueException, MBeanException, ReflectionException
-    {
-        try
-        {
-            boolean foundAttribute = false;
-
-            boolean alreadySet = false;
-
-            for (final MBeanAttributeInfo mbeanAttr : attributes)
-            {
-                if (mbeanAttr.getName().equals(attribute.getName()))
-                {
-                    foundAttribute = true;
-
-                    if (mbeanAttr.isWritable())
-                    {
-                        for (final Map.Entry<String, AttributeWithMethods> entry : attributeMethodMap.entrySet())
-                        {
-                            final String entryName = entry.getKey();
-                            final AttributeWithMethods attributeWithMethods = entry.getValue();
-
-                            if (entryName.equals(attribute.getName()))
-                            {
-                                final Method method = attributeWithMethods.getSetMethod();
-                                final boolean isAccessible = method.isAccessible();
-                                if (!isAccessible)
-                                {
-                                    method.setAccessible(true);
-                                }
-
-                                method.invoke(objInstance, attribute.getValue());
-
-                                method.setAccessible(isAccessible);
-
-                                alreadySet = true;
-
-                                break;
-                            }
-                        }
-
-                        if (!alreadySet)
-                        {
-                            final Field field = objClass.getDeclaredField(attribute.getName());
-                            final boolean isAccessible = field.isAccessible();
-                            if (!isAccessible)
-                            {
-                                field.setAccessible(true);
-                            }
-
-                            //TODO maybe remove the extra reflection here
-                            field.set(objInstance, attribute.getValue());
-
-                            field.setAccessible(isAccessible);
-                        }
-                    }
-                    else
-                    {
-                        throw new Exception("Attribute not writable: " + attribute.getName());
-                    }
-                }
-            }
-
-            if (!foundAttribute)
-            {
-                throw new AttributeNotFoundException();
-            }
-        }
-        catch (Exception e)
-        {
-            LOG.error("Error setting Attribute", e);
-            throw new MBeanException(e);
-        }
-    }
-
-    public AttributeList getAttributes(final String[] attributes)
-    {
-        final AttributeList values = new AttributeList();
-
-        for (final String attribute : attributes)
-        {
-            try
-            {
-                final Object value = getAttribute(attribute);
-                final Attribute attr = new Attribute(attribute, value);
-
-                values.add(attr);
-            }
-            catch (Exception e)
-            {
-                LOG.error("Error getting attribute: " + attribute, e);
-            }
-        }
-
-        return values;
-    }
-
-    public AttributeList setAttributes(final AttributeList attributes)
-    {
-        final AttributeList retList = new AttributeList();
-
-        for (final Object attr : attributes)
-        {
-            try
-            {
-                setAttribute((Attribute) attr);
-                retList.add(getAttribute(((Attribute) attr).getName()));
-            }
-            catch (Exception e)
-            {
-                LOG.error("Error setting attribute: " + attr, e);
-            }
-        }
-
-
-        return retList;
-    }
-
-    public Object invoke(final String actionName, final Object[] params, final String[] signature) throws MBeanException, ReflectionException
-    {
-        Object retVal = null;
-
-        boolean foundMethod = false;
-
-        for (final MBeanOperationInfo mbOperInfo : operations)
-        {
-            if (mbOperInfo.getName().equals(actionName))
-            {
-                foundMethod = true;
-
-                try
-                {
-                    int paramCount = 0;
-
-                    final Class<?>[] paramClazzes = getParamClasses(params, signature, paramCount);
-
-                    Method method = null;
-
-                    for (final Map.Entry<Method, String> entry : methodMap.entrySet())
-                    {
-                        final Method mapMethod = entry.getKey();
-                        final Class<?>[] mapMethodParams = mapMethod.getParameterTypes();
-                        if (actionName.equals(entry.getValue()) && mapMethodParams.length == paramClazzes.length)
-                        {
-                            boolean correctMethod = true;
-                            // we found a method with same name and same param count
-                            // double check it is the correct method
-                            for (int i = 0; i < mapMethodParams.length; i++)
-                            {
-                                if (!(mapMethodParams[i] == paramClazzes[i]))
-                                {
-                                    correctMethod = false;
-                                    break;
-                                }
-                            }
-
-                            if (correctMethod)
-                            {
-                                method = mapMethod;
-                            }
-                        }
-                    }
-
-                    if (method == null)
-                    {
-                        throw new Exception("Could not find method " + actionName);
-                    }
-                    else
-                    {
-                        method.setAccessible(true);
-                        retVal = method.invoke(objInstance, params);
-                    }
-                }
-                catch (Exception e)
-                {
-                    final String errorText = "Error invoking " + actionName;
-
-                    LOG.error(errorText, e);
-                    throw new MBeanException(e, errorText);
-                }
-            }
-        }
-
-        if (!foundMethod)
-        {
-            final String errorText = "No such method known to JMX: " + actionName;
-
-            final Exception exc = new Exception(errorText);
-            LOG.error(errorText, exc);
-
-            throw new MBeanException(exc);
-        }
-
-        return retVal;
-    }
-
-    public MBeanInfo getMBeanInfo()
-    {
-        return info;
-    }
-
-    ////////////////////////////////////////////////////////
-    //  Private Methods
-    ////////////////////////////////////////////////////////
-
-    /**
-     * TODO this method needs refactoring
-     *
-     * @param methods
-     * @param fields
-     * @param constructors
-     */
-    private void createMBeans(final List<Method> methods, final Field[] fields, final Constructor<?>[] constructors)
-    {
-        final List<MBeanAttributeInfo> attrList = new ArrayList<MBeanAttributeInfo>();
-        final List<MBeanOperationInfo> operList = new ArrayList<MBeanOperationInfo>();
-        final List<MBeanConstructorInfo> consList = new ArrayList<MBeanConstructorInfo>();
-
-        final List<String> methodAttr = new ArrayList<String>();
-
-        //Parse the annotations for all the methods
-        for (final Method method : methods)
-        {
-            final Managed mgmt = method.getAnnotation(Managed.class);
-            if (mgmt != null)
-            {
-                if (checkGetSetIs(method))
-                {
-                    final String attributeName = getAttributeNameFromMethod(method);
-
-                    if (!methodAttr.contains(attributeName))
-                    {
-                        Method first = null;
-                        final Method other = findOtherMethod(attributeName, method, methods);
-
-                        final String methodName = method.getName();
-
-                        boolean firstGetter = false;
-
-                        if (methodName.startsWith(GET) || methodName.startsWith(IS) && mgmt.readable())
-                        {
-                            firstGetter = true;
-                            first = method;
-                        }
-                        else if (methodName.startsWith(SET))
-                        {
-                            first = method;
-                        }
-
-                        if (other != null && (other.getName().startsWith(GET) || other.getName().startsWith(IS)))
-                        {
-                            firstGetter = false;
-                        }
-
-                        try
-                        {
-                            MBeanAttributeInfo attrInfo = null;
-                            AttributeWithMethods attributeWithMethods = null;
-
-                            if (firstGetter)
-                            {
-                                attrInfo = new MBeanAttributeInfo(attributeName, mgmt.description(), first, other);
-                                attributeWithMethods = new AttributeWithMethods(attrInfo, first, other);
-                            }
-                            else
-                            {
-                                attrInfo = new MBeanAttributeInfo(attributeName, mgmt.description(), other, first);
-                                attributeWithMethods = new AttributeWithMethods(attrInfo, other, first);
-                            }
-
-                            attributeMethodMap.put(attributeName, attributeWithMethods);
-                            attrList.add(attrInfo);
-                            methodAttr.add(attributeName);
-                        }
-                        catch (IntrospectionException ie)
-                        {
-                            LOG.error("Error creating attribute from get/set/is methods for " + attributeName, ie);
-                        }
-                    }
-                }
-                else
-                {
-                    operList.add(new MBeanOperationInfo(mgmt.description(), method));
-                    methodMap.put(method, method.getName());
-                }
-            }
-        }
-
-        //Parse the annotations for all the fields
-        for (final Field field : fields)
-        {
-            final Managed mgmt = field.getAnnotation(Managed.class);
-            if (mgmt != null)
-            {
-                attrList.add(new MBeanAttributeInfo(field.getName(), field.getType().getName(), mgmt.description(), mgmt.readable(), mgmt.writable(), false));
-            }
-        }
-
-        //Parse the annotations for all the constructors
-        for (final Constructor<?> constructor : constructors)
-        {
-            final Managed mgmt = constructor.getAnnotation(Managed.class);
-            if (mgmt != null)
-            {
-                consList.add(new MBeanConstructorInfo(mgmt.description(), constructor));
-            }
-        }
-
-        if (!attrList.isEmpty())
-        {
-            attributes = new MBeanAttributeInfo[attrList.size()];
-            attrList.toArray(attributes);
-        }
-
-        if (!operList.isEmpty())
-        {
-            operations = new MBeanOperationInfo[operList.size()];
-            operList.toArray(operations);
-        }
-
-        if (!consList.isEmpty())
-        {
-            mgmtConstructors = new MBeanConstructorInfo[consList.size()];
-            consList.toArray(mgmtConstructors);
-        }
-    }
-
-    /**
-     * Find a matching method for a getter/setter/is method, ie, if the first method was a get, find the set.
-     *
-     * @param attributeName Name of the attribute to search for
-     * @param method        Original Method
-     * @param methods       List of all the available Methods
-     * @return Method to match first method, may be null
-     */
-    private Method findOtherMethod(final String attributeName, final Method method, final List<Method> methods)
-    {
-        final String methodName = method.getName();
-
-        boolean needSet = methodName.startsWith(GET) || methodName.startsWith(IS);
-
-        for (final Method listMethod : methods)
-        {
-            final Managed mgmt = listMethod.getAnnotation(Managed.class);
-
-            if (mgmt != null)
-            {
-                final String listMethodName = listMethod.getName();
-
-                boolean foundCorrectMethod = false;
-
-                if (needSet && listMethodName.startsWith(SET))
-                {
-                    foundCorrectMethod = true;
-                }
-                else if (!needSet && (listMethodName.startsWith(GET) || listMethodName.startsWith(IS)))
-                {
-                    foundCorrectMethod = true;
-                }
-
-                if (foundCorrectMethod)
-                {
-                    final String listAttributeName = getAttributeNameFromMethod(listMethod);
-                    if (listAttributeName.equals(attributeName))
-                    {
-                        // do some real logic, lol
-                        if ((listMethodName.startsWith(GET) || listMethodName.startsWith(IS)) && mgmt.readable())
-                        {
-                            return listMethod;
-                        }
-                        else if ((listMethodName.startsWith(SET)))
-                        {
-                            return listMethod;
-                        }
-                    }
-                }
-            }
-        }
-
-        return null;
-    }
-
-    /**
-     * Return the attribute name from a getter/setter/is method
-     *
-     * @param method Method to check
-     * @return String attribute name
-     */
-    private String getAttributeNameFromMethod(final Method method)
-    {
-        final String methodName = method.getName();
-
-        String retString;
-
-        if (methodName.startsWith(GET) || methodName.startsWith(SET))
-        {
-            retString = methodName.substring(3);
-        }
-        else
-        {
-            // assume startsWith "is"
-            retString = methodName.substring(2);
-        }
-
-        return retString.substring(0, 1).toLowerCase() + retString.substring(1);
-    }
-
-    private boolean checkGetSetIs(final Method method)
-    {
-        final String methodName = method.getName();
-        return methodName.startsWith(GET) || methodName.startsWith(SET) || methodName.startsWith(IS);
-    }
-
-    /**
-     * Get the parameter classes, including support for primitives
-     *
-     * @param params
-     * @param signature
-     * @param paramCount
-     * @return
-     * @throws ClassNotFoundException
-     */
-    private Class<?>[] getParamClasses(Object[] params, String[] signature, int paramCount) throws ClassNotFoundException
-    {
-        final Class<?>[] paramClazzes = new Class<?>[params.length];
-
-        for (final String param : signature)
-        {
-            if ("boolean".equals(param))
-            {
-                paramClazzes[paramCount] = Boolean.TYPE;
-            }
-            else if ("int".equals(param))
-            {
-                paramClazzes[paramCount] = Integer.TYPE;
-            }
-            else if ("char".equals(param))
-            {
-                paramClazzes[paramCount] = Character.TYPE;
-            }
-            else if ("long".equals(param))
-            {
-                paramClazzes[paramCount] = Long.TYPE;
-            }
-            else if ("double".equals(param))
-            {
-                paramClazzes[paramCount] = Double.TYPE;
-            }
-            else if ("float".equals(param))
-            {
-                paramClazzes[paramCount] = Float.TYPE;
-            }
-            else if ("byte".equals(param))
-            {
-                paramClazzes[paramCount] = Byte.TYPE;
-            }
-            else
-            {
-                paramClazzes[paramCount] = Class.forName(param);
-            }
-
-            paramCount++;
-        }
-
-        return paramClazzes;
-    }
-
-    /**
-     * We also want methods from parent classes that may be annotated,
-     * so we recurse through the class's hierarchy until we are at the top,
-     * meaning Object
-     *
-     * @param objClass
-     * @return
-     */
-    private List<Method> getMethods(final Class<?> objClass)
-    {
-        final List<Method> retMethods = new ArrayList<Method>();
-
-        if (!(objClass == Object.class))
-        {
-            retMethods.addAll(Arrays.asList(objClass.getDeclaredMethods()));
-
-            // recurse until objClass == Object.class
-            retMethods.addAll(getMethods(objClass.getSuperclass()));
-        }
-
-        return retMethods;
-    }
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.Descriptor;
+import javax.management.DynamicMBean;
+import javax.management.ImmutableDescriptor;
+import javax.management.IntrospectionException;
+import javax.management.JMException;
+import javax.management.InvalidAttributeValueException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanConstructorInfo;
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanRegistration;
+import javax.management.MBeanServer;
+import javax.management.Notification;
+import javax.management.NotificationBroadcasterSupport;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import javax.management.monitor.MonitorNotification;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenMBeanAttributeInfoSupport;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.RecordComponent;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class takes the object passed in and parses all the @Managed annotations for the constructors/methods/fields<br />
+ * Once all the annotations are found it will then build the MBeanInfo object containing the methods/fields/constructors<br />
+ * This class should not be used directly, but invoked through the ManagementProcessor's register method, which will call<br />
+ * this class to create the object then register it with the PlatformMBeanServer.<br />
+ * <br />
+ * Any number of threads may get, set and invoke concurrently: the attribute and operation maps are built by the
+ * constructor and not modified after it, fields and methods are made accessible once, and dynamic attributes are
+ * replaced copy-on-write. Calls reach the managed object concurrently unless it names an executor or a lock, see
+ * {@link Managed#executor()} and {@link Managed#lock()}. The jcstress module holds the stress tests of this model.<br />
+ * <br />
+ * <p/>
+ * TODO class needs some refactoring
+ *
+ * @author Quantas
+ */
+/*package*/ final class DynamicManagementMBean implements DynamicMBean, NotificationEmitter, MBeanRegistration
+{
+    private static final Logger LOG = LoggerFactory.getLogger(DynamicManagementMBean.class);
+
+    private static final String SET = "set";
+    private static final String GET = "get";
+    private static final String IS = "is";
+
+    /**
+     * Optimistic reads of an attribute group given up on before the read fails, readers never block writers
+     */
+    private static final int GROUP_READ_ATTEMPTS = 100;
+
+    /**
+     * Standard notification type sent when the MBeanInfo of an MBean changes
+     */
+    /*package*/ static final String INFO_CHANGED = "jmx.mbean.info.changed";
+
+    // exactly one of them is set, weak for instances registered by the ManagementAgent
+    private final Object objInstance;
+    private final WeakReference<Object> weakInstance;
+    private Class<?> objClass;
+    private String description;
+    private volatile MBeanInfo info;
+    private volatile ObjectName objectName;
+
+    private MBeanAttributeInfo[] attributes;
+    private MBeanOperationInfo[] operations;
+    private MBeanConstructorInfo[] mgmtConstructors;
+    private volatile MBeanNotificationInfo[] notifications;
+
+    // how setAttributes applies a batch, see Managed#transactional() and Managed#lock()
+    private boolean transactional;
+    private ManagedLock writeLock;
+
+    private final Map<String, AttributeWithMethods> attributeMethodMap = new HashMap<String, AttributeWithMethods>();
+
+    private final Map<Method, String> methodMap = new HashMap<Method, String>();
+
+    private final Map<String, ManagedExecutor> attributeExecutors = new HashMap<String, ManagedExecutor>();
+
+    private final Map<Method, ManagedExecutor> operationExecutors = new HashMap<Method, ManagedExecutor>();
+
+    private final Set<String> staticAttributeNames = new HashSet<String>();
+
+    private final List<DynamicAttributeSource> dynamicSources = new ArrayList<DynamicAttributeSource>();
+
+    // copy-on-write, replaced as a whole by refreshDynamicAttributes
+    private volatile Map<String, DynamicAttributeSource> dynamicAttributeMap = Collections.emptyMap();
+
+    // how often the dynamic sources are read for new and removed keys, unless they signal a change
+    private static final long REFRESH_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private volatile long lastRefresh;
+    private volatile boolean dynamicChanged;
+
+    // only touched while holding the lock in refreshDynamicAttributes
+    private final Map<String, MBeanAttributeInfo> dynamicInfos = new LinkedHashMap<String, MBeanAttributeInfo>();
+
+    private final List<Threshold> thresholds = new CopyOnWriteArrayList<Threshold>();
+
+    private final List<RateAttribute> rates = new ArrayList<RateAttribute>();
+
+    // derived attribute name -> counter
+    private final Map<String, RateAttribute> rateAttributes = new HashMap<String, RateAttribute>();
+    private final Map<String, RateAttribute> deltaAttributes = new HashMap<String, RateAttribute>();
+
+    // name of a timed method -> its timer, exposed once per class by a TimerMBean
+    private final Map<String, MethodTimer> timers = new LinkedHashMap<String, MethodTimer>();
+
+    // attribute name -> group it is read with, see Managed#group()
+    private final Map<String, AttributeGroup> attributeGroups = new HashMap<String, AttributeGroup>();
+
+    // attribute name -> summarized collection, and page operation name -> the same collection
+    private final Map<String, CollectionAttribute> collectionAttributes = new HashMap<String, CollectionAttribute>();
+    private final Map<String, CollectionAttribute> pageOperations = new HashMap<String, CollectionAttribute>();
+
+    // attribute name or dynamic source bound to an executor -> its last value read for the samplers, see sample
+    private final ConcurrentMap<Object, OwnedSample> ownedSamples = new ConcurrentHashMap<Object, OwnedSample>();
+
+    // failure accounting of every static attribute and operation, see Managed#failureThreshold()
+    private final Map<String, CircuitBreaker> attributeBreakers = new HashMap<String, CircuitBreaker>();
+    private final Map<Method, CircuitBreaker> operationBreakers = new HashMap<Method, CircuitBreaker>();
+
+    // read-only attributes and operation results returned as open data, see OpenTypeConverter
+    private final Map<String, OpenTypeConverter> attributeConverters = new HashMap<String, OpenTypeConverter>();
+    private final Map<Method, OpenTypeConverter> operationConverters = new HashMap<Method, OpenTypeConverter>();
+
+    // field name -> lazily registered child MBean
+    private final Map<String, ChildAttribute> childAttributes = new LinkedHashMap<String, ChildAttribute>();
+
+    private volatile boolean registered;
+
+    private volatile AttributeVersions versions;
+
+    private final NotificationBroadcasterSupport broadcaster = new NotificationBroadcasterSupport();
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * @param objInstance The instance of the object to be Managed
+     * @param description Description of the object for JMX
+     */
+    public DynamicManagementMBean(final Object objInstance, final String description)
+    {
+        this(objInstance, description, false);
+    }
+
+    /**
+     * @param obj         The instance of the object to be Managed
+     * @param description Description of the object for JMX
+     * @param weak        true to not keep the instance from being garbage collected
+     */
+    /*package*/ DynamicManagementMBean(final Object obj, final String description, final boolean weak)
+    {
+        this.objInstance = weak ? null : obj;
+        this.weakInstance = weak ? new WeakReference<Object>(obj) : null;
+        this.description = description;
+
+        objClass = obj.getClass();
+
+        final List<Method> methods = getMethods(objClass);
+
+        final Field[] fields = objClass.getDeclaredFields();
+        final Constructor<?>[] constructors = objClass.getDeclaredConstructors();
+
+        attributes = null;
+        operations = null;
+        mgmtConstructors = null;
+
+        createMBeans(methods, fields, constructors);
+
+        notifications = buildNotifications();
+
+        info = new MBeanInfo(this.objClass.getName(), description, attributes, mgmtConstructors, operations, notifications);
+
+        refreshDynamicAttributes();
+    }
+
+    /**
+     * @return the managed instance
+     * @throws IllegalStateException if a weakly registered instance was garbage collected
+     */
+    private Object instance()
+    {
+        if (weakInstance == null)
+        {
+            return objInstance;
+        }
+
+        final Object obj = weakInstance.get();
+        if (obj == null)
+        {
+            throw new IllegalStateException("Managed instance was garbage collected: " + objectName);
+        }
+        return obj;
+    }
+
+    public Object getAttribute(final String attribute) throws AttributeNotFoundException, MBeanException, ReflectionException
+    {
+        if (!AttributeEvent.enabled())
+        {
+            return getAttributeInternal(attribute);
+        }
+
+        final AttributeEvent event = new AttributeEvent();
+        event.action = AttributeEvent.GET;
+        event.begin();
+
+        Exception failure = null;
+        try
+        {
+            return getAttributeInternal(attribute);
+        }
+        catch (Exception e)
+        {
+            failure = e;
+            throw e;
+        }
+        finally
+        {
+            event.commit(objectName, attribute, failure);
+        }
+    }
+
+    private Object getAttributeInternal(final String attribute) throws AttributeNotFoundException, MBeanException, ReflectionException
+    {
+        final DynamicAttributeSource source = findDynamicAttribute(attribute);
+        if (source != null)
+        {
+            try
+            {
+                return source.read(instance(), attribute);
+            }
+            catch (Exception e)
+            {
+                throw new MBeanException(e);
+            }
+        }
+
+        final CircuitBreaker breaker = attributeBreakers.get(attribute);
+        if (breaker != null)
+        {
+            breaker.check();
+        }
+
+        try
+        {
+            final Object value;
+            final AttributeGroup group = attributeGroups.get(attribute);
+            if (group != null)
+            {
+                value = readGroup(group, Collections.singletonList(attribute)).get(attribute);
+            }
+            else
+            {
+                value = readStatic(attribute);
+            }
+
+            final Object open = toOpenData(attribute, value);
+            if (breaker != null)
+            {
+                breaker.success();
+            }
+            return open;
+        }
+        catch (Exception e)
+        {
+            if (breaker != null)
+            {
+                breaker.failure(LOG, "Error getting attribute", e);
+            }
+            throw new MBeanException(e);
+        }
+    }
+
+    public void setAttribute(final Attribute attribute) throws AttributeNotFoundException, InvalidAttributeValueException, MBeanException, ReflectionException
+    {
+        if (!AttributeEvent.enabled())
+        {
+            setAttributeInternal(attribute);
+            return;
+        }
+
+        final AttributeEvent event = new AttributeEvent();
+        event.action = AttributeEvent.SET;
+        event.begin();
+
+        Exception failure = null;
+        try
+        {
+            setAttributeInternal(attribute);
+        }
+        catch (Exception e)
+        {
+            failure = e;
+            throw e;
+        }
+        finally
+        {
+            event.commit(objectName, attribute.getName(), failure);
+        }
+    }
+
+    private void setAttributeInternal(final Attribute attribute) throws AttributeNotFoundException, InvalidAttributeValueException, MBeanException, ReflectionException
+    {
+        try
+        {
+            final ManagedExecutor executor = attributeExecutors.get(attribute.getName());
+            if (executor == null)
+            {
+                writeAttribute(attribute);
+            }
+            else
+            {
+                executor.call(instance(), new Callable<Object>()
+                {
+                    public Object call() throws Exception
+                    {
+                        writeAttribute(attribute);
+                        return null;
+                    }
+                });
+            }
+
+            // re-read on the calling thread, the sampler may be holding the versions while it waits on the executor
+            final AttributeVersions attributeVersions = versions;
+            if (attributeVersions != null)
+            {
+                attributeVersions.touch(attribute.getName());
+            }
+        }
+        catch (Exception e)
+        {
+            LOG.error("Error setting Attribute", e);
+            throw new MBeanException(e);
+        }
+    }
+
+    public AttributeList getAttributes(final String[] attributes)
+    {
+        final AttributeList values = new AttributeList();
+
+        // attributes of the same group are read together so they are consistent with each other
+        Map<String, Object> grouped = Collections.emptyMap();
+        if (!attributeGroups.isEmpty())
+        {
+            grouped = readGroups(attributes);
+        }
+
+        // each dynamic source is read once for all of its attributes
+        Map<DynamicAttributeSource, Map<String, ?>> dynamicValues = null;
+
+        for (final String attribute : attributes)
+        {
+            final DynamicAttributeSource source = findDynamicAttribute(attribute);
+            if (source != null)
+            {
+                if (dynamicValues == null)
+                {
+                    dynamicValues = new HashMap<DynamicAttributeSource, Map<String, ?>>();
+                }
+
+                try
+                {
+                    Map<String, ?> sourceValues = dynamicValues.get(source);
+                    if (sourceValues == null)
+                    {
+                        sourceValues = source.read(instance());
+                        dynamicValues.put(source, sourceValues);
+                    }
+
+                    if (sourceValues.containsKey(attribute))
+                    {
+                        values.add(new Attribute(attribute, sourceValues.get(attribute)));
+                    }
+                }
+                catch (Exception e)
+                {
+                    dynamicValues.put(source, Collections.<String, Object>emptyMap());
+                    LOG.error("Error reading dynamic attributes of " + objClass.getName(), e);
+                }
+                continue;
+            }
+
+            if (attributeGroups.containsKey(attribute))
+            {
+                if (grouped.containsKey(attribute))
+                {
+                    try
+                    {
+                        values.add(new Attribute(attribute, toOpenData(attribute, grouped.get(attribute))));
+                    }
+                    catch (OpenDataException e)
+                    {
+                        LOG.error("Error converting attribute: " + attribute, e);
+                    }
+                }
+                continue;
+            }
+
+            try
+            {
+                final Object value = getAttribute(attribute);
+                final Attribute attr = new Attribute(attribute, value);
+
+                values.add(attr);
+            }
+            catch (Exception e)
+            {
+                // failures of static attributes are logged, rate limited, by their circuit breaker
+                if (!attributeBreakers.containsKey(attribute))
+                {
+                    LOG.error("Error getting attribute: " + attribute, e);
+                }
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * Validate and convert every value first, then apply the writes together, under the lock and on the executor of the
+     * object when it has them, and read the new values back in the same pass.<br />
+     * A transactional class gets all or nothing: one invalid value rejects the batch and a failing write restores the
+     * attributes already written. Otherwise every valid attribute is written and the invalid ones are left out.
+     */
+    public AttributeList setAttributes(final AttributeList attributes)
+    {
+        final List<AttributeWithMethods> targets = new ArrayList<AttributeWithMethods>(attributes.size());
+        final List<Object> values = new ArrayList<Object>(attributes.size());
+
+        for (final Object attr : attributes)
+        {
+            final Attribute attribute = (Attribute) attr;
+            try
+            {
+                final AttributeWithMethods attributeWithMethods = attributeMethodMap.get(attribute.getName());
+                if (attributeWithMethods == null)
+                {
+                    throw new AttributeNotFoundException(attribute.getName());
+                }
+
+                if (transactional && !attributeWithMethods.isRestorable())
+                {
+                    throw new InvalidAttributeValueException("Write only attribute " + attribute.getName() + " can not be restored");
+                }
+
+                values.add(attributeWithMethods.convert(attribute.getValue()));
+                targets.add(attributeWithMethods);
+            }
+            catch (JMException e)
+            {
+                if (transactional)
+                {
+                    LOG.error("Rejected setting attributes, none were written: " + attributes, e);
+                    return new AttributeList();
+                }
+
+                LOG.error("Error setting attribute: " + attr, e);
+            }
+        }
+
+        if (targets.isEmpty())
+        {
+            return new AttributeList();
+        }
+
+        final AttributeEvent event = AttributeEvent.enabled() ? new AttributeEvent() : null;
+        if (event != null)
+        {
+            event.action = AttributeEvent.SET;
+            event.begin();
+        }
+
+        Exception failure = null;
+        AttributeList written = new AttributeList();
+        try
+        {
+            written = applyWrites(targets, values);
+        }
+        catch (Exception e)
+        {
+            failure = e;
+            LOG.error("Error setting attributes: " + attributes, e);
+        }
+
+        if (event != null)
+        {
+            final StringBuilder names = new StringBuilder();
+            for (final AttributeWithMethods target : targets)
+            {
+                names.append(names.length() == 0 ? "" : ",").append(target.getMbeanAttribute().getName());
+            }
+            event.commit(objectName, names.toString(), failure);
+        }
+
+        final AttributeVersions attributeVersions = versions;
+        if (attributeVersions != null)
+        {
+            for (final Attribute attribute : written.asList())
+            {
+                attributeVersions.touch(attribute.getName());
+            }
+        }
+
+        return written;
+    }
+
+    public Object invoke(final String actionName, final Object[] params, final String[] signature) throws MBeanException, ReflectionException
+    {
+        if (!OperationEvent.enabled())
+        {
+            return invokeInternal(actionName, params, signature);
+        }
+
+        final OperationEvent event = new OperationEvent();
+        event.begin();
+
+        Exception failure = null;
+        try
+        {
+            return invokeInternal(actionName, params, signature);
+        }
+        catch (Exception e)
+        {
+            failure = e;
+            throw e;
+        }
+        finally
+        {
+            event.commit(objectName, actionName, failure);
+        }
+    }
+
+    private Object invokeInternal(final String actionName, final Object[] params, final String[] signature) throws MBeanException, ReflectionException
+    {
+        final CollectionAttribute collection = pageOperations.get(actionName);
+        if (collection != null && params != null && params.length == 2)
+        {
+            return page(collection, params);
+        }
+
+        Object retVal = null;
+
+        boolean foundMethod = false;
+
+        for (final MBeanOperationInfo mbOperInfo : operations)
+        {
+            if (mbOperInfo.getName().equals(actionName))
+            {
+                foundMethod = true;
+                CircuitBreaker breaker = null;
+
+                try
+                {
+                    int paramCount = 0;
+
+                    final Class<?>[] paramClazzes = getParamClasses(params, signature, paramCount);
+
+                    Method method = null;
+
+                    for (final Map.Entry<Method, String> entry : methodMap.entrySet())
+                    {
+                        final Method mapMethod = entry.getKey();
+                        final Class<?>[] mapMethodParams = mapMethod.getParameterTypes();
+                        if (actionName.equals(entry.getValue()) && mapMethodParams.length == paramClazzes.length)
+                        {
+                            boolean correctMethod = true;
+                            // we found a method with same name and same param count
+                            // double check it is the correct method
+                            for (int i = 0; i < mapMethodParams.length; i++)
+                            {
+                                if (!(mapMethodParams[i] == paramClazzes[i]))
+                                {
+                                    correctMethod = false;
+                                    break;
+                                }
+                            }
+
+                            if (correctMethod)
+                            {
+                                method = mapMethod;
+                            }
+                        }
+                    }
+
+                    if (method == null)
+                    {
+                        throw new Exception("Could not find method " + actionName);
+                    }
+                    else
+                    {
+                        breaker = operationBreakers.get(method);
+                        if (breaker != null)
+                        {
+                            breaker.check();
+                        }
+
+                        final ManagedExecutor executor = operationExecutors.get(method);
+                        if (executor == null)
+                        {
+                            retVal = method.invoke(instance(), params);
+                        }
+                        else
+                        {
+                            final Method target = method;
+                            retVal = executor.call(instance(), new Callable<Object>()
+                            {
+                                public Object call() throws Exception
+                                {
+                                    return target.invoke(instance(), params);
+                                }
+                            });
+                        }
+
+                        final OpenTypeConverter converter = operationConverters.get(method);
+                        if (converter != null)
+                        {
+                            retVal = converter.toOpenData(retVal);
+                        }
+
+                        if (breaker != null)
+                        {
+                            breaker.success();
+                        }
+                    }
+                }
+                catch (MBeanException e)
+                {
+                    // the circuit is open
+                    throw e;
+                }
+                catch (Exception e)
+                {
+                    final String errorText = "Error invoking " + actionName;
+
+                    // wrong arguments are the caller's fault, they must not open the breaker for everyone
+                    final Throwable cause = e instanceof InvocationTargetException ? e.getCause() : e;
+                    if (cause instanceof IllegalArgumentException)
+                    {
+                        LOG.debug(errorText, e);
+                        if (breaker != null)
+                        {
+                            breaker.rejected();
+                        }
+                    }
+                    else if (breaker == null)
+                    {
+                        LOG.error(errorText, e);
+                    }
+                    else
+                    {
+                        breaker.failure(LOG, "Error invoking", e);
+                    }
+                    throw new MBeanException(e, errorText);
+                }
+
+                // overloads share the name, the method was picked by its signature above
+                break;
+            }
+        }
+
+        if (!foundMethod)
+        {
+            final String errorText = "No such method known to JMX: " + actionName;
+
+            final Exception exc = new Exception(errorText);
+            LOG.error(errorText, exc);
+
+            throw new MBeanException(exc);
+        }
+
+        return retVal;
+    }
+
+    public MBeanInfo getMBeanInfo()
+    {
+        refreshIfDue();
+        return info;
+    }
+
+    /**
+     * Read the dynamic sources for new and removed keys on the next access, see
+     * {@link ManagementProcessor#dynamicAttributesChanged(Object)}
+     */
+    /*package*/ void dynamicAttributesChanged()
+    {
+        dynamicChanged = true;
+    }
+
+    public void addNotificationListener(final NotificationListener listener, final NotificationFilter filter, final Object handback)
+    {
+        broadcaster.addNotificationListener(listener, filter, handback);
+    }
+
+    public void removeNotificationListener(final NotificationListener listener) throws ListenerNotFoundException
+    {
+        broadcaster.removeNotificationListener(listener);
+    }
+
+    public void removeNotificationListener(final NotificationListener listener, final NotificationFilter filter, final Object handback) throws ListenerNotFoundException
+    {
+        broadcaster.removeNotificationListener(listener, filter, handback);
+    }
+
+    public MBeanNotificationInfo[] getNotificationInfo()
+    {
+        return notifications == null ? new MBeanNotificationInfo[0] : notifications.clone();
+    }
+
+    public ObjectName preRegister(final MBeanServer server, final ObjectName name)
+    {
+        this.objectName = name;
+        return name;
+    }
+
+    public void postRegister(final Boolean registrationDone)
+    {
+        if (registrationDone != null && registrationDone)
+        {
+            registered = true;
+            for (final Threshold threshold : thresholds)
+            {
+                MonitorEngine.INSTANCE.add(threshold);
+            }
+
+            for (final RateAttribute rate : rates)
+            {
+                MonitorEngine.INSTANCE.add(rate);
+            }
+
+            if (ManagementProcessor.isVersionTracking())
+            {
+                // first sampled by the scheduler, registration does not wait on the attributes
+                startVersionTracking(false);
+            }
+        }
+    }
+
+    public void preDeregister()
+    {
+        // no-op
+    }
+
+    public void postDeregister()
+    {
+        registered = false;
+        for (final Threshold threshold : thresholds)
+        {
+            MonitorEngine.INSTANCE.remove(threshold);
+        }
+
+        for (final RateAttribute rate : rates)
+        {
+            MonitorEngine.INSTANCE.remove(rate);
+        }
+
+        stopVersionTracking();
+
+        for (final ChildAttribute child : childAttributes.values())
+        {
+            child.release();
+        }
+    }
+
+    /**
+     * Start tracking attribute versions
+     *
+     * @param sampleNow Take the first sample of the attributes not bound to an executor on the calling thread, so
+     *                  they have a version when this returns
+     */
+    /*package*/ synchronized void startVersionTracking(final boolean sampleNow)
+    {
+        if (versions == null && registered)
+        {
+            final List<String> names = new ArrayList<String>();
+            for (final Map.Entry<String, AttributeWithMethods> entry : attributeMethodMap.entrySet())
+            {
+                if (entry.getValue().getMbeanAttribute().isReadable())
+                {
+                    names.add(entry.getKey());
+                }
+            }
+            names.addAll(rateAttributes.keySet());
+            names.addAll(deltaAttributes.keySet());
+
+            final boolean[] owned = new boolean[names.size()];
+            for (int i = 0; i < owned.length; i++)
+            {
+                owned[i] = attributeExecutors.containsKey(names.get(i));
+            }
+
+            final AttributeVersions attributeVersions = new AttributeVersions(this, names.toArray(new String[names.size()]), owned);
+            if (sampleNow)
+            {
+                attributeVersions.sample();
+            }
+            versions = attributeVersions;
+            MonitorEngine.INSTANCE.add(attributeVersions);
+        }
+    }
+
+    /**
+     * Stop tracking attribute versions, the versions are dropped
+     */
+    /*package*/ synchronized void stopVersionTracking()
+    {
+        final AttributeVersions attributeVersions = versions;
+        if (attributeVersions != null)
+        {
+            MonitorEngine.INSTANCE.remove(attributeVersions);
+            versions = null;
+        }
+    }
+
+    /**
+     * @return the name this MBean was registered under, null before registration
+     */
+    /*package*/ ObjectName getObjectName()
+    {
+        return objectName;
+    }
+
+    /**
+     * @return true while this MBean is registered with the MBeanServer
+     */
+    /*package*/ boolean isRegistered()
+    {
+        return registered;
+    }
+
+    /**
+     * Register the children that have not been registered yet, and theirs
+     */
+    /*package*/ void registerChildren()
+    {
+        for (final ChildAttribute child : childAttributes.values())
+        {
+            try
+            {
+                child.materialize(instance());
+            }
+            catch (Exception e)
+            {
+                LOG.error("Error registering child " + child.attribute, e);
+            }
+
+            final DynamicManagementMBean childMBean = ManagementProcessor.findManagedMBean(child.getChild());
+            if (childMBean != null)
+            {
+                childMBean.registerChildren();
+            }
+        }
+    }
+
+    /**
+     * @return the attribute versions, null if version tracking has not started
+     */
+    /*package*/ AttributeVersions getVersions()
+    {
+        return versions;
+    }
+
+    /**
+     * Watch a readable attribute against a high and a low threshold, see {@link ManagedThreshold}
+     *
+     * @param attribute Name of the attribute
+     * @param high      Value at or above which the attribute is high
+     * @param low       Value at or below which the attribute is low
+     * @param period    How often to check the value in milliseconds
+     */
+    /*package*/ synchronized void addThreshold(final String attribute, final double high, final double low, final long period)
+    {
+        final AttributeWithMethods attributeWithMethods = attributeMethodMap.get(attribute);
+        if (attributeWithMethods == null || !attributeWithMethods.getMbeanAttribute().isReadable())
+        {
+            throw new IllegalArgumentException("No readable attribute " + attribute + " on " + objClass.getName());
+        }
+
+        final Threshold threshold = new Threshold(this, attribute, high, low, period);
+        thresholds.add(threshold);
+        if (registered)
+        {
+            MonitorEngine.INSTANCE.add(threshold);
+        }
+
+        if (thresholds.size() == 1)
+        {
+            notifications = buildNotifications();
+            publishInfo(info.getAttributes(), "Threshold notifications added");
+        }
+    }
+
+    /**
+     * Stop watching the thresholds of an attribute
+     *
+     * @param attribute Name of the attribute
+     */
+    /*package*/ synchronized void removeThresholds(final String attribute)
+    {
+        for (final Threshold threshold : thresholds)
+        {
+            if (threshold.attribute.equals(attribute))
+            {
+                thresholds.remove(threshold);
+                MonitorEngine.INSTANCE.remove(threshold);
+            }
+        }
+    }
+
+    /**
+     * Read an attribute without going through the MBeanServer, on the executor of the attribute if it has one
+     *
+     * @param attribute Name of the attribute
+     * @return the value of the attribute
+     * @throws Exception if the attribute could not be read
+     */
+    /*package*/ Object read(final String attribute) throws Exception
+    {
+        final DynamicAttributeSource source = findDynamicAttribute(attribute);
+        if (source != null)
+        {
+            return source.read(instance(), attribute);
+        }
+
+        final CircuitBreaker breaker = attributeBreakers.get(attribute);
+        if (breaker == null)
+        {
+            return readStatic(attribute);
+        }
+
+        breaker.check();
+        try
+        {
+            final Object value = readStatic(attribute);
+            breaker.success();
+            return value;
+        }
+        catch (Exception e)
+        {
+            // samplers report their own failures, only count them
+            breaker.failure(null, null, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Read an attribute for a sampler without waiting on the executor of the managed object, the samplers share one
+     * scheduler thread that a busy or stuck executor must not hold up. An attribute bound to an executor is read there in
+     * the background and the value of the previous read is returned, see {@link OwnedSample}.
+     *
+     * @param attribute Name of the attribute
+     * @return the value of the attribute
+     * @throws Exception if the attribute could not be read, or was not read on its executor yet
+     */
+    /*package*/ Object sample(final String attribute) throws Exception
+    {
+        return sample(attribute, null);
+    }
+
+    /**
+     * Read an attribute for a sampler as {@link #sample(String)}, as part of a sweep over several attributes of this
+     * MBean, so each dynamic source is read once per sweep instead of once per attribute
+     *
+     * @param attribute Name of the attribute
+     * @param sweep     Values of the dynamic sources read so far in the sweep, filled in here, null for a single read
+     * @return the value of the attribute
+     * @throws Exception if the attribute could not be read, or was not read on its executor yet
+     */
+    /*package*/ Object sample(final String attribute, final Map<DynamicAttributeSource, Map<String, ?>> sweep) throws Exception
+    {
+        final DynamicAttributeSource source = findDynamicAttribute(attribute);
+        if (source != null)
+        {
+            return readDynamic(source, attribute, sweep, true);
+        }
+
+        final ManagedExecutor executor = attributeExecutors.get(attribute);
+        if (executor == null)
+        {
+            return read(attribute);
+        }
+
+        return ownedSample(attribute, attribute, executor, new Callable<Object>()
+        {
+            public Object call() throws Exception
+            {
+                return read(attribute);
+            }
+        }).sample(instance());
+    }
+
+    /**
+     * Read an attribute as {@link #read(String)}, as part of a sweep over several attributes of this MBean, so each
+     * dynamic source is read once per sweep instead of once per attribute
+     *
+     * @param attribute Name of the attribute
+     * @param sweep     Values of the dynamic sources read so far in the sweep, filled in here
+     * @return the value of the attribute
+     * @throws Exception if the attribute could not be read
+     */
+    /*package*/ Object read(final String attribute, final Map<DynamicAttributeSource, Map<String, ?>> sweep) throws Exception
+    {
+        final DynamicAttributeSource source = findDynamicAttribute(attribute);
+        if (source != null)
+        {
+            return readDynamic(source, attribute, sweep, false);
+        }
+        return read(attribute);
+    }
+
+    /**
+     * @return the failure accounting of the attributes and operations, by member name
+     */
+    /*package*/ Map<String, CircuitBreaker> getBreakers()
+    {
+        final Map<String, CircuitBreaker> breakers = new LinkedHashMap<String, CircuitBreaker>(attributeBreakers);
+        for (final Map.Entry<Method, CircuitBreaker> entry : operationBreakers.entrySet())
+        {
+            breakers.put(entry.getValue().member, entry.getValue());
+        }
+        return breakers;
+    }
+
+    /**
+     * Send a notification to the listeners of this MBean
+     *
+     * @param type     Type of the notification
+     * @param message  Message of the notification
+     * @param userData Data attached to the notification
+     */
+    /*package*/ void sendNotification(final String type, final String message, final Object userData)
+    {
+        final Object source = objectName == null ? this : objectName;
+        final Notification notification = new Notification(type, source, sequence.incrementAndGet(), message);
+        notification.setUserData(userData);
+        broadcaster.sendNotification(notification);
+    }
+
+    ////////////////////////////////////////////////////////
+    //  Private Methods
+    ////////////////////////////////////////////////////////
+
+    /**
+     * Read a dynamic attribute, through the values of its source in the sweep when there is one
+     *
+     * @param background true to not wait on the executor of the source, see {@link #sample(String)}
+     */
+    @SuppressWarnings("unchecked")
+    private Object readDynamic(final DynamicAttributeSource source, final String attribute, final Map<DynamicAttributeSource, Map<String, ?>> sweep,
+                               final boolean background) throws Exception
+    {
+        final boolean owned = background && source.executor != null;
+        if (sweep == null && !owned)
+        {
+            return source.read(instance(), attribute);
+        }
+
+        Map<String, ?> values = sweep == null ? null : sweep.get(source);
+        if (values == null)
+        {
+            try
+            {
+                if (owned)
+                {
+                    values = (Map<String, ?>) ownedSample(source, "dynamic attributes of " + objClass.getName(), source.executor, new Callable<Object>()
+                    {
+                        public Object call() throws Exception
+                        {
+                            return source.read(instance());
+                        }
+                    }).sample(instance());
+                }
+                else
+                {
+                    values = source.read(instance());
+                }
+            }
+            catch (Exception e)
+            {
+                // the rest of the sweep does not try a failed source again
+                if (sweep != null)
+                {
+                    sweep.put(source, Collections.<String, Object>emptyMap());
+                }
+                throw e;
+            }
+
+            if (sweep != null)
+            {
+                sweep.put(source, values);
+            }
+        }
+        return values.get(attribute);
+    }
+
+    /**
+     * @param key Attribute name or dynamic source the sample is kept for
+     */
+    private OwnedSample ownedSample(final Object key, final String description, final ManagedExecutor executor, final Callable<?> reader)
+    {
+        OwnedSample owned = ownedSamples.get(key);
+        if (owned == null)
+        {
+            final OwnedSample created = new OwnedSample(description, executor, reader);
+            owned = ownedSamples.putIfAbsent(key, created);
+            if (owned == null)
+            {
+                owned = created;
+            }
+        }
+        return owned;
+    }
+
+    /**
+     * Read a static attribute on its executor if it has one
+     */
+    private Object readStatic(final String attribute) throws Exception
+    {
+        final ManagedExecutor executor = attributeExecutors.get(attribute);
+        if (executor == null)
+        {
+            return readAttribute(attribute);
+        }
+
+        return executor.call(instance(), new Callable<Object>()
+        {
+            public Object call() throws Exception
+            {
+                return readAttribute(attribute);
+            }
+        });
+    }
+
+    /**
+     * Read a static attribute on the current thread
+     *
+     * @param attribute Name of the attribute
+     * @return the value of the attribute
+     * @throws Exception if the attribute could not be read
+     */
+    private Object readAttribute(final String attribute) throws Exception
+    {
+        final ChildAttribute child = childAttributes.get(attribute);
+        if (child != null)
+        {
+            return child.name(instance());
+        }
+
+        final RateAttribute rate = rateAttributes.get(attribute);
+        if (rate != null)
+        {
+            return rate.getRate();
+        }
+
+        final RateAttribute delta = deltaAttributes.get(attribute);
+        if (delta != null)
+        {
+            return delta.getDelta();
+        }
+
+        final AttributeWithMethods attributeWithMethods = attributeMethodMap.get(attribute);
+        if (attributeWithMethods == null)
+        {
+            throw new AttributeNotFoundException();
+        }
+
+        final CollectionAttribute collection = collectionAttributes.get(attribute);
+        if (collection != null)
+        {
+            return collection.summarize(attributeWithMethods.read(instance()));
+        }
+
+        return attributeWithMethods.read(instance());
+    }
+
+    /**
+     * Run a generated page operation, on the executor of the collection if it has one
+     */
+    private Object page(final CollectionAttribute collection, final Object[] params) throws MBeanException
+    {
+        try
+        {
+            final int offset = ((Number) params[0]).intValue();
+            final int limit = ((Number) params[1]).intValue();
+            final AttributeWithMethods attributeWithMethods = attributeMethodMap.get(collection.attribute);
+
+            final Callable<Object> page = new Callable<Object>()
+            {
+                public Object call() throws Exception
+                {
+                    return collection.page(attributeWithMethods.read(instance()), offset, limit);
+                }
+            };
+
+            final ManagedExecutor executor = attributeExecutors.get(collection.attribute);
+            return executor == null ? page.call() : executor.call(instance(), page);
+        }
+        catch (Exception e)
+        {
+            final String errorText = "Error invoking " + collection.getPageOperation();
+
+            LOG.error(errorText, e);
+            throw new MBeanException(e, errorText);
+        }
+    }
+
+    /**
+     * Read the grouped attributes among the requested ones, one snapshot per group
+     *
+     * @param attributes Requested attribute names
+     * @return the values of the grouped attributes that could be read
+     */
+    private Map<String, Object> readGroups(final String[] attributes)
+    {
+        final Map<AttributeGroup, List<String>> requested = new LinkedHashMap<AttributeGroup, List<String>>();
+        for (final String attribute : attributes)
+        {
+            final AttributeGroup group = attributeGroups.get(attribute);
+            if (group != null)
+            {
+                // members whose breaker is open are left out of the snapshot
+                final CircuitBreaker breaker = attributeBreakers.get(attribute);
+                try
+                {
+                    if (breaker != null)
+                    {
+                        breaker.check();
+                    }
+                }
+                catch (MBeanException e)
+                {
+                    continue;
+                }
+
+                List<String> names = requested.get(group);
+                if (names == null)
+                {
+                    names = new ArrayList<String>();
+                    requested.put(group, names);
+                }
+                names.add(attribute);
+            }
+        }
+
+        final Map<String, Object> values = new HashMap<String, Object>();
+        for (final Map.Entry<AttributeGroup, List<String>> entry : requested.entrySet())
+        {
+            try
+            {
+                values.putAll(readGroup(entry.getKey(), entry.getValue()));
+                for (final String attribute : entry.getValue())
+                {
+                    final CircuitBreaker breaker = attributeBreakers.get(attribute);
+                    if (breaker != null)
+                    {
+                        breaker.success();
+                    }
+                }
+            }
+            catch (Exception e)
+            {
+                // counted against every member read, logged rate limited once for the group by the first of them
+                Logger log = LOG;
+                for (final String attribute : entry.getValue())
+                {
+                    final CircuitBreaker breaker = attributeBreakers.get(attribute);
+                    if (breaker != null)
+                    {
+                        breaker.failure(log, "Error getting attribute group " + entry.getKey().name, e);
+                        log = null;
+                    }
+                }
+
+                if (log != null)
+                {
+                    LOG.error("Error getting attribute group: " + entry.getKey().name, e);
+                }
+            }
+        }
+
+        return values;
+    }
+
+    /**
+     * Read attributes of one group optimistically, retrying until no write happened during the read.<br />
+     * A read that sees a half finished write may also fail or see nonsense, it is only trusted once validated.
+     *
+     * @param group      Group of the attributes
+     * @param attributes Names of the attributes to read
+     * @return the values, consistent with each other
+     * @throws Exception if the attributes could not be read, or kept changing for every attempt
+     */
+    private Map<String, Object> readGroup(final AttributeGroup group, final List<String> attributes) throws Exception
+    {
+        // the members of a group share their executor, see addGroup
+        final ManagedExecutor executor = attributeExecutors.get(attributes.get(0));
+        if (executor == null)
+        {
+            return readGroupDirect(group, attributes);
+        }
+
+        return executor.call(instance(), new Callable<Map<String, Object>>()
+        {
+            public Map<String, Object> call() throws Exception
+            {
+                return readGroupDirect(group, attributes);
+            }
+        });
+    }
+
+    /**
+     * Read the attributes of a group on the current thread
+     */
+    private Map<String, Object> readGroupDirect(final AttributeGroup group, final List<String> attributes) throws Exception
+    {
+        final ManagedGroup managedGroup = group.get(instance());
+        final Map<String, Object> values = new LinkedHashMap<String, Object>();
+
+        for (int attempt = 0; attempt < GROUP_READ_ATTEMPTS; attempt++)
+        {
+            final long stamp = managedGroup.beginRead();
+            Exception failure = null;
+            if (stamp != 0)
+            {
+                try
+                {
+                    for (final String attribute : attributes)
+                    {
+                        values.put(attribute, readAttribute(attribute));
+                    }
+                }
+                catch (Exception e)
+                {
+                    failure = e;
+                }
+
+                if (managedGroup.validate(stamp))
+                {
+                    if (failure != null)
+                    {
+                        throw failure;
+                    }
+                    return values;
+                }
+            }
+
+            values.clear();
+            if (attempt < 10)
+            {
+                Thread.onSpinWait();
+            }
+            else
+            {
+                Thread.yield();
+            }
+        }
+
+        throw new IllegalStateException("Attribute group " + group.name + " kept changing while being read");
+    }
+
+    /**
+     * Apply converted values on the executor shared by the attributes, if any, and under the lock of the object
+     *
+     * @param targets Attributes to write
+     * @param values  Converted values, in the same order
+     * @return the written attributes with their new values
+     * @throws Exception if a transactional batch failed, or its attributes do not share an executor
+     */
+    private AttributeList applyWrites(final List<AttributeWithMethods> targets, final List<Object> values) throws Exception
+    {
+        final ManagedExecutor executor = attributeExecutors.get(targets.get(0).getMbeanAttribute().getName());
+        for (final AttributeWithMethods target : targets)
+        {
+            if (attributeExecutors.get(target.getMbeanAttribute().getName()) != executor)
+            {
+                if (transactional)
+                {
+                    throw new IllegalStateException("Attributes of a transactional batch must share an executor");
+                }
+
+                // each attribute has to go to its own executor, write them one at a time
+                final AttributeList written = new AttributeList();
+                for (int i = 0; i < targets.size(); i++)
+                {
+                    try
+                    {
+                        written.addAll(applyWrites(targets.subList(i, i + 1), values.subList(i, i + 1)));
+                    }
+                    catch (Exception e)
+                    {
+                        LOG.error("Error setting attribute " + targets.get(i).getMbeanAttribute().getName(), e);
+                    }
+                }
+                return written;
+            }
+        }
+
+        final Callable<AttributeList> locked = new Callable<AttributeList>()
+        {
+            public AttributeList call() throws Exception
+            {
+                return writeLock == null ? writeAll(targets, values) : writeLock.call(instance(), new Callable<AttributeList>()
+                {
+                    public AttributeList call() throws Exception
+                    {
+                        return writeAll(targets, values);
+                    }
+                });
+            }
+        };
+
+        return executor == null ? locked.call() : executor.call(instance(), locked);
+    }
+
+    /**
+     * Write converted values and read them back, on the current thread
+     */
+    private AttributeList writeAll(final List<AttributeWithMethods> targets, final List<Object> values) throws Exception
+    {
+        final Object[] previous = new Object[targets.size()];
+        if (transactional)
+        {
+            for (int i = 0; i < previous.length; i++)
+            {
+                previous[i] = targets.get(i).current(instance());
+            }
+        }
+
+        final boolean[] applied = new boolean[targets.size()];
+
+        // the components of a ManagedConfig are published together, one new snapshot per config
+        final Map<ManagedConfig<?>, Map<String, Object>> changes = new LinkedHashMap<ManagedConfig<?>, Map<String, Object>>();
+        for (int i = 0; i < applied.length; i++)
+        {
+            if (targets.get(i) instanceof ConfigAttribute)
+            {
+                final ManagedConfig<?> config = ((ConfigAttribute) targets.get(i)).getConfig();
+                if (!changes.containsKey(config))
+                {
+                    changes.put(config, new LinkedHashMap<String, Object>());
+                }
+                changes.get(config).put(((ConfigAttribute) targets.get(i)).getComponentName(), values.get(i));
+            }
+        }
+
+        final Map<ManagedConfig<?>, Object> replaced = new LinkedHashMap<ManagedConfig<?>, Object>();
+        for (final Map.Entry<ManagedConfig<?>, Map<String, Object>> change : changes.entrySet())
+        {
+            try
+            {
+                replaced.put(change.getKey(), change.getKey().update(change.getValue()));
+                for (int i = 0; i < applied.length; i++)
+                {
+                    applied[i] |= targets.get(i) instanceof ConfigAttribute && ((ConfigAttribute) targets.get(i)).getConfig() == change.getKey();
+                }
+            }
+            catch (Exception e)
+            {
+                if (transactional)
+                {
+                    restoreConfigs(replaced);
+                    throw e;
+                }
+
+                LOG.error("Error setting attributes " + change.getValue().keySet(), e);
+            }
+        }
+
+        // grouped attributes are written inside one write of their groups, so readers of a group see all or none
+        final List<ManagedGroup> groups = groupsOf(targets);
+        final long[] stamps = new long[groups.size()];
+        for (int g = 0; g < stamps.length; g++)
+        {
+            stamps[g] = groups.get(g).beginWrite();
+        }
+
+        try
+        {
+            for (int i = 0; i < applied.length; i++)
+            {
+                if (targets.get(i) instanceof ConfigAttribute)
+                {
+                    continue;
+                }
+
+                try
+                {
+                    targets.get(i).write(instance(), values.get(i));
+                    applied[i] = true;
+                }
+                catch (Exception e)
+                {
+                    if (transactional)
+                    {
+                        restore(targets, previous, i);
+                        restoreConfigs(replaced);
+                        throw e;
+                    }
+
+                    LOG.error("Error setting attribute " + targets.get(i).getMbeanAttribute().getName(), e);
+                }
+            }
+        }
+        finally
+        {
+            for (int g = stamps.length - 1; g >= 0; g--)
+            {
+                groups.get(g).endWrite(stamps[g]);
+            }
+        }
+
+        final AttributeList written = new AttributeList();
+        for (int i = 0; i < applied.length; i++)
+        {
+            if (applied[i])
+            {
+                final AttributeWithMethods target = targets.get(i);
+                final String name = target.getMbeanAttribute().getName();
+                written.add(new Attribute(name, target.getMbeanAttribute().isReadable() ? target.read(instance()) : values.get(i)));
+            }
+        }
+
+        return written;
+    }
+
+    /**
+     * @return the groups of the grouped attributes among the targets, each once and ordered by name so batches lock
+     * them in the same order
+     * @throws Exception if a group could not be read
+     */
+    private List<ManagedGroup> groupsOf(final List<AttributeWithMethods> targets) throws Exception
+    {
+        if (attributeGroups.isEmpty())
+        {
+            return Collections.emptyList();
+        }
+
+        final Map<String, ManagedGroup> groups = new TreeMap<String, ManagedGroup>();
+        for (final AttributeWithMethods target : targets)
+        {
+            final AttributeGroup group = attributeGroups.get(target.getMbeanAttribute().getName());
+            if (group != null && !(target instanceof ConfigAttribute) && !groups.containsKey(group.name))
+            {
+                groups.put(group.name, group.get(instance()));
+            }
+        }
+        return new ArrayList<ManagedGroup>(groups.values());
+    }
+
+    /**
+     * Put back the previous values of the attributes written before a failed write, in reverse order
+     */
+    private void restore(final List<AttributeWithMethods> targets, final Object[] previous, final int failed)
+    {
+        for (int i = failed - 1; i >= 0; i--)
+        {
+            if (targets.get(i) instanceof ConfigAttribute)
+            {
+                continue;
+            }
+
+            try
+            {
+                targets.get(i).write(instance(), previous[i]);
+            }
+            catch (Exception e)
+            {
+                LOG.error("Error restoring attribute " + targets.get(i).getMbeanAttribute().getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Publish the settings replaced by a failed transactional batch again
+     */
+    private void restoreConfigs(final Map<ManagedConfig<?>, Object> replaced)
+    {
+        for (final Map.Entry<ManagedConfig<?>, Object> entry : replaced.entrySet())
+        {
+            entry.getKey().restore(entry.getValue());
+        }
+    }
+
+    /**
+     * Write a static attribute on the current thread
+     *
+     * @param attribute Attribute to write
+     * @throws Exception if the attribute could not be written
+     */
+    private void writeAttribute(final Attribute attribute) throws Exception
+    {
+        final AttributeWithMethods attributeWithMethods = attributeMethodMap.get(attribute.getName());
+        if (attributeWithMethods == null)
+        {
+            throw new AttributeNotFoundException();
+        }
+
+        final AttributeGroup group = attributeGroups.get(attribute.getName());
+        if (group == null)
+        {
+            attributeWithMethods.write(instance(), attribute.getValue());
+            return;
+        }
+
+        final ManagedGroup managedGroup = group.get(instance());
+        final long stamp = managedGroup.beginWrite();
+        try
+        {
+            attributeWithMethods.write(instance(), attribute.getValue());
+        }
+        finally
+        {
+            managedGroup.endWrite(stamp);
+        }
+    }
+
+    /**
+     * Find the source of a dynamic attribute, if the name is not known yet the dynamic attributes are refreshed when a
+     * refresh is due
+     *
+     * @param attribute Name of the attribute
+     * @return the source of the attribute, null if it is not a dynamic attribute
+     */
+    private DynamicAttributeSource findDynamicAttribute(final String attribute)
+    {
+        if (dynamicSources.isEmpty() || staticAttributeNames.contains(attribute))
+        {
+            return null;
+        }
+
+        DynamicAttributeSource source = dynamicAttributeMap.get(attribute);
+        if (source == null && refreshIfDue())
+        {
+            source = dynamicAttributeMap.get(attribute);
+        }
+
+        return source;
+    }
+
+    /**
+     * Refresh the dynamic attributes if a source signalled a change, or the last refresh is older than
+     * REFRESH_INTERVAL, so callers asking for the MBeanInfo or for unknown names do not read every source every time
+     *
+     * @return true if the MBeanInfo changed
+     */
+    private boolean refreshIfDue()
+    {
+        if (dynamicSources.isEmpty() || !dynamicChanged && System.nanoTime() - lastRefresh < REFRESH_INTERVAL)
+        {
+            return false;
+        }
+
+        return refreshDynamicAttributes();
+    }
+
+    /**
+     * Read the dynamic attribute sources and rebuild the MBeanInfo if their key set changed.<br />
+     * Existing MBeanAttributeInfo objects are carried over, only the added keys are introspected and only the removed
+     * keys are dropped, the new MBeanInfo is then published as a whole and a jmx.mbean.info.changed notification sent.
+     *
+     * @return true if the MBeanInfo changed
+     */
+    private synchronized boolean refreshDynamicAttributes()
+    {
+        if (dynamicSources.isEmpty())
+        {
+            return false;
+        }
+
+        dynamicChanged = false;
+        lastRefresh = System.nanoTime();
+
+        final Map<String, DynamicAttributeSource> current = dynamicAttributeMap;
+        final Map<String, DynamicAttributeSource> latest = new LinkedHashMap<String, DynamicAttributeSource>();
+        final Map<String, Object> added = new LinkedHashMap<String, Object>();
+
+        for (final DynamicAttributeSource source : dynamicSources)
+        {
+            final Map<String, ?> values;
+            try
+            {
+                values = source.read(instance());
+            }
+            catch (Exception e)
+            {
+                LOG.error("Error reading dynamic attributes of " + objClass.getName(), e);
+
+                // keep what we already know about this source
+                for (final Map.Entry<String, DynamicAttributeSource> entry : current.entrySet())
+                {
+                    if (entry.getValue() == source)
+                    {
+                        latest.put(entry.getKey(), source);
+                    }
+                }
+                continue;
+            }
+
+            for (final Map.Entry<String, ?> entry : values.entrySet())
+            {
+                final String name = entry.getKey();
+                if (name != null && !staticAttributeNames.contains(name) && !latest.containsKey(name))
+                {
+                    latest.put(name, source);
+                    if (!current.containsKey(name))
+                    {
+                        added.put(name, entry.getValue());
+                    }
+                }
+            }
+        }
+
+        final List<String> removed = new ArrayList<String>();
+        if (current.size() + added.size() != latest.size())
+        {
+            for (final String name : current.keySet())
+            {
+                if (!latest.containsKey(name))
+                {
+                    removed.add(name);
+                }
+            }
+        }
+
+        if (added.isEmpty() && removed.isEmpty())
+        {
+            return false;
+        }
+
+        for (final String name : removed)
+        {
+            dynamicInfos.remove(name);
+        }
+
+        for (final Map.Entry<String, Object> entry : added.entrySet())
+        {
+            final Object value = entry.getValue();
+            final String type = value == null ? Object.class.getName() : value.getClass().getName();
+            dynamicInfos.put(entry.getKey(), new MBeanAttributeInfo(entry.getKey(), type, "Dynamic attribute", true, false, false));
+        }
+
+        final int staticCount = attributes == null ? 0 : attributes.length;
+        final MBeanAttributeInfo[] allAttributes = new MBeanAttributeInfo[staticCount + dynamicInfos.size()];
+        if (staticCount > 0)
+        {
+            System.arraycopy(attributes, 0, allAttributes, 0, staticCount);
+        }
+
+        int index = staticCount;
+        for (final MBeanAttributeInfo attrInfo : dynamicInfos.values())
+        {
+            allAttributes[index++] = attrInfo;
+        }
+
+        dynamicAttributeMap = Collections.unmodifiableMap(latest);
+        publishInfo(allAttributes, "Dynamic attributes changed, added " + added.keySet() + ", removed " + removed);
+
+        return true;
+    }
+
+    /**
+     * Replace the MBeanInfo and tell the listeners about it, callers hold the lock on this
+     *
+     * @param allAttributes Static and dynamic attributes
+     * @param message       Message of the jmx.mbean.info.changed notification
+     */
+    private void publishInfo(final MBeanAttributeInfo[] allAttributes, final String message)
+    {
+        final MBeanInfo newInfo = new MBeanInfo(objClass.getName(), description, allAttributes, mgmtConstructors, operations, notifications);
+        info = newInfo;
+
+        sendNotification(INFO_CHANGED, message, newInfo);
+    }
+
+    private MBeanNotificationInfo[] buildNotifications()
+    {
+        final List<MBeanNotificationInfo> notificationList = new ArrayList<MBeanNotificationInfo>();
+
+        if (!dynamicSources.isEmpty() || !thresholds.isEmpty())
+        {
+            notificationList.add(new MBeanNotificationInfo(new String[]{INFO_CHANGED}, Notification.class.getName(), "MBeanInfo changed"));
+        }
+
+        if (!thresholds.isEmpty())
+        {
+            notificationList.add(new MBeanNotificationInfo(new String[]{MonitorNotification.THRESHOLD_HIGH_VALUE_EXCEEDED, MonitorNotification.THRESHOLD_LOW_VALUE_EXCEEDED}, Notification.class.getName(), "Attribute crossed a threshold"));
+        }
+
+        return notificationList.isEmpty() ? null : notificationList.toArray(new MBeanNotificationInfo[notificationList.size()]);
+    }
+
+    /**
+     * TODO this method needs refactoring
+     *
+     * @param methods
+     * @param fields
+     * @param constructors
+     */
+    private void createMBeans(final List<Method> methods, final Field[] fields, final Constructor<?>[] constructors)
+    {
+        final List<MBeanAttributeInfo> attrList = new ArrayList<MBeanAttributeInfo>();
+        final List<MBeanOperationInfo> operList = new ArrayList<MBeanOperationInfo>();
+        final List<MBeanConstructorInfo> consList = new ArrayList<MBeanConstructorInfo>();
+
+        final List<String> methodAttr = new ArrayList<String>();
+
+        final Managed classMgmt = findClassAnnotation(objClass);
+        transactional = classMgmt != null && classMgmt.transactional();
+        writeLock = ManagedLock.resolve(objClass, classMgmt);
+
+        //Parse the annotations for all the methods
+        for (final Method method : methods)
+        {
+            final Managed mgmt = method.getAnnotation(Managed.class);
+            if (mgmt != null)
+            {
+                if (mgmt.timed() && addTimer(method))
+                {
+                    // exposed by the TimerMBean of the class
+                }
+                else if (mgmt.dynamic())
+                {
+                    if (method.getParameterTypes().length == 0 && Map.class.isAssignableFrom(method.getReturnType()))
+                    {
+                        dynamicSources.add(new DynamicAttributeSource(method, ManagedExecutor.resolve(objClass, classMgmt, mgmt)));
+                    }
+                    else
+                    {
+                        LOG.error("@Managed(dynamic = true) requires a method without parameters returning a Map: " + method);
+                    }
+                }
+                else if (checkGetSetIs(method))
+                {
+                    final String attributeName = getAttributeNameFromMethod(method);
+
+                    if (!methodAttr.contains(attributeName))
+                    {
+                        Method first = null;
+                        final Method other = findOtherMethod(attributeName, method, methods);
+
+                        final String methodName = method.getName();
+
+                        boolean firstGetter = false;
+
+                        if (methodName.startsWith(GET) || methodName.startsWith(IS) && mgmt.readable())
+                        {
+                            firstGetter = true;
+                            first = method;
+                        }
+                        else if (methodName.startsWith(SET))
+                        {
+                            first = method;
+                        }
+
+                        if (other != null && (other.getName().startsWith(GET) || other.getName().startsWith(IS)))
+                        {
+                            firstGetter = false;
+                        }
+
+                        try
+                        {
+                            MBeanAttributeInfo attrInfo = null;
+                            AttributeWithMethods attributeWithMethods = null;
+
+                            if (firstGetter)
+                            {
+                                attrInfo = new MBeanAttributeInfo(attributeName, mgmt.description(), first, other);
+                                attributeWithMethods = new AttributeWithMethods(attrInfo, first, other);
+                            }
+                            else
+                            {
+                                attrInfo = new MBeanAttributeInfo(attributeName, mgmt.description(), other, first);
+                                attributeWithMethods = new AttributeWithMethods(attrInfo, other, first);
+                            }
+
+                            attributeMethodMap.put(attributeName, attributeWithMethods);
+                            attributeBreakers.put(attributeName, new CircuitBreaker(attributeName, attributeWithMethods.getGetOrIsMethod() == null ? mgmt : attributeWithMethods.getGetOrIsMethod().getAnnotation(Managed.class)));
+                            putExecutor(attributeName, ManagedExecutor.resolve(objClass, classMgmt, executorAnnotation(mgmt, other)));
+                            final Method getter = attributeWithMethods.getGetOrIsMethod();
+                            if (getter != null)
+                            {
+                                addGroup(attributeName, getter.getAnnotation(Managed.class));
+                                addDeclaredThreshold(attributeName, getter.getAnnotation(ManagedThreshold.class));
+                                addRate(attributeName, getter.getAnnotation(Managed.class), getter.getReturnType(), attrList);
+                                attrInfo = addCollection(attrInfo, getter.getAnnotation(Managed.class), getter.getReturnType(), operList);
+                                attrInfo = addOpenType(attrInfo, getter.getGenericReturnType());
+                            }
+                            attrList.add(attrInfo);
+                            methodAttr.add(attributeName);
+                        }
+                        catch (IntrospectionException ie)
+                        {
+                            LOG.error("Error creating attribute from get/set/is methods for " + attributeName, ie);
+                        }
+                    }
+                }
+                else
+                {
+                    // once, toggling it per call races with concurrent invocations
+                    method.setAccessible(true);
+                    operList.add(operationInfo(mgmt, method));
+                    operationBreakers.put(method, new CircuitBreaker(method.getName(), mgmt));
+                    methodMap.put(method, method.getName());
+
+                    final ManagedExecutor executor = ManagedExecutor.resolve(objClass, classMgmt, mgmt);
+                    if (executor != null)
+                    {
+                        operationExecutors.put(method, executor);
+                    }
+                }
+            }
+        }
+
+        //Parse the annotations for all the fields
+        for (final Field field : fields)
+        {
+            final Managed mgmt = field.getAnnotation(Managed.class);
+            if (mgmt != null && ChildAttribute.isManagedType(field.getType()))
+            {
+                childAttributes.put(field.getName(), new ChildAttribute(this, field.getName(), field, mgmt.description()));
+                attrList.add(new MBeanAttributeInfo(field.getName(), ObjectName.class.getName(), mgmt.description(), true, false, false));
+            }
+            else if (mgmt != null && ManagedConfig.class.isAssignableFrom(field.getType()))
+            {
+                addConfig(field, mgmt, attrList);
+            }
+            else if (mgmt != null)
+            {
+                final MBeanAttributeInfo attrInfo = new MBeanAttributeInfo(field.getName(), field.getType().getName(), mgmt.description(), mgmt.readable(), mgmt.writable(), false);
+                attributeMethodMap.put(field.getName(), new AttributeWithMethods(attrInfo, field));
+                putExecutor(field.getName(), ManagedExecutor.resolve(objClass, classMgmt, mgmt));
+                addGroup(field.getName(), mgmt);
+                addDeclaredThreshold(field.getName(), field.getAnnotation(ManagedThreshold.class));
+                addRate(field.getName(), mgmt, field.getType(), attrList);
+                attrList.add(addOpenType(addCollection(attrInfo, mgmt, field.getType(), operList), field.getGenericType()));
+                attributeBreakers.put(field.getName(), new CircuitBreaker(field.getName(), mgmt));
+            }
+        }
+
+        //Parse the annotations for all the constructors
+        for (final Constructor<?> constructor : constructors)
+        {
+            final Managed mgmt = constructor.getAnnotation(Managed.class);
+            if (mgmt != null)
+            {
+                consList.add(new MBeanConstructorInfo(mgmt.description(), constructor));
+            }
+        }
+
+        if (instance() instanceof ManagedAttributeProvider)
+        {
+            dynamicSources.add(new DynamicAttributeSource(null, ManagedExecutor.resolve(objClass, classMgmt, null)));
+        }
+
+        for (final MBeanAttributeInfo attrInfo : attrList)
+        {
+            staticAttributeNames.add(attrInfo.getName());
+        }
+
+        if (!attrList.isEmpty())
+        {
+            attributes = new MBeanAttributeInfo[attrList.size()];
+            attrList.toArray(attributes);
+        }
+
+        if (!operList.isEmpty())
+        {
+            operations = new MBeanOperationInfo[operList.size()];
+            operList.toArray(operations);
+        }
+
+        if (!consList.isEmpty())
+        {
+            mgmtConstructors = new MBeanConstructorInfo[consList.size()];
+            consList.toArray(mgmtConstructors);
+        }
+    }
+
+    private void addRate(final String attributeName, final Managed mgmt, final Class<?> type, final List<MBeanAttributeInfo> attrList)
+    {
+        if (mgmt == null || !mgmt.rate())
+        {
+            return;
+        }
+
+        if (!RateAttribute.isNumeric(type))
+        {
+            LOG.error("@Managed(rate = true) requires a numeric attribute: " + attributeName);
+            return;
+        }
+
+        final RateAttribute rate = new RateAttribute(this, attributeName, type);
+        rates.add(rate);
+
+        final String rateName = attributeName + RateAttribute.RATE_SUFFIX;
+        final String deltaName = attributeName + RateAttribute.DELTA_SUFFIX;
+        rateAttributes.put(rateName, rate);
+        deltaAttributes.put(deltaName, rate);
+
+        attrList.add(new MBeanAttributeInfo(rateName, Double.class.getName(), "Per second rate of " + attributeName, true, false, false));
+        attrList.add(new MBeanAttributeInfo(deltaName, rate.getDeltaType(), "Change of " + attributeName + " over the last second", true, false, false));
+    }
+
+    /**
+     * Expose every component of the settings of a ManagedConfig field as a writable attribute, see {@link ManagedConfig}
+     */
+    private void addConfig(final Field field, final Managed mgmt, final List<MBeanAttributeInfo> attrList)
+    {
+        final ManagedConfig<?> config;
+        try
+        {
+            field.setAccessible(true);
+            config = (ManagedConfig<?>) field.get(instance());
+        }
+        catch (IllegalAccessException e)
+        {
+            LOG.error("Error reading ManagedConfig field " + field, e);
+            return;
+        }
+
+        if (config == null)
+        {
+            LOG.error("ManagedConfig field must be set before the object is registered: " + field);
+            return;
+        }
+
+        // prefixed with the field, so components never collide with each other or with the other attributes
+        final RecordComponent[] components = config.getComponents();
+        for (int i = 0; i < components.length; i++)
+        {
+            final String name = field.getName() + "." + components[i].getName();
+            final MBeanAttributeInfo attrInfo = new MBeanAttributeInfo(name, components[i].getType().getName(), mgmt.description(), true, true, false);
+            attributeMethodMap.put(name, new ConfigAttribute(attrInfo, config, i, components[i].getType()));
+            attributeBreakers.put(name, new CircuitBreaker(name, mgmt));
+            attrList.add(attrInfo);
+        }
+    }
+
+    /**
+     * Remember the timer of a timed method for the TimerMBean of the class, see {@link Managed#timed()}
+     *
+     * @return false if the method was not instrumented, it is then exposed like any other &#64;Managed method
+     */
+    private boolean addTimer(final Method method)
+    {
+        final MethodTimer timer = MethodTimer.forMethod(method);
+        if (timer == null)
+        {
+            LOG.warn("@Managed(timed = true) requires the ManagementAgent, " + method + " is exposed without a timer");
+            return false;
+        }
+
+        if (timers.containsKey(method.getName()))
+        {
+            LOG.error("Only one overload of a timed method is timed: " + method);
+            return true;
+        }
+
+        timers.put(method.getName(), timer);
+        return true;
+    }
+
+    /**
+     * @return name of each timed method -> its timer, empty if the class has none or runs without the agent
+     */
+    /*package*/ Map<String, MethodTimer> getTimers()
+    {
+        return timers;
+    }
+
+    /**
+     * Summarize a Collection or Map attribute and generate its page operation, see {@link Managed#summarize()}
+     *
+     * @return the attribute info to publish, the summary info for a summarized collection
+     */
+    private MBeanAttributeInfo addCollection(final MBeanAttributeInfo attrInfo, final Managed mgmt, final Class<?> type, final List<MBeanOperationInfo> operList)
+    {
+        if (mgmt == null || !mgmt.summarize() || !attrInfo.isReadable() || !CollectionAttribute.isCollection(type))
+        {
+            return attrInfo;
+        }
+
+        final CollectionAttribute collection = new CollectionAttribute(attrInfo.getName(), type, mgmt.head());
+        collectionAttributes.put(attrInfo.getName(), collection);
+        pageOperations.put(collection.getPageOperation(), collection);
+        operList.add(collection.operationInfo());
+
+        return collection.attributeInfo(attrInfo.getDescription());
+    }
+
+    /**
+     * Declare a read-only attribute of a complex type with its OpenType and return its values as open data
+     *
+     * @return the attribute info to publish
+     */
+    private MBeanAttributeInfo addOpenType(final MBeanAttributeInfo attrInfo, final Type type)
+    {
+        if (!attrInfo.isReadable() || attrInfo.isWritable() || collectionAttributes.containsKey(attrInfo.getName()))
+        {
+            return attrInfo;
+        }
+
+        final OpenTypeConverter converter = OpenTypeConverter.forType(type);
+        if (converter == null || converter.isIdentity())
+        {
+            return attrInfo;
+        }
+
+        attributeConverters.put(attrInfo.getName(), converter);
+        return new OpenMBeanAttributeInfoSupport(attrInfo.getName(), attrInfo.getDescription(), converter.getOpenType(), true, false, attrInfo.isIs());
+    }
+
+    /**
+     * @return the operation info, declaring the OpenType of a complex result the way MXBeans do
+     */
+    private MBeanOperationInfo operationInfo(final Managed mgmt, final Method method)
+    {
+        final MBeanOperationInfo operInfo = new MBeanOperationInfo(mgmt.description(), method);
+
+        final OpenTypeConverter converter = OpenTypeConverter.forType(method.getGenericReturnType());
+        if (converter == null || converter.isIdentity())
+        {
+            return operInfo;
+        }
+
+        operationConverters.put(method, converter);
+        final Descriptor descriptor = ImmutableDescriptor.union(operInfo.getDescriptor(), new ImmutableDescriptor(
+                new String[]{"openType", "originalType"}, new Object[]{converter.getOpenType(), method.getGenericReturnType().getTypeName()}));
+        return new MBeanOperationInfo(operInfo.getName(), operInfo.getDescription(), operInfo.getSignature(),
+                converter.getOpenType().getClassName(), operInfo.getImpact(), descriptor);
+    }
+
+    private Object toOpenData(final String attribute, final Object value) throws OpenDataException
+    {
+        final OpenTypeConverter converter = attributeConverters.get(attribute);
+        return converter == null ? value : converter.toOpenData(value);
+    }
+
+    private void addGroup(final String attributeName, final Managed mgmt)
+    {
+        if (mgmt == null || mgmt.group().length() == 0)
+        {
+            return;
+        }
+
+        // a group is read in one go, on the executor of its members when they have one, so they must agree on it
+        final ManagedExecutor executor = attributeExecutors.get(attributeName);
+        for (final Map.Entry<String, AttributeGroup> entry : attributeGroups.entrySet())
+        {
+            if (entry.getValue().name.equals(mgmt.group()))
+            {
+                final ManagedExecutor other = attributeExecutors.get(entry.getKey());
+                if (executor == null ? other != null : other == null || !executor.name.equals(other.name))
+                {
+                    throw new IllegalArgumentException("Attributes of group " + mgmt.group() + " must share an executor: "
+                            + attributeName + ", " + entry.getKey() + " on " + objClass.getName());
+                }
+
+                attributeGroups.put(attributeName, entry.getValue());
+                return;
+            }
+        }
+
+        attributeGroups.put(attributeName, AttributeGroup.resolve(objClass, mgmt.group()));
+    }
+
+    private void addDeclaredThreshold(final String attributeName, final ManagedThreshold managedThreshold)
+    {
+        if (managedThreshold != null)
+        {
+            thresholds.add(new Threshold(this, attributeName, managedThreshold.high(), managedThreshold.low(), managedThreshold.period()));
+        }
+    }
+
+    private void putExecutor(final String attributeName, final ManagedExecutor executor)
+    {
+        if (executor != null)
+        {
+            attributeExecutors.put(attributeName, executor);
+        }
+    }
+
+    /**
+     * Pick the annotation declaring an executor for a getter/setter pair, whichever of the two declares one
+     *
+     * @param mgmt  Annotation of the first method
+     * @param other Matching getter/setter, may be null
+     * @return the annotation declaring an executor, or the first annotation
+     */
+    private Managed executorAnnotation(final Managed mgmt, final Method other)
+    {
+        if (mgmt.executor().length() == 0 && other != null)
+        {
+            return other.getAnnotation(Managed.class);
+        }
+
+        return mgmt;
+    }
+
+    /**
+     * Find the @Managed annotation on the class or the closest superclass declaring one
+     *
+     * @param objClass Class of the managed object
+     * @return the annotation, may be null
+     */
+    private Managed findClassAnnotation(final Class<?> objClass)
+    {
+        for (Class<?> clazz = objClass; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass())
+        {
+            final Managed mgmt = clazz.getAnnotation(Managed.class);
+            if (mgmt != null)
+            {
+                return mgmt;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Find a matching method for a getter/setter/is method, ie, if the first method was a get, find the set.
+     *
+     * @param attributeName Name of the attribute to search for
+     * @param method        Original Method
+     * @param methods       List of all the available Methods
+     * @return Method to match first method, may be null
+     */
+    private Method findOtherMethod(final String attributeName, final Method method, final List<Method> methods)
+    {
+        final String methodName = method.getName();
+
+        boolean needSet = methodName.startsWith(GET) || methodName.startsWith(IS);
+
+        for (final Method listMethod : methods)
+        {
+            final Managed mgmt = listMethod.getAnnotation(Managed.class);
+
+            if (mgmt != null)
+            {
+                final String listMethodName = listMethod.getName();
+
+                boolean foundCorrectMethod = false;
+
+                if (needSet && listMethodName.startsWith(SET))
+                {
+                    foundCorrectMethod = true;
+                }
+                else if (!needSet && (listMethodName.startsWith(GET) || listMethodName.startsWith(IS)))
+                {
+                    foundCorrectMethod = true;
+                }
+
+                if (foundCorrectMethod)
+                {
+                    final String listAttributeName = getAttributeNameFromMethod(listMethod);
+                    if (listAttributeName.equals(attributeName))
+                    {
+                        // do some real logic, lol
+                        if ((listMethodName.startsWith(GET) || listMethodName.startsWith(IS)) && mgmt.readable())
+                        {
+                            return listMethod;
+                        }
+                        else if ((listMethodName.startsWith(SET)))
+                        {
+                            return listMethod;
+                        }
+                    }
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Return the attribute name from a getter/setter/is method
+     *
+     * @param method Method to check
+     * @return String attribute name
+     */
+    private String getAttributeNameFromMethod(final Method method)
+    {
+        final String methodName = method.getName();
+
+        String retString;
+
+        if (methodName.startsWith(GET) || methodName.startsWith(SET))
+        {
+            retString = methodName.substring(3);
+        }
+        else
+        {
+            // assume startsWith "is"
+            retString = methodName.substring(2);
+        }
+
+        return retString.substring(0, 1).toLowerCase() + retString.substring(1);
+    }
+
+    private boolean checkGetSetIs(final Method method)
+    {
+        final String methodName = method.getName();
+        return methodName.startsWith(GET) || methodName.startsWith(SET) || methodName.startsWith(IS);
+    }
+
+    /**
+     * Get the parameter classes, including support for primitives
+     *
+     * @param params
+     * @param signature
+     * @param paramCount
+     * @return
+     * @throws ClassNotFoundException
+     */
+    private Class<?>[] getParamClasses(Object[] params, String[] signature, int paramCount) throws ClassNotFoundException
+    {
+        final Class<?>[] paramClazzes = new Class<?>[params.length];
+
+        for (final String param : signature)
+        {
+            if ("boolean".equals(param))
+            {
+                paramClazzes[paramCount] = Boolean.TYPE;
+            }
+            else if ("int".equals(param))
+            {
+                paramClazzes[paramCount] = Integer.TYPE;
+            }
+            else if ("char".equals(param))
+            {
+                paramClazzes[paramCount] = Character.TYPE;
+            }
+            else if ("long".equals(param))
+            {
+                paramClazzes[paramCount] = Long.TYPE;
+            }
+            else if ("double".equals(param))
+            {
+                paramClazzes[paramCount] = Double.TYPE;
+            }
+            else if ("float".equals(param))
+            {
+                paramClazzes[paramCount] = Float.TYPE;
+            }
+            else if ("byte".equals(param))
+            {
+                paramClazzes[paramCount] = Byte.TYPE;
+            }
+            else
+            {
+                paramClazzes[paramCount] = Class.forName(param);
+            }
+
+            paramCount++;
+        }
+
+        return paramClazzes;
+    }
+
+    /**
+     * We also want methods from parent classes that may be annotated,
+     * so we recurse through the class's hierarchy until we are at the top,
+     * meaning Object
+     *
+     * @param objClass
+     * @return
+     */
+    private List<Method> getMethods(final Class<?> objClass)
+    {
+        final List<Method> retMethods = new ArrayList<Method>();
+
+        if (!(objClass == Object.class))
+        {
+            retMethods.addAll(Arrays.asList(objClass.getDeclaredMethods()));
+
+            // recurse until objClass == Object.class
+            retMethods.addAll(getMethods(objClass.getSuperclass()));
+        }
+
+        return retMethods;
+    }
 }
\ No newline at end of file
@@ -1,68 +1,174 @@
-/**
- * The MIT License (MIT)
- *
- * Copyright (c) 2013 Andrew Landsverk
- *
- * Permission is hereby granted, free of charge, to any person obtaining a copy
- * of this software and associated documentation files (the "Software"), to deal
- * in the Software without restriction, including without limitation the rights
- * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
- * copies of the Software, and to permit persons to whom the Software is
- * furnished to do so, subject to the following conditions:
- *
- * The above copyright notice and this permission notice shall be included in
- * all copies or substantial portions of the Software.
- *
- * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
- * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
- * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
- * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
- * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
- * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
- * THE SOFTWARE.
- */
-
-package com.quantasnet.management;
-
-import java.lang.annotation.Documented;
-import java.lang.annotation.Retention;
-import java.lang.annotation.RetentionPolicy;
-import java.lang.annotation.Target;
-
-import static java.lang.annotation.ElementType.CONSTRUCTOR;
-import static java.lang.annotation.ElementType.FIELD;
-import static java.lang.annotation.ElementType.METHOD;
-
-/**
- * Annotation to denote an object as being able to be controlled through JMX<br />
- * Put it on a field to be able to manage a field<br />
- * Put it on a method to be able to invoke that method<br/>
- *
- * @author Quantas
- */
-@Target({FIELD, METHOD, CONSTRUCTOR})
-@Retention(RetentionPolicy.RUNTIME)
-@Documented
-public @interface Managed
-{
-    /**
-     * Provide a description to be displayed in a JMX Console
-     *
-     * @return String containing the description
-     */
-    public String description() default "Dynamic Management MBean";
-
-    /**
-     * Say if we are able to write to the field
-     *
-     * @return writable - defaults to false, except if placed on a setter, then assume writable = true
-     */
-    public boolean writable() default false;
-
-    /**
-     * Say if we are able to read from the field
-     *
-     * @return readable -  defaults to true
-     */
-    public boolean readable() default true;
-}
\ No newline at end of file
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.CONSTRUCTOR;
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+
+/**
+ * Annotation to denote an object as being able to be controlled through JMX<br />
+ * Put it on a field to be able to manage a field<br />
+ * Put it on a method to be able to invoke that method<br/>
+ * Put it on a class to set the executor used for all the managed members of that class, or how setAttributes applies
+ * a batch of writes<br/>
+ *
+ * @author Quantas
+ */
+@Target({TYPE, FIELD, METHOD, CONSTRUCTOR})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface Managed
+{
+    /**
+     * Provide a description to be displayed in a JMX Console
+     *
+     * @return String containing the description
+     */
+    public String description() default "Dynamic Management MBean";
+
+    /**
+     * Say if we are able to write to the field
+     *
+     * @return writable - defaults to false, except if placed on a setter, then assume writable = true
+     */
+    public boolean writable() default false;
+
+    /**
+     * Say if we are able to read from the field
+     *
+     * @return readable -  defaults to true
+     */
+    public boolean readable() default true;
+
+    /**
+     * Say if a method contributes a dynamic set of attributes, the method must take no parameters and return a
+     * Map&lt;String, ?&gt;, every key in the returned map is exposed as a read only attribute
+     *
+     * @return dynamic - defaults to false
+     */
+    public boolean dynamic() default false;
+
+    /**
+     * Name of a field or no argument method on the managed object supplying a java.util.concurrent.Executor, when set
+     * reads, writes and invocations are run on that executor instead of the calling JMX thread, this lets
+     * single threaded components be managed without adding locks.<br />
+     * Calls made from inside such a read, write or invocation, for example an operation reading an attribute of its own
+     * MBean, run right away. Any other code running on the executor, such as the component's own tasks or listeners,
+     * must not call the MBean and wait for the result, the call queues behind it and fails after the timeout.
+     *
+     * @return executor - defaults to "", meaning the member is accessed on the calling thread, unless set on the class
+     */
+    public String executor() default "";
+
+    /**
+     * How long to wait for the executor to run a read, write or invocation
+     *
+     * @return timeout in milliseconds - defaults to 5000
+     */
+    public long timeout() default 5000L;
+
+    /**
+     * Say if a numeric counter should also be exposed as &lt;name&gt;Rate, the per second rate, and &lt;name&gt;Delta,
+     * the change over the last second, both computed by sampling the counter in the background
+     *
+     * @return rate - defaults to false
+     */
+    public boolean rate() default false;
+
+    /**
+     * On a class, say if setAttributes applies a batch of writes all or nothing, every value is validated and
+     * converted before any is written, and the written attributes are restored if a write fails
+     *
+     * @return transactional - defaults to false, meaning every valid attribute of a batch is written on its own
+     */
+    public boolean transactional() default false;
+
+    /**
+     * On a class, name of a field or no argument method supplying the lock held while setAttributes applies a batch
+     * of writes, a java.util.concurrent.locks.Lock is locked, any other object is synchronized on
+     *
+     * @return lock - defaults to "", meaning batches are applied without a lock
+     */
+    public String lock() default "";
+
+    /**
+     * Name of a {@link ManagedGroup} field or no argument method on the managed object, the attributes naming the same
+     * group are read as one consistent snapshot without blocking the writers, who publish their changes through the
+     * group. Writes through JMX run inside a write of the group, setters of grouped attributes must not begin one.
+     * The attributes of a group must share their executor, if any, the whole group is read on it.
+     *
+     * @return group - defaults to "", meaning the attribute is read on its own
+     */
+    public String group() default "";
+
+    /**
+     * Say if a Collection or Map attribute is exposed as a summary, its size and the first {@link #head()} elements,
+     * with the elements available through a generated &lt;name&gt;Page(offset, limit) operation, instead of the live
+     * collection being copied and serialized whole
+     *
+     * @return summarize - defaults to true
+     */
+    public boolean summarize() default true;
+
+    /**
+     * Number of leading elements of a summarized Collection or Map attribute included in its summary
+     *
+     * @return head - defaults to 0, meaning only the size
+     */
+    public int head() default 0;
+
+    /**
+     * Number of consecutive failures of an attribute read or an operation after which it fails fast, without being
+     * called, until {@link #coolDown()} has passed
+     *
+     * @return failureThreshold - defaults to 5
+     */
+    public int failureThreshold() default 5;
+
+    /**
+     * How long an attribute or operation that reached its {@link #failureThreshold()} fails fast before it is tried
+     * again
+     *
+     * @return cool down in milliseconds - defaults to 30000
+     */
+    public long coolDown() default 30000L;
+
+    /**
+     * Time every call of an ordinary method of the application, instead of exposing it as an operation. The method's
+     * count, errors and latency percentiles over all instances become attributes named after it on the timers MBean of
+     * the class, see {@link MethodTimer}. Requires the {@link ManagementAgent}, without it the method is exposed as
+     * usual.
+     *
+     * @return timed - defaults to false
+     */
+    public boolean timed() default false;
+}
@@ -0,0 +1,56 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import java.util.Map;
+
+/**
+ * Implement this interface on a managed object whose set of attributes changes at runtime<br />
+ * Every key in the returned map is exposed as a read only attribute, the MBeanInfo is rebuilt when the key set changes<br />
+ * Changed key sets are noticed at most once a second, or right away after
+ * {@link ManagementProcessor#dynamicAttributesChanged(Object)}<br />
+ *
+ * @author Quantas
+ */
+public interface ManagedAttributeProvider
+{
+    /**
+     * Provide the current dynamic attributes
+     *
+     * @return Map of attribute name to current value, never null
+     */
+    Map<String, ?> getManagedAttributes();
+
+    /**
+     * Provide the current value of one dynamic attribute, override when building all of them is expensive
+     *
+     * @param name Name of the attribute
+     * @return the current value, null if there is no such attribute
+     */
+    default Object getManagedAttribute(final String name)
+    {
+        return getManagedAttributes().get(name);
+    }
+}
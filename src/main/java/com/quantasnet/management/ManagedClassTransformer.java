@@ -0,0 +1,641 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.TypePath;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.instrument.ClassFileTransformer;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rewrites the constructors of classes with &#64;Managed fields or methods, and of their subclasses, to hand every new
+ * instance to {@link ManagementAgent#constructed(Object, Class)} before they return, and times the methods annotated
+ * with &#64;Managed(timed = true) into their {@link MethodTimer}.<br />
+ * Classes without the annotation's descriptor in their bytes are only checked for a managed superclass, which is looked
+ * up once per class loader and remembered.
+ */
+/*package*/ final class ManagedClassTransformer implements ClassFileTransformer
+{
+    private static final String MANAGED_DESC = Type.getDescriptor(Managed.class);
+    private static final byte[] MANAGED_BYTES = MANAGED_DESC.getBytes();
+
+    private static final String AGENT = Type.getInternalName(ManagementAgent.class);
+    private static final String CONSTRUCTED_DESC = "(Ljava/lang/Object;Ljava/lang/Class;)V";
+
+    private static final String TIMER = Type.getInternalName(MethodTimer.class);
+    private static final String TIMER_DESC = "(IJ)V";
+
+    // results of scanning the members of a class
+    private static final int MANAGED_MEMBERS = 1;
+    private static final int TIMED_METHODS = 2;
+
+    // classes loaded while transforming, such as ASM's own, are passed to the transformer again
+    private static final ThreadLocal<Boolean> TRANSFORMING = new ThreadLocal<Boolean>();
+
+    private final CodeSource librarySource = ManagementAgent.class.getProtectionDomain().getCodeSource();
+
+    // internal class name -> declares or inherits @Managed members, by defining class loader, guarded by itself
+    private final Map<ClassLoader, Map<String, Boolean>> managedTypes = new WeakHashMap<ClassLoader, Map<String, Boolean>>();
+
+    // class loader -> resolves the agent to this copy of the library, guarded by itself
+    private final Map<ClassLoader, Boolean> agentLoaders = new WeakHashMap<ClassLoader, Boolean>();
+
+    private final AtomicLong scanned = new AtomicLong();
+    private final AtomicLong instrumented = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+
+    public byte[] transform(final ClassLoader loader, final String className, final Class<?> classBeingRedefined,
+                            final ProtectionDomain protectionDomain, final byte[] classfileBuffer)
+    {
+        // bootstrap classes can not see the agent, redefined classes keep their instrumentation
+        if (loader == null || className == null || classBeingRedefined != null || TRANSFORMING.get() != null)
+        {
+            return null;
+        }
+
+        final long start = System.nanoTime();
+        scanned.incrementAndGet();
+
+        try
+        {
+            if (isLibrary(protectionDomain))
+            {
+                return null;
+            }
+
+            TRANSFORMING.set(Boolean.TRUE);
+            try
+            {
+                return instrument(loader, className, classfileBuffer);
+            }
+            finally
+            {
+                TRANSFORMING.remove();
+            }
+        }
+        catch (Throwable t)
+        {
+            // never keep a class from loading
+            ManagementAgent.LOG.error("Error instrumenting " + className, t);
+            return null;
+        }
+        finally
+        {
+            nanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    public long getScanned()
+    {
+        return scanned.get();
+    }
+
+    public long getInstrumented()
+    {
+        return instrumented.get();
+    }
+
+    public long getNanos()
+    {
+        return nanos.get();
+    }
+
+    /**
+     * @param type A loaded class
+     * @return true if the constructors of the class were rewritten
+     */
+    public boolean isInstrumented(final Class<?> type)
+    {
+        synchronized (managedTypes)
+        {
+            final Map<String, Boolean> types = managedTypes.get(type.getClassLoader());
+            return types != null && Boolean.TRUE.equals(types.get(Type.getInternalName(type)));
+        }
+    }
+
+    private byte[] instrument(final ClassLoader loader, final String className, final byte[] bytes) throws IOException
+    {
+        // nothing is parsed or looked up for loaders whose classes could not call the agent
+        if (!seesAgent(loader))
+        {
+            return null;
+        }
+
+        final boolean annotated = contains(bytes, MANAGED_BYTES);
+        final ClassReader reader = new ClassReader(bytes);
+        if (!annotated && isPlatform(reader.getSuperName()))
+        {
+            return null;
+        }
+
+        final int version = readVersion(bytes);
+        final boolean eligible = (reader.getAccess() & (Opcodes.ACC_INTERFACE | Opcodes.ACC_ANNOTATION)) == 0 && version >= Opcodes.V1_5;
+        final int members = annotated && eligible ? scanMembers(reader) : 0;
+        final boolean managed = members != 0 || eligible && isManaged(loader, reader.getSuperName());
+        remember(loader, className, managed);
+        if (!managed)
+        {
+            return null;
+        }
+
+        final Type owner = Type.getObjectType(reader.getClassName());
+        final boolean frames = version >= Opcodes.V1_6;
+        final ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+        reader.accept(new ClassVisitor(Opcodes.ASM9, writer)
+        {
+            @Override
+            public MethodVisitor visitMethod(final int access, final String name, final String descriptor,
+                                             final String signature, final String[] exceptions)
+            {
+                final MethodVisitor visitor = super.visitMethod(access, name, descriptor, signature, exceptions);
+                if (!"<init>".equals(name))
+                {
+                    return (members & TIMED_METHODS) == 0 || "<clinit>".equals(name) ? visitor
+                            : new TimingMethodVisitor(visitor, owner, access, name, descriptor, frames);
+                }
+
+                return new MethodVisitor(Opcodes.ASM9, visitor)
+                {
+                    @Override
+                    public void visitInsn(final int opcode)
+                    {
+                        if (opcode == Opcodes.RETURN)
+                        {
+                            super.visitVarInsn(Opcodes.ALOAD, 0);
+                            super.visitLdcInsn(owner);
+                            super.visitMethodInsn(Opcodes.INVOKESTATIC, AGENT, "constructed", CONSTRUCTED_DESC, false);
+                        }
+                        super.visitInsn(opcode);
+                    }
+                };
+            }
+        }, (members & TIMED_METHODS) == 0 ? 0 : ClassReader.EXPAND_FRAMES);
+
+        instrumented.incrementAndGet();
+        return writer.toByteArray();
+    }
+
+    /**
+     * @return MANAGED_MEMBERS if a field or method of the class is annotated with &#64;Managed, with TIMED_METHODS if
+     * a method is annotated with &#64;Managed(timed = true)
+     */
+    private static int scanMembers(final ClassReader reader)
+    {
+        final int[] found = new int[1];
+        reader.accept(new ClassVisitor(Opcodes.ASM9)
+        {
+            @Override
+            public FieldVisitor visitField(final int access, final String name, final String descriptor,
+                                           final String signature, final Object value)
+            {
+                return new FieldVisitor(Opcodes.ASM9)
+                {
+                    @Override
+                    public AnnotationVisitor visitAnnotation(final String annotation, final boolean visible)
+                    {
+                        if (MANAGED_DESC.equals(annotation))
+                        {
+                            found[0] |= MANAGED_MEMBERS;
+                        }
+                        return null;
+                    }
+                };
+            }
+
+            @Override
+            public MethodVisitor visitMethod(final int access, final String name, final String descriptor,
+                                             final String signature, final String[] exceptions)
+            {
+                return new MethodVisitor(Opcodes.ASM9)
+                {
+                    @Override
+                    public AnnotationVisitor visitAnnotation(final String annotation, final boolean visible)
+                    {
+                        if (!MANAGED_DESC.equals(annotation))
+                        {
+                            return null;
+                        }
+
+                        found[0] |= MANAGED_MEMBERS;
+                        return new AnnotationVisitor(Opcodes.ASM9)
+                        {
+                            @Override
+                            public void visit(final String element, final Object value)
+                            {
+                                if ("timed".equals(element) && Boolean.TRUE.equals(value))
+                                {
+                                    found[0] |= TIMED_METHODS;
+                                }
+                            }
+                        };
+                    }
+                };
+            }
+        }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+
+        return found[0];
+    }
+
+    /**
+     * Times a method annotated with &#64;Managed(timed = true). The start time takes the local after the parameters,
+     * the method's own locals and frames are shifted behind it, every return reports a success and a handler around
+     * the whole body reports a failure before it rethrows. Other methods pass through unchanged.
+     */
+    private static final class TimingMethodVisitor extends MethodVisitor
+    {
+        private final String key;
+        private final Object[] parameters;
+        private final boolean frames;
+        private final int slot;
+        private final Label start = new Label();
+        private boolean timed;
+        private int id;
+
+        private TimingMethodVisitor(final MethodVisitor visitor, final Type owner, final int access, final String name,
+                                    final String descriptor, final boolean frames)
+        {
+            super(Opcodes.ASM9, visitor);
+            this.key = owner.getInternalName() + '.' + name + descriptor;
+            this.frames = frames;
+
+            final boolean isStatic = (access & Opcodes.ACC_STATIC) != 0;
+            final Type[] types = Type.getArgumentTypes(descriptor);
+            parameters = new Object[types.length + (isStatic ? 0 : 1)];
+            int index = 0;
+            if (!isStatic)
+            {
+                parameters[index++] = owner.getInternalName();
+            }
+            for (final Type type : types)
+            {
+                parameters[index++] = frameType(type);
+            }
+            slot = (Type.getArgumentsAndReturnSizes(descriptor) >> 2) - (isStatic ? 1 : 0);
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(final String annotation, final boolean visible)
+        {
+            final AnnotationVisitor visitor = super.visitAnnotation(annotation, visible);
+            if (!MANAGED_DESC.equals(annotation))
+            {
+                return visitor;
+            }
+
+            return new AnnotationVisitor(Opcodes.ASM9, visitor)
+            {
+                @Override
+                public void visit(final String element, final Object value)
+                {
+                    timed |= "timed".equals(element) && Boolean.TRUE.equals(value);
+                    super.visit(element, value);
+                }
+            };
+        }
+
+        @Override
+        public void visitCode()
+        {
+            super.visitCode();
+            if (timed)
+            {
+                id = MethodTimer.register(key);
+                super.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/System", "nanoTime", "()J", false);
+                super.visitVarInsn(Opcodes.LSTORE, slot);
+                super.visitLabel(start);
+            }
+        }
+
+        @Override
+        public void visitInsn(final int opcode)
+        {
+            if (timed && opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN)
+            {
+                report("succeeded");
+            }
+            super.visitInsn(opcode);
+        }
+
+        @Override
+        public void visitVarInsn(final int opcode, final int var)
+        {
+            super.visitVarInsn(opcode, remap(var));
+        }
+
+        @Override
+        public void visitIincInsn(final int var, final int increment)
+        {
+            super.visitIincInsn(remap(var), increment);
+        }
+
+        @Override
+        public void visitLocalVariable(final String name, final String descriptor, final String signature,
+                                       final Label from, final Label to, final int index)
+        {
+            super.visitLocalVariable(name, descriptor, signature, from, to, remap(index));
+        }
+
+        @Override
+        public AnnotationVisitor visitLocalVariableAnnotation(final int typeRef, final TypePath typePath,
+                                                              final Label[] from, final Label[] to, final int[] index,
+                                                              final String descriptor, final boolean visible)
+        {
+            final int[] remapped = new int[index.length];
+            for (int i = 0; i < index.length; i++)
+            {
+                remapped[i] = remap(index[i]);
+            }
+            return super.visitLocalVariableAnnotation(typeRef, typePath, from, to, remapped, descriptor, visible);
+        }
+
+        @Override
+        public void visitFrame(final int type, final int numLocal, final Object[] local, final int numStack, final Object[] stack)
+        {
+            if (!timed)
+            {
+                super.visitFrame(type, numLocal, local, numStack, stack);
+                return;
+            }
+
+            // expanded frames list one entry per local, long and double take two slots
+            final Object[] locals = new Object[slot + numLocal + 1];
+            int entries = 0;
+            int used = 0;
+            while (used < slot && entries < numLocal)
+            {
+                locals[entries] = local[entries];
+                used += local[entries] == Opcodes.LONG || local[entries] == Opcodes.DOUBLE ? 2 : 1;
+                entries++;
+            }
+
+            int count = entries;
+            for (; used < slot; used++)
+            {
+                locals[count++] = Opcodes.TOP;
+            }
+            locals[count++] = Opcodes.LONG;
+            for (int i = entries; i < numLocal; i++)
+            {
+                locals[count++] = local[i];
+            }
+            super.visitFrame(type, count, Arrays.copyOf(locals, count), numStack, stack);
+        }
+
+        @Override
+        public void visitMaxs(final int maxStack, final int maxLocals)
+        {
+            if (timed)
+            {
+                final Label end = new Label();
+                final Label handler = new Label();
+                super.visitLabel(end);
+                // added last, so the method's own handlers still catch first
+                super.visitTryCatchBlock(start, end, handler, null);
+                super.visitLabel(handler);
+                if (frames)
+                {
+                    final Object[] locals = Arrays.copyOf(parameters, parameters.length + 1);
+                    locals[parameters.length] = Opcodes.LONG;
+                    super.visitFrame(Opcodes.F_NEW, locals.length, locals, 1, new Object[]{"java/lang/Throwable"});
+                }
+                report("failed");
+                super.visitInsn(Opcodes.ATHROW);
+            }
+            super.visitMaxs(maxStack, maxLocals);
+        }
+
+        private void report(final String method)
+        {
+            super.visitLdcInsn(id);
+            super.visitVarInsn(Opcodes.LLOAD, slot);
+            super.visitMethodInsn(Opcodes.INVOKESTATIC, TIMER, method, TIMER_DESC, false);
+        }
+
+        private int remap(final int var)
+        {
+            return timed && var >= slot ? var + 2 : var;
+        }
+
+        private static Object frameType(final Type type)
+        {
+            switch (type.getSort())
+            {
+                case Type.BOOLEAN:
+                case Type.CHAR:
+                case Type.BYTE:
+                case Type.SHORT:
+                case Type.INT:
+                    return Opcodes.INTEGER;
+                case Type.FLOAT:
+                    return Opcodes.FLOAT;
+                case Type.LONG:
+                    return Opcodes.LONG;
+                case Type.DOUBLE:
+                    return Opcodes.DOUBLE;
+                default:
+                    return type.getInternalName();
+            }
+        }
+    }
+
+    /**
+     * Whether a class declares &#64;Managed members or extends one that does, read from its class file when it has not
+     * been seen by the transformer yet, such as a superclass that is loaded after its subclass was transformed
+     *
+     * @param loader    Loader of the subclass
+     * @param className Internal name of the class
+     */
+    private boolean isManaged(final ClassLoader loader, final String className) throws IOException
+    {
+        if (isPlatform(className))
+        {
+            return false;
+        }
+
+        synchronized (managedTypes)
+        {
+            final Map<String, Boolean> types = managedTypes.get(loader);
+            final Boolean known = types == null ? null : types.get(className);
+            if (known != null)
+            {
+                return known;
+            }
+        }
+
+        final byte[] bytes = read(loader, className);
+        if (bytes == null)
+        {
+            return false;
+        }
+
+        final ClassReader reader = new ClassReader(bytes);
+        final boolean managed = contains(bytes, MANAGED_BYTES) && (scanMembers(reader) & MANAGED_MEMBERS) != 0
+                || isManaged(loader, reader.getSuperName());
+        remember(loader, className, managed);
+        return managed;
+    }
+
+    private void remember(final ClassLoader loader, final String className, final boolean managed)
+    {
+        synchronized (managedTypes)
+        {
+            Map<String, Boolean> types = managedTypes.get(loader);
+            if (types == null)
+            {
+                types = new HashMap<String, Boolean>();
+                managedTypes.put(loader, types);
+            }
+            types.put(className, managed);
+        }
+    }
+
+    private static byte[] read(final ClassLoader loader, final String className) throws IOException
+    {
+        final InputStream in = loader.getResourceAsStream(className + ".class");
+        if (in == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            for (int read = in.read(buffer); read >= 0; read = in.read(buffer))
+            {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Classes of the JDK never declare &#64;Managed members
+     */
+    private static boolean isPlatform(final String className)
+    {
+        return className == null || className.startsWith("java/") || className.startsWith("javax/")
+                || className.startsWith("jdk/") || className.startsWith("sun/");
+    }
+
+    /**
+     * The library's own classes, such as the ManagementProcessor, register themselves
+     */
+    private boolean isLibrary(final ProtectionDomain protectionDomain)
+    {
+        final CodeSource source = protectionDomain == null ? null : protectionDomain.getCodeSource();
+        return source != null && librarySource != null && source.getLocation() != null
+                && source.getLocation().equals(librarySource.getLocation());
+    }
+
+    /**
+     * Classes of a loader that resolves the annotation to another copy of the library would fail to link, checked once
+     * per loader
+     */
+    private boolean seesAgent(final ClassLoader loader)
+    {
+        if (loader == ManagementAgent.class.getClassLoader())
+        {
+            return true;
+        }
+
+        synchronized (agentLoaders)
+        {
+            final Boolean known = agentLoaders.get(loader);
+            if (known != null)
+            {
+                return known;
+            }
+        }
+
+        boolean sees;
+        try
+        {
+            sees = Class.forName(ManagementAgent.class.getName(), false, loader) == ManagementAgent.class;
+        }
+        catch (ClassNotFoundException e)
+        {
+            sees = false;
+        }
+
+        synchronized (agentLoaders)
+        {
+            agentLoaders.put(loader, sees);
+        }
+        return sees;
+    }
+
+    private static int readVersion(final byte[] bytes)
+    {
+        return (bytes[6] & 0xFF) << 8 | bytes[7] & 0xFF;
+    }
+
+    /*package*/ static boolean contains(final byte[] bytes, final byte[] pattern)
+    {
+        final byte first = pattern[0];
+        final int last = bytes.length - pattern.length;
+
+        outer:
+        for (int i = 0; i <= last; i++)
+        {
+            if (bytes[i] != first)
+            {
+                continue;
+            }
+
+            for (int j = 1; j < pattern.length; j++)
+            {
+                if (bytes[i + j] != pattern[j])
+                {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+}
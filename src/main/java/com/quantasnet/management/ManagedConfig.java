@@ -0,0 +1,209 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.quantasnet.management;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.RecordComponent;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Settings held as an immutable record, replaced as a whole. Annotate a final field of this type with &#64;Managed
+ * and every component of the record becomes a writable attribute of the object's MBean, named after the field and the
+ * component, such as <code>settings.min</code>.<br />
+ * <br />
+ * A write builds a new record through its canonical constructor, which may validate it, and publishes it with one
+ * release store. A setAttributes of several components builds a single record, so readers calling {@link #get()}, one
+ * acquire load, see either all of the changes or none of them. Listeners are called in order on the management
+ * scheduler thread after each change and must not block.
+ * <br />
+ * &#64;Managed<br />
+ * private final ManagedConfig&lt;PoolSettings&gt; settings = new ManagedConfig&lt;PoolSettings&gt;(new PoolSettings(4, 16));
+ *
+ * @author Quantas
+ */
+public final class ManagedConfig<T extends Record>
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ManagedConfig.class);
+
+    private final AtomicReference<T> snapshot;
+    private final RecordComponent[] components;
+    private final Method[] accessors;
+    private final Constructor<T> constructor;
+    private final List<Listener<? super T>> listeners = new CopyOnWriteArrayList<Listener<? super T>>();
+
+    @SuppressWarnings("unchecked")
+    public ManagedConfig(final T initial)
+    {
+        final Class<T> type = (Class<T>) initial.getClass();
+        this.snapshot = new AtomicReference<T>(initial);
+        this.components = type.getRecordComponents();
+        this.accessors = new Method[components.length];
+
+        final Class<?>[] types = new Class<?>[components.length];
+        for (int i = 0; i < components.length; i++)
+        {
+            accessors[i] = components[i].getAccessor();
+            accessors[i].setAccessible(true);
+            types[i] = components[i].getType();
+        }
+
+        try
+        {
+            constructor = type.getDeclaredConstructor(types);
+            constructor.setAccessible(true);
+        }
+        catch (NoSuchMethodException e)
+        {
+            throw new IllegalStateException("Record without a canonical constructor: " + type.getName(), e);
+        }
+    }
+
+    /**
+     * @return the current settings, all from the same write
+     */
+    public T get()
+    {
+        return snapshot.getAcquire();
+    }
+
+    /**
+     * Replace the settings from the application
+     *
+     * @param settings New settings
+     */
+    public void set(final T settings)
+    {
+        synchronized (this)
+        {
+            publish(snapshot.getPlain(), settings);
+        }
+    }
+
+    public void addListener(final Listener<? super T> listener)
+    {
+        listeners.add(listener);
+    }
+
+    public void removeListener(final Listener<? super T> listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /*package*/ RecordComponent[] getComponents()
+    {
+        return components.clone();
+    }
+
+    /*package*/ Object read(final int component) throws Exception
+    {
+        return accessors[component].invoke(get());
+    }
+
+    /**
+     * Build and publish new settings with some of the components changed
+     *
+     * @param changes Component name -> new value
+     * @return the settings that were replaced
+     * @throws Exception if the record rejected the values, nothing is published then
+     */
+    /*package*/ T update(final Map<String, Object> changes) throws Exception
+    {
+        synchronized (this)
+        {
+            final T previous = snapshot.getPlain();
+            final Object[] values = new Object[components.length];
+            for (int i = 0; i < components.length; i++)
+            {
+                final String name = components[i].getName();
+                values[i] = changes.containsKey(name) ? changes.get(name) : accessors[i].invoke(previous);
+            }
+
+            final T next;
+            try
+            {
+                next = constructor.newInstance(values);
+            }
+            catch (InvocationTargetException e)
+            {
+                // the validation of the record
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+
+            publish(previous, next);
+            return previous;
+        }
+    }
+
+    /**
+     * Publish settings that were replaced by a failed batch again
+     */
+    /*package*/ void restore(final Object previous)
+    {
+        set(constructor.getDeclaringClass().cast(previous));
+    }
+
+    private void publish(final T previous, final T next)
+    {
+        snapshot.setRelease(next);
+
+        if (listeners.isEmpty())
+        {
+            return;
+        }
+
+        ManagementScheduler.get().execute(new Runnable()
+        {
+            public void run()
+            {
+                for (final Listener<? super T> listener : listeners)
+                {
+                    try
+                    {
+                        listener.changed(previous, next);
+                    }
+                    catch (Exception e)
+                    {
+                        LOG.error("Error notifying listener " + listener, e);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Told about every change of the settings, on the management scheduler thread
+     */
+    public interface Listener<T>
+    {
+        void changed(T previous, T current);
+    }
+}
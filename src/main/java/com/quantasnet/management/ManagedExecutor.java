@@ -0,0 +1,195 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs reads, writes and invocations on an Executor supplied by the managed object, see {@link Managed#executor()}
+ */
+/*package*/ class ManagedExecutor
+{
+    // executor whose task the current thread is running, calls made from such a task run inline
+    private static final ThreadLocal<Executor> RUNNING = new ThreadLocal<Executor>();
+
+    final String name;
+    final Field field;
+    final Method method;
+    final long timeout;
+
+    private ManagedExecutor(final String name, final Field field, final Method method, final long timeout)
+    {
+        this.name = name;
+        this.field = field;
+        this.method = method;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Resolve the executor declared by the member annotation, falling back to the class annotation
+     *
+     * @param objClass  Class of the managed object
+     * @param classMgmt Annotation on the class, may be null
+     * @param mgmt      Annotation on the member, may be null
+     * @return the executor to use, null if the member should be accessed on the calling thread
+     */
+    public static ManagedExecutor resolve(final Class<?> objClass, final Managed classMgmt, final Managed mgmt)
+    {
+        if (mgmt != null && mgmt.executor().length() > 0)
+        {
+            return resolve(objClass, mgmt.executor(), mgmt.timeout());
+        }
+
+        if (classMgmt != null && classMgmt.executor().length() > 0)
+        {
+            return resolve(objClass, classMgmt.executor(), classMgmt.timeout());
+        }
+
+        return null;
+    }
+
+    private static ManagedExecutor resolve(final Class<?> objClass, final String name, final long timeout)
+    {
+        for (Class<?> clazz = objClass; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass())
+        {
+            for (final Field field : clazz.getDeclaredFields())
+            {
+                if (field.getName().equals(name) && Executor.class.isAssignableFrom(field.getType()))
+                {
+                    field.setAccessible(true);
+                    return new ManagedExecutor(name, field, null, timeout);
+                }
+            }
+
+            for (final Method method : clazz.getDeclaredMethods())
+            {
+                if (method.getName().equals(name) && method.getParameterTypes().length == 0 && Executor.class.isAssignableFrom(method.getReturnType()))
+                {
+                    method.setAccessible(true);
+                    return new ManagedExecutor(name, null, method, timeout);
+                }
+            }
+        }
+
+        throw new IllegalArgumentException("No Executor field or method named " + name + " on " + objClass.getName());
+    }
+
+    /**
+     * Run the callable on the executor of the managed object and wait for the result, or right away when called from a
+     * task this class runs on that executor, such as an operation reading an attribute of its own MBean
+     *
+     * @param objInstance Instance of the managed object
+     * @param callable    Work to run
+     * @return result of the callable
+     * @throws Exception thrown by the callable, or TimeoutException if the executor did not run it in time
+     */
+    public <T> T call(final Object objInstance, final Callable<T> callable) throws Exception
+    {
+        final Executor executor = executor(objInstance);
+
+        // the task would queue behind the one waiting for it
+        if (RUNNING.get() == executor)
+        {
+            return callable.call();
+        }
+
+        final FutureTask<T> task = new FutureTask<T>(running(executor, callable));
+        executor.execute(task);
+
+        try
+        {
+            return task.get(timeout, TimeUnit.MILLISECONDS);
+        }
+        catch (ExecutionException e)
+        {
+            final Throwable cause = e.getCause();
+            if (cause instanceof Exception)
+            {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+        catch (TimeoutException e)
+        {
+            // never interrupt the owner's thread, only make sure the task does not run late
+            task.cancel(false);
+            throw e;
+        }
+    }
+
+    /**
+     * Run the work on the executor of the managed object without waiting for it
+     *
+     * @param objInstance Instance of the managed object
+     * @param runnable    Work to run
+     * @throws Exception if the executor is not available or rejected the work
+     */
+    public void execute(final Object objInstance, final Runnable runnable) throws Exception
+    {
+        final Executor executor = executor(objInstance);
+        executor.execute(new FutureTask<Object>(running(executor, Executors.callable(runnable))));
+    }
+
+    private Executor executor(final Object objInstance) throws Exception
+    {
+        final Executor executor = field == null ? (Executor) method.invoke(objInstance) : (Executor) field.get(objInstance);
+        if (executor == null)
+        {
+            throw new IllegalStateException("Executor " + name + " is not available");
+        }
+        return executor;
+    }
+
+    /**
+     * @return the callable marking the thread as running a task of the executor while it runs
+     */
+    private static <T> Callable<T> running(final Executor executor, final Callable<T> callable)
+    {
+        return new Callable<T>()
+        {
+            public T call() throws Exception
+            {
+                final Executor previous = RUNNING.get();
+                RUNNING.set(executor);
+                try
+                {
+                    return callable.call();
+                }
+                finally
+                {
+                    RUNNING.set(previous);
+                }
+            }
+        };
+    }
+}
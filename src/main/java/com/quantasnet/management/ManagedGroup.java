@@ -0,0 +1,107 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Lets JMX read related attributes, such as size, capacity and evictions, as one consistent snapshot without ever
+ * blocking the threads that update them, see {@link Managed#group()}.<br />
+ * Writers publish every change to the grouped fields between {@link #beginWrite()} and {@link #endWrite(long)}, readers
+ * read optimistically and retry when a write happened in between. Writers only wait for each other.
+ * <pre>
+ * private final ManagedGroup stats = new ManagedGroup();
+ *
+ * &#64;Managed(group = "stats")
+ * private int size;
+ *
+ * void add()
+ * {
+ *     final long stamp = stats.beginWrite();
+ *     try
+ *     {
+ *         size++;
+ *     }
+ *     finally
+ *     {
+ *         stats.endWrite(stamp);
+ *     }
+ * }
+ * </pre>
+ *
+ * @author Quantas
+ */
+public final class ManagedGroup
+{
+    private final StampedLock lock = new StampedLock();
+
+    /**
+     * Start changing the grouped fields, waits for other writers only
+     *
+     * @return the stamp to pass to endWrite
+     */
+    public long beginWrite()
+    {
+        return lock.writeLock();
+    }
+
+    /**
+     * Publish the changes made since beginWrite
+     *
+     * @param stamp Stamp returned by beginWrite
+     */
+    public void endWrite(final long stamp)
+    {
+        lock.unlockWrite(stamp);
+    }
+
+    /**
+     * Run the changes to the grouped fields as one write
+     *
+     * @param change Code changing the fields
+     */
+    public void write(final Runnable change)
+    {
+        final long stamp = lock.writeLock();
+        try
+        {
+            change.run();
+        }
+        finally
+        {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /*package*/ long beginRead()
+    {
+        return lock.tryOptimisticRead();
+    }
+
+    /*package*/ boolean validate(final long stamp)
+    {
+        return stamp != 0 && lock.validate(stamp);
+    }
+}
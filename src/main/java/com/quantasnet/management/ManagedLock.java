@@ -0,0 +1,121 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Holds a lock supplied by the managed object while a batch of writes is applied, see {@link Managed#lock()}
+ */
+/*package*/ class ManagedLock
+{
+    final String name;
+    final Field field;
+    final Method method;
+
+    private ManagedLock(final String name, final Field field, final Method method)
+    {
+        this.name = name;
+        this.field = field;
+        this.method = method;
+    }
+
+    /**
+     * Resolve the lock declared by the class annotation
+     *
+     * @param objClass  Class of the managed object
+     * @param classMgmt Annotation on the class, may be null
+     * @return the lock to hold, null if batches are applied without a lock
+     */
+    public static ManagedLock resolve(final Class<?> objClass, final Managed classMgmt)
+    {
+        if (classMgmt == null || classMgmt.lock().length() == 0)
+        {
+            return null;
+        }
+
+        final String name = classMgmt.lock();
+        for (Class<?> clazz = objClass; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass())
+        {
+            for (final Field field : clazz.getDeclaredFields())
+            {
+                if (field.getName().equals(name) && !field.getType().isPrimitive())
+                {
+                    field.setAccessible(true);
+                    return new ManagedLock(name, field, null);
+                }
+            }
+
+            for (final Method method : clazz.getDeclaredMethods())
+            {
+                if (method.getName().equals(name) && method.getParameterTypes().length == 0 && !method.getReturnType().isPrimitive())
+                {
+                    method.setAccessible(true);
+                    return new ManagedLock(name, null, method);
+                }
+            }
+        }
+
+        throw new IllegalArgumentException("No lock field or method named " + name + " on " + objClass.getName());
+    }
+
+    /**
+     * Run the callable while holding the lock of the managed object
+     *
+     * @param objInstance Instance of the managed object
+     * @param callable    Work to run
+     * @return result of the callable
+     * @throws Exception thrown by the callable
+     */
+    public <T> T call(final Object objInstance, final Callable<T> callable) throws Exception
+    {
+        final Object lock = field == null ? method.invoke(objInstance) : field.get(objInstance);
+        if (lock == null)
+        {
+            throw new IllegalStateException("Lock " + name + " is not available");
+        }
+
+        if (lock instanceof Lock)
+        {
+            ((Lock) lock).lock();
+            try
+            {
+                return callable.call();
+            }
+            finally
+            {
+                ((Lock) lock).unlock();
+            }
+        }
+
+        synchronized (lock)
+        {
+            return callable.call();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
+
+/**
+ * Annotation to watch a numeric @Managed attribute against a high and a low threshold<br />
+ * Put it on a @Managed field or getter, the value is checked every period on a scheduler shared by all thresholds,
+ * a jmx.monitor.gauge.high notification is sent when the value reaches the high threshold and a
+ * jmx.monitor.gauge.low notification when it falls to the low threshold. Values between the two thresholds do not
+ * send anything, so a value hovering around one threshold only notifies once.
+ *
+ * @author Quantas
+ */
+@Target({FIELD, METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface ManagedThreshold
+{
+    /**
+     * @return the value at or above which the attribute is considered high
+     */
+    public double high();
+
+    /**
+     * @return the value at or below which the attribute is considered low, must not be greater than high
+     */
+    public double low();
+
+    /**
+     * @return how often to check the value in milliseconds - defaults to 1000
+     */
+    public long period() default 1000L;
+}
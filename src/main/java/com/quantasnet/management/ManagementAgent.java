@@ -0,0 +1,162 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.instrument.Instrumentation;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Java agent that registers every new instance of a class with &#64;Managed fields or methods, so nothing has to call
+ * {@link ManagementProcessor#register(Object)}.<br />
+ * Constructors of those classes and their subclasses are rewritten as they are loaded, all other classes are left
+ * untouched. An instance is registered when the constructor of its own class returns, so fields of a subclass are set
+ * before they feed its ObjectName. Instances are registered weakly, under their {@link ManagedName} or
+ * package:type=SimpleName,instance=N, and their MBeans are unregistered once they have been garbage collected.<br />
+ * <br />
+ * java -javaagent:managed.jar -cp managed.jar:asm.jar:... Main<br />
+ * <br />
+ * ASM is an optional dependency of the library and must be on the class path when the agent is used. Classes loaded
+ * before the agent started, when it is attached to a running JVM, are not instrumented.
+ *
+ * @author Quantas
+ */
+public final class ManagementAgent
+{
+    /*package*/ static final Logger LOG = LoggerFactory.getLogger(ManagementAgent.class);
+
+    // the class whose constructor registers instances of a class, the class itself unless it was loaded before the
+    // agent started, then the nearest superclass that was rewritten
+    private static final ClassValue<Class<?>> REGISTERING = new ClassValue<Class<?>>()
+    {
+        @Override
+        protected Class<?> computeValue(final Class<?> type)
+        {
+            final ManagementAgent current = agent;
+            for (Class<?> clazz = type; clazz != null && current != null; clazz = clazz.getSuperclass())
+            {
+                if (current.transformer.isInstrumented(clazz))
+                {
+                    return clazz;
+                }
+            }
+            return null;
+        }
+    };
+
+    private static volatile ManagementAgent agent;
+
+    private final ManagedClassTransformer transformer = new ManagedClassTransformer();
+    private final AtomicLong registered = new AtomicLong();
+
+    private ManagementAgent()
+    {
+        // no-op
+    }
+
+    /**
+     * Start the agent from the command line, -javaagent
+     */
+    public static void premain(final String args, final Instrumentation instrumentation)
+    {
+        start(instrumentation);
+    }
+
+    /**
+     * Start the agent in a running JVM, only classes loaded from now on are instrumented
+     */
+    public static void agentmain(final String args, final Instrumentation instrumentation)
+    {
+        start(instrumentation);
+    }
+
+    private static synchronized void start(final Instrumentation instrumentation)
+    {
+        if (agent != null)
+        {
+            return;
+        }
+
+        agent = new ManagementAgent();
+        instrumentation.addTransformer(agent.transformer);
+        ManagementProcessor.register(agent, "Registers instances of classes with @Managed members as they are constructed");
+    }
+
+    /**
+     * Called by the rewritten constructors of a class before they return, not meant to be called directly<br />
+     * Only the constructor of the class of the instance registers, after superclass constructors have run, and
+     * registering an instance again, such as when constructors delegate to this(...), does nothing.
+     *
+     * @param obj            The instance being constructed
+     * @param declaringClass Class whose constructor is returning
+     */
+    public static void constructed(final Object obj, final Class<?> declaringClass)
+    {
+        if (obj.getClass() != declaringClass && REGISTERING.get(obj.getClass()) != declaringClass)
+        {
+            return;
+        }
+
+        try
+        {
+            if (ManagementProcessor.registerWeak(obj) && agent != null)
+            {
+                agent.registered.incrementAndGet();
+            }
+        }
+        catch (RuntimeException e)
+        {
+            // never fail the constructor
+            LOG.error("Error registering " + declaringClass.getName(), e);
+        }
+    }
+
+    @Managed(description = "Classes checked for @Managed members as they were loaded")
+    public long getClassesScanned()
+    {
+        return transformer.getScanned();
+    }
+
+    @Managed(description = "Classes whose constructors were rewritten")
+    public long getClassesInstrumented()
+    {
+        return transformer.getInstrumented();
+    }
+
+    @Managed(description = "Time spent checking and rewriting classes in milliseconds")
+    public double getTransformMillis()
+    {
+        return transformer.getNanos() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Managed(description = "Instances registered by rewritten constructors")
+    public long getInstancesRegistered()
+    {
+        return registered.get();
+    }
+}
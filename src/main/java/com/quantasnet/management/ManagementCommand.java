@@ -0,0 +1,136 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import javax.management.ObjectName;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * One step of a {@link ManagementProcessor#batch(java.util.List, boolean, boolean)}: read an attribute, write an
+ * attribute or invoke an operation of any registered MBean<br />
+ * Commands are serializable so a remote client can send a whole runbook in one call.
+ *
+ * @author Quantas
+ */
+public final class ManagementCommand implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private static final Object[] NO_PARAMS = new Object[0];
+    private static final String[] NO_SIGNATURE = new String[0];
+
+    /**
+     * What a command does with its MBean
+     */
+    public enum Type
+    {
+        GET_ATTRIBUTE,
+        SET_ATTRIBUTE,
+        INVOKE
+    }
+
+    private final Type type;
+    private final ObjectName objectName;
+    private final String name;
+    private final Object[] params;
+    private final String[] signature;
+
+    private ManagementCommand(final Type type, final ObjectName objectName, final String name, final Object[] params, final String[] signature)
+    {
+        this.type = type;
+        this.objectName = objectName;
+        this.name = name;
+        this.params = params;
+        this.signature = signature;
+    }
+
+    /**
+     * @param objectName MBean to read from
+     * @param attribute  Name of the attribute
+     * @return a command reading the attribute
+     */
+    public static ManagementCommand getAttribute(final ObjectName objectName, final String attribute)
+    {
+        return new ManagementCommand(Type.GET_ATTRIBUTE, objectName, attribute, NO_PARAMS, NO_SIGNATURE);
+    }
+
+    /**
+     * @param objectName MBean to write to
+     * @param attribute  Name of the attribute
+     * @param value      New value of the attribute
+     * @return a command writing the attribute
+     */
+    public static ManagementCommand setAttribute(final ObjectName objectName, final String attribute, final Object value)
+    {
+        return new ManagementCommand(Type.SET_ATTRIBUTE, objectName, attribute, new Object[]{value}, NO_SIGNATURE);
+    }
+
+    /**
+     * @param objectName MBean to invoke
+     * @param operation  Name of the operation
+     * @param params     Parameters of the operation
+     * @param signature  Class names of the parameters, as for MBeanServer.invoke
+     * @return a command invoking the operation
+     */
+    public static ManagementCommand invoke(final ObjectName objectName, final String operation, final Object[] params, final String[] signature)
+    {
+        return new ManagementCommand(Type.INVOKE, objectName, operation, params == null ? NO_PARAMS : params.clone(), signature == null ? NO_SIGNATURE : signature.clone());
+    }
+
+    public Type getType()
+    {
+        return type;
+    }
+
+    public ObjectName getObjectName()
+    {
+        return objectName;
+    }
+
+    /**
+     * @return the name of the attribute or operation
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    public Object[] getParams()
+    {
+        return params.clone();
+    }
+
+    public String[] getSignature()
+    {
+        return signature.clone();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ManagementCommand[" + type + " " + objectName + " " + name + (params.length == 0 ? "" : " " + Arrays.toString(params)) + "]";
+    }
+}
@@ -0,0 +1,70 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import jdk.jfr.Category;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+import javax.management.ObjectName;
+
+/**
+ * Base of the JDK Flight Recorder events emitted for management traffic.<br />
+ * The events are disabled by default, enable them in the recording settings, for example
+ * com.quantasnet.management.AttributeAccess#enabled=true, when disabled the only cost is the enabled check.
+ */
+@Category({"Managed"})
+@Enabled(false)
+@StackTrace(false)
+/*package*/ abstract class ManagementEvent extends Event
+{
+    /*package*/ static final String SUCCESS = "success";
+
+    @Label("MBean")
+    String objectName;
+
+    @Label("Member")
+    String member;
+
+    @Label("Outcome")
+    String outcome;
+
+    /**
+     * Fill in the event and commit it, the duration is measured from the call to begin()
+     *
+     * @param name    Name of the MBean, may be null when the name is not known yet
+     * @param member  Attribute or operation name, may be null
+     * @param failure Exception thrown by the call, null if it succeeded
+     */
+    /*package*/ void commit(final ObjectName name, final String member, final Throwable failure)
+    {
+        this.objectName = name == null ? null : name.getCanonicalName();
+        this.member = member;
+        this.outcome = failure == null ? SUCCESS : failure.getClass().getName();
+        commit();
+    }
+}
@@ -1,156 +1,1437 @@
-/**
- * The MIT License (MIT)
- *
- * Copyright (c) 2013 Andrew Landsverk
- *
- * Permission is hereby granted, free of charge, to any person obtaining a copy
- * of this software and associated documentation files (the "Software"), to deal
- * in the Software without restriction, including without limitation the rights
- * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
- * copies of the Software, and to permit persons to whom the Software is
- * furnished to do so, subject to the following conditions:
- *
- * The above copyright notice and this permission notice shall be included in
- * all copies or substantial portions of the Software.
- *
- * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
- * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
- * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
- * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
- * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
- * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
- * THE SOFTWARE.
- */
-
-package com.quantasnet.management;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import javax.management.DynamicMBean;
-import javax.management.JMException;
-import javax.management.ObjectName;
-import java.lang.management.ManagementFactory;
-import java.util.ArrayList;
-import java.util.List;
-
-/**
- * Factory class for registering DynamicMBeans
- *
- * @author Quantas
- */
-public final class ManagementProcessor
-{
-    private static final Logger LOG = LoggerFactory.getLogger(ManagementProcessor.class);
-
-    @Managed
-    private static final List<ObjectName> REGISTERED_OBJS = new ArrayList<ObjectName>();
-
-    private static ManagementProcessor instance;
-
-    static
-    {
-        instance = new ManagementProcessor();
-        ManagementProcessor.register(instance, "Objects registered with the @Managed annotation");
-    }
-
-    private ManagementProcessor()
-    {
-        // no-op
-    }
-
-    public static ObjectName constructObjectName(final Class<?> clazz)
-    {
-        ObjectName name = null;
-
-        try
-        {
-            name = new ObjectName(clazz.getPackage().getName() + ":type=" + clazz.getSimpleName());
-        }
-        catch (JMException e)
-        {
-            LOG.error("Error creating ObjectName", e);
-        }
-
-        return name;
-    }
-
-    public static void register(Object obj)
-    {
-        ManagementProcessor.register(obj, "");
-    }
-
-    /**
-     * Register a new DynamicMBean
-     *
-     * @param obj  Instance of the object to be managed
-     * @param desc Description of the MBean
-     */
-    public static void register(final Object obj, final String desc)
-    {
-        LOG.info("Registering MBean: " + obj.getClass().getSimpleName());
-        Object instance = null;
-
-        try
-        {
-            if (obj instanceof DynamicMBean)
-            {
-                instance = obj;
-            }
-            else
-            {
-                final DynamicManagementMBean mbean = new DynamicManagementMBean(obj, desc);
-                if (mbean.getMBeanInfo() != null)
-                {
-                    instance = mbean;
-                }
-            }
-
-            if (instance != null)
-            {
-                final ObjectName objName = constructObjectName(obj.getClass());
-
-                ManagementFactory.getPlatformMBeanServer().registerMBean(instance, objName);
-
-                synchronized (REGISTERED_OBJS)
-                {
-                    REGISTERED_OBJS.add(objName);
-                }
-            }
-        }
-        catch (Exception e)
-        {
-            LOG.error("Error Registering the DynamicManagementMBean with the Factory", e);
-        }
-    }
-
-    public static void unregister(final Object obj)
-    {
-        try
-        {
-            final ObjectName objName = constructObjectName(obj.getClass());
-            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objName);
-
-            synchronized (REGISTERED_OBJS)
-            {
-                ObjectName toRemove = null;
-                for (final ObjectName oName : REGISTERED_OBJS)
-                {
-                    if (oName.getCanonicalName().equals(objName.getCanonicalName()))
-                    {
-                        toRemove = oName;
-                    }
-                }
-
-                if (toRemove != null)
-                {
-                    REGISTERED_OBJS.remove(toRemove);
-                }
-            }
-        }
-        catch (JMException e)
-        {
-            LOG.error("Error Unregistering the DynamicManagementMBean with the Factory", e);
-        }
-    }
-}
\ No newline at end of file
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.Attribute;
+import javax.management.DynamicMBean;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.TabularData;
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.lang.management.ManagementFactory;
+import java.net.SocketAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Factory class for registering DynamicMBeans
+ *
+ * @author Quantas
+ */
+public final class ManagementProcessor
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ManagementProcessor.class);
+
+    /**
+     * Number of MBeans unregistered by one thread in a single batch during unregisterAll
+     */
+    private static final int UNREGISTER_BATCH_SIZE = 256;
+
+    private static final ConcurrentMap<ObjectName, Registration> REGISTRATIONS = new ConcurrentHashMap<ObjectName, Registration>();
+
+    // the registered names, exposed under the attribute name clients have always read
+    @Managed(description = "Objects registered with the @Managed annotation", summarize = false)
+    private static final Collection<ObjectName> REGISTERED_OBJS = Collections.unmodifiableSet(REGISTRATIONS.keySet());
+
+    // instance -> registration, so unregister does not need to rebuild the ObjectName
+    private static final Map<Object, Registration> REGISTERED_INSTANCES = new IdentityHashMap<Object, Registration>();
+
+    // identity hash -> weak registrations, they must not be keys of a strong map, guarded by REGISTERED_INSTANCES
+    private static final Map<Integer, List<Registration>> WEAK_INSTANCES = new HashMap<Integer, List<Registration>>();
+
+    // numbers the instance key of weakly registered instances without a ManagedName template
+    private static final AtomicLong INSTANCE_SEQUENCE = new AtomicLong();
+
+    // ObjectName domain -> server its MBeans are registered with instead of the platform MBeanServer
+    private static final ConcurrentMap<String, MBeanServer> SERVERS = new ConcurrentHashMap<String, MBeanServer>();
+
+    // domain -> view of its server on the platform MBeanServer, guarded by SERVERS
+    private static final Map<String, ServerView> VIEWS = new HashMap<String, ServerView>();
+
+    // ObjectName -> lock held while the name is registered or unregistered, guarded by itself
+    private static final Map<ObjectName, NameLock> NAME_LOCKS = new HashMap<ObjectName, NameLock>();
+
+    // aggregate ObjectName -> aggregate, guarded by itself
+    private static final Map<ObjectName, AggregateMBean> AGGREGATES = new HashMap<ObjectName, AggregateMBean>();
+
+    // class -> ObjectName of its aggregate, null if the class is not aggregated
+    private static final ClassValue<ObjectName> AGGREGATE_NAMES = new ClassValue<ObjectName>()
+    {
+        @Override
+        protected ObjectName computeValue(final Class<?> clazz)
+        {
+            return aggregateName(clazz);
+        }
+    };
+
+    // timer ObjectName -> timers of the class, guarded by itself
+    private static final Map<ObjectName, TimerMBean> TIMERS = new HashMap<ObjectName, TimerMBean>();
+
+    private static Thread shutdownHook;
+
+    private static volatile boolean versionTracking;
+
+    private static ManagementProcessor instance;
+
+    static
+    {
+        instance = new ManagementProcessor();
+        ManagementProcessor.register(instance, "Objects registered with the @Managed annotation");
+    }
+
+    private ManagementProcessor()
+    {
+        // no-op
+    }
+
+    /**
+     * Register the child MBeans, @Managed fields of managed types, of every registered object that are not registered
+     * yet.<br />
+     * Reading a child attribute only returns the name of the child, this is the only place children are registered, so
+     * a read-only scrape never changes what is registered.
+     *
+     * @return the names of all the MBeans registered through the ManagementProcessor, children included
+     */
+    @Managed(description = "Register the child MBeans that are not registered yet and list all registered objects")
+    public static List<ObjectName> registerChildren()
+    {
+        for (final Registration registration : new ArrayList<Registration>(REGISTRATIONS.values()))
+        {
+            if (registration.getMbean() instanceof DynamicManagementMBean)
+            {
+                ((DynamicManagementMBean) registration.getMbean()).registerChildren();
+            }
+        }
+
+        return new ArrayList<ObjectName>(REGISTRATIONS.keySet());
+    }
+
+    /**
+     * @return the attributes and operations that failed, with their circuit breaker state
+     */
+    @Managed(description = "Attributes and operations that failed since registration, with their circuit breaker state")
+    public TabularData getMemberHealth() throws OpenDataException
+    {
+        return CircuitBreaker.health();
+    }
+
+    /**
+     * Get the attributes that changed after a version, so pollers only receive what changed.<br />
+     * Versions are tracked once this has been called for the first time, every attribute is sampled once a second
+     * and writes through JMX are seen immediately. Tracking stops when nobody has called this for five minutes and
+     * starts again on the next call. Pass 0 to receive every attribute.
+     *
+     * @param version Version returned by the previous call, 0 for everything
+     * @return the changed attributes and the version to pass to the next call
+     */
+    @Managed(description = "Attributes changed since the version returned by the previous call, 0 for all")
+    public static ChangeSet changedSince(final long version)
+    {
+        AttributeVersions.polled();
+        startVersionTracking();
+
+        // attributes bound to an executor are read here, the shared scheduler thread must not wait on executors
+        for (final Registration registration : REGISTRATIONS.values())
+        {
+            if (registration.getMbean() instanceof DynamicManagementMBean)
+            {
+                final AttributeVersions versions = ((DynamicManagementMBean) registration.getMbean()).getVersions();
+                if (versions != null)
+                {
+                    versions.sampleOwned();
+                }
+            }
+        }
+
+        // every change covered by the token has been stored, one racing with the scan is returned again next time
+        final long current = AttributeVersions.currentVersion();
+
+        final Map<ObjectName, Map<String, Object>> changes = new HashMap<ObjectName, Map<String, Object>>();
+        for (final Registration registration : REGISTRATIONS.values())
+        {
+            if (registration.getMbean() instanceof DynamicManagementMBean)
+            {
+                final AttributeVersions versions = ((DynamicManagementMBean) registration.getMbean()).getVersions();
+                if (versions != null)
+                {
+                    final Map<String, Object> changed = new HashMap<String, Object>();
+                    versions.collect(version, changed);
+                    if (!changed.isEmpty())
+                    {
+                        changes.put(registration.getObjectName(), changed);
+                    }
+                }
+            }
+        }
+
+        return new ChangeSet(current, changes);
+    }
+
+    /**
+     * Stream attributes of a registered object to in-process consumers without going through the MBeanServer.<br />
+     * Each subscriber receives a map of the attribute values every period, as long as it has requested more, a slow
+     * subscriber receives the latest values instead of a backlog. Items are delivered on the shared monitor thread,
+     * subscribers must not block in onNext. The stream completes when the object is unregistered.
+     *
+     * @param obj         Registered instance
+     * @param period      How often to read the attributes in milliseconds
+     * @param changesOnly Only deliver the values when one of them changed since the last item
+     * @param attributes  Names of readable attributes
+     * @return a publisher of attribute name to value maps
+     * @throws IllegalArgumentException if the object was not registered or an attribute is not readable
+     */
+    public static Flow.Publisher<Map<String, Object>> publisher(final Object obj, final long period, final boolean changesOnly, final String... attributes)
+    {
+        final DynamicManagementMBean mbean = getManagedMBean(obj);
+
+        final Set<String> readable = new HashSet<String>();
+        for (final MBeanAttributeInfo attrInfo : mbean.getMBeanInfo().getAttributes())
+        {
+            if (attrInfo.isReadable())
+            {
+                readable.add(attrInfo.getName());
+            }
+        }
+
+        for (final String attribute : attributes)
+        {
+            if (!readable.contains(attribute))
+            {
+                throw new IllegalArgumentException("No readable attribute " + attribute + " on " + obj.getClass().getName());
+            }
+        }
+
+        if (period <= 0)
+        {
+            throw new IllegalArgumentException("Period must be positive: " + period);
+        }
+
+        return new AttributePublisher(mbean, attributes, period, changesOnly);
+    }
+
+    /**
+     * Push the numeric attributes of every registered MBean to a local metrics agent, such as a StatsD or Telegraf
+     * listener, over UDP
+     *
+     * @param target Address of the agent, usually on loopback
+     * @param format Wire format the agent accepts
+     * @param period How often to sample and send the metrics in milliseconds
+     * @return the running exporter, close it to stop
+     * @throws IOException if the channel could not be opened
+     */
+    public static PushExporter startPushExporter(final SocketAddress target, final PushExporter.Format format, final long period) throws IOException
+    {
+        if (period <= 0)
+        {
+            throw new IllegalArgumentException("Period must be positive: " + period);
+        }
+
+        return new PushExporter(target, format, period);
+    }
+
+    /**
+     * Record numeric attributes of a registered instance into a fixed-size, memory-mapped ring file, so the recent
+     * history is still there after an incident or a crash. Read it with {@link TimeSeriesReader}.
+     *
+     * @param obj        Registered instance
+     * @param file       Ring file, appended to if it was written with the same settings and replaced otherwise
+     * @param period     How often to sample in milliseconds
+     * @param size       Size of the file in bytes, the oldest samples are overwritten once it is full
+     * @param attributes Numeric attributes to record, none for all of them
+     * @return the running recorder, close it to stop
+     * @throws IOException if the file could not be mapped
+     */
+    public static TimeSeriesRecorder startRecorder(final Object obj, final Path file, final long period, final long size, final String... attributes) throws IOException
+    {
+        if (period <= 0)
+        {
+            throw new IllegalArgumentException("Period must be positive: " + period);
+        }
+
+        return new TimeSeriesRecorder(getManagedMBean(obj), file, period, size, attributes);
+    }
+
+    /**
+     * Serve binary snapshots of every registered MBean on a Unix domain socket, read them with {@link SnapshotClient}
+     *
+     * @param path Path of the socket file, an existing file at that path is replaced
+     * @return the running server, close it to stop
+     * @throws IOException if the socket could not be bound
+     */
+    public static SnapshotServer startSnapshotServer(final Path path) throws IOException
+    {
+        return new SnapshotServer(path);
+    }
+
+    /**
+     * Run a list of commands against any registered MBeans in a single call, so a remote runbook needs one round-trip
+     * instead of one per step
+     *
+     * @param commands    Attribute reads, writes and operation invocations
+     * @param parallel    Run the commands concurrently instead of in order
+     * @param stopOnError Skip the commands that have not started once a command fails
+     * @return the result of every command, in the order of the commands
+     */
+    @Managed(description = "Run attribute reads, writes and operations of several MBeans in one call")
+    public static List<CommandResult> batch(final List<ManagementCommand> commands, final boolean parallel, final boolean stopOnError)
+    {
+        final CommandResult[] results = new CommandResult[commands.size()];
+        final AtomicBoolean failed = new AtomicBoolean();
+
+        if (!parallel || commands.size() <= 1)
+        {
+            for (int i = 0; i < results.length; i++)
+            {
+                results[i] = execute(commands.get(i), stopOnError, failed);
+            }
+        }
+        else
+        {
+            final List<Future<CommandResult>> futures = new ArrayList<Future<CommandResult>>();
+
+            try
+            {
+                for (final ManagementCommand command : commands)
+                {
+                    futures.add(BatchWorkers.POOL.submit(new Callable<CommandResult>()
+                    {
+                        public CommandResult call()
+                        {
+                            return execute(command, stopOnError, failed);
+                        }
+                    }));
+                }
+
+                for (int i = 0; i < results.length; i++)
+                {
+                    results[i] = futures.get(i).get();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                LOG.error("Interrupted while running commands", e);
+            }
+            catch (ExecutionException e)
+            {
+                LOG.error("Error running commands", e);
+            }
+            finally
+            {
+                // the pool is shared, only stop the commands of this batch
+                for (final Future<CommandResult> future : futures)
+                {
+                    future.cancel(true);
+                }
+            }
+
+            for (int i = 0; i < results.length; i++)
+            {
+                if (results[i] == null)
+                {
+                    results[i] = CommandResult.skipped(commands.get(i));
+                }
+            }
+        }
+
+        return Arrays.asList(results);
+    }
+
+    private static CommandResult execute(final ManagementCommand command, final boolean stopOnError, final AtomicBoolean failed)
+    {
+        if (stopOnError && failed.get())
+        {
+            return CommandResult.skipped(command);
+        }
+
+        final MBeanServer server = getServer(command.getObjectName());
+
+        try
+        {
+            switch (command.getType())
+            {
+                case GET_ATTRIBUTE:
+                    return CommandResult.success(command, server.getAttribute(command.getObjectName(), command.getName()));
+                case SET_ATTRIBUTE:
+                    server.setAttribute(command.getObjectName(), new Attribute(command.getName(), command.getParams()[0]));
+                    return CommandResult.success(command, null);
+                default:
+                    return CommandResult.success(command, server.invoke(command.getObjectName(), command.getName(), command.getParams(), command.getSignature()));
+            }
+        }
+        catch (Exception e)
+        {
+            // the failure is returned to the caller, which decides whether it is worth reporting
+            LOG.debug("Error running " + command, e);
+            failed.set(true);
+            return CommandResult.failure(command, e);
+        }
+    }
+
+    /*package*/ static boolean isVersionTracking()
+    {
+        return versionTracking;
+    }
+
+    private static synchronized void startVersionTracking()
+    {
+        if (!versionTracking)
+        {
+            versionTracking = true;
+            for (final Registration registration : REGISTRATIONS.values())
+            {
+                if (registration.getMbean() instanceof DynamicManagementMBean)
+                {
+                    ((DynamicManagementMBean) registration.getMbean()).startVersionTracking(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop sampling attribute versions when nobody polled for changes lately, the next poll starts it again
+     */
+    /*package*/ static synchronized void stopVersionTrackingIfIdle()
+    {
+        if (versionTracking && AttributeVersions.isIdle())
+        {
+            versionTracking = false;
+            for (final Registration registration : REGISTRATIONS.values())
+            {
+                if (registration.getMbean() instanceof DynamicManagementMBean)
+                {
+                    ((DynamicManagementMBean) registration.getMbean()).stopVersionTracking();
+                }
+            }
+        }
+    }
+
+    public static ObjectName constructObjectName(final Class<?> clazz)
+    {
+        ObjectName name = null;
+
+        try
+        {
+            name = new ObjectName(clazz.getPackage().getName() + ":type=" + clazz.getSimpleName());
+        }
+        catch (JMException e)
+        {
+            LOG.error("Error creating ObjectName", e);
+        }
+
+        return name;
+    }
+
+    /**
+     * Construct the ObjectName of an instance, using the {@link ManagedName} template of its class if it has one
+     *
+     * @param obj Instance of the managed object
+     * @return the ObjectName, null if it could not be created
+     */
+    public static ObjectName constructObjectName(final Object obj)
+    {
+        ObjectName name = null;
+
+        try
+        {
+            final ObjectNameTemplate template = ObjectNameTemplate.forClass(obj.getClass());
+            name = template == null ? constructObjectName(obj.getClass()) : template.build(obj);
+        }
+        catch (Exception e)
+        {
+            LOG.error("Error creating ObjectName", e);
+        }
+
+        return name;
+    }
+
+    public static void register(Object obj)
+    {
+        ManagementProcessor.register(obj, "");
+    }
+
+    /**
+     * Register a new DynamicMBean
+     *
+     * @param obj  Instance of the object to be managed
+     * @param desc Description of the MBean
+     */
+    public static void register(final Object obj, final String desc)
+    {
+        ManagementProcessor.register(obj, desc, constructObjectName(obj));
+    }
+
+    /**
+     * Register a new DynamicMBean under the given name
+     *
+     * @param obj     Instance of the object to be managed
+     * @param desc    Description of the MBean
+     * @param objName Name to register the MBean under
+     */
+    public static void register(final Object obj, final String desc, final ObjectName objName)
+    {
+        register(obj, desc, objName, false);
+    }
+
+    /**
+     * Register a new instance without keeping it from being garbage collected, its MBean is unregistered once it has
+     * been collected. Used by the {@link ManagementAgent}, nothing happens if the instance is already registered.
+     *
+     * @param obj Instance of the object to be managed
+     * @return false if the instance was already registered
+     */
+    /*package*/ static boolean registerWeak(final Object obj)
+    {
+        if (findRegistration(obj) != null)
+        {
+            return false;
+        }
+
+        register(obj, "", constructInstanceName(obj), true);
+        return true;
+    }
+
+    private static void register(final Object obj, final String desc, final ObjectName objName, final boolean weak)
+    {
+        if (weak)
+        {
+            LOG.debug("Registering MBean: " + objName);
+        }
+        else
+        {
+            LOG.info("Registering MBean: " + obj.getClass().getSimpleName());
+        }
+        Object instance = null;
+
+        final RegistrationEvent event = RegistrationEvent.enabled() ? new RegistrationEvent() : null;
+        if (event != null)
+        {
+            event.action = RegistrationEvent.REGISTER;
+            event.begin();
+        }
+
+        Exception failure = null;
+
+        try
+        {
+            if (obj instanceof DynamicMBean)
+            {
+                instance = obj;
+            }
+            else
+            {
+                final DynamicManagementMBean mbean = new DynamicManagementMBean(obj, desc, weak);
+                if (mbean.getMBeanInfo() != null)
+                {
+                    instance = mbean;
+                }
+            }
+
+            if (instance != null)
+            {
+                registerLocked(obj, instance, objName, weak);
+            }
+        }
+        catch (Exception e)
+        {
+            failure = e;
+            LOG.error("Error Registering the DynamicManagementMBean with the Factory", e);
+        }
+
+        if (event != null)
+        {
+            event.commit(objName, null, failure);
+        }
+    }
+
+    /**
+     * Register with the server and record the registration while holding the lock of the name, so a concurrent
+     * unregister of the same name can not forget it in between
+     */
+    private static void registerLocked(final Object obj, final Object instance, final ObjectName objName, final boolean weak) throws JMException
+    {
+        final NameLock lock = lockName(objName);
+        try
+        {
+            final MBeanServer server = getServer(objName);
+            server.registerMBean(instance, objName);
+
+            final AggregateMBean aggregate = instance instanceof DynamicManagementMBean ? joinAggregate(obj.getClass(), (DynamicManagementMBean) instance) : null;
+            if (instance instanceof DynamicManagementMBean)
+            {
+                joinTimers(obj.getClass(), (DynamicManagementMBean) instance);
+            }
+            final Registration registration = new Registration(objName, obj, instance, aggregate, weak, server);
+            REGISTRATIONS.put(objName, registration);
+
+            synchronized (REGISTERED_INSTANCES)
+            {
+                if (weak)
+                {
+                    List<Registration> registrations = WEAK_INSTANCES.get(System.identityHashCode(obj));
+                    if (registrations == null)
+                    {
+                        registrations = new ArrayList<Registration>(1);
+                        WEAK_INSTANCES.put(System.identityHashCode(obj), registrations);
+                    }
+                    registrations.add(registration);
+                }
+                else
+                {
+                    REGISTERED_INSTANCES.put(obj, registration);
+                }
+            }
+
+            if (weak)
+            {
+                // must not reference obj, or it would never become unreachable
+                Collector.CLEANER.register(obj, new Runnable()
+                {
+                    public void run()
+                    {
+                        collected(registration);
+                    }
+                });
+            }
+        }
+        finally
+        {
+            unlockName(objName, lock);
+        }
+    }
+
+    /**
+     * Register the MBeans of a domain with their own MBeanServer instead of the platform MBeanServer, so registering,
+     * querying and unregistering them does not contend with the MBeans of other domains<br />
+     * Only affects MBeans registered from now on, the ones already registered stay with their server until they are
+     * unregistered.
+     *
+     * @param domain   ObjectName domain, usually the package of the classes
+     * @param server   Server of the domain, such as one from {@link #newServer(String, boolean)}
+     * @param federate Also register a {@link ServerView} of the server on the platform MBeanServer
+     */
+    public static void setServer(final String domain, final MBeanServer server, final boolean federate)
+    {
+        final ServerView view;
+        synchronized (SERVERS)
+        {
+            SERVERS.put(domain, server);
+
+            if (!federate || VIEWS.containsKey(domain))
+            {
+                return;
+            }
+            view = new ServerView(domain, server);
+            VIEWS.put(domain, view);
+        }
+
+        try
+        {
+            register(view, "MBeans of " + domain, ServerView.constructObjectName(domain));
+        }
+        catch (JMException e)
+        {
+            LOG.error("Error creating ServerView ObjectName for " + domain, e);
+        }
+    }
+
+    /**
+     * Register the MBeans of a domain with a new MBeanServer of their own, that is not returned by
+     * MBeanServerFactory.findMBeanServer
+     *
+     * @param domain   ObjectName domain, usually the package of the classes
+     * @param federate Also register a {@link ServerView} of the server on the platform MBeanServer
+     * @return the new MBeanServer
+     */
+    public static MBeanServer newServer(final String domain, final boolean federate)
+    {
+        final MBeanServer server = MBeanServerFactory.newMBeanServer(domain);
+        setServer(domain, server, federate);
+        return server;
+    }
+
+    /**
+     * Register the MBeans of a domain with the platform MBeanServer again, and unregister the view of its server
+     *
+     * @param domain ObjectName domain
+     */
+    public static void removeServer(final String domain)
+    {
+        final ServerView view;
+        synchronized (SERVERS)
+        {
+            SERVERS.remove(domain);
+            view = VIEWS.remove(domain);
+        }
+
+        if (view != null)
+        {
+            unregister(view);
+        }
+    }
+
+    /**
+     * @return the MBeanServer the MBean of a name is registered with
+     */
+    public static MBeanServer getServer(final ObjectName objName)
+    {
+        final MBeanServer server = objName == null ? null : SERVERS.get(objName.getDomain());
+        return server == null ? ManagementFactory.getPlatformMBeanServer() : server;
+    }
+
+    public static void unregister(final Object obj)
+    {
+        final Registration registration = findRegistration(obj);
+
+        final ObjectName objName = registration == null ? constructObjectName(obj) : registration.getObjectName();
+        final MBeanServer server = registration == null ? getServer(objName) : registration.getServer();
+
+        final NameLock lock = lockName(objName);
+        try
+        {
+            unregisterMBean(server, objName);
+            forget(objName);
+        }
+        catch (JMException e)
+        {
+            LOG.error("Error Unregistering the DynamicManagementMBean with the Factory", e);
+        }
+        finally
+        {
+            unlockName(objName, lock);
+        }
+    }
+
+    private static NameLock lockName(final ObjectName objName)
+    {
+        NameLock lock;
+        synchronized (NAME_LOCKS)
+        {
+            lock = NAME_LOCKS.get(objName);
+            if (lock == null)
+            {
+                lock = new NameLock();
+                NAME_LOCKS.put(objName, lock);
+            }
+            lock.users++;
+        }
+        lock.lock.lock();
+        return lock;
+    }
+
+    private static void unlockName(final ObjectName objName, final NameLock lock)
+    {
+        lock.lock.unlock();
+        synchronized (NAME_LOCKS)
+        {
+            if (--lock.users == 0)
+            {
+                NAME_LOCKS.remove(objName);
+            }
+        }
+    }
+
+    /**
+     * Tell the MBean of a registered {@link ManagedAttributeProvider} or object with &#64;Managed(dynamic = true)
+     * methods that its set of attributes changed, so the next access rebuilds its MBeanInfo without waiting for the
+     * periodic refresh
+     *
+     * @param obj Registered instance
+     */
+    public static void dynamicAttributesChanged(final Object obj)
+    {
+        getManagedMBean(obj).dynamicAttributesChanged();
+    }
+
+    /**
+     * Watch a numeric attribute of a registered object against a high and a low threshold, the notifications are sent
+     * by the object's MBean, see {@link ManagedThreshold}
+     *
+     * @param obj       Registered instance
+     * @param attribute Name of a readable attribute
+     * @param high      Value at or above which the attribute is high
+     * @param low       Value at or below which the attribute is low
+     * @param period    How often to check the value in milliseconds
+     */
+    public static void addThreshold(final Object obj, final String attribute, final double high, final double low, final long period)
+    {
+        getManagedMBean(obj).addThreshold(attribute, high, low, period);
+    }
+
+    /**
+     * Stop watching the thresholds of an attribute of a registered object
+     *
+     * @param obj       Registered instance
+     * @param attribute Name of the attribute
+     */
+    public static void removeThresholds(final Object obj, final String attribute)
+    {
+        getManagedMBean(obj).removeThresholds(attribute);
+    }
+
+    /**
+     * Unregister every MBean registered through the ManagementProcessor
+     *
+     * @return which MBeans were unregistered and which failed
+     */
+    public static UnregistrationReport unregisterAll()
+    {
+        return unregisterAll(new RegistrationFilter()
+        {
+            public boolean accept(final ObjectName objectName, final Object obj)
+            {
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Unregister every registered instance of a class, including its subclasses
+     *
+     * @param clazz Class of the instances to unregister
+     * @return which MBeans were unregistered and which failed
+     */
+    public static UnregistrationReport unregisterAll(final Class<?> clazz)
+    {
+        return unregisterAll(new RegistrationFilter()
+        {
+            public boolean accept(final ObjectName objectName, final Object obj)
+            {
+                return clazz.isInstance(obj);
+            }
+        });
+    }
+
+    /**
+     * Unregister every MBean registered in an ObjectName domain
+     *
+     * @param domain Domain of the MBeans to unregister
+     * @return which MBeans were unregistered and which failed
+     */
+    public static UnregistrationReport unregisterAll(final String domain)
+    {
+        return unregisterAll(new RegistrationFilter()
+        {
+            public boolean accept(final ObjectName objectName, final Object obj)
+            {
+                return objectName.getDomain().equals(domain);
+            }
+        });
+    }
+
+    /**
+     * Unregister every MBean whose class was loaded by the ClassLoader, such as a redeployed application
+     *
+     * @param classLoader ClassLoader of the instances to unregister
+     * @return which MBeans were unregistered and which failed
+     */
+    public static UnregistrationReport unregisterAll(final ClassLoader classLoader)
+    {
+        return unregisterAll(new RegistrationFilter()
+        {
+            public boolean accept(final ObjectName objectName, final Object obj)
+            {
+                return obj.getClass().getClassLoader() == classLoader;
+            }
+        });
+    }
+
+    /**
+     * Unregister every MBean accepted by the filter, large numbers of MBeans are unregistered in parallel batches<br />
+     * The ManagementProcessor's own MBean is never unregistered.
+     *
+     * @param filter Selects the MBeans to unregister
+     * @return which MBeans were unregistered and which failed
+     */
+    public static UnregistrationReport unregisterAll(final RegistrationFilter filter)
+    {
+        final List<Registration> selected = new ArrayList<Registration>();
+        for (final Registration registration : REGISTRATIONS.values())
+        {
+            // collected weak registrations are left to their cleaner
+            final Object obj = registration.getObj();
+            if (obj != null && obj != instance && filter.accept(registration.getObjectName(), obj))
+            {
+                selected.add(registration);
+            }
+        }
+
+        final UnregistrationReport report = new UnregistrationReport();
+
+        if (selected.size() <= UNREGISTER_BATCH_SIZE)
+        {
+            unregisterBatch(selected, report);
+        }
+        else
+        {
+            final int batches = (selected.size() + UNREGISTER_BATCH_SIZE - 1) / UNREGISTER_BATCH_SIZE;
+            final int threads = Math.min(batches, Runtime.getRuntime().availableProcessors());
+            final ExecutorService pool = Executors.newFixedThreadPool(threads, new WorkerThreadFactory("unregister"));
+
+            try
+            {
+                final List<Future<?>> futures = new ArrayList<Future<?>>();
+                for (int start = 0; start < selected.size(); start += UNREGISTER_BATCH_SIZE)
+                {
+                    final List<Registration> batch = selected.subList(start, Math.min(start + UNREGISTER_BATCH_SIZE, selected.size()));
+                    futures.add(pool.submit(new Runnable()
+                    {
+                        public void run()
+                        {
+                            unregisterBatch(batch, report);
+                        }
+                    }));
+                }
+
+                for (final Future<?> future : futures)
+                {
+                    future.get();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                LOG.error("Interrupted while unregistering MBeans", e);
+            }
+            catch (ExecutionException e)
+            {
+                LOG.error("Error unregistering MBeans", e);
+            }
+            finally
+            {
+                pool.shutdown();
+            }
+        }
+
+        if (!report.isSuccessful())
+        {
+            LOG.error("Unable to unregister MBeans: " + report.getFailures().keySet());
+        }
+
+        return report;
+    }
+
+    /**
+     * Unregister every MBean registered through the ManagementProcessor when the JVM shuts down, calling this more
+     * than once has no further effect
+     */
+    public static synchronized void installShutdownHook()
+    {
+        if (shutdownHook == null)
+        {
+            shutdownHook = new Thread("ManagementProcessor-shutdown")
+            {
+                @Override
+                public void run()
+                {
+                    final UnregistrationReport report = unregisterAll();
+                    LOG.info("Unregistered " + report.getUnregistered().size() + " MBeans on shutdown");
+                }
+            };
+
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        }
+    }
+
+    /**
+     * Remove the hook installed by {@link #installShutdownHook()}
+     */
+    public static synchronized void removeShutdownHook()
+    {
+        if (shutdownHook != null)
+        {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            shutdownHook = null;
+        }
+    }
+
+    /**
+     * Find the DynamicManagementMBean an object was registered with
+     *
+     * @param obj Registered instance
+     * @return the MBean
+     * @throws IllegalArgumentException if the object was not registered through the ManagementProcessor
+     */
+    /*package*/ static DynamicManagementMBean getManagedMBean(final Object obj)
+    {
+        final DynamicManagementMBean mbean = findManagedMBean(obj);
+        if (mbean == null)
+        {
+            throw new IllegalArgumentException("Not registered with @Managed annotations: " + obj);
+        }
+
+        return mbean;
+    }
+
+    /*package*/ static Collection<Registration> registrations()
+    {
+        return REGISTRATIONS.values();
+    }
+
+    /**
+     * @param obj Instance, may be null
+     * @return the name the instance is registered under, null if it is not registered
+     */
+    /*package*/ static ObjectName findObjectName(final Object obj)
+    {
+        final Registration registration = findRegistration(obj);
+        return registration == null ? null : registration.getObjectName();
+    }
+
+    /**
+     * @param obj Instance, may be null
+     * @return the MBean of the instance, null if it is not registered with @Managed annotations
+     */
+    /*package*/ static DynamicManagementMBean findManagedMBean(final Object obj)
+    {
+        final Registration registration = findRegistration(obj);
+
+        return registration != null && registration.getMbean() instanceof DynamicManagementMBean ? (DynamicManagementMBean) registration.getMbean() : null;
+    }
+
+    private static Registration findRegistration(final Object obj)
+    {
+        synchronized (REGISTERED_INSTANCES)
+        {
+            final Registration registration = REGISTERED_INSTANCES.get(obj);
+            if (registration != null || obj == null || WEAK_INSTANCES.isEmpty())
+            {
+                return registration;
+            }
+
+            final List<Registration> registrations = WEAK_INSTANCES.get(System.identityHashCode(obj));
+            if (registrations != null)
+            {
+                for (final Registration weak : registrations)
+                {
+                    if (weak.getObj() == obj)
+                    {
+                        return weak;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Name of a weakly registered instance, its ManagedName template or package:type=SimpleName,instance=N
+     */
+    private static ObjectName constructInstanceName(final Object obj)
+    {
+        if (ObjectNameTemplate.forClass(obj.getClass()) != null)
+        {
+            return constructObjectName(obj);
+        }
+
+        ObjectName name = null;
+
+        try
+        {
+            name = new ObjectName(constructObjectName(obj.getClass()) + ",instance=" + INSTANCE_SEQUENCE.incrementAndGet());
+        }
+        catch (JMException e)
+        {
+            LOG.error("Error creating ObjectName", e);
+        }
+
+        return name;
+    }
+
+    /**
+     * Unregister the MBean of a weakly registered instance that was garbage collected, unless it is already gone
+     */
+    private static void collected(final Registration registration)
+    {
+        final ObjectName objName = registration.getObjectName();
+        final NameLock lock = lockName(objName);
+        try
+        {
+            if (REGISTRATIONS.get(objName) != registration)
+            {
+                return;
+            }
+
+            try
+            {
+                unregisterMBean(registration.getServer(), objName);
+            }
+            catch (JMException e)
+            {
+                LOG.debug("Collected MBean already unregistered: " + objName, e);
+            }
+            forget(objName);
+        }
+        finally
+        {
+            unlockName(objName, lock);
+        }
+    }
+
+    private static void unregisterBatch(final List<Registration> batch, final UnregistrationReport report)
+    {
+        for (final Registration registration : batch)
+        {
+            final ObjectName objName = registration.getObjectName();
+            final NameLock lock = lockName(objName);
+
+            try
+            {
+                unregisterMBean(registration.getServer(), objName);
+                forget(objName);
+                report.success(objName);
+            }
+            catch (InstanceNotFoundException e)
+            {
+                // already gone from the server, only our bookkeeping was stale
+                forget(objName);
+                report.failure(objName, e);
+            }
+            catch (Exception e)
+            {
+                report.failure(objName, e);
+            }
+            finally
+            {
+                unlockName(objName, lock);
+            }
+        }
+    }
+
+    /**
+     * Construct the ObjectName of the aggregate of a class annotated with {@link ManagedAggregate}
+     *
+     * @param clazz Class of the instances
+     * @return the ObjectName of the aggregate, null if the class is not aggregated
+     */
+    public static ObjectName constructAggregateName(final Class<?> clazz)
+    {
+        return AGGREGATE_NAMES.get(clazz);
+    }
+
+    private static ObjectName aggregateName(final Class<?> clazz)
+    {
+        final ManagedAggregate managedAggregate = clazz.getAnnotation(ManagedAggregate.class);
+        if (managedAggregate == null)
+        {
+            return null;
+        }
+
+        final String group = managedAggregate.value().length() == 0 ? clazz.getSimpleName() : managedAggregate.value();
+
+        try
+        {
+            final String name = group.matches("[\\w.-]+") ? group : ObjectName.quote(group);
+            return new ObjectName(clazz.getPackage().getName() + ":type=Aggregate,name=" + name);
+        }
+        catch (JMException e)
+        {
+            LOG.error("Error creating aggregate ObjectName", e);
+            return null;
+        }
+    }
+
+    private static AggregateMBean joinAggregate(final Class<?> clazz, final DynamicManagementMBean mbean)
+    {
+        final ObjectName aggregateName = constructAggregateName(clazz);
+        if (aggregateName == null)
+        {
+            return null;
+        }
+
+        synchronized (AGGREGATES)
+        {
+            AggregateMBean aggregate = AGGREGATES.get(aggregateName);
+            if (aggregate == null)
+            {
+                aggregate = new AggregateMBean(aggregateName.getCanonicalName());
+                try
+                {
+                    getServer(aggregateName).registerMBean(aggregate, aggregateName);
+                }
+                catch (JMException e)
+                {
+                    LOG.error("Error registering aggregate " + aggregateName, e);
+                    return null;
+                }
+                AGGREGATES.put(aggregateName, aggregate);
+            }
+
+            aggregate.add(mbean, clazz);
+            return aggregate;
+        }
+    }
+
+    private static void leaveAggregate(final Class<?> clazz, final AggregateMBean aggregate, final DynamicManagementMBean mbean)
+    {
+        final ObjectName aggregateName = constructAggregateName(clazz);
+
+        synchronized (AGGREGATES)
+        {
+            if (aggregate.remove(mbean) && AGGREGATES.remove(aggregateName) != null)
+            {
+                try
+                {
+                    getServer(aggregateName).unregisterMBean(aggregateName);
+                }
+                catch (JMException e)
+                {
+                    LOG.error("Error unregistering aggregate " + aggregateName, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Construct the ObjectName of the timers of a class with methods annotated with &#64;Managed(timed = true)
+     *
+     * @param clazz Class of the instances
+     * @return package:type=Timers,name=SimpleName
+     */
+    public static ObjectName constructTimersName(final Class<?> clazz)
+    {
+        try
+        {
+            return new ObjectName(clazz.getPackage().getName() + ":type=Timers,name=" + clazz.getSimpleName());
+        }
+        catch (JMException e)
+        {
+            LOG.error("Error creating timers ObjectName", e);
+            return null;
+        }
+    }
+
+    private static void joinTimers(final Class<?> clazz, final DynamicManagementMBean mbean)
+    {
+        if (mbean.getTimers().isEmpty())
+        {
+            return;
+        }
+
+        final ObjectName timersName = constructTimersName(clazz);
+        if (timersName == null)
+        {
+            return;
+        }
+
+        synchronized (TIMERS)
+        {
+            TimerMBean timers = TIMERS.get(timersName);
+            if (timers == null)
+            {
+                timers = new TimerMBean(clazz, mbean.getTimers());
+                try
+                {
+                    getServer(timersName).registerMBean(timers, timersName);
+                }
+                catch (JMException e)
+                {
+                    LOG.error("Error registering timers " + timersName, e);
+                    return;
+                }
+                TIMERS.put(timersName, timers);
+            }
+
+            timers.add(mbean);
+        }
+    }
+
+    private static void leaveTimers(final Class<?> clazz, final DynamicManagementMBean mbean)
+    {
+        if (mbean.getTimers().isEmpty())
+        {
+            return;
+        }
+
+        final ObjectName timersName = constructTimersName(clazz);
+
+        synchronized (TIMERS)
+        {
+            final TimerMBean timers = TIMERS.get(timersName);
+            if (timers != null && timers.remove(mbean))
+            {
+                TIMERS.remove(timersName);
+                try
+                {
+                    getServer(timersName).unregisterMBean(timersName);
+                }
+                catch (JMException e)
+                {
+                    LOG.error("Error unregistering timers " + timersName, e);
+                }
+            }
+        }
+    }
+
+    private static void unregisterMBean(final MBeanServer server, final ObjectName objName) throws JMException
+    {
+        if (!RegistrationEvent.enabled())
+        {
+            server.unregisterMBean(objName);
+            return;
+        }
+
+        final RegistrationEvent event = new RegistrationEvent();
+        event.action = RegistrationEvent.UNREGISTER;
+        event.begin();
+
+        Exception failure = null;
+        try
+        {
+            server.unregisterMBean(objName);
+        }
+        catch (Exception e)
+        {
+            failure = e;
+            throw e;
+        }
+        finally
+        {
+            event.commit(objName, null, failure);
+        }
+    }
+
+    private static void forget(final ObjectName objName)
+    {
+        final Registration registration = REGISTRATIONS.remove(objName);
+        if (registration != null)
+        {
+            if (registration.getAggregate() != null)
+            {
+                leaveAggregate(registration.getObjClass(), registration.getAggregate(), (DynamicManagementMBean) registration.getMbean());
+            }
+
+            if (registration.getMbean() instanceof DynamicManagementMBean)
+            {
+                leaveTimers(registration.getObjClass(), (DynamicManagementMBean) registration.getMbean());
+            }
+
+            synchronized (REGISTERED_INSTANCES)
+            {
+                if (registration.isWeak())
+                {
+                    forgetWeak(registration);
+                }
+                else if (REGISTERED_INSTANCES.get(registration.getObj()) == registration)
+                {
+                    REGISTERED_INSTANCES.remove(registration.getObj());
+                }
+            }
+        }
+    }
+
+    private static void forgetWeak(final Registration registration)
+    {
+        final List<Registration> registrations = WEAK_INSTANCES.get(registration.getIdentity());
+        if (registrations != null && registrations.remove(registration) && registrations.isEmpty())
+        {
+            WEAK_INSTANCES.remove(registration.getIdentity());
+        }
+    }
+
+    /**
+     * Holder of the Cleaner of weak registrations, its thread is only started by the first one
+     */
+    private static final class Collector
+    {
+        private static final Cleaner CLEANER = Cleaner.create(new WorkerThreadFactory("cleaner"));
+    }
+
+    /**
+     * Holder of the pool parallel batches run on, its threads are only started by the first one and stop when idle
+     */
+    private static final class BatchWorkers
+    {
+        private static final ThreadPoolExecutor POOL = new ThreadPoolExecutor(Runtime.getRuntime().availableProcessors(),
+                Runtime.getRuntime().availableProcessors(), 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new WorkerThreadFactory("batch"));
+
+        static
+        {
+            POOL.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    /**
+     * Lock of one ObjectName, dropped from NAME_LOCKS once no thread uses it
+     */
+    private static final class NameLock
+    {
+        private final ReentrantLock lock = new ReentrantLock();
+        private int users;
+    }
+
+    private static final class WorkerThreadFactory implements ThreadFactory
+    {
+        private final String task;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private WorkerThreadFactory(final String task)
+        {
+            this.task = task;
+        }
+
+        public Thread newThread(final Runnable runnable)
+        {
+            final Thread thread = new Thread(runnable, "ManagementProcessor-" + task + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
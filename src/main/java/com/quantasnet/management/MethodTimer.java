@@ -0,0 +1,266 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.quantasnet.management;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count, errors and latency histogram of a method annotated with &#64;Managed(timed = true), recorded by the code the
+ * {@link ManagementAgent} adds to the method. A timer counts the calls of every instance and is read once per class, as
+ * attributes of package:type=Timers,name=SimpleName, see {@link ManagementProcessor#constructTimersName(Class)}.<br />
+ * <br />
+ * Every thread records into one of a fixed number of stripes, two atomic adds and no allocation per call. The
+ * histogram has four buckets per power of two of nanoseconds, so percentiles are reported within 25%, and takes a
+ * fixed amount of memory per method whatever the latencies.
+ *
+ * @author Quantas
+ */
+public final class MethodTimer
+{
+    /*package*/ static final String COUNT_SUFFIX = "Count";
+    /*package*/ static final String ERRORS_SUFFIX = "Errors";
+    /*package*/ static final String MEAN_SUFFIX = "MeanMicros";
+    /*package*/ static final String P50_SUFFIX = "P50Micros";
+    /*package*/ static final String P99_SUFFIX = "P99Micros";
+    /*package*/ static final String P999_SUFFIX = "P999Micros";
+
+    // up to 2^40 ns, about 18 minutes, longer calls count in the last bucket
+    private static final int BUCKETS = 160;
+
+    // keeps the hot cells of neighbouring stripes off each other's cache line
+    private static final int PADDING = 8;
+    private static final int TOTAL = PADDING;
+    private static final int ERRORS = PADDING + 1;
+    private static final int FIRST_BUCKET = PADDING + 2;
+
+    private static final int STRIPES = stripes();
+
+    // key of the method -> index in TIMERS, guarded by itself
+    private static final Map<String, Integer> IDS = new HashMap<String, Integer>();
+
+    private static volatile MethodTimer[] timers = new MethodTimer[0];
+
+    private final String key;
+    private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+
+    private MethodTimer(final String key)
+    {
+        this.key = key;
+        for (int i = 0; i < STRIPES; i++)
+        {
+            stripes[i] = new AtomicLongArray(FIRST_BUCKET + BUCKETS + PADDING);
+        }
+    }
+
+    /**
+     * Called by a timed method when it returns, not meant to be called directly
+     *
+     * @param id    Timer of the method
+     * @param start System.nanoTime() when the method was entered
+     */
+    public static void succeeded(final int id, final long start)
+    {
+        timers[id].record(System.nanoTime() - start);
+    }
+
+    /**
+     * Called by a timed method when it throws, not meant to be called directly
+     *
+     * @param id    Timer of the method
+     * @param start System.nanoTime() when the method was entered
+     */
+    public static void failed(final int id, final long start)
+    {
+        timers[id].record(System.nanoTime() - start).incrementAndGet(ERRORS);
+    }
+
+    /**
+     * @param key Internal name of the class, a dot, then the name and descriptor of the method
+     * @return the id of the timer of the method, the same for every class of that name
+     */
+    /*package*/ static int register(final String key)
+    {
+        synchronized (IDS)
+        {
+            final Integer id = IDS.get(key);
+            if (id != null)
+            {
+                return id;
+            }
+
+            final MethodTimer[] current = timers;
+            final MethodTimer[] next = Arrays.copyOf(current, current.length + 1);
+            next[current.length] = new MethodTimer(key);
+            timers = next;
+            IDS.put(key, current.length);
+            return current.length;
+        }
+    }
+
+    /**
+     * @return the timer of a method, null if the method was not instrumented
+     */
+    /*package*/ static MethodTimer forMethod(final Method method)
+    {
+        final Integer id;
+        synchronized (IDS)
+        {
+            id = IDS.get(key(method));
+        }
+        return id == null ? null : timers[id];
+    }
+
+    /*package*/ static String key(final Method method)
+    {
+        final StringBuilder key = new StringBuilder(method.getDeclaringClass().getName().replace('.', '/'));
+        key.append('.').append(method.getName()).append('(');
+        for (final Class<?> type : method.getParameterTypes())
+        {
+            appendDescriptor(key, type);
+        }
+        appendDescriptor(key.append(')'), method.getReturnType());
+        return key.toString();
+    }
+
+    private static void appendDescriptor(final StringBuilder key, final Class<?> type)
+    {
+        if (type.isArray())
+        {
+            key.append(type.getName().replace('.', '/'));
+        }
+        else if (type.isPrimitive())
+        {
+            key.append(type == Integer.TYPE ? 'I' : type == Long.TYPE ? 'J' : type == Boolean.TYPE ? 'Z'
+                    : type == Byte.TYPE ? 'B' : type == Character.TYPE ? 'C' : type == Short.TYPE ? 'S'
+                    : type == Float.TYPE ? 'F' : type == Double.TYPE ? 'D' : 'V');
+        }
+        else
+        {
+            key.append('L').append(type.getName().replace('.', '/')).append(';');
+        }
+    }
+
+    private AtomicLongArray record(final long nanos)
+    {
+        final AtomicLongArray stripe = stripes[(int) Thread.currentThread().getId() & (STRIPES - 1)];
+        stripe.incrementAndGet(FIRST_BUCKET + bucket(nanos));
+        stripe.addAndGet(TOTAL, nanos);
+        return stripe;
+    }
+
+    /*package*/ static int bucket(final long nanos)
+    {
+        if (nanos < 4)
+        {
+            return nanos < 0 ? 0 : (int) nanos;
+        }
+
+        final int msb = 63 - Long.numberOfLeadingZeros(nanos);
+        return Math.min((msb - 1) * 4 + (int) (nanos >>> (msb - 2) & 3), BUCKETS - 1);
+    }
+
+    /**
+     * @return the highest latency in nanoseconds counted in a bucket
+     */
+    /*package*/ static long bucketLimit(final int bucket)
+    {
+        if (bucket < 4)
+        {
+            return bucket;
+        }
+
+        final int shift = bucket / 4 - 1;
+        return ((4L + bucket % 4 + 1) << shift) - 1;
+    }
+
+    /**
+     * @param suffix One of the attribute suffixes
+     * @return the statistic of the calls so far
+     */
+    /*package*/ Object read(final String suffix)
+    {
+        final long[] counts = new long[BUCKETS];
+        long count = 0;
+        long total = 0;
+        long errors = 0;
+        for (final AtomicLongArray stripe : stripes)
+        {
+            total += stripe.get(TOTAL);
+            errors += stripe.get(ERRORS);
+            for (int i = 0; i < BUCKETS; i++)
+            {
+                final long bucket = stripe.get(FIRST_BUCKET + i);
+                counts[i] += bucket;
+                count += bucket;
+            }
+        }
+
+        if (COUNT_SUFFIX.equals(suffix))
+        {
+            return count;
+        }
+        if (ERRORS_SUFFIX.equals(suffix))
+        {
+            return errors;
+        }
+        if (MEAN_SUFFIX.equals(suffix))
+        {
+            return count == 0 ? 0d : total / 1e3 / count;
+        }
+
+        final double quantile = P50_SUFFIX.equals(suffix) ? 0.5 : P99_SUFFIX.equals(suffix) ? 0.99 : 0.999;
+        return percentile(counts, count, quantile) / 1e3;
+    }
+
+    private static long percentile(final long[] counts, final long count, final double quantile)
+    {
+        final long rank = (long) Math.ceil(count * quantile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += counts[i];
+            if (seen >= rank && seen > 0)
+            {
+                return bucketLimit(i);
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "MethodTimer[" + key + "]";
+    }
+
+    private static int stripes()
+    {
+        final int processors = Math.min(Runtime.getRuntime().availableProcessors(), 64);
+        return Integer.highestOneBit(processors * 2 - 1);
+    }
+}
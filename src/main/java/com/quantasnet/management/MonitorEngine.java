@@ -0,0 +1,116 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluates every registered Sampler, such as thresholds and rates, on the shared ManagementScheduler.<br />
+ * Samplers with the same period are evaluated together by a single periodic task, so the cost of monitoring grows
+ * with the number of watched attributes and not with the number of timers.
+ */
+/*package*/ final class MonitorEngine
+{
+    private static final Logger LOG = LoggerFactory.getLogger(MonitorEngine.class);
+
+    /*package*/ static final MonitorEngine INSTANCE = new MonitorEngine();
+
+    private final ConcurrentMap<Long, Batch> batches = new ConcurrentHashMap<Long, Batch>();
+
+    private MonitorEngine()
+    {
+        // no-op
+    }
+
+    public synchronized void add(final Sampler sampler)
+    {
+        Batch batch = batches.get(sampler.getPeriod());
+        if (batch == null)
+        {
+            batch = new Batch(sampler.getPeriod());
+            batches.put(sampler.getPeriod(), batch);
+        }
+
+        batch.samplers.add(sampler);
+    }
+
+    public synchronized void remove(final Sampler sampler)
+    {
+        final Batch batch = batches.get(sampler.getPeriod());
+        if (batch != null && batch.samplers.remove(sampler) && batch.samplers.isEmpty())
+        {
+            batch.future.cancel(false);
+            batches.remove(sampler.getPeriod());
+        }
+    }
+
+    /**
+     * @return the number of samplers being evaluated
+     */
+    public int size()
+    {
+        int size = 0;
+        for (final Batch batch : batches.values())
+        {
+            size += batch.samplers.size();
+        }
+        return size;
+    }
+
+    private static final class Batch implements Runnable
+    {
+        private final List<Sampler> samplers = new CopyOnWriteArrayList<Sampler>();
+        private final ScheduledFuture<?> future;
+
+        private Batch(final long period)
+        {
+            future = ManagementScheduler.get().scheduleAtFixedRate(this, period, period, TimeUnit.MILLISECONDS);
+        }
+
+        public void run()
+        {
+            for (final Sampler sampler : samplers)
+            {
+                try
+                {
+                    sampler.sample();
+                }
+                catch (RuntimeException e)
+                {
+                    // an exception would cancel the whole batch
+                    LOG.error("Error sampling " + sampler, e);
+                }
+            }
+        }
+    }
+}
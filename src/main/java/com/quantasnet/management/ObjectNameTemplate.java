@@ -0,0 +1,398 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiled form of a {@link ManagedName} template.<br />
+ * The template is parsed, validated and bound to the members of the class once per class, building a name for an
+ * instance then only reads the bound members and appends the values.
+ */
+/*package*/ final class ObjectNameTemplate
+{
+    // held by the class itself, so a class loader that is dropped is not kept alive, null for classes without a template
+    private static final ClassValue<ObjectNameTemplate> TEMPLATES = new ClassValue<ObjectNameTemplate>()
+    {
+        @Override
+        protected ObjectNameTemplate computeValue(final Class<?> clazz)
+        {
+            final ManagedName managedName = clazz.getAnnotation(ManagedName.class);
+            return managedName == null ? null : compile(clazz, managedName.value());
+        }
+    };
+
+    private static final String SPECIAL_CHARACTERS = ",=:\"*?\n";
+
+    private final String template;
+
+    // String literals, Bindings and QuotedValues in the order they appear in the name
+    private final List<Object> parts;
+
+    private ObjectNameTemplate(final String template, final List<Object> parts)
+    {
+        this.template = template;
+        this.parts = parts;
+    }
+
+    /**
+     * Get the compiled template of a class
+     *
+     * @param clazz Class of the managed object
+     * @return the compiled template, null if the class is not annotated with {@link ManagedName}
+     * @throws IllegalArgumentException if the template is not valid for the class
+     */
+    public static ObjectNameTemplate forClass(final Class<?> clazz)
+    {
+        return TEMPLATES.get(clazz);
+    }
+
+    /**
+     * Build the name of an instance
+     *
+     * @param obj Instance of the class the template was compiled for
+     * @return the ObjectName of the instance
+     * @throws Exception if a bound member could not be read or the name is not valid
+     */
+    public ObjectName build(final Object obj) throws Exception
+    {
+        final StringBuilder name = new StringBuilder(template.length() + 16);
+
+        for (final Object part : parts)
+        {
+            if (part instanceof String)
+            {
+                name.append((String) part);
+            }
+            else
+            {
+                ((Value) part).append(obj, name);
+            }
+        }
+
+        return new ObjectName(name.toString());
+    }
+
+    /**
+     * Parse the template into literals and values, bind the placeholders and check that the result is a valid,
+     * non pattern ObjectName
+     */
+    /*package*/ static ObjectNameTemplate compile(final Class<?> clazz, final String template)
+    {
+        final int colon = template.indexOf(':');
+        if (colon < 0)
+        {
+            throw new IllegalArgumentException("ObjectName template has no domain: " + template);
+        }
+
+        final String domain = template.substring(0, colon);
+        if (domain.indexOf('{') >= 0)
+        {
+            throw new IllegalArgumentException("Placeholders are only supported in key property values: " + template);
+        }
+
+        final List<Object> parts = new ArrayList<Object>();
+        final StringBuilder literal = new StringBuilder(domain).append(':');
+
+        final List<String> properties = splitProperties(template.substring(colon + 1), template);
+        for (int i = 0; i < properties.size(); i++)
+        {
+            final String property = properties.get(i);
+            final int equals = property.indexOf('=');
+            if (equals <= 0)
+            {
+                throw new IllegalArgumentException("Invalid key property " + property + " in ObjectName template: " + template);
+            }
+
+            final String key = property.substring(0, equals);
+            final String value = property.substring(equals + 1);
+            if (key.indexOf('{') >= 0)
+            {
+                throw new IllegalArgumentException("Placeholders are only supported in key property values: " + template);
+            }
+
+            if (i > 0)
+            {
+                literal.append(',');
+            }
+            literal.append(key).append('=');
+
+            if (value.indexOf('{') < 0)
+            {
+                literal.append(value);
+            }
+            else
+            {
+                parts.add(literal.toString());
+                literal.setLength(0);
+                parts.add(compileValue(clazz, value, template));
+            }
+        }
+
+        if (literal.length() > 0)
+        {
+            parts.add(literal.toString());
+        }
+
+        final ObjectNameTemplate compiled = new ObjectNameTemplate(template, parts);
+        compiled.validate();
+        return compiled;
+    }
+
+    private static List<String> splitProperties(final String properties, final String template)
+    {
+        final List<String> split = new ArrayList<String>();
+
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i < properties.length(); i++)
+        {
+            final char c = properties.charAt(i);
+            if (c == '\\' && quoted)
+            {
+                i++;
+            }
+            else if (c == '"')
+            {
+                quoted = !quoted;
+            }
+            else if (c == ',' && !quoted)
+            {
+                split.add(properties.substring(start, i));
+                start = i + 1;
+            }
+        }
+
+        if (quoted)
+        {
+            throw new IllegalArgumentException("Unterminated quote in ObjectName template: " + template);
+        }
+
+        split.add(properties.substring(start));
+        return split;
+    }
+
+    private static Value compileValue(final Class<?> clazz, final String value, final String template)
+    {
+        final boolean quoted = value.length() > 1 && value.startsWith("\"") && value.endsWith("\"");
+        final String raw = quoted ? ObjectName.unquote(value) : value;
+
+        final List<Object> valueParts = new ArrayList<Object>();
+        int index = 0;
+        while (index < raw.length())
+        {
+            final int open = raw.indexOf('{', index);
+            if (open < 0)
+            {
+                valueParts.add(raw.substring(index));
+                break;
+            }
+
+            final int close = raw.indexOf('}', open);
+            if (close < 0)
+            {
+                throw new IllegalArgumentException("Unterminated placeholder in ObjectName template: " + template);
+            }
+
+            if (open > index)
+            {
+                valueParts.add(raw.substring(index, open));
+            }
+
+            valueParts.add(Binding.bind(clazz, raw.substring(open + 1, close)));
+            index = close + 1;
+        }
+
+        return new Value(valueParts, quoted);
+    }
+
+    private void validate()
+    {
+        final StringBuilder sample = new StringBuilder();
+        for (final Object part : parts)
+        {
+            if (part instanceof String)
+            {
+                sample.append((String) part);
+            }
+            else
+            {
+                ((Value) part).appendSample(sample);
+            }
+        }
+
+        try
+        {
+            if (new ObjectName(sample.toString()).isPattern())
+            {
+                throw new IllegalArgumentException("ObjectName template must not be a pattern: " + template);
+            }
+        }
+        catch (MalformedObjectNameException e)
+        {
+            throw new IllegalArgumentException("Invalid ObjectName template: " + template, e);
+        }
+    }
+
+    /**
+     * A key property value containing at least one placeholder
+     */
+    private static final class Value
+    {
+        private final List<Object> valueParts;
+        private final boolean quoted;
+
+        private Value(final List<Object> valueParts, final boolean quoted)
+        {
+            this.valueParts = valueParts;
+            this.quoted = quoted;
+        }
+
+        private void append(final Object obj, final StringBuilder name) throws Exception
+        {
+            final StringBuilder value = new StringBuilder();
+            for (final Object part : valueParts)
+            {
+                if (part instanceof String)
+                {
+                    value.append((String) part);
+                }
+                else
+                {
+                    value.append(((Binding) part).read(obj));
+                }
+            }
+
+            name.append(quoted || needsQuote(value) ? ObjectName.quote(value.toString()) : value);
+        }
+
+        private void appendSample(final StringBuilder name)
+        {
+            name.append(quoted ? "\"x\"" : "x");
+        }
+
+        private static boolean needsQuote(final CharSequence value)
+        {
+            if (value.length() == 0)
+            {
+                return true;
+            }
+
+            for (int i = 0; i < value.length(); i++)
+            {
+                if (SPECIAL_CHARACTERS.indexOf(value.charAt(i)) >= 0)
+                {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * A placeholder bound to a getter, field or no argument method
+     */
+    private static final class Binding
+    {
+        private final String placeholder;
+        private final Field field;
+        private final Method method;
+
+        private Binding(final String placeholder, final Field field, final Method method)
+        {
+            this.placeholder = placeholder;
+            this.field = field;
+            this.method = method;
+        }
+
+        private static Binding bind(final Class<?> clazz, final String placeholder)
+        {
+            if (placeholder.length() == 0)
+            {
+                throw new IllegalArgumentException("Empty placeholder in ObjectName template of " + clazz.getName());
+            }
+
+            final String suffix = Character.toUpperCase(placeholder.charAt(0)) + placeholder.substring(1);
+            final String[] methodNames = {"get" + suffix, "is" + suffix, placeholder};
+
+            for (final String methodName : methodNames)
+            {
+                final Method method = findMethod(clazz, methodName);
+                if (method != null)
+                {
+                    method.setAccessible(true);
+                    return new Binding(placeholder, null, method);
+                }
+            }
+
+            for (Class<?> current = clazz; current != null && current != Object.class; current = current.getSuperclass())
+            {
+                for (final Field field : current.getDeclaredFields())
+                {
+                    if (field.getName().equals(placeholder))
+                    {
+                        field.setAccessible(true);
+                        return new Binding(placeholder, field, null);
+                    }
+                }
+            }
+
+            throw new IllegalArgumentException("No getter, field or method for placeholder {" + placeholder + "} on " + clazz.getName());
+        }
+
+        private static Method findMethod(final Class<?> clazz, final String methodName)
+        {
+            for (Class<?> current = clazz; current != null && current != Object.class; current = current.getSuperclass())
+            {
+                for (final Method method : current.getDeclaredMethods())
+                {
+                    if (method.getName().equals(methodName) && method.getParameterTypes().length == 0 && method.getReturnType() != Void.TYPE)
+                    {
+                        return method;
+                    }
+                }
+            }
+
+            return null;
+        }
+
+        private Object read(final Object obj) throws Exception
+        {
+            final Object value = field == null ? method.invoke(obj) : field.get(obj);
+            if (value == null)
+            {
+                throw new IllegalStateException("Placeholder {" + placeholder + "} of " + obj.getClass().getName() + " is null");
+            }
+
+            return value;
+        }
+    }
+}
@@ -0,0 +1,486 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.ArrayType;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+import java.beans.Introspector;
+import java.lang.reflect.Array;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.RecordComponent;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Maps the values of a Java type to open data, so generic JMX clients can read them without our classes, following
+ * the MXBean rules: enums become Strings, arrays and collections become arrays, maps become TabularData with key and
+ * value columns, and records and classes with getters become CompositeData with an item per component or property.<br />
+ * The OpenType and the accessors of a class are derived once and cached with the class, parameterized types are put
+ * together from the converters of their arguments. Types that can not be mapped, such as Object, raw collections or
+ * recursive types, have no converter and their values are returned as they are.
+ */
+/*package*/ abstract class OpenTypeConverter
+{
+    private static final Map<Class<?>, SimpleType<?>> SIMPLE_TYPES = new HashMap<Class<?>, SimpleType<?>>();
+
+    // class -> converter, NONE when the class can not be mapped, held by the class so its loader can still be unloaded
+    private static final ClassValue<AtomicReference<OpenTypeConverter>> CONVERTERS = new ClassValue<AtomicReference<OpenTypeConverter>>()
+    {
+        @Override
+        protected AtomicReference<OpenTypeConverter> computeValue(final Class<?> type)
+        {
+            return new AtomicReference<OpenTypeConverter>();
+        }
+    };
+    private static final OpenTypeConverter NONE = new Identity(null);
+
+    private static final String KEY = "key";
+    private static final String VALUE = "value";
+
+    static
+    {
+        simple(SimpleType.VOID, void.class, Void.class);
+        simple(SimpleType.BOOLEAN, boolean.class, Boolean.class);
+        simple(SimpleType.CHARACTER, char.class, Character.class);
+        simple(SimpleType.BYTE, byte.class, Byte.class);
+        simple(SimpleType.SHORT, short.class, Short.class);
+        simple(SimpleType.INTEGER, int.class, Integer.class);
+        simple(SimpleType.LONG, long.class, Long.class);
+        simple(SimpleType.FLOAT, float.class, Float.class);
+        simple(SimpleType.DOUBLE, double.class, Double.class);
+        simple(SimpleType.STRING, String.class);
+        simple(SimpleType.BIGDECIMAL, BigDecimal.class);
+        simple(SimpleType.BIGINTEGER, BigInteger.class);
+        simple(SimpleType.DATE, Date.class);
+        simple(SimpleType.OBJECTNAME, ObjectName.class);
+    }
+
+    final OpenType<?> openType;
+
+    private OpenTypeConverter(final OpenType<?> openType)
+    {
+        this.openType = openType;
+    }
+
+    /**
+     * @param type Declared type of an attribute or operation result
+     * @return the cached converter, null if values of the type can not be mapped
+     */
+    /*package*/ static OpenTypeConverter forType(final Type type)
+    {
+        final OpenTypeConverter converter = forType(type, new HashSet<Type>());
+        return converter == NONE ? null : converter;
+    }
+
+    public OpenType<?> getOpenType()
+    {
+        return openType;
+    }
+
+    /**
+     * @return true if the values already are open data, such as primitives, Strings and their arrays
+     */
+    public boolean isIdentity()
+    {
+        return false;
+    }
+
+    /**
+     * @param value Value of the Java type, may be null
+     * @return the open data value
+     * @throws OpenDataException if the value could not be mapped, such as a map with a null key
+     */
+    public Object toOpenData(final Object value) throws OpenDataException
+    {
+        return value == null ? null : convert(value);
+    }
+
+    abstract Object convert(Object value) throws OpenDataException;
+
+    private static void simple(final SimpleType<?> openType, final Class<?>... classes)
+    {
+        for (final Class<?> clazz : classes)
+        {
+            SIMPLE_TYPES.put(clazz, openType);
+        }
+    }
+
+    private static OpenTypeConverter forType(final Type type, final Set<Type> visiting)
+    {
+        // only classes are cached, a parameterized type may name classes of other loaders than its raw type
+        final AtomicReference<OpenTypeConverter> cache = type instanceof Class ? CONVERTERS.get((Class<?>) type) : null;
+        final OpenTypeConverter cached = cache == null ? null : cache.get();
+        if (cached != null)
+        {
+            return cached;
+        }
+
+        // a type containing itself has no finite OpenType
+        if (!visiting.add(type))
+        {
+            return NONE;
+        }
+
+        OpenTypeConverter converter;
+        try
+        {
+            converter = create(type, visiting);
+        }
+        catch (OpenDataException | RuntimeException e)
+        {
+            converter = null;
+        }
+        visiting.remove(type);
+
+        if (converter == null)
+        {
+            converter = NONE;
+        }
+
+        if (cache == null || cache.compareAndSet(null, converter))
+        {
+            return converter;
+        }
+        return cache.get();
+    }
+
+    private static OpenTypeConverter create(final Type type, final Set<Type> visiting) throws OpenDataException
+    {
+        if (type instanceof GenericArrayType)
+        {
+            return array(((GenericArrayType) type).getGenericComponentType(), visiting);
+        }
+
+        if (type instanceof ParameterizedType)
+        {
+            final Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            final Class<?> raw = (Class<?>) ((ParameterizedType) type).getRawType();
+            if (Collection.class.isAssignableFrom(raw) && arguments.length == 1)
+            {
+                final OpenTypeConverter element = forType(arguments[0], visiting);
+                return element == NONE ? null : new Elements(ArrayType.getArrayType(element.openType), element);
+            }
+
+            if (Map.class.isAssignableFrom(raw) && arguments.length == 2)
+            {
+                final OpenTypeConverter key = forType(arguments[0], visiting);
+                final OpenTypeConverter value = forType(arguments[1], visiting);
+                return key == NONE || value == NONE ? null : new Entries(type, key, value);
+            }
+            return null;
+        }
+
+        if (!(type instanceof Class))
+        {
+            // type variables and wildcards
+            return null;
+        }
+
+        final Class<?> clazz = (Class<?>) type;
+        final SimpleType<?> simpleType = SIMPLE_TYPES.get(clazz);
+        if (simpleType != null)
+        {
+            return new Identity(simpleType);
+        }
+
+        if (clazz.isEnum())
+        {
+            return new EnumName();
+        }
+
+        if (clazz.isArray())
+        {
+            if (clazz.getComponentType().isPrimitive())
+            {
+                return new Identity(ArrayType.getPrimitiveArrayType(clazz));
+            }
+            return array(clazz.getComponentType(), visiting);
+        }
+
+        if (Collection.class.isAssignableFrom(clazz) || Map.class.isAssignableFrom(clazz) || clazz == Object.class
+                || clazz.getName().startsWith("java.") || clazz.getName().startsWith("javax."))
+        {
+            return null;
+        }
+
+        return composite(clazz, visiting);
+    }
+
+    private static OpenTypeConverter array(final Type component, final Set<Type> visiting) throws OpenDataException
+    {
+        final OpenTypeConverter element = forType(component, visiting);
+        if (element == NONE)
+        {
+            return null;
+        }
+
+        final ArrayType<?> arrayType = ArrayType.getArrayType(element.openType);
+        return element.isIdentity() ? new Identity(arrayType) : new Elements(arrayType, element);
+    }
+
+    /**
+     * A record by its components or a class by its getters
+     */
+    private static OpenTypeConverter composite(final Class<?> clazz, final Set<Type> visiting) throws OpenDataException
+    {
+        final Map<String, Method> accessors = new LinkedHashMap<String, Method>();
+        final List<Type> types = new ArrayList<Type>();
+
+        if (clazz.isRecord())
+        {
+            for (final RecordComponent component : clazz.getRecordComponents())
+            {
+                accessors.put(component.getName(), component.getAccessor());
+                types.add(component.getGenericType());
+            }
+        }
+        else
+        {
+            for (final Method method : clazz.getMethods())
+            {
+                final String property = property(method);
+                if (property != null && !accessors.containsKey(property))
+                {
+                    accessors.put(property, method);
+                    types.add(method.getGenericReturnType());
+                }
+            }
+        }
+
+        if (accessors.isEmpty())
+        {
+            return null;
+        }
+
+        final String[] names = accessors.keySet().toArray(new String[accessors.size()]);
+        final Method[] methods = accessors.values().toArray(new Method[accessors.size()]);
+        final OpenTypeConverter[] items = new OpenTypeConverter[names.length];
+        final OpenType<?>[] itemTypes = new OpenType<?>[names.length];
+        for (int i = 0; i < names.length; i++)
+        {
+            items[i] = forType(types.get(i), visiting);
+            if (items[i] == NONE)
+            {
+                return null;
+            }
+            itemTypes[i] = items[i].openType;
+            methods[i].setAccessible(true);
+        }
+
+        return new Properties(new CompositeType(clazz.getName(), clazz.getName(), names, names, itemTypes), names, methods, items);
+    }
+
+    /**
+     * @return the property read by a public getter, null for any other method
+     */
+    private static String property(final Method method)
+    {
+        if (method.getParameterTypes().length != 0 || Modifier.isStatic(method.getModifiers()) || method.getDeclaringClass() == Object.class)
+        {
+            return null;
+        }
+
+        final String name = method.getName();
+        if (name.startsWith("get") && name.length() > 3 && method.getReturnType() != void.class)
+        {
+            return Introspector.decapitalize(name.substring(3));
+        }
+
+        if (name.startsWith("is") && name.length() > 2 && method.getReturnType() == boolean.class)
+        {
+            return Introspector.decapitalize(name.substring(2));
+        }
+        return null;
+    }
+
+    private static final class Identity extends OpenTypeConverter
+    {
+        private Identity(final OpenType<?> openType)
+        {
+            super(openType);
+        }
+
+        @Override
+        public boolean isIdentity()
+        {
+            return true;
+        }
+
+        Object convert(final Object value)
+        {
+            return value;
+        }
+    }
+
+    private static final class EnumName extends OpenTypeConverter
+    {
+        private EnumName()
+        {
+            super(SimpleType.STRING);
+        }
+
+        Object convert(final Object value)
+        {
+            return ((Enum<?>) value).name();
+        }
+    }
+
+    /**
+     * Arrays and collections of a converted element type
+     */
+    private static final class Elements extends OpenTypeConverter
+    {
+        private final OpenTypeConverter element;
+        private final Class<?> elementClass;
+
+        private Elements(final ArrayType<?> arrayType, final OpenTypeConverter element) throws OpenDataException
+        {
+            super(arrayType);
+            this.element = element;
+
+            try
+            {
+                this.elementClass = Class.forName(element.openType.getClassName());
+            }
+            catch (ClassNotFoundException e)
+            {
+                throw new OpenDataException(e.toString());
+            }
+        }
+
+        Object convert(final Object value) throws OpenDataException
+        {
+            if (value instanceof Collection)
+            {
+                final Collection<?> collection = (Collection<?>) value;
+                final Object[] converted = (Object[]) Array.newInstance(elementClass, collection.size());
+                int i = 0;
+                for (final Object item : collection)
+                {
+                    converted[i++] = element.toOpenData(item);
+                }
+                return converted;
+            }
+
+            final int length = Array.getLength(value);
+            final Object[] converted = (Object[]) Array.newInstance(elementClass, length);
+            for (int i = 0; i < length; i++)
+            {
+                converted[i] = element.toOpenData(Array.get(value, i));
+            }
+            return converted;
+        }
+    }
+
+    /**
+     * Maps as TabularData indexed by the key
+     */
+    private static final class Entries extends OpenTypeConverter
+    {
+        private final OpenTypeConverter key;
+        private final OpenTypeConverter value;
+
+        private Entries(final Type mapType, final OpenTypeConverter key, final OpenTypeConverter value) throws OpenDataException
+        {
+            super(new TabularType(mapType.getTypeName(), mapType.getTypeName(),
+                    new CompositeType(mapType.getTypeName(), mapType.getTypeName(), new String[]{KEY, VALUE},
+                            new String[]{KEY, VALUE}, new OpenType<?>[]{key.openType, value.openType}),
+                    new String[]{KEY}));
+            this.key = key;
+            this.value = value;
+        }
+
+        Object convert(final Object map) throws OpenDataException
+        {
+            final TabularType tabularType = (TabularType) openType;
+            final TabularDataSupport table = new TabularDataSupport(tabularType);
+            for (final Map.Entry<?, ?> entry : ((Map<?, ?>) map).entrySet())
+            {
+                table.put(new CompositeDataSupport(tabularType.getRowType(), new String[]{KEY, VALUE},
+                        new Object[]{key.toOpenData(entry.getKey()), value.toOpenData(entry.getValue())}));
+            }
+            return table;
+        }
+    }
+
+    /**
+     * Records and classes with getters as CompositeData
+     */
+    private static final class Properties extends OpenTypeConverter
+    {
+        private final String[] names;
+        private final Method[] accessors;
+        private final OpenTypeConverter[] items;
+
+        private Properties(final CompositeType compositeType, final String[] names, final Method[] accessors, final OpenTypeConverter[] items)
+        {
+            super(compositeType);
+            this.names = names;
+            this.accessors = accessors;
+            this.items = items;
+        }
+
+        Object convert(final Object value) throws OpenDataException
+        {
+            final Object[] values = new Object[names.length];
+            for (int i = 0; i < names.length; i++)
+            {
+                try
+                {
+                    values[i] = items[i].toOpenData(accessors[i].invoke(value));
+                }
+                catch (IllegalAccessException | InvocationTargetException e)
+                {
+                    final OpenDataException failure = new OpenDataException("Error reading " + names[i] + " of " + openType.getTypeName());
+                    failure.initCause(e);
+                    throw failure;
+                }
+            }
+            return new CompositeDataSupport((CompositeType) openType, names, values);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The last value of an attribute, or of all the attributes of a dynamic source, bound to an executor of the managed
+ * object, for samplers that run on the shared scheduler thread and must not wait on it, see
+ * {@link DynamicManagementMBean#sample(String)}.<br />
+ * Each sample asks the executor for a new read unless one is still queued, and returns the result of the previous
+ * read, so the value lags the attribute by one sample period.
+ */
+/*package*/ final class OwnedSample
+{
+    private final String attribute;
+    private final ManagedExecutor executor;
+    private final Callable<?> reader;
+    private final AtomicBoolean pending = new AtomicBoolean();
+
+    private volatile long requested;
+    private volatile Object value;
+    private volatile Exception failure;
+    private volatile boolean done;
+
+    /**
+     * @param attribute Name of the attribute, or a description of the source, for messages
+     * @param executor  Executor the reader runs on
+     * @param reader    Reads the value, on the executor
+     */
+    /*package*/ OwnedSample(final String attribute, final ManagedExecutor executor, final Callable<?> reader)
+    {
+        this.attribute = attribute;
+        this.executor = executor;
+        this.reader = reader;
+    }
+
+    /**
+     * @param objInstance Instance of the managed object
+     * @return the value of the previous read
+     * @throws Exception thrown by the previous read, or if there was none yet or the executor is stuck
+     */
+    /*package*/ Object sample(final Object objInstance) throws Exception
+    {
+        if (pending.compareAndSet(false, true))
+        {
+            requested = System.nanoTime();
+            try
+            {
+                executor.execute(objInstance, new Runnable()
+                {
+                    public void run()
+                    {
+                        read();
+                    }
+                });
+            }
+            catch (Exception e)
+            {
+                pending.set(false);
+                throw e;
+            }
+        }
+        else if (System.nanoTime() - requested > TimeUnit.MILLISECONDS.toNanos(executor.timeout))
+        {
+            throw new TimeoutException("Executor " + executor.name + " did not read " + attribute + " in time");
+        }
+
+        if (failure != null)
+        {
+            throw failure;
+        }
+
+        if (!done)
+        {
+            throw new IllegalStateException("Attribute " + attribute + " has not been read yet");
+        }
+
+        return value;
+    }
+
+    private void read()
+    {
+        try
+        {
+            value = reader.call();
+            failure = null;
+        }
+        catch (Exception e)
+        {
+            failure = e;
+        }
+        finally
+        {
+            done = true;
+            pending.set(false);
+        }
+    }
+}
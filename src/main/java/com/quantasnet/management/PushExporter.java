@@ -0,0 +1,479 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Pushes the numeric attributes of every registered MBean to a local metrics agent over UDP, as StatsD gauges or
+ * Influx line protocol, see {@link ManagementProcessor#startPushExporter(SocketAddress, Format, long)}<br />
+ * Metric names are encoded once per MBean, values are written straight into reusable direct buffers and as many
+ * metrics as fit are packed into each datagram, so a sweep does not allocate per metric.
+ *
+ * @author Quantas
+ */
+public final class PushExporter implements Closeable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(PushExporter.class);
+
+    /**
+     * Largest datagram sent, fits the MTU of an ethernet link as well as loopback
+     */
+    /*package*/ static final int MAX_DATAGRAM = 1432;
+
+    // 2^63, the smallest double a long can not hold
+    private static final double LONG_RANGE = 0x1p63;
+
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] GAUGE = "|g\n".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Wire format of the metrics
+     */
+    public enum Format
+    {
+        /**
+         * <code>domain.key.attribute:value|g</code>
+         */
+        STATSD,
+
+        /**
+         * <code>domain,key=value attribute=value timestamp</code>
+         */
+        LINE_PROTOCOL
+    }
+
+    private final Format format;
+    private final long period;
+    private final DatagramChannel channel;
+
+    // only used on the scheduler thread
+    private final ByteBuffer datagram = ByteBuffer.allocateDirect(MAX_DATAGRAM);
+    private final ByteBuffer line = ByteBuffer.allocateDirect(MAX_DATAGRAM);
+    private final Map<DynamicManagementMBean, Metrics> metrics = new IdentityHashMap<DynamicManagementMBean, Metrics>();
+
+    // dynamic sources read while exporting one MBean, each is read once for all of its attributes
+    private final Map<DynamicAttributeSource, Map<String, ?>> sweep = new HashMap<DynamicAttributeSource, Map<String, ?>>();
+
+    private final Sampler sampler = new Sampler()
+    {
+        public long getPeriod()
+        {
+            return period;
+        }
+
+        public void sample()
+        {
+            export();
+        }
+    };
+
+    private boolean closed;
+    private long datagramsSent;
+
+    /*package*/ PushExporter(final SocketAddress target, final Format format, final long period) throws IOException
+    {
+        this.format = format;
+        this.period = period;
+
+        channel = DatagramChannel.open();
+        channel.connect(target);
+
+        MonitorEngine.INSTANCE.add(sampler);
+    }
+
+    /**
+     * Stop exporting and close the channel
+     */
+    public synchronized void close() throws IOException
+    {
+        if (!closed)
+        {
+            closed = true;
+            MonitorEngine.INSTANCE.remove(sampler);
+            channel.close();
+        }
+    }
+
+    /**
+     * @return the number of datagrams sent so far
+     */
+    public synchronized long getDatagramsSent()
+    {
+        return datagramsSent;
+    }
+
+    /**
+     * Sample every registered MBean once and send the metrics
+     */
+    /*package*/ synchronized void export()
+    {
+        if (closed)
+        {
+            return;
+        }
+
+        final long timestamp = System.currentTimeMillis() * 1000000L;
+        datagram.clear();
+
+        for (final Registration registration : ManagementProcessor.registrations())
+        {
+            if (registration.getMbean() instanceof DynamicManagementMBean)
+            {
+                export((DynamicManagementMBean) registration.getMbean(), timestamp);
+            }
+        }
+
+        flush();
+
+        for (final Iterator<DynamicManagementMBean> it = metrics.keySet().iterator(); it.hasNext(); )
+        {
+            if (!it.next().isRegistered())
+            {
+                it.remove();
+            }
+        }
+    }
+
+    private void export(final DynamicManagementMBean mbean, final long timestamp)
+    {
+        final MBeanInfo info = mbean.getMBeanInfo();
+        Metrics mbeanMetrics = metrics.get(mbean);
+        if (mbeanMetrics == null || mbeanMetrics.info != info)
+        {
+            if (mbean.getObjectName() == null)
+            {
+                return;
+            }
+
+            mbeanMetrics = new Metrics(mbean.getObjectName(), info, format);
+            metrics.put(mbean, mbeanMetrics);
+        }
+
+        sweep.clear();
+        for (int i = 0; i < mbeanMetrics.attributes.length; i++)
+        {
+            final Object value;
+            try
+            {
+                value = mbean.sample(mbeanMetrics.attributes[i], sweep);
+            }
+            catch (Exception e)
+            {
+                LOG.debug("Error reading " + mbeanMetrics.attributes[i], e);
+                continue;
+            }
+
+            if (value instanceof Number)
+            {
+                line.clear();
+                try
+                {
+                    if (!encode(mbeanMetrics.prefixes[i], mbeanMetrics.integral[i], (Number) value, timestamp))
+                    {
+                        continue;
+                    }
+                }
+                catch (BufferOverflowException e)
+                {
+                    LOG.debug("Metric " + mbeanMetrics.attributes[i] + " does not fit in a datagram");
+                    continue;
+                }
+
+                line.flip();
+                if (line.remaining() > datagram.remaining())
+                {
+                    flush();
+                }
+                datagram.put(line);
+            }
+        }
+    }
+
+    private boolean encode(final byte[] prefix, final boolean integral, final Number value, final long timestamp)
+    {
+        line.put(prefix);
+
+        if (integral)
+        {
+            putLong(line, value.longValue());
+        }
+        else if (!putDouble(line, value.doubleValue()))
+        {
+            return false;
+        }
+
+        if (format == Format.STATSD)
+        {
+            line.put(GAUGE);
+        }
+        else
+        {
+            if (integral)
+            {
+                line.put((byte) 'i');
+            }
+            line.put((byte) ' ');
+            putLong(line, timestamp);
+            line.put((byte) '\n');
+        }
+
+        return true;
+    }
+
+    private void flush()
+    {
+        datagram.flip();
+        if (datagram.hasRemaining())
+        {
+            try
+            {
+                channel.write(datagram);
+                datagramsSent++;
+            }
+            catch (IOException e)
+            {
+                // nobody listening is not worth more than a debug message, the agent may come back
+                LOG.debug("Error sending metrics", e);
+            }
+        }
+        datagram.clear();
+    }
+
+    /*package*/ static void putLong(final ByteBuffer buffer, final long value)
+    {
+        if (value == Long.MIN_VALUE)
+        {
+            buffer.put(MIN_LONG);
+            return;
+        }
+
+        long remaining = value;
+        if (remaining < 0)
+        {
+            buffer.put((byte) '-');
+            remaining = -remaining;
+        }
+
+        int digits = 1;
+        for (long v = remaining; v >= 10; v /= 10)
+        {
+            digits++;
+        }
+
+        final int start = buffer.position();
+        if (digits > buffer.remaining())
+        {
+            throw new BufferOverflowException();
+        }
+
+        for (int i = start + digits - 1; i >= start; i--)
+        {
+            buffer.put(i, (byte) ('0' + remaining % 10));
+            remaining /= 10;
+        }
+        buffer.position(start + digits);
+    }
+
+    /**
+     * Write a double with up to 6 decimals, values beyond the range of a long in scientific notation with a mantissa of
+     * up to 6 decimals
+     *
+     * @return false if the value is not finite and nothing was written
+     */
+    /*package*/ static boolean putDouble(final ByteBuffer buffer, final double value)
+    {
+        if (Double.isNaN(value) || Double.isInfinite(value))
+        {
+            return false;
+        }
+
+        double abs = value;
+        if (abs < 0)
+        {
+            buffer.put((byte) '-');
+            abs = -abs;
+        }
+
+        // beyond the range of a long, a whole number would saturate
+        if (abs >= LONG_RANGE)
+        {
+            int exponent = (int) Math.floor(Math.log10(abs));
+            double mantissa = abs / Math.pow(10, exponent);
+            if (mantissa >= 10)
+            {
+                mantissa /= 10;
+                exponent++;
+            }
+            else if (mantissa < 1)
+            {
+                mantissa *= 10;
+                exponent--;
+            }
+
+            putDouble(buffer, mantissa);
+            buffer.put((byte) 'e');
+            putLong(buffer, exponent);
+            return true;
+        }
+
+        // doubles this large have no fraction worth writing
+        if (abs >= 1e15)
+        {
+            putLong(buffer, Math.round(abs));
+            return true;
+        }
+
+        long whole = (long) abs;
+        long fraction = Math.round((abs - whole) * 1000000d);
+        if (fraction == 1000000L)
+        {
+            whole++;
+            fraction = 0;
+        }
+
+        putLong(buffer, whole);
+        if (fraction != 0)
+        {
+            int decimals = 6;
+            while (fraction % 10 == 0)
+            {
+                fraction /= 10;
+                decimals--;
+            }
+
+            buffer.put((byte) '.');
+            final int start = buffer.position();
+            if (decimals > buffer.remaining())
+            {
+                throw new BufferOverflowException();
+            }
+
+            for (int i = start + decimals - 1; i >= start; i--)
+            {
+                buffer.put(i, (byte) ('0' + fraction % 10));
+                fraction /= 10;
+            }
+            buffer.position(start + decimals);
+        }
+
+        return true;
+    }
+
+    /**
+     * The numeric attributes of one MBean with their encoded metric names
+     */
+    private static final class Metrics
+    {
+        private final MBeanInfo info;
+        private final String[] attributes;
+        private final boolean[] integral;
+        private final byte[][] prefixes;
+
+        private Metrics(final ObjectName objectName, final MBeanInfo info, final Format format)
+        {
+            this.info = info;
+
+            final List<MBeanAttributeInfo> numeric = new ArrayList<MBeanAttributeInfo>();
+            for (final MBeanAttributeInfo attrInfo : info.getAttributes())
+            {
+                if (attrInfo.isReadable() && AggregateMBean.integral(attrInfo.getType()) != null)
+                {
+                    numeric.add(attrInfo);
+                }
+            }
+
+            attributes = new String[numeric.size()];
+            integral = new boolean[numeric.size()];
+            prefixes = new byte[numeric.size()][];
+
+            // sorted keys, the same MBean always gets the same metric name whatever order its keys were given in
+            final Map<String, String> keys = new TreeMap<String, String>(objectName.getKeyPropertyList());
+
+            for (int i = 0; i < attributes.length; i++)
+            {
+                final MBeanAttributeInfo attrInfo = numeric.get(i);
+                attributes[i] = attrInfo.getName();
+                integral[i] = AggregateMBean.integral(attrInfo.getType());
+
+                final StringBuilder prefix = new StringBuilder();
+                if (format == Format.STATSD)
+                {
+                    prefix.append(statsdName(objectName.getDomain()));
+                    for (final String value : keys.values())
+                    {
+                        prefix.append('.').append(statsdName(unquote(value)));
+                    }
+                    prefix.append('.').append(statsdName(attrInfo.getName())).append(':');
+                }
+                else
+                {
+                    prefix.append(lineName(objectName.getDomain()));
+                    for (final Map.Entry<String, String> key : keys.entrySet())
+                    {
+                        prefix.append(',').append(lineName(key.getKey())).append('=').append(lineName(unquote(key.getValue())));
+                    }
+                    prefix.append(' ').append(lineName(attrInfo.getName())).append('=');
+                }
+
+                prefixes[i] = prefix.toString().getBytes(StandardCharsets.UTF_8);
+            }
+        }
+
+        private static String unquote(final String value)
+        {
+            return value.startsWith("\"") ? ObjectName.unquote(value) : value;
+        }
+
+        private static String statsdName(final String name)
+        {
+            return name.replaceAll("[^A-Za-z0-9_.-]", "_");
+        }
+
+        private static String lineName(final String name)
+        {
+            return name.replaceAll("([ ,=\\\\])", "\\\\$1");
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Samples a numeric counter in the background and derives its per second rate and its delta over the last period,
+ * see {@link Managed#rate()}.<br />
+ * The scheduler thread is the only writer, it publishes an immutable Sample through a volatile field so readers never
+ * lock and always see a consistent pair of samples.
+ */
+/*package*/ final class RateAttribute implements Sampler
+{
+    private static final Logger LOG = LoggerFactory.getLogger(RateAttribute.class);
+
+    /*package*/ static final String RATE_SUFFIX = "Rate";
+    /*package*/ static final String DELTA_SUFFIX = "Delta";
+
+    /*package*/ static final long PERIOD = 1000L;
+
+    final DynamicManagementMBean mbean;
+    final String attribute;
+    final boolean integral;
+
+    private volatile Sample last;
+
+    public RateAttribute(final DynamicManagementMBean mbean, final String attribute, final Class<?> type)
+    {
+        this.mbean = mbean;
+        this.attribute = attribute;
+        this.integral = isIntegral(type);
+    }
+
+    /**
+     * @param type Type of the counter
+     * @return true if the type can be sampled as a counter
+     */
+    public static boolean isNumeric(final Class<?> type)
+    {
+        return isIntegral(type) || type == Double.TYPE || type == Float.TYPE || Number.class.isAssignableFrom(type);
+    }
+
+    private static boolean isIntegral(final Class<?> type)
+    {
+        return type == Long.TYPE || type == Integer.TYPE || type == Short.TYPE || type == Byte.TYPE
+                || type == Long.class || type == Integer.class || type == Short.class || type == Byte.class
+                || AtomicLong.class.isAssignableFrom(type)
+                || AtomicInteger.class.isAssignableFrom(type);
+    }
+
+    public long getPeriod()
+    {
+        return PERIOD;
+    }
+
+    public void sample()
+    {
+        final Object value;
+        try
+        {
+            value = mbean.sample(attribute);
+        }
+        catch (Exception e)
+        {
+            LOG.debug("Error sampling counter " + attribute, e);
+            return;
+        }
+
+        if (value instanceof Number)
+        {
+            final Number number = (Number) value;
+            final Sample previous = last;
+            final long nanos = System.nanoTime();
+
+            if (previous == null)
+            {
+                last = new Sample(nanos, number.longValue(), number.doubleValue(), 0L, 0.0, 0.0);
+            }
+            else
+            {
+                final long longValue = number.longValue();
+                final double doubleValue = number.doubleValue();
+
+                long longDelta = longValue - previous.longValue;
+                double doubleDelta = doubleValue - previous.doubleValue;
+
+                // a counter going backwards was reset, count from zero, large longs differ where their doubles do not
+                if (integral ? longDelta < 0 : doubleDelta < 0)
+                {
+                    longDelta = longValue;
+                    doubleDelta = doubleValue;
+                }
+                else if (integral)
+                {
+                    doubleDelta = longDelta;
+                }
+
+                final double seconds = (nanos - previous.nanos) / 1000000000.0;
+                final double rate = seconds > 0 ? doubleDelta / seconds : 0.0;
+
+                last = new Sample(nanos, longValue, doubleValue, longDelta, doubleDelta, rate);
+            }
+        }
+    }
+
+    /**
+     * @return the per second rate over the last period, 0 until two samples were taken
+     */
+    public double getRate()
+    {
+        final Sample sample = last;
+        return sample == null ? 0.0 : sample.rate;
+    }
+
+    /**
+     * @return the change over the last period, a Long for integral counters and a Double otherwise
+     */
+    public Object getDelta()
+    {
+        final Sample sample = last;
+        if (integral)
+        {
+            return sample == null ? 0L : sample.longDelta;
+        }
+        return sample == null ? 0.0 : sample.doubleDelta;
+    }
+
+    /**
+     * @return the open type name of the delta attribute
+     */
+    public String getDeltaType()
+    {
+        return integral ? Long.class.getName() : Double.class.getName();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "RateAttribute[" + attribute + "]";
+    }
+
+    private static final class Sample
+    {
+        private final long nanos;
+        private final long longValue;
+        private final double doubleValue;
+        private final long longDelta;
+        private final double doubleDelta;
+        private final double rate;
+
+        private Sample(final long nanos, final long longValue, final double doubleValue, final long longDelta, final double doubleDelta, final double rate)
+        {
+            this.nanos = nanos;
+            this.longValue = longValue;
+            this.doubleValue = doubleValue;
+            this.longDelta = longDelta;
+            this.doubleDelta = doubleDelta;
+            this.rate = rate;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Layout of the ring files written by {@link TimeSeriesRecorder} and read by {@link TimeSeriesReader}<br />
+ * <br />
+ * A header page holds the magic, version, period, block size, block count, the ObjectName and the name and kind of
+ * every series. It is followed by fixed-size blocks used as a ring: each block starts with its sequence number, 0 while
+ * unused, and its record count, which is written after the record so a crash never exposes a torn record.<br />
+ * The first record of a block is a keyframe holding absolute values, the ones after it hold deltas to the record
+ * before: the timestamp as its distance from the expected period, integral values as zigzag differences and floating
+ * values as the XOR of their bits, all as variable length integers. A presence mask before the values marks the
+ * series that could be read. Every block can be decoded on its own, so overwriting the oldest block loses nothing else.
+ */
+/*package*/ final class RecordingFormat
+{
+    /*package*/ static final int MAGIC = 0x4D475246;
+    /*package*/ static final int VERSION = 1;
+
+    /*package*/ static final int HEADER_SIZE = 4096;
+    /*package*/ static final int BLOCK_SIZE = 4096;
+
+    // sequence number and record count
+    /*package*/ static final int BLOCK_HEADER = 12;
+
+    /**
+     * Series per file, one bit each in the presence mask
+     */
+    /*package*/ static final int MAX_SERIES = 64;
+
+    /**
+     * Largest encoded record, the timestamp and mask and one variable length integer per series
+     */
+    /*package*/ static final int MAX_RECORD = 10 + 10 + MAX_SERIES * 10;
+
+    /*package*/ static final byte INTEGRAL = 1;
+    /*package*/ static final byte FLOATING = 2;
+
+    private RecordingFormat()
+    {
+        // no-op
+    }
+
+    /*package*/ static void putVarLong(final ByteBuffer buffer, long value)
+    {
+        while ((value & ~0x7FL) != 0)
+        {
+            buffer.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /*package*/ static long getVarLong(final ByteBuffer buffer)
+    {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7)
+        {
+            final byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+            {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed variable length integer");
+    }
+
+    /*package*/ static long zigzag(final long value)
+    {
+        return value << 1 ^ value >> 63;
+    }
+
+    /*package*/ static long unzigzag(final long value)
+    {
+        return value >>> 1 ^ -(value & 1);
+    }
+
+    /*package*/ static void putString(final ByteBuffer buffer, final String value)
+    {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    /*package*/ static String getString(final ByteBuffer buffer)
+    {
+        final byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
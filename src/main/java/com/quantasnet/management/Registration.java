@@ -0,0 +1,106 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.ref.WeakReference;
+
+/**
+ * Holding class for an MBean registered through the ManagementProcessor
+ */
+/*package*/ class Registration
+{
+    final ObjectName objectName;
+    final Object obj;
+    final WeakReference<Object> weakObj;
+    final Class<?> objClass;
+    final int identity;
+    final Object mbean;
+    final AggregateMBean aggregate;
+    final MBeanServer server;
+
+    /**
+     * @param weak   true to not keep the instance from being garbage collected, see {@link ManagementAgent}
+     * @param server the MBeanServer the MBean is registered with
+     */
+    public Registration(final ObjectName objectName, final Object obj, final Object mbean, final AggregateMBean aggregate, final boolean weak, final MBeanServer server)
+    {
+        this.objectName = objectName;
+        this.obj = weak ? null : obj;
+        this.weakObj = weak ? new WeakReference<Object>(obj) : null;
+        this.objClass = obj.getClass();
+        this.identity = System.identityHashCode(obj);
+        this.mbean = mbean;
+        this.aggregate = aggregate;
+        this.server = server;
+    }
+
+    public ObjectName getObjectName()
+    {
+        return objectName;
+    }
+
+    /**
+     * @return the registered instance, null once a weakly registered instance was garbage collected
+     */
+    public Object getObj()
+    {
+        return weakObj == null ? obj : weakObj.get();
+    }
+
+    public Class<?> getObjClass()
+    {
+        return objClass;
+    }
+
+    /**
+     * @return the identity hash code of the instance, still known after it was garbage collected
+     */
+    public int getIdentity()
+    {
+        return identity;
+    }
+
+    public boolean isWeak()
+    {
+        return weakObj != null;
+    }
+
+    public Object getMbean()
+    {
+        return mbean;
+    }
+
+    public AggregateMBean getAggregate()
+    {
+        return aggregate;
+    }
+
+    public MBeanServer getServer()
+    {
+        return server;
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.quantasnet.management;
+
+import javax.management.Attribute;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * View of an MBeanServer that holds the MBeans of one domain, registered on the platform MBeanServer so JMX clients
+ * connected to the platform MBeanServer can still reach them, see
+ * {@link ManagementProcessor#setServer(String, MBeanServer, boolean)}<br />
+ * <br />
+ * The view is a single MBean, registering and unregistering MBeans of the domain never touches the platform
+ * MBeanServer.
+ *
+ * @author Quantas
+ */
+public final class ServerView
+{
+    private final String domain;
+    private final MBeanServer server;
+
+    /*package*/ ServerView(final String domain, final MBeanServer server)
+    {
+        this.domain = domain;
+        this.server = server;
+    }
+
+    /**
+     * @return the name of the view of a domain on the platform MBeanServer
+     */
+    /*package*/ static ObjectName constructObjectName(final String domain) throws MalformedObjectNameException
+    {
+        final String value = domain.matches("[^,=:\"*?\\n]*") ? domain : ObjectName.quote(domain);
+        return new ObjectName(ServerView.class.getPackage().getName() + ":type=ServerView,domain=" + value);
+    }
+
+    @Managed(description = "Domain of the MBeans in the server")
+    public String getDomain()
+    {
+        return domain;
+    }
+
+    @Managed(description = "Number of MBeans in the server")
+    public int getMBeanCount()
+    {
+        return server.getMBeanCount();
+    }
+
+    @Managed(description = "Names of the MBeans in the server", summarize = false)
+    public List<String> getNames()
+    {
+        final List<String> names = new ArrayList<String>();
+        for (final ObjectName name : server.queryNames(null, null))
+        {
+            names.add(name.getCanonicalName());
+        }
+        return names;
+    }
+
+    @Managed(description = "Read an attribute of an MBean in the server")
+    public Object read(final String name, final String attribute) throws JMException
+    {
+        return server.getAttribute(new ObjectName(name), attribute);
+    }
+
+    @Managed(description = "Write an attribute of an MBean in the server")
+    public void write(final String name, final String attribute, final Object value) throws JMException
+    {
+        server.setAttribute(new ObjectName(name), new Attribute(attribute, value));
+    }
+
+    @Managed(description = "Invoke an operation of an MBean in the server")
+    public Object invoke(final String name, final String operation, final Object[] params, final String[] signature) throws JMException
+    {
+        return server.invoke(new ObjectName(name), operation, params, signature);
+    }
+}
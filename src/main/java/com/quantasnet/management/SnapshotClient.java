@@ -0,0 +1,174 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads snapshots from a {@link SnapshotServer} over one connection, keeping the name dictionary of that connection
+ *
+ * @author Quantas
+ */
+public final class SnapshotClient implements Closeable
+{
+    private final SocketChannel channel;
+    private final ByteBuffer request = ByteBuffer.allocate(1);
+    private final ByteBuffer length = ByteBuffer.allocate(4);
+    private ByteBuffer frame = ByteBuffer.allocate(64 * 1024);
+
+    // dictionary of the connection, ObjectNames are parsed the first time they are used
+    private final List<String> names = new ArrayList<String>();
+    private final List<ObjectName> objectNames = new ArrayList<ObjectName>();
+
+    private SnapshotClient(final SocketChannel channel)
+    {
+        this.channel = channel;
+    }
+
+    /**
+     * @param path Path of the server socket
+     * @return a connected client
+     * @throws IOException if the server could not be reached
+     */
+    public static SnapshotClient connect(final Path path) throws IOException
+    {
+        final SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        channel.connect(UnixDomainSocketAddress.of(path));
+        return new SnapshotClient(channel);
+    }
+
+    /**
+     * @return the attribute values of every MBean registered on the server
+     * @throws IOException if the snapshot could not be read
+     */
+    public synchronized Map<ObjectName, Map<String, Object>> snapshot() throws IOException
+    {
+        request.clear();
+        request.put(SnapshotProtocol.SNAPSHOT);
+        request.flip();
+        while (request.hasRemaining())
+        {
+            channel.write(request);
+        }
+
+        length.clear();
+        readFully(length);
+        final int size = length.getInt(0);
+        if (frame.capacity() < size)
+        {
+            frame = ByteBuffer.allocate(Math.max(size, frame.capacity() * 2));
+        }
+        frame.clear();
+        frame.limit(size);
+        readFully(frame);
+        frame.flip();
+
+        if (frame.get() == SnapshotProtocol.RESET_DICTIONARY)
+        {
+            names.clear();
+            objectNames.clear();
+        }
+
+        final int newEntries = frame.getInt();
+        for (int i = 0; i < newEntries; i++)
+        {
+            names.add(SnapshotProtocol.getString(frame));
+            objectNames.add(null);
+        }
+
+        final int beans = frame.getInt();
+        final Map<ObjectName, Map<String, Object>> snapshot = new LinkedHashMap<ObjectName, Map<String, Object>>(beans * 2);
+        for (int i = 0; i < beans; i++)
+        {
+            final ObjectName objectName = objectName(frame.getInt());
+            final int attributes = frame.getInt();
+            final Map<String, Object> values = new LinkedHashMap<String, Object>(attributes * 2);
+            for (int j = 0; j < attributes; j++)
+            {
+                final String attribute = names.get(frame.getInt());
+                values.put(attribute, SnapshotProtocol.getValue(frame));
+            }
+            snapshot.put(objectName, values);
+        }
+
+        return snapshot;
+    }
+
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    /**
+     * @return the number of names in the dictionary of the connection
+     */
+    /*package*/ synchronized int dictionarySize()
+    {
+        return names.size();
+    }
+
+    private ObjectName objectName(final int id) throws IOException
+    {
+        ObjectName objectName = objectNames.get(id);
+        if (objectName == null)
+        {
+            try
+            {
+                objectName = new ObjectName(names.get(id));
+            }
+            catch (MalformedObjectNameException e)
+            {
+                throw new IOException("Invalid ObjectName in snapshot: " + names.get(id), e);
+            }
+            objectNames.set(id, objectName);
+        }
+
+        return objectName;
+    }
+
+    private void readFully(final ByteBuffer buffer) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer) < 0)
+            {
+                throw new EOFException("Snapshot server closed the connection");
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Wire format shared by the SnapshotServer and the SnapshotClient.<br />
+ * The client sends {@link #SNAPSHOT}, the server answers with one frame:
+ * <pre>
+ * int    length of the rest of the frame
+ * byte   {@link #KEEP_DICTIONARY} or {@link #RESET_DICTIONARY}
+ * int    number of new dictionary entries, then per entry: int length, UTF-8 bytes
+ * int    number of MBeans, then per MBean: int name id, int number of attributes,
+ *        then per attribute: int name id, byte tag, value
+ * </pre>
+ * Dictionary ids are assigned in order per connection, ObjectNames and attribute names are sent once per connection
+ * and referred to by id afterwards. Once the dictionary holds more names than the server allows, such as after many
+ * MBeans came and went, the server starts over: the next frame tells the client to drop its dictionary, and ids are
+ * assigned from 0 again.
+ */
+/*package*/ final class SnapshotProtocol
+{
+    /*package*/ static final byte SNAPSHOT = 1;
+
+    /*package*/ static final byte KEEP_DICTIONARY = 0;
+    /*package*/ static final byte RESET_DICTIONARY = 1;
+
+    /*package*/ static final byte NULL = 0;
+    /*package*/ static final byte LONG = 1;
+    /*package*/ static final byte INT = 2;
+    /*package*/ static final byte DOUBLE = 3;
+    /*package*/ static final byte BOOLEAN = 4;
+    /*package*/ static final byte STRING = 5;
+
+    private SnapshotProtocol()
+    {
+        // constants only
+    }
+
+    /**
+     * Make sure a buffer has room for more bytes, replacing it with a larger copy if it does not
+     *
+     * @param buffer Buffer being written
+     * @param bytes  Number of bytes about to be written
+     * @return the buffer, or a larger buffer with the same content
+     */
+    /*package*/ static ByteBuffer ensure(final ByteBuffer buffer, final int bytes)
+    {
+        if (buffer.remaining() >= bytes)
+        {
+            return buffer;
+        }
+
+        final ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    /*package*/ static ByteBuffer putString(final ByteBuffer buffer, final String value)
+    {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer target = ensure(buffer, 4 + bytes.length);
+        target.putInt(bytes.length);
+        target.put(bytes);
+        return target;
+    }
+
+    /*package*/ static String getString(final ByteBuffer buffer)
+    {
+        final byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write a tagged value, numbers and booleans are written as primitives and anything else as its String
+     */
+    /*package*/ static ByteBuffer putValue(final ByteBuffer buffer, final Object value)
+    {
+        if (value == null)
+        {
+            final ByteBuffer target = ensure(buffer, 1);
+            target.put(NULL);
+            return target;
+        }
+
+        if (value instanceof Long || value instanceof Short || value instanceof Byte)
+        {
+            final ByteBuffer target = ensure(buffer, 9);
+            target.put(LONG);
+            target.putLong(((Number) value).longValue());
+            return target;
+        }
+
+        if (value instanceof Integer)
+        {
+            final ByteBuffer target = ensure(buffer, 5);
+            target.put(INT);
+            target.putInt((Integer) value);
+            return target;
+        }
+
+        if (value instanceof Double || value instanceof Float)
+        {
+            final ByteBuffer target = ensure(buffer, 9);
+            target.put(DOUBLE);
+            target.putDouble(((Number) value).doubleValue());
+            return target;
+        }
+
+        if (value instanceof Boolean)
+        {
+            final ByteBuffer target = ensure(buffer, 2);
+            target.put(BOOLEAN);
+            target.put((Boolean) value ? (byte) 1 : (byte) 0);
+            return target;
+        }
+
+        final ByteBuffer target = ensure(buffer, 1);
+        target.put(STRING);
+        return putString(target, String.valueOf(value));
+    }
+
+    /*package*/ static Object getValue(final ByteBuffer buffer)
+    {
+        final byte tag = buffer.get();
+        switch (tag)
+        {
+            case NULL:
+                return null;
+            case LONG:
+                return buffer.getLong();
+            case INT:
+                return buffer.getInt();
+            case DOUBLE:
+                return buffer.getDouble();
+            case BOOLEAN:
+                return buffer.get() != 0;
+            case STRING:
+                return getString(buffer);
+            default:
+                throw new IllegalStateException("Unknown value tag " + tag);
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanAttributeInfo;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Serves snapshots of the attributes of every registered MBean over a Unix domain socket, for collectors on the same
+ * host that want full snapshots far more often than RMI allows, see
+ * {@link ManagementProcessor#startSnapshotServer(Path)} and {@link SnapshotClient}.<br />
+ * Names are dictionary encoded once per connection, up to a bound, and values are written as primitives, each snapshot
+ * is encoded into pooled direct buffers and sent with a single gathering write. Every connection is served by its own
+ * thread.
+ *
+ * @author Quantas
+ */
+public final class SnapshotServer implements Closeable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(SnapshotServer.class);
+
+    private static final int INITIAL_BUFFER = 64 * 1024;
+
+    // names a connection's dictionary may hold before it starts over
+    /*package*/ static final int MAX_DICTIONARY = 1 << 16;
+
+    private final Path path;
+    private final int maxDictionary;
+    private final ServerSocketChannel server;
+    private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final Set<SocketChannel> connections = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean closed;
+
+    /*package*/ SnapshotServer(final Path path) throws IOException
+    {
+        this(path, MAX_DICTIONARY);
+    }
+
+    /*package*/ SnapshotServer(final Path path, final int maxDictionary) throws IOException
+    {
+        this.path = path;
+        this.maxDictionary = maxDictionary;
+
+        // a socket file left behind by a previous process would make the bind fail
+        Files.deleteIfExists(path);
+
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(path));
+
+        final Thread acceptor = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                accept();
+            }
+        }, "ManagementProcessor-snapshot-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * @return the path of the socket
+     */
+    public Path getPath()
+    {
+        return path;
+    }
+
+    /**
+     * Stop accepting connections, close the open ones and remove the socket file
+     */
+    public void close() throws IOException
+    {
+        closed = true;
+        server.close();
+
+        for (final SocketChannel connection : connections)
+        {
+            connection.close();
+        }
+
+        Files.deleteIfExists(path);
+    }
+
+    private void accept()
+    {
+        while (!closed)
+        {
+            try
+            {
+                final SocketChannel channel = server.accept();
+                connections.add(channel);
+
+                final Thread thread = new Thread(new Connection(channel), "ManagementProcessor-snapshot-" + connections.size());
+                thread.setDaemon(true);
+                thread.start();
+            }
+            catch (IOException e)
+            {
+                if (!closed)
+                {
+                    LOG.error("Error accepting snapshot connection", e);
+                }
+            }
+        }
+    }
+
+    private ByteBuffer acquire()
+    {
+        final ByteBuffer buffer = buffers.poll();
+        if (buffer == null)
+        {
+            return ByteBuffer.allocateDirect(INITIAL_BUFFER);
+        }
+
+        buffer.clear();
+        return buffer;
+    }
+
+    private final class Connection implements Runnable
+    {
+        private final SocketChannel channel;
+        private final ByteBuffer request = ByteBuffer.allocate(1);
+        private final ByteBuffer length = ByteBuffer.allocateDirect(4);
+
+        // name -> id, the client keeps the same list
+        private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+
+        // dynamic sources read while encoding one MBean, each is read once for all of its attributes
+        private final Map<DynamicAttributeSource, Map<String, ?>> sweep = new HashMap<DynamicAttributeSource, Map<String, ?>>();
+
+        // buffers of the snapshot being encoded, replaced when they grow
+        private ByteBuffer entries;
+        private ByteBuffer body;
+        private int newEntries;
+
+        private Connection(final SocketChannel channel)
+        {
+            this.channel = channel;
+        }
+
+        public void run()
+        {
+            try
+            {
+                while (true)
+                {
+                    request.clear();
+                    if (channel.read(request) < 0)
+                    {
+                        break;
+                    }
+
+                    if (request.get(0) != SnapshotProtocol.SNAPSHOT)
+                    {
+                        throw new IOException("Unknown request " + request.get(0));
+                    }
+
+                    writeSnapshot();
+                }
+            }
+            catch (IOException e)
+            {
+                if (!closed)
+                {
+                    LOG.debug("Snapshot connection closed", e);
+                }
+            }
+            finally
+            {
+                connections.remove(channel);
+                try
+                {
+                    channel.close();
+                }
+                catch (IOException e)
+                {
+                    LOG.debug("Error closing snapshot connection", e);
+                }
+            }
+        }
+
+        private void writeSnapshot() throws IOException
+        {
+            entries = acquire();
+            body = acquire();
+            newEntries = 0;
+
+            try
+            {
+                // names of unregistered MBeans stay in the dictionary, start over once it is too large
+                if (dictionary.size() > maxDictionary)
+                {
+                    dictionary.clear();
+                    entries.put(SnapshotProtocol.RESET_DICTIONARY);
+                }
+                else
+                {
+                    entries.put(SnapshotProtocol.KEEP_DICTIONARY);
+                }
+                entries.putInt(0);
+                body.putInt(0);
+                int beans = 0;
+
+                for (final Registration registration : ManagementProcessor.registrations())
+                {
+                    if (registration.getMbean() instanceof DynamicManagementMBean)
+                    {
+                        encode(registration, (DynamicManagementMBean) registration.getMbean());
+                        beans++;
+                    }
+                }
+
+                entries.putInt(1, newEntries);
+                body.putInt(0, beans);
+
+                length.clear();
+                length.putInt(entries.position() + body.position());
+                length.flip();
+                entries.flip();
+                body.flip();
+
+                final ByteBuffer[] frame = {length, entries, body};
+                while (body.hasRemaining())
+                {
+                    channel.write(frame);
+                }
+            }
+            finally
+            {
+                buffers.offer(entries);
+                buffers.offer(body);
+                entries = null;
+                body = null;
+            }
+        }
+
+        private void encode(final Registration registration, final DynamicManagementMBean mbean)
+        {
+            final int nameId = id(registration.getObjectName().getCanonicalName());
+            body = SnapshotProtocol.ensure(body, 8);
+            body.putInt(nameId);
+            final int countPosition = body.position();
+            body.putInt(0);
+
+            int attributes = 0;
+            sweep.clear();
+            for (final MBeanAttributeInfo attrInfo : mbean.getMBeanInfo().getAttributes())
+            {
+                if (attrInfo.isReadable())
+                {
+                    final Object value;
+                    try
+                    {
+                        value = mbean.read(attrInfo.getName(), sweep);
+                    }
+                    catch (Exception e)
+                    {
+                        LOG.debug("Error reading " + attrInfo.getName(), e);
+                        continue;
+                    }
+
+                    final int attributeId = id(attrInfo.getName());
+                    body = SnapshotProtocol.ensure(body, 4);
+                    body.putInt(attributeId);
+                    body = SnapshotProtocol.putValue(body, value);
+                    attributes++;
+                }
+            }
+
+            body.putInt(countPosition, attributes);
+        }
+
+        private int id(final String name)
+        {
+            Integer id = dictionary.get(name);
+            if (id == null)
+            {
+                id = dictionary.size();
+                dictionary.put(name, id);
+                entries = SnapshotProtocol.putString(entries, name);
+                newEntries++;
+            }
+
+            return id;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.monitor.MonitorNotification;
+
+/**
+ * A high and low threshold watched on a numeric attribute, see {@link ManagedThreshold}
+ */
+/*package*/ final class Threshold implements Sampler
+{
+    private static final Logger LOG = LoggerFactory.getLogger(Threshold.class);
+
+    private static final int NORMAL = 0;
+    private static final int HIGH = 1;
+    private static final int LOW = 2;
+
+    final DynamicManagementMBean mbean;
+    final String attribute;
+    final double high;
+    final double low;
+    final long period;
+
+    // only touched by the scheduler thread
+    private int state = NORMAL;
+
+    public Threshold(final DynamicManagementMBean mbean, final String attribute, final double high, final double low, final long period)
+    {
+        if (low > high)
+        {
+            throw new IllegalArgumentException("Low threshold " + low + " is greater than high threshold " + high + " for " + attribute);
+        }
+
+        if (period <= 0)
+        {
+            throw new IllegalArgumentException("Threshold period must be positive for " + attribute);
+        }
+
+        this.mbean = mbean;
+        this.attribute = attribute;
+        this.high = high;
+        this.low = low;
+        this.period = period;
+    }
+
+    public long getPeriod()
+    {
+        return period;
+    }
+
+    /**
+     * Read the attribute and send a notification if it crossed a threshold since the last sample
+     */
+    public void sample()
+    {
+        final Object value;
+        try
+        {
+            value = mbean.sample(attribute);
+        }
+        catch (Exception e)
+        {
+            LOG.debug("Error reading monitored attribute " + attribute, e);
+            return;
+        }
+
+        if (!(value instanceof Number))
+        {
+            return;
+        }
+
+        final double current = ((Number) value).doubleValue();
+
+        if (current >= high && state != HIGH)
+        {
+            state = HIGH;
+            mbean.sendNotification(MonitorNotification.THRESHOLD_HIGH_VALUE_EXCEEDED, attribute + " reached high threshold " + high, value);
+        }
+        else if (current <= low && state != LOW)
+        {
+            state = LOW;
+            mbean.sendNotification(MonitorNotification.THRESHOLD_LOW_VALUE_EXCEEDED, attribute + " reached low threshold " + low, value);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Threshold[" + attribute + ", high=" + high + ", low=" + low + "]";
+    }
+}
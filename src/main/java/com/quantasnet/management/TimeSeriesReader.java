@@ -0,0 +1,255 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Reads the ring files written by a {@link TimeSeriesRecorder}, also while it is recording or after it crashed<br />
+ * <br />
+ * java -cp managed.jar com.quantasnet.management.TimeSeriesReader recording.ring &gt; recording.csv<br />
+ *
+ * @author Quantas
+ */
+public final class TimeSeriesReader
+{
+    private final String objectName;
+    private final long period;
+    private final String[] attributes;
+    private final boolean[] integral;
+    private final List<Sample> samples = new ArrayList<Sample>();
+
+    private TimeSeriesReader(final ByteBuffer file)
+    {
+        if (file.getInt() != RecordingFormat.MAGIC)
+        {
+            throw new IllegalArgumentException("Not a recording");
+        }
+        if (file.getInt() != RecordingFormat.VERSION)
+        {
+            throw new IllegalArgumentException("Unsupported recording version");
+        }
+
+        period = file.getLong();
+        final int blockSize = file.getInt();
+        final int blockCount = file.getInt();
+        objectName = RecordingFormat.getString(file);
+
+        attributes = new String[file.getInt()];
+        integral = new boolean[attributes.length];
+        for (int i = 0; i < attributes.length; i++)
+        {
+            integral[i] = file.get() == RecordingFormat.INTEGRAL;
+            attributes[i] = RecordingFormat.getString(file);
+        }
+
+        // used blocks, oldest first
+        final TreeMap<Long, Integer> blocks = new TreeMap<Long, Integer>();
+        for (int i = 0; i < blockCount; i++)
+        {
+            final long sequence = file.getLong(RecordingFormat.HEADER_SIZE + i * blockSize);
+            if (sequence > 0)
+            {
+                blocks.put(sequence, RecordingFormat.HEADER_SIZE + i * blockSize);
+            }
+        }
+
+        for (final int offset : blocks.values())
+        {
+            readBlock(file, offset);
+        }
+    }
+
+    /**
+     * @param file Ring file written by a TimeSeriesRecorder
+     * @return the decoded samples, oldest first
+     * @throws IOException if the file could not be read
+     */
+    public static TimeSeriesReader read(final Path file) throws IOException
+    {
+        return new TimeSeriesReader(ByteBuffer.wrap(Files.readAllBytes(file)));
+    }
+
+    /**
+     * Write a recording to standard out as CSV
+     *
+     * @param args Path of the ring file
+     */
+    public static void main(final String[] args) throws IOException
+    {
+        if (args.length != 1)
+        {
+            System.err.println("Usage: TimeSeriesReader <recording>");
+            System.exit(1);
+        }
+
+        final Writer out = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+        read(Paths.get(args[0])).writeCsv(out);
+        out.flush();
+    }
+
+    public String getObjectName()
+    {
+        return objectName;
+    }
+
+    /**
+     * @return the sampling period in milliseconds
+     */
+    public long getPeriod()
+    {
+        return period;
+    }
+
+    public List<String> getAttributes()
+    {
+        return Collections.unmodifiableList(Arrays.asList(attributes));
+    }
+
+    public List<Sample> getSamples()
+    {
+        return Collections.unmodifiableList(samples);
+    }
+
+    /**
+     * Write a header row, then a row per sample with its ISO-8601 time and a column per attribute, empty when the
+     * attribute could not be read
+     */
+    public void writeCsv(final Appendable out) throws IOException
+    {
+        out.append("timestamp");
+        for (final String attribute : attributes)
+        {
+            out.append(',').append(csv(attribute));
+        }
+        out.append('\n');
+
+        for (final Sample sample : samples)
+        {
+            out.append(Instant.ofEpochMilli(sample.timestamp).toString());
+            for (final Number value : sample.values)
+            {
+                out.append(',');
+                if (value != null)
+                {
+                    out.append(value.toString());
+                }
+            }
+            out.append('\n');
+        }
+    }
+
+    private void readBlock(final ByteBuffer file, final int offset)
+    {
+        final int count = file.getInt(offset + 8);
+        final ByteBuffer block = file.duplicate();
+        block.position(offset + RecordingFormat.BLOCK_HEADER);
+
+        final long[] previous = new long[attributes.length];
+        long timestamp = 0;
+
+        for (int record = 0; record < count; record++)
+        {
+            final long encoded = RecordingFormat.getVarLong(block);
+            timestamp = record == 0 ? encoded : timestamp + period + RecordingFormat.unzigzag(encoded);
+
+            final long mask = RecordingFormat.getVarLong(block);
+            final Number[] values = new Number[attributes.length];
+            for (int i = 0; i < attributes.length; i++)
+            {
+                if ((mask & 1L << i) != 0)
+                {
+                    final long delta = RecordingFormat.getVarLong(block);
+                    if (integral[i])
+                    {
+                        previous[i] += RecordingFormat.unzigzag(delta);
+                        values[i] = previous[i];
+                    }
+                    else
+                    {
+                        previous[i] ^= delta;
+                        values[i] = Double.longBitsToDouble(previous[i]);
+                    }
+                }
+            }
+
+            samples.add(new Sample(timestamp, values));
+        }
+    }
+
+    private static String csv(final String value)
+    {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0)
+        {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Values of the recorded attributes at one point in time
+     */
+    public static final class Sample
+    {
+        private final long timestamp;
+        private final Number[] values;
+
+        private Sample(final long timestamp, final Number[] values)
+        {
+            this.timestamp = timestamp;
+            this.values = values;
+        }
+
+        /**
+         * @return the time of the sample in milliseconds since the epoch
+         */
+        public long getTimestamp()
+        {
+            return timestamp;
+        }
+
+        /**
+         * @param series Index of the attribute in {@link TimeSeriesReader#getAttributes()}
+         * @return a Long or Double, null if the attribute could not be read
+         */
+        public Number getValue(final int series)
+        {
+            return values[series];
+        }
+    }
+}
@@ -0,0 +1,388 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanAttributeInfo;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Samples numeric attributes of one MBean into a fixed-size, memory-mapped ring file, see
+ * {@link ManagementProcessor#startRecorder(Object, Path, long, long, String...)}<br />
+ * The file keeps the most recent samples that fit, delta encoded as described in {@link RecordingFormat}, and the
+ * operating system writes the mapped pages back even if the process crashes. Restarting a recorder with the same
+ * settings appends to the file. Samples are encoded into a reusable buffer and copied into the mapping, so recording
+ * does not allocate beyond reading the attributes. Read the file with {@link TimeSeriesReader}.
+ *
+ * @author Quantas
+ */
+public final class TimeSeriesRecorder implements Closeable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(TimeSeriesRecorder.class);
+
+    private final DynamicManagementMBean mbean;
+    private final Path file;
+    private final long period;
+    private final String[] attributes;
+    private final boolean[] integral;
+    private final int blockCount;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+
+    // only used on the scheduler thread
+    private final ByteBuffer record = ByteBuffer.allocate(RecordingFormat.MAX_RECORD);
+    private final long[] values;
+    private final long[] previous;
+
+    // dynamic sources read while taking one sample, each is read once for all of its attributes
+    private final Map<DynamicAttributeSource, Map<String, ?>> sweep = new HashMap<DynamicAttributeSource, Map<String, ?>>();
+    private long previousTimestamp;
+    private int block = -1;
+    private long sequence;
+    private int count;
+    private int position;
+
+    private final Sampler sampler = new Sampler()
+    {
+        public long getPeriod()
+        {
+            return period;
+        }
+
+        public void sample()
+        {
+            record(System.currentTimeMillis());
+        }
+    };
+
+    private boolean closed;
+    private long samples;
+
+    /*package*/ TimeSeriesRecorder(final DynamicManagementMBean mbean, final Path file, final long period, final long size,
+                                   final String... attributes) throws IOException
+    {
+        this.mbean = mbean;
+        this.file = file;
+        this.period = period;
+        this.attributes = attributes.length == 0 ? numericAttributes(mbean) : attributes.clone();
+        this.integral = new boolean[this.attributes.length];
+        this.values = new long[this.attributes.length];
+        this.previous = new long[this.attributes.length];
+
+        if (this.attributes.length == 0 || this.attributes.length > RecordingFormat.MAX_SERIES)
+        {
+            throw new IllegalArgumentException("Between 1 and " + RecordingFormat.MAX_SERIES + " attributes can be recorded: " + this.attributes.length);
+        }
+
+        // a single mapping holds the header and the blocks, checked before an existing file is touched
+        final long maxBlocks = (Integer.MAX_VALUE - RecordingFormat.HEADER_SIZE) / RecordingFormat.BLOCK_SIZE;
+        final long blocks = (size - RecordingFormat.HEADER_SIZE) / RecordingFormat.BLOCK_SIZE;
+        if (blocks < 2 || blocks > maxBlocks)
+        {
+            throw new IllegalArgumentException("Size must leave room for 2 to " + maxBlocks + " blocks: " + size);
+        }
+        blockCount = (int) blocks;
+
+        for (int i = 0; i < this.attributes.length; i++)
+        {
+            final Boolean isIntegral = AggregateMBean.integral(typeOf(mbean, this.attributes[i]));
+            if (isIntegral == null)
+            {
+                throw new IllegalArgumentException("Not a numeric attribute: " + this.attributes[i]);
+            }
+            integral[i] = isIntegral;
+        }
+
+        final ByteBuffer header = header(mbean.getObjectName());
+        final long fileSize = RecordingFormat.HEADER_SIZE + (long) blockCount * RecordingFormat.BLOCK_SIZE;
+
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try
+        {
+            final boolean resume = channel.size() == fileSize && sameHeader(header);
+            if (!resume)
+            {
+                // a different layout, start over with unused blocks
+                channel.truncate(0);
+            }
+
+            map = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+            if (resume)
+            {
+                resume();
+            }
+            else
+            {
+                map.put(0, header, 0, header.limit());
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            channel.close();
+            throw e;
+        }
+
+        MonitorEngine.INSTANCE.add(sampler);
+    }
+
+    /**
+     * Stop recording, the file keeps the samples
+     */
+    public synchronized void close() throws IOException
+    {
+        if (!closed)
+        {
+            closed = true;
+            MonitorEngine.INSTANCE.remove(sampler);
+            map.force();
+            channel.close();
+        }
+    }
+
+    public Path getFile()
+    {
+        return file;
+    }
+
+    /**
+     * @return the names of the recorded attributes
+     */
+    public List<String> getAttributes()
+    {
+        return Arrays.asList(attributes);
+    }
+
+    /**
+     * @return the number of samples written since the recorder started
+     */
+    public synchronized long getSamples()
+    {
+        return samples;
+    }
+
+    /**
+     * Write one sample
+     *
+     * @param timestamp Time of the sample in milliseconds since the epoch
+     */
+    /*package*/ synchronized void record(final long timestamp)
+    {
+        if (closed)
+        {
+            return;
+        }
+
+        long mask = 0;
+        sweep.clear();
+        for (int i = 0; i < attributes.length; i++)
+        {
+            final Object value;
+            try
+            {
+                value = mbean.sample(attributes[i], sweep);
+            }
+            catch (Exception e)
+            {
+                LOG.debug("Error reading " + attributes[i], e);
+                continue;
+            }
+
+            if (value instanceof Number)
+            {
+                values[i] = integral[i] ? ((Number) value).longValue() : Double.doubleToRawLongBits(((Number) value).doubleValue());
+                mask |= 1L << i;
+            }
+        }
+
+        boolean keyframe = count == 0;
+        encode(timestamp, mask, keyframe);
+        if (block < 0 || record.position() > RecordingFormat.BLOCK_SIZE - position)
+        {
+            nextBlock();
+            if (!keyframe)
+            {
+                keyframe = true;
+                encode(timestamp, mask, true);
+            }
+        }
+
+        final int offset = blockOffset(block);
+        map.put(offset + position, record, 0, record.position());
+        // the count last, a crash before it leaves the record invisible instead of torn
+        map.putInt(offset + 8, ++count);
+        position += record.position();
+
+        if (keyframe)
+        {
+            Arrays.fill(previous, 0L);
+        }
+        for (int i = 0; i < attributes.length; i++)
+        {
+            if ((mask & 1L << i) != 0)
+            {
+                previous[i] = values[i];
+            }
+        }
+        previousTimestamp = timestamp;
+        samples++;
+    }
+
+    /**
+     * Encode a record into the reusable buffer, a keyframe is encoded against zeros
+     */
+    private void encode(final long timestamp, final long mask, final boolean keyframe)
+    {
+        record.clear();
+        RecordingFormat.putVarLong(record, keyframe ? timestamp : RecordingFormat.zigzag(timestamp - previousTimestamp - period));
+        RecordingFormat.putVarLong(record, mask);
+
+        for (int i = 0; i < attributes.length; i++)
+        {
+            if ((mask & 1L << i) != 0)
+            {
+                final long base = keyframe ? 0L : previous[i];
+                RecordingFormat.putVarLong(record, integral[i] ? RecordingFormat.zigzag(values[i] - base) : values[i] ^ base);
+            }
+        }
+    }
+
+    /**
+     * Move to the next block of the ring, overwriting the oldest one
+     */
+    private void nextBlock()
+    {
+        block = (block + 1) % blockCount;
+        final int offset = blockOffset(block);
+
+        // unused first, then the new sequence, a crash in between leaves an empty block
+        map.putInt(offset + 8, 0);
+        map.putLong(offset, ++sequence);
+        count = 0;
+        position = RecordingFormat.BLOCK_HEADER;
+    }
+
+    /**
+     * Continue after the newest block of an existing file
+     */
+    private void resume()
+    {
+        for (int i = 0; i < blockCount; i++)
+        {
+            final long blockSequence = map.getLong(blockOffset(i));
+            if (blockSequence > sequence)
+            {
+                sequence = blockSequence;
+                block = i;
+            }
+        }
+
+        // count stays 0, the next record starts a new block with a keyframe
+        position = RecordingFormat.BLOCK_SIZE;
+    }
+
+    private ByteBuffer header(final ObjectName objectName)
+    {
+        final ByteBuffer header = ByteBuffer.allocate(RecordingFormat.HEADER_SIZE);
+        try
+        {
+            header.putInt(RecordingFormat.MAGIC);
+            header.putInt(RecordingFormat.VERSION);
+            header.putLong(period);
+            header.putInt(RecordingFormat.BLOCK_SIZE);
+            header.putInt(blockCount);
+            RecordingFormat.putString(header, String.valueOf(objectName));
+            header.putInt(attributes.length);
+            for (int i = 0; i < attributes.length; i++)
+            {
+                header.put(integral[i] ? RecordingFormat.INTEGRAL : RecordingFormat.FLOATING);
+                RecordingFormat.putString(header, attributes[i]);
+            }
+        }
+        catch (BufferOverflowException e)
+        {
+            throw new IllegalArgumentException("Attribute names do not fit in the header of " + RecordingFormat.HEADER_SIZE + " bytes");
+        }
+
+        header.flip();
+        return header;
+    }
+
+    private boolean sameHeader(final ByteBuffer header) throws IOException
+    {
+        final ByteBuffer existing = ByteBuffer.allocate(header.limit());
+        while (existing.hasRemaining() && channel.read(existing, existing.position()) > 0)
+        {
+            // keep reading
+        }
+        existing.flip();
+        return existing.equals(header);
+    }
+
+    private static int blockOffset(final int block)
+    {
+        return RecordingFormat.HEADER_SIZE + block * RecordingFormat.BLOCK_SIZE;
+    }
+
+    private static String typeOf(final DynamicManagementMBean mbean, final String attribute)
+    {
+        for (final MBeanAttributeInfo attrInfo : mbean.getMBeanInfo().getAttributes())
+        {
+            if (attrInfo.getName().equals(attribute) && attrInfo.isReadable())
+            {
+                return attrInfo.getType();
+            }
+        }
+        throw new IllegalArgumentException("No readable attribute: " + attribute);
+    }
+
+    private static String[] numericAttributes(final DynamicManagementMBean mbean)
+    {
+        final List<String> numeric = new ArrayList<String>();
+        for (final MBeanAttributeInfo attrInfo : mbean.getMBeanInfo().getAttributes())
+        {
+            if (attrInfo.isReadable() && AggregateMBean.integral(attrInfo.getType()) != null)
+            {
+                numeric.add(attrInfo.getName());
+            }
+        }
+        return numeric.toArray(new String[numeric.size()]);
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.quantasnet.management;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Synthetic MBean exposing the timers of the methods of a class annotated with &#64;Managed(timed = true), see
+ * {@link Managed#timed()}.<br />
+ * A timer counts the calls of every instance of the class, so it is registered once per class, as long as an instance
+ * is registered, instead of repeating the same numbers on the MBean of every instance.
+ */
+/*package*/ final class TimerMBean implements DynamicMBean
+{
+    // attribute name -> timer and the statistic it reads
+    private final Map<String, MethodTimer> timers = new LinkedHashMap<String, MethodTimer>();
+    private final Map<String, String> statistics = new LinkedHashMap<String, String>();
+    private final Set<DynamicManagementMBean> members = ConcurrentHashMap.newKeySet();
+    private final MBeanInfo info;
+
+    /**
+     * @param objClass Class of the instances
+     * @param methods  Name of each timed method -> its timer
+     */
+    public TimerMBean(final Class<?> objClass, final Map<String, MethodTimer> methods)
+    {
+        final List<MBeanAttributeInfo> attrList = new ArrayList<MBeanAttributeInfo>();
+        for (final Map.Entry<String, MethodTimer> entry : methods.entrySet())
+        {
+            final String name = entry.getKey();
+            addAttribute(entry.getValue(), name, MethodTimer.COUNT_SUFFIX, Long.class, "Calls of " + name, attrList);
+            addAttribute(entry.getValue(), name, MethodTimer.ERRORS_SUFFIX, Long.class, "Calls of " + name + " that threw", attrList);
+            addAttribute(entry.getValue(), name, MethodTimer.MEAN_SUFFIX, Double.class, "Mean latency of " + name + " in microseconds", attrList);
+            addAttribute(entry.getValue(), name, MethodTimer.P50_SUFFIX, Double.class, "Median latency of " + name + " in microseconds", attrList);
+            addAttribute(entry.getValue(), name, MethodTimer.P99_SUFFIX, Double.class, "99th percentile latency of " + name + " in microseconds", attrList);
+            addAttribute(entry.getValue(), name, MethodTimer.P999_SUFFIX, Double.class, "99.9th percentile latency of " + name + " in microseconds", attrList);
+        }
+
+        info = new MBeanInfo(TimerMBean.class.getName(), "Timed methods of " + objClass.getName(),
+                attrList.toArray(new MBeanAttributeInfo[attrList.size()]), null, null, null);
+    }
+
+    /**
+     * Add a registered instance
+     *
+     * @param mbean MBean of the instance
+     */
+    public void add(final DynamicManagementMBean mbean)
+    {
+        members.add(mbean);
+    }
+
+    /**
+     * Remove an unregistered instance
+     *
+     * @param mbean MBean of the instance
+     * @return true if there are no instances left
+     */
+    public boolean remove(final DynamicManagementMBean mbean)
+    {
+        members.remove(mbean);
+        return members.isEmpty();
+    }
+
+    public Object getAttribute(final String attribute) throws AttributeNotFoundException
+    {
+        final MethodTimer timer = timers.get(attribute);
+        if (timer == null)
+        {
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        return timer.read(statistics.get(attribute));
+    }
+
+    public void setAttribute(final Attribute attribute) throws AttributeNotFoundException
+    {
+        throw new AttributeNotFoundException("Timer attributes are read only: " + attribute.getName());
+    }
+
+    public AttributeList getAttributes(final String[] attributes)
+    {
+        final AttributeList values = new AttributeList();
+        for (final String attribute : attributes)
+        {
+            final MethodTimer timer = timers.get(attribute);
+            if (timer != null)
+            {
+                values.add(new Attribute(attribute, timer.read(statistics.get(attribute))));
+            }
+        }
+
+        return values;
+    }
+
+    public AttributeList setAttributes(final AttributeList attributes)
+    {
+        return new AttributeList();
+    }
+
+    public Object invoke(final String actionName, final Object[] params, final String[] signature) throws MBeanException
+    {
+        throw new MBeanException(new UnsupportedOperationException(actionName), "Timers have no operations");
+    }
+
+    public MBeanInfo getMBeanInfo()
+    {
+        return info;
+    }
+
+    private void addAttribute(final MethodTimer timer, final String method, final String suffix, final Class<?> type,
+                              final String description, final List<MBeanAttributeInfo> attrList)
+    {
+        timers.put(method + suffix, timer);
+        statistics.put(method + suffix, suffix);
+        attrList.add(new MBeanAttributeInfo(method + suffix, type.getName(), description, true, false, false));
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of a bulk unregistration, lists the MBeans that were unregistered and the failure for every other MBean
+ *
+ * @author Quantas
+ */
+public final class UnregistrationReport
+{
+    private final List<ObjectName> unregistered = new ArrayList<ObjectName>();
+    private final Map<ObjectName, Exception> failures = new LinkedHashMap<ObjectName, Exception>();
+
+    /*package*/ UnregistrationReport()
+    {
+        // created by the ManagementProcessor
+    }
+
+    /*package*/ synchronized void success(final ObjectName objectName)
+    {
+        unregistered.add(objectName);
+    }
+
+    /*package*/ synchronized void failure(final ObjectName objectName, final Exception e)
+    {
+        failures.put(objectName, e);
+    }
+
+    /**
+     * @return the names of the MBeans that were unregistered
+     */
+    public synchronized List<ObjectName> getUnregistered()
+    {
+        return Collections.unmodifiableList(new ArrayList<ObjectName>(unregistered));
+    }
+
+    /**
+     * @return the names of the MBeans that could not be unregistered, with the reason
+     */
+    public synchronized Map<ObjectName, Exception> getFailures()
+    {
+        return Collections.unmodifiableMap(new LinkedHashMap<ObjectName, Exception>(failures));
+    }
+
+    /**
+     * @return true if every selected MBean was unregistered
+     */
+    public synchronized boolean isSuccessful()
+    {
+        return failures.isEmpty();
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "UnregistrationReport[unregistered=" + unregistered.size() + ", failures=" + failures.keySet() + "]";
+    }
+}
@@ -0,0 +1,505 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the ManagementAgent in forked JVMs, the classes below are only instrumented there
+ */
+public class AgentTest
+{
+    private static final Pattern LOAD_PATTERN = Pattern.compile(
+            "loaded (\\d+) classes in ([\\d.]+) ms(?:, agent scanned (\\d+) classes in ([\\d.]+) ms, instrumented (\\d+))?");
+
+    private static File agentJar;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception
+    {
+        agentJar = File.createTempFile("managed-agent", ".jar");
+
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(new Attributes.Name("Premain-Class"), ManagementAgent.class.getName());
+        new JarOutputStream(new FileOutputStream(agentJar), manifest).close();
+    }
+
+    @AfterClass
+    public static void afterClass()
+    {
+        agentJar.delete();
+    }
+
+    @Test
+    public void agentTest_registration() throws Exception
+    {
+        final String output = fork(true, "register");
+        Assert.assertTrue(output, output.contains("registration ok"));
+    }
+
+    @Test
+    public void agentTest_timed() throws Exception
+    {
+        final String output = fork(true, "timed");
+        Assert.assertTrue(output, lastLine(output).startsWith("timed ok"));
+    }
+
+    @Test
+    public void agentTest_timedWithoutAgent() throws Exception
+    {
+        // this JVM runs without the agent, timed methods stay operations
+        final TestTimedService service = new TestTimedService();
+        ManagementProcessor.register(service);
+        try
+        {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = ManagementProcessor.findObjectName(service);
+            Assert.assertEquals(6L, server.invoke(name, "work", new Object[]{3, 2L}, new String[]{"int", "long"}));
+            Assert.assertFalse(server.isRegistered(ManagementProcessor.constructTimersName(TestTimedService.class)));
+        }
+        finally
+        {
+            ManagementProcessor.unregister(service);
+        }
+    }
+
+    @Test
+    public void agentTest_timerBuckets()
+    {
+        long previous = -1;
+        for (int bucket = 0; bucket < 160; bucket++)
+        {
+            final long limit = MethodTimer.bucketLimit(bucket);
+            Assert.assertEquals(bucket, MethodTimer.bucket(limit));
+            Assert.assertEquals(bucket, MethodTimer.bucket(previous + 1));
+            Assert.assertTrue(limit - previous <= Math.max(1, (previous + 1) / 4));
+            previous = limit;
+        }
+        Assert.assertEquals(159, MethodTimer.bucket(Long.MAX_VALUE));
+        Assert.assertEquals(0, MethodTimer.bucket(-5));
+    }
+
+    @Test
+    public void agentTest_classLoadOverhead() throws Exception
+    {
+        final String without = lastLine(fork(false, "load"));
+        final String with = lastLine(fork(true, "load"));
+
+        final Matcher plain = LOAD_PATTERN.matcher(without);
+        final Matcher agent = LOAD_PATTERN.matcher(with);
+        Assert.assertTrue(without, plain.matches() && plain.group(3) == null);
+        Assert.assertTrue(with, agent.matches() && agent.group(3) != null);
+
+        // the same classes load either way, every one of them passes through the agent and the managed one is rewritten
+        final int loaded = Integer.parseInt(agent.group(1));
+        Assert.assertTrue(with, loaded > 100);
+        Assert.assertEquals(without + " / " + with, plain.group(1), agent.group(1));
+        Assert.assertTrue(with, Long.parseLong(agent.group(3)) >= loaded);
+        Assert.assertTrue(with, Long.parseLong(agent.group(5)) >= 1);
+
+        // rejecting a class costs a scan of its bytes, far below a millisecond on average
+        Assert.assertTrue(with, Double.parseDouble(agent.group(4)) / Long.parseLong(agent.group(3)) < 1.0);
+    }
+
+    private static String lastLine(final String output)
+    {
+        final String trimmed = output.trim();
+        return trimmed.substring(trimmed.lastIndexOf('\n') + 1);
+    }
+
+    private static String fork(final boolean agent, final String mode) throws Exception
+    {
+        final List<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        if (agent)
+        {
+            command.add("-javaagent:" + agentJar.getAbsolutePath());
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Forked.class.getName());
+        command.add(mode);
+
+        final Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final InputStream in = process.getInputStream();
+        final byte[] buffer = new byte[8192];
+        for (int read = in.read(buffer); read >= 0; read = in.read(buffer))
+        {
+            output.write(buffer, 0, read);
+        }
+
+        final String text = output.toString();
+        Assert.assertEquals(text, 0, process.waitFor());
+        return text;
+    }
+
+    public static final class Forked
+    {
+        public static void main(final String[] args) throws Exception
+        {
+            if ("register".equals(args[0]))
+            {
+                register();
+            }
+            else if ("timed".equals(args[0]))
+            {
+                timed();
+            }
+            else
+            {
+                load();
+            }
+        }
+
+        private static void register() throws Exception
+        {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+            final TestPool first = new TestPool();
+            final TestPool second = new TestPool("second");
+            final ObjectName firstName = ManagementProcessor.findObjectName(first);
+            final ObjectName secondName = ManagementProcessor.findObjectName(second);
+            Assert.assertTrue(server.isRegistered(firstName));
+            Assert.assertTrue(server.isRegistered(secondName));
+            Assert.assertNotEquals(firstName, secondName);
+            Assert.assertEquals("TestPool", firstName.getKeyProperty("type"));
+            Assert.assertNotNull(firstName.getKeyProperty("instance"));
+            Assert.assertEquals(8, server.getAttribute(secondName, "size"));
+
+            // a subclass without members of its own registers once, under its own type, after its constructor ran
+            final TestSubPool sub = new TestSubPool();
+            final ObjectName subName = ManagementProcessor.findObjectName(sub);
+            Assert.assertEquals("TestSubPool", subName.getKeyProperty("type"));
+            Assert.assertEquals(1, server.queryNames(new ObjectName("com.quantasnet.management:type=TestSubPool,*"), null).size());
+
+            // the delegating constructor of the second pool registered it once
+            Assert.assertEquals(2, server.queryNames(new ObjectName("com.quantasnet.management:type=TestPool,*"), null).size());
+
+            // a subclass with members of its own registers in its own constructor
+            final TestNamedPool named = new TestNamedPool();
+            Assert.assertTrue(server.isRegistered(new ObjectName("svc:type=Pool,name=named")));
+            Assert.assertEquals("named", server.getAttribute(ManagementProcessor.findObjectName(named), "name"));
+
+            // a field set by the subclass constructor feeds the ObjectName
+            final TestLabelledPool labelled = new TestLabelledPool("blue");
+            Assert.assertEquals(new ObjectName("svc:type=Pool,label=blue"), ManagementProcessor.findObjectName(labelled));
+            Assert.assertEquals(1, server.queryNames(new ObjectName("svc:type=Pool,label=*"), null).size());
+
+            // classes without @Managed members are not touched
+            Assert.assertNull(ManagementProcessor.findObjectName(new TestPlain()));
+
+            // registration does not keep the instance alive
+            final ObjectName collectedName = ManagementProcessor.findObjectName(new TestPool());
+            final long deadline = System.currentTimeMillis() + 10000L;
+            while (server.isRegistered(collectedName) && System.currentTimeMillis() < deadline)
+            {
+                System.gc();
+                Thread.sleep(20);
+            }
+            Assert.assertFalse(server.isRegistered(collectedName));
+            Assert.assertNull(ManagementProcessor.findObjectName(null));
+
+            final ObjectName agentName = ManagementProcessor.constructObjectName(ManagementAgent.class);
+            Assert.assertEquals(6L, server.getAttribute(agentName, "instancesRegistered"));
+            Assert.assertEquals(4L, server.getAttribute(agentName, "classesInstrumented"));
+
+            // the instances registered above must survive the collection
+            Assert.assertTrue(server.isRegistered(firstName));
+            Reference.reachabilityFence(first);
+            Reference.reachabilityFence(second);
+            Reference.reachabilityFence(sub);
+            Reference.reachabilityFence(named);
+            Reference.reachabilityFence(labelled);
+            System.out.println("registration ok");
+        }
+
+        private static void timed() throws Exception
+        {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final TestTimedService service = new TestTimedService();
+            final TestTimedService other = new TestTimedService();
+            final ObjectName instanceName = ManagementProcessor.findObjectName(service);
+            final ObjectName name = ManagementProcessor.constructTimersName(TestTimedService.class);
+
+            long sum = 0;
+            for (int i = 0; i < 1000; i++)
+            {
+                sum += service.work(i, 2L);
+            }
+            Assert.assertEquals(999000L, sum);
+
+            for (int i = 0; i < 3; i++)
+            {
+                try
+                {
+                    service.fail(i);
+                    Assert.fail();
+                }
+                catch (IllegalStateException e)
+                {
+                    // counted as an error
+                }
+            }
+            Assert.assertEquals(-1, service.fail(-1));
+
+            Assert.assertEquals(1000L, server.getAttribute(name, "workCount"));
+            Assert.assertEquals(0L, server.getAttribute(name, "workErrors"));
+            Assert.assertEquals(4L, server.getAttribute(name, "failCount"));
+            Assert.assertEquals(3L, server.getAttribute(name, "failErrors"));
+            Assert.assertTrue((Double) server.getAttribute(name, "failP50Micros") >= 0d);
+            Assert.assertTrue((Double) server.getAttribute(name, "workP999Micros") >= (Double) server.getAttribute(name, "workP50Micros"));
+            Assert.assertEquals(7L, TestTimedService.staticWork(7L));
+            Assert.assertEquals(1L, server.getAttribute(name, "staticWorkCount"));
+
+            // counted once for the class, not repeated by every instance
+            Assert.assertEquals(0L, other.work(0, 0L));
+            Assert.assertEquals(1001L, server.getAttribute(name, "workCount"));
+            Assert.assertEquals(0, server.getMBeanInfo(instanceName).getOperations().length);
+            Assert.assertEquals(1, server.getMBeanInfo(instanceName).getAttributes().length);
+
+            ManagementProcessor.unregister(other);
+            Assert.assertTrue(server.isRegistered(name));
+            ManagementProcessor.unregister(service);
+            Assert.assertFalse(server.isRegistered(name));
+
+            // per call overhead, an empty timed method against the same method untimed
+            final int calls = 5000000;
+            for (int round = 0; round < 3; round++)
+            {
+                long start = System.nanoTime();
+                for (int i = 0; i < calls; i++)
+                {
+                    sum += service.plain(i);
+                }
+                final long plain = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int i = 0; i < calls; i++)
+                {
+                    sum += service.empty(i);
+                }
+                final long timed = System.nanoTime() - start;
+
+                if (round == 2)
+                {
+                    System.out.println(String.format("timed ok, %.1f ns per call overhead (%d)", (timed - plain) / (double) calls, sum));
+                }
+            }
+            Reference.reachabilityFence(service);
+            Reference.reachabilityFence(other);
+        }
+
+        /**
+         * Load every class of the jars on the class path into a new loader and report the time it took
+         */
+        private static void load() throws Exception
+        {
+            final List<URL> urls = new ArrayList<URL>();
+            final List<String> classNames = new ArrayList<String>();
+            for (final String path : System.getProperty("java.class.path").split(File.pathSeparator))
+            {
+                if (path.endsWith(".jar"))
+                {
+                    urls.add(new File(path).toURI().toURL());
+                    final JarFile jar = new JarFile(path);
+                    for (final Enumeration<JarEntry> entries = jar.entries(); entries.hasMoreElements(); )
+                    {
+                        final String name = entries.nextElement().getName();
+                        if (name.endsWith(".class") && !name.contains("-") && !name.startsWith("META-INF"))
+                        {
+                            classNames.add(name.substring(0, name.length() - 6).replace('/', '.'));
+                        }
+                    }
+                    jar.close();
+                }
+            }
+
+            final URLClassLoader loader = new URLClassLoader(urls.toArray(new URL[urls.size()]), ClassLoader.getPlatformClassLoader());
+            int loaded = 0;
+            final long start = System.nanoTime();
+            for (final String name : classNames)
+            {
+                try
+                {
+                    Class.forName(name, false, loader);
+                    loaded++;
+                }
+                catch (Throwable t)
+                {
+                    // optional dependencies of the jars are missing
+                }
+            }
+            final double millis = (System.nanoTime() - start) / 1e6;
+
+            // and one class with @Managed members
+            Class.forName(TestPlainPool.class.getName());
+
+            final ObjectName agentName = ManagementProcessor.constructObjectName(ManagementAgent.class);
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final String agent = server.isRegistered(agentName)
+                    ? String.format(Locale.ROOT, ", agent scanned %d classes in %.1f ms, instrumented %d", server.getAttribute(agentName, "classesScanned"),
+                    server.getAttribute(agentName, "transformMillis"), server.getAttribute(agentName, "classesInstrumented"))
+                    : "";
+            System.out.println(String.format(Locale.ROOT, "loaded %d classes in %.1f ms%s", loaded, millis, agent));
+        }
+    }
+
+    private static class TestPool
+    {
+        @Managed
+        private int size;
+
+        public TestPool()
+        {
+            size = 4;
+        }
+
+        public TestPool(final String name)
+        {
+            this();
+            size = 8;
+        }
+    }
+
+    private static final class TestSubPool extends TestPool
+    {
+        private final int extra = 1;
+    }
+
+    @ManagedName("svc:type=Pool,label={label}")
+    private static final class TestLabelledPool extends TestPool
+    {
+        private final String label;
+
+        private TestLabelledPool(final String label)
+        {
+            this.label = label;
+        }
+    }
+
+    @ManagedName("svc:type=Pool,name={name}")
+    private static final class TestNamedPool extends TestPool
+    {
+        private final String name = "named";
+
+        @Managed
+        public String getName()
+        {
+            return name;
+        }
+    }
+
+    private static final class TestTimedService
+    {
+        @Managed
+        private int calls;
+
+        @Managed(timed = true)
+        public long work(final int i, final long factor)
+        {
+            long result = 0;
+            for (int j = 0; j < factor; j++)
+            {
+                result += i;
+            }
+            return result;
+        }
+
+        @Managed(timed = true)
+        public int fail(final int i)
+        {
+            if (i >= 0)
+            {
+                throw new IllegalStateException("fail " + i);
+            }
+
+            try
+            {
+                return Integer.parseInt("x");
+            }
+            catch (NumberFormatException e)
+            {
+                // caught inside, not an error of the method
+                return i;
+            }
+        }
+
+        @Managed(timed = true)
+        public static long staticWork(final long value)
+        {
+            double d = value;
+            return (long) d;
+        }
+
+        @Managed(timed = true)
+        public int empty(final int i)
+        {
+            return i;
+        }
+
+        public int plain(final int i)
+        {
+            return i;
+        }
+    }
+
+    private static final class TestPlainPool
+    {
+        @Managed
+        private int size;
+    }
+
+    private static final class TestPlain
+    {
+        private int size;
+    }
+}
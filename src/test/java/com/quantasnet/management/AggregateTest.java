@@ -0,0 +1,179 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+public class AggregateTest
+{
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    @Test
+    public void aggregateTest_class() throws Exception
+    {
+        final ObjectName aggregateName = ManagementProcessor.constructAggregateName(TestConnection.class);
+        Assert.assertEquals(new ObjectName("com.quantasnet.management:type=Aggregate,name=TestConnection"), aggregateName);
+
+        final List<TestConnection> connections = new ArrayList<TestConnection>();
+        for (int i = 1; i <= 2000; i++)
+        {
+            final TestConnection connection = new TestConnection(i, i / 2.0);
+            connections.add(connection);
+            ManagementProcessor.register(connection, "", new ObjectName("test.aggregate:type=TestConnection,id=" + i));
+        }
+
+        try
+        {
+            Assert.assertEquals(2000, server.getAttribute(aggregateName, "count"));
+            Assert.assertEquals(2001000L, server.getAttribute(aggregateName, "bytesSum"));
+            Assert.assertEquals(1L, server.getAttribute(aggregateName, "bytesMin"));
+            Assert.assertEquals(1000.0, server.getAttribute(aggregateName, "latencyMax"));
+
+            final AttributeList list = server.getAttributes(aggregateName, new String[]{"count", "bytesMax", "latencyMin", "latencySum"});
+            Assert.assertEquals(4, list.size());
+            Assert.assertEquals(2000L, ((Attribute) list.get(1)).getValue());
+            Assert.assertEquals(0.5, ((Attribute) list.get(2)).getValue());
+
+            ManagementProcessor.unregister(connections.get(1999));
+            Assert.assertEquals(1999, server.getAttribute(aggregateName, "count"));
+            Assert.assertEquals(1999L, server.getAttribute(aggregateName, "bytesMax"));
+        }
+        finally
+        {
+            ManagementProcessor.unregisterAll(TestConnection.class);
+        }
+
+        Assert.assertFalse(server.isRegistered(aggregateName));
+    }
+
+    @Test
+    public void aggregateTest_group() throws Exception
+    {
+        final ObjectName aggregateName = new ObjectName("com.quantasnet.management:type=Aggregate,name=pools");
+
+        ManagementProcessor.register(new TestPoolA(), "", new ObjectName("test.aggregate:type=TestPoolA"));
+        ManagementProcessor.register(new TestPoolB(), "", new ObjectName("test.aggregate:type=TestPoolB"));
+
+        try
+        {
+            Assert.assertEquals(2, server.getAttribute(aggregateName, "count"));
+            Assert.assertEquals(15L, server.getAttribute(aggregateName, "sizeSum"));
+            Assert.assertEquals(3L, server.getAttribute(aggregateName, "idleSum"));
+        }
+        finally
+        {
+            ManagementProcessor.unregisterAll("test.aggregate");
+        }
+    }
+
+    @Test
+    public void aggregateTest_mixedTypes() throws Exception
+    {
+        final ObjectName aggregateName = new ObjectName("com.quantasnet.management:type=Aggregate,name=loads");
+
+        ManagementProcessor.register(new TestLoadA(), "", new ObjectName("test.aggregate:type=TestLoadA"));
+        ManagementProcessor.register(new TestLoadB(), "", new ObjectName("test.aggregate:type=TestLoadB"));
+
+        try
+        {
+            // the double of the second class is not truncated to the long type of the first
+            Assert.assertEquals(2.75, server.getAttribute(aggregateName, "loadSum"));
+            Assert.assertEquals(0.75, server.getAttribute(aggregateName, "loadMin"));
+            Assert.assertEquals(2.0, server.getAttribute(aggregateName, "loadMax"));
+
+            for (final MBeanAttributeInfo attrInfo : server.getMBeanInfo(aggregateName).getAttributes())
+            {
+                if (attrInfo.getName().startsWith("load"))
+                {
+                    Assert.assertEquals(Double.class.getName(), attrInfo.getType());
+                }
+            }
+        }
+        finally
+        {
+            ManagementProcessor.unregisterAll("test.aggregate");
+        }
+    }
+
+    @ManagedAggregate
+    private static final class TestConnection
+    {
+        @Managed
+        private final long bytes;
+
+        @Managed
+        private final double latency;
+
+        @Managed
+        private final String host = "localhost";
+
+        private TestConnection(final long bytes, final double latency)
+        {
+            this.bytes = bytes;
+            this.latency = latency;
+        }
+    }
+
+    @ManagedAggregate("pools")
+    private static final class TestPoolA
+    {
+        @Managed
+        private int size = 5;
+    }
+
+    @ManagedAggregate("pools")
+    private static final class TestPoolB
+    {
+        @Managed
+        private int size = 10;
+
+        @Managed
+        private int idle = 3;
+    }
+
+    @ManagedAggregate("loads")
+    private static final class TestLoadA
+    {
+        @Managed
+        private long load = 2;
+    }
+
+    @ManagedAggregate("loads")
+    private static final class TestLoadB
+    {
+        @Managed
+        private double load = 0.75;
+    }
+}
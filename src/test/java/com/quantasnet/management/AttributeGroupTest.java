@@ -0,0 +1,319 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+public class AttributeGroupTest
+{
+    private static final String LOOP_THREAD = "test-group-loop";
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private final ObjectName cacheName = ManagementProcessor.constructObjectName(TestCache.class);
+    private TestCache cache;
+
+    @Before
+    public void before()
+    {
+        cache = new TestCache();
+        ManagementProcessor.register(cache);
+    }
+
+    @After
+    public void after()
+    {
+        ManagementProcessor.unregister(cache);
+    }
+
+    @Test
+    public void attributeGroupTest_consistentSnapshot() throws Exception
+    {
+        final Thread writer = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                while (!Thread.currentThread().isInterrupted())
+                {
+                    cache.lookup();
+                }
+            }
+        });
+        writer.start();
+
+        try
+        {
+            for (int i = 0; i < 2000; i++)
+            {
+                final List<Attribute> values = server.getAttributes(cacheName, new String[]{"lookups", "name", "hits", "misses"}).asList();
+                Assert.assertEquals(4, values.size());
+                Assert.assertEquals("lookups", values.get(0).getName());
+                Assert.assertEquals("name", values.get(1).getName());
+
+                final long lookups = (Long) values.get(0).getValue();
+                final long hits = (Long) values.get(2).getValue();
+                final long misses = (Long) values.get(3).getValue();
+                Assert.assertEquals("torn read", lookups, hits + misses);
+            }
+        }
+        finally
+        {
+            writer.interrupt();
+            writer.join();
+        }
+    }
+
+    @Test
+    public void attributeGroupTest_writesInsideGroup() throws Exception
+    {
+        final AttributeList reset = new AttributeList();
+        reset.add(new Attribute("lookups", 0L));
+        reset.add(new Attribute("hits", 0L));
+
+        final Thread setter = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    server.setAttribute(cacheName, new Attribute("misses", 7L));
+                    server.setAttributes(cacheName, reset);
+                }
+                catch (Exception e)
+                {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+
+        // JMX writes wait for the application's write of the group, like its other writers
+        final long stamp = cache.stats.beginWrite();
+        try
+        {
+            cache.lookups = 3L;
+            cache.hits = 3L;
+            setter.start();
+            setter.join(200L);
+            Assert.assertTrue(setter.isAlive());
+            Assert.assertEquals(0L, cache.misses);
+        }
+        finally
+        {
+            cache.stats.endWrite(stamp);
+        }
+
+        setter.join();
+        Assert.assertEquals(7L, cache.misses);
+        Assert.assertEquals(0L, cache.lookups);
+        Assert.assertEquals(0L, cache.hits);
+    }
+
+    @Test
+    public void attributeGroupTest_singleAttribute() throws Exception
+    {
+        cache.lookup();
+        Assert.assertEquals(1L, server.getAttribute(cacheName, "lookups"));
+    }
+
+    @Test
+    public void attributeGroupTest_failuresOpenBreakers() throws Exception
+    {
+        final TestFailing failing = new TestFailing();
+        ManagementProcessor.register(failing);
+        try
+        {
+            final ObjectName failingName = ManagementProcessor.constructObjectName(TestFailing.class);
+            for (int i = 0; i < 5; i++)
+            {
+                Assert.assertTrue(server.getAttributes(failingName, new String[]{"size", "capacity"}).isEmpty());
+            }
+
+            // counted against both members, which are left out once their breakers opened
+            final Map<String, CircuitBreaker> breakers = ManagementProcessor.getManagedMBean(failing).getBreakers();
+            Assert.assertEquals(CircuitBreaker.OPEN, breakers.get("size").getState());
+            Assert.assertEquals(2L, breakers.get("size").getFailures());
+            Assert.assertEquals(2L, breakers.get("capacity").getFailures());
+        }
+        finally
+        {
+            ManagementProcessor.unregister(failing);
+        }
+    }
+
+    @Test
+    public void attributeGroupTest_unknownGroupRejected()
+    {
+        final TestBroken broken = new TestBroken();
+        ManagementProcessor.register(broken);
+        Assert.assertFalse(server.isRegistered(ManagementProcessor.constructObjectName(TestBroken.class)));
+    }
+
+    @Test
+    public void attributeGroupTest_readOnExecutor() throws Exception
+    {
+        final TestLooped looped = new TestLooped();
+        ManagementProcessor.register(looped);
+        try
+        {
+            // the whole group is read on the executor, like its members read on their own
+            final ObjectName loopedName = ManagementProcessor.constructObjectName(TestLooped.class);
+            Assert.assertEquals(LOOP_THREAD, server.getAttribute(loopedName, "threadName"));
+
+            final List<Attribute> values = server.getAttributes(loopedName, new String[]{"threadName", "size"}).asList();
+            Assert.assertEquals(LOOP_THREAD, values.get(0).getValue());
+            Assert.assertEquals(3L, values.get(1).getValue());
+        }
+        finally
+        {
+            ManagementProcessor.unregister(looped);
+            looped.loop.shutdownNow();
+        }
+    }
+
+    @Test
+    public void attributeGroupTest_mixedExecutorsRejected()
+    {
+        final TestMixed mixed = new TestMixed();
+        ManagementProcessor.register(mixed);
+        Assert.assertFalse(server.isRegistered(ManagementProcessor.constructObjectName(TestMixed.class)));
+    }
+
+    private static final class TestCache
+    {
+        private final ManagedGroup stats = new ManagedGroup();
+
+        @Managed(group = "stats", writable = true)
+        private long lookups;
+
+        @Managed(group = "stats", writable = true)
+        private long hits;
+
+        @Managed(group = "stats", writable = true)
+        private long misses;
+
+        @Managed
+        private String name = "cache";
+
+        private void lookup()
+        {
+            final long stamp = stats.beginWrite();
+            try
+            {
+                // separate stores, a reader between them would see lookups != hits + misses
+                lookups++;
+                if (lookups % 3 == 0)
+                {
+                    misses++;
+                }
+                else
+                {
+                    hits++;
+                }
+            }
+            finally
+            {
+                stats.endWrite(stamp);
+            }
+        }
+    }
+
+    private static final class TestFailing
+    {
+        @Managed(group = "stats", failureThreshold = 2)
+        private long size;
+
+        @Managed(group = "stats", failureThreshold = 2)
+        private long capacity;
+
+        private ManagedGroup stats()
+        {
+            throw new IllegalStateException("no stats");
+        }
+    }
+
+    @Managed(executor = "loop")
+    private static final class TestLooped
+    {
+        private final ManagedGroup stats = new ManagedGroup();
+
+        private final ExecutorService loop = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            public Thread newThread(final Runnable runnable)
+            {
+                final Thread thread = new Thread(runnable, LOOP_THREAD);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        @Managed(group = "stats")
+        private long size = 3;
+
+        @Managed(group = "stats")
+        public String getThreadName()
+        {
+            return Thread.currentThread().getName();
+        }
+    }
+
+    private static final class TestMixed
+    {
+        private final ManagedGroup stats = new ManagedGroup();
+
+        private final Executor caller = new Executor()
+        {
+            public void execute(final Runnable command)
+            {
+                command.run();
+            }
+        };
+
+        @Managed(group = "stats", executor = "caller")
+        private long size;
+
+        @Managed(group = "stats")
+        private long capacity;
+    }
+
+    private static final class TestBroken
+    {
+        @Managed(group = "missing")
+        private long size;
+    }
+}
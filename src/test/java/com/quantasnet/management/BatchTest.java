@@ -0,0 +1,186 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class BatchTest
+{
+    private static final int POOLS = 20;
+    private static final List<TestPool> pools = new ArrayList<TestPool>();
+    private static final List<ObjectName> poolNames = new ArrayList<ObjectName>();
+    private static final Set<Thread> workers = ConcurrentHashMap.newKeySet();
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private final ObjectName processorName = ManagementProcessor.constructObjectName(ManagementProcessor.class);
+
+    @BeforeClass
+    public static void beforeClass() throws Exception
+    {
+        for (int i = 0; i < POOLS; i++)
+        {
+            final TestPool pool = new TestPool();
+            final ObjectName name = new ObjectName("com.quantasnet.management:type=BatchPool,name=pool" + i);
+            ManagementProcessor.register(pool, "", name);
+            pools.add(pool);
+            poolNames.add(name);
+        }
+    }
+
+    @AfterClass
+    public static void afterClass()
+    {
+        for (final TestPool pool : pools)
+        {
+            ManagementProcessor.unregister(pool);
+        }
+    }
+
+    @Test
+    public void batchTest_inOrder()
+    {
+        final ObjectName name = poolNames.get(0);
+        final List<CommandResult> results = ManagementProcessor.batch(Arrays.asList(
+                ManagementCommand.setAttribute(name, "size", 4),
+                ManagementCommand.invoke(name, "resize", new Object[]{2}, new String[]{"int"}),
+                ManagementCommand.getAttribute(name, "size")), false, true);
+
+        Assert.assertEquals(3, results.size());
+        Assert.assertTrue(results.get(0).isSuccessful());
+        Assert.assertEquals(6, results.get(1).getValue());
+        Assert.assertEquals(6, results.get(2).getValue());
+    }
+
+    @Test
+    public void batchTest_parallelDrain() throws Exception
+    {
+        final List<ManagementCommand> commands = new ArrayList<ManagementCommand>();
+        for (final ObjectName name : poolNames)
+        {
+            commands.add(ManagementCommand.invoke(name, "drain", null, null));
+        }
+
+        // the whole drain is a single call on the processor MBean
+        @SuppressWarnings("unchecked")
+        final List<CommandResult> results = (List<CommandResult>) server.invoke(processorName, "batch",
+                new Object[]{commands, true, false}, new String[]{List.class.getName(), "boolean", "boolean"});
+
+        Assert.assertEquals(POOLS, results.size());
+        for (int i = 0; i < POOLS; i++)
+        {
+            Assert.assertTrue(results.get(i).toString(), results.get(i).isSuccessful());
+            Assert.assertEquals(poolNames.get(i), results.get(i).getCommand().getObjectName());
+            Assert.assertTrue(pools.get(i).drained);
+        }
+    }
+
+    @Test
+    public void batchTest_sharedPool()
+    {
+        final List<ManagementCommand> commands = new ArrayList<ManagementCommand>();
+        for (final ObjectName name : poolNames)
+        {
+            commands.add(ManagementCommand.invoke(name, "drain", null, null));
+        }
+
+        workers.clear();
+        for (int i = 0; i < 5; i++)
+        {
+            for (final CommandResult result : ManagementProcessor.batch(commands, true, false))
+            {
+                Assert.assertTrue(result.toString(), result.isSuccessful());
+            }
+        }
+
+        // every batch runs on the same workers instead of starting threads of its own
+        Assert.assertTrue(workers.toString(), workers.size() <= Runtime.getRuntime().availableProcessors());
+        for (final Thread worker : workers)
+        {
+            Assert.assertTrue(worker.getName(), worker.getName().startsWith("ManagementProcessor-batch-"));
+        }
+    }
+
+    @Test
+    public void batchTest_stopOnError()
+    {
+        final ObjectName name = poolNames.get(1);
+        final List<CommandResult> results = ManagementProcessor.batch(Arrays.asList(
+                ManagementCommand.invoke(name, "fail", null, null),
+                ManagementCommand.setAttribute(name, "size", 99)), false, true);
+
+        Assert.assertFalse(results.get(0).isSuccessful());
+        Assert.assertTrue(results.get(0).getError(), results.get(0).getError().contains("pool is busy"));
+        Assert.assertTrue(results.get(1).isSkipped());
+        Assert.assertEquals(0, pools.get(1).size);
+
+        final List<CommandResult> continued = ManagementProcessor.batch(Arrays.asList(
+                ManagementCommand.getAttribute(name, "missing"),
+                ManagementCommand.setAttribute(name, "size", 99)), false, false);
+
+        Assert.assertFalse(continued.get(0).isSuccessful());
+        Assert.assertTrue(continued.get(1).isSuccessful());
+        Assert.assertEquals(99, pools.get(1).size);
+    }
+
+    public static final class TestPool
+    {
+        @Managed(writable = true)
+        private volatile int size;
+
+        private volatile boolean drained;
+
+        @Managed
+        public int resize(final int delta)
+        {
+            size += delta;
+            return size;
+        }
+
+        @Managed
+        public void drain()
+        {
+            drained = true;
+            workers.add(Thread.currentThread());
+        }
+
+        @Managed
+        public void fail()
+        {
+            throw new IllegalStateException("pool is busy");
+        }
+    }
+}
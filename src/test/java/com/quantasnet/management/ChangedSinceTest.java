@@ -0,0 +1,233 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+public class ChangedSinceTest
+{
+    private static final ObjectName busyName = ManagementProcessor.constructObjectName(TestBusyClass.class);
+    private static final ObjectName idleName = ManagementProcessor.constructObjectName(TestIdleClass.class);
+    private static final ObjectName ownedName = ManagementProcessor.constructObjectName(TestOwnedClass.class);
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private static final TestBusyClass busy = new TestBusyClass();
+    private static final TestIdleClass idle = new TestIdleClass();
+    private static final TestOwnedClass owned = new TestOwnedClass();
+
+    @BeforeClass
+    public static void beforeClass()
+    {
+        ManagementProcessor.register(busy);
+        ManagementProcessor.register(idle);
+        ManagementProcessor.register(owned);
+    }
+
+    @AfterClass
+    public static void afterClass()
+    {
+        ManagementProcessor.unregister(busy);
+        ManagementProcessor.unregister(idle);
+        ManagementProcessor.unregister(owned);
+    }
+
+    @Test
+    public void changedSinceTest_versions() throws Exception
+    {
+        final ChangeSet all = ManagementProcessor.changedSince(0L);
+        Assert.assertEquals("idle", all.getChanges().get(idleName).get("name"));
+        Assert.assertTrue(all.getChanges().get(busyName).containsKey("counter"));
+
+        // a write through JMX is seen immediately
+        server.setAttribute(busyName, new Attribute("counter", 42));
+        final ChangeSet written = ManagementProcessor.changedSince(all.getVersion());
+        Assert.assertEquals(42, written.getChanges().get(busyName).get("counter"));
+        Assert.assertFalse(written.getChanges().get(busyName).containsKey("name"));
+        Assert.assertFalse(written.getChanges().containsKey(idleName));
+
+        // a change made by the application is seen by the background sample
+        busy.counter = 43;
+        final long deadline = System.currentTimeMillis() + 5000L;
+        ChangeSet sampled = ManagementProcessor.changedSince(written.getVersion());
+        while (!sampled.getChanges().containsKey(busyName) && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(50);
+            sampled = ManagementProcessor.changedSince(written.getVersion());
+        }
+        Assert.assertEquals(43, sampled.getChanges().get(busyName).get("counter"));
+
+        final ChangeSet nothing = ManagementProcessor.changedSince(sampled.getVersion());
+        Assert.assertFalse(nothing.getChanges().containsKey(busyName));
+        Assert.assertFalse(nothing.getChanges().containsKey(idleName));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void changedSinceTest_operation() throws Exception
+    {
+        final ObjectName processorName = ManagementProcessor.constructObjectName(ManagementProcessor.class);
+        final ChangeSet changes = (ChangeSet) server.invoke(processorName, "changedSince", new Object[]{0L}, new String[]{"long"});
+
+        final Map<String, Object> idleChanges = changes.getChanges().get(idleName);
+        Assert.assertEquals("idle", idleChanges.get("name"));
+    }
+
+    @Test
+    public void changedSinceTest_sampleRacingPoll() throws Exception
+    {
+        long version = ManagementProcessor.changedSince(0L).getVersion();
+        final AttributeVersions versions = ManagementProcessor.getManagedMBean(busy).getVersions();
+
+        for (int round = 1; round <= 2000; round++)
+        {
+            final int value = 100000 + round;
+            final CountDownLatch start = new CountDownLatch(1);
+            final Thread sampler = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                    busy.counter = value;
+                    versions.sample();
+                }
+            });
+            sampler.start();
+
+            start.countDown();
+            Object seen = null;
+            ChangeSet changes = ManagementProcessor.changedSince(version);
+            version = changes.getVersion();
+            if (changes.getChanges().containsKey(busyName))
+            {
+                seen = changes.getChanges().get(busyName).get("counter");
+            }
+            sampler.join();
+
+            // the token of the racing poll must not cover a change it did not return
+            changes = ManagementProcessor.changedSince(version);
+            version = changes.getVersion();
+            if (changes.getChanges().containsKey(busyName))
+            {
+                seen = changes.getChanges().get(busyName).get("counter");
+            }
+            Assert.assertEquals("change lost in round " + round, value, seen);
+        }
+    }
+
+    @Test
+    public void changedSinceTest_ownedSampledByPoller() throws Exception
+    {
+        final long version = ManagementProcessor.changedSince(0L).getVersion();
+        owned.limit = 7;
+
+        // the scheduler runs its samples, but never waits on the executor of the object
+        Thread.sleep(AttributeVersions.PERIOD * 2);
+        Assert.assertFalse(owned.callers.contains("ManagementScheduler"));
+
+        final ChangeSet changes = ManagementProcessor.changedSince(version);
+        Assert.assertEquals(7, changes.getChanges().get(ownedName).get("limit"));
+        Assert.assertFalse(owned.callers.contains("ManagementScheduler"));
+    }
+
+    @Test
+    public void changedSinceTest_stopsWhenIdle() throws Exception
+    {
+        final long version = ManagementProcessor.changedSince(0L).getVersion();
+        Assert.assertTrue(ManagementProcessor.isVersionTracking());
+
+        AttributeVersions.idleTimeout = 0L;
+        try
+        {
+            final long deadline = System.currentTimeMillis() + 5000L;
+            while (ManagementProcessor.isVersionTracking() && System.currentTimeMillis() < deadline)
+            {
+                Thread.sleep(50);
+            }
+            Assert.assertFalse(ManagementProcessor.isVersionTracking());
+            Assert.assertNull(ManagementProcessor.getManagedMBean(busy).getVersions());
+        }
+        finally
+        {
+            AttributeVersions.idleTimeout = AttributeVersions.IDLE_TIMEOUT;
+        }
+
+        // the next poll starts again, with fresh versions covering everything
+        final ChangeSet changes = ManagementProcessor.changedSince(version);
+        Assert.assertTrue(ManagementProcessor.isVersionTracking());
+        Assert.assertEquals("idle", changes.getChanges().get(idleName).get("name"));
+    }
+
+    private static final class TestBusyClass
+    {
+        @Managed(writable = true)
+        private volatile int counter;
+
+        @Managed
+        private String name = "busy";
+    }
+
+    private static final class TestIdleClass
+    {
+        @Managed
+        private String name = "idle";
+    }
+
+    @Managed(executor = "recording")
+    private static final class TestOwnedClass
+    {
+        private final Set<String> callers = ConcurrentHashMap.newKeySet();
+
+        private final Executor recording = new Executor()
+        {
+            public void execute(final Runnable command)
+            {
+                callers.add(Thread.currentThread().getName());
+                command.run();
+            }
+        };
+
+        @Managed
+        private volatile int limit;
+    }
+}
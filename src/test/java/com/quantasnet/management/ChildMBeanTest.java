@@ -0,0 +1,130 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+public class ChildMBeanTest
+{
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private final ObjectName serverName = ManagementProcessor.constructObjectName(TestServer.class);
+    private TestServer testServer;
+
+    @Before
+    public void before()
+    {
+        testServer = new TestServer();
+        ManagementProcessor.register(testServer);
+    }
+
+    @After
+    public void after()
+    {
+        ManagementProcessor.unregister(testServer);
+    }
+
+    @Test
+    public void childMBeanTest_notRegisteredWhenRead() throws Exception
+    {
+        final ObjectName poolName = new ObjectName(serverName.getDomain() + ":type=TestServer,child=pool");
+        final ObjectName cacheName = new ObjectName(serverName.getDomain() + ":type=TestServer,child=pool.cache");
+
+        // a read only tells the name
+        Assert.assertEquals(poolName, server.getAttribute(serverName, "pool"));
+        Assert.assertFalse(server.isRegistered(poolName));
+
+        ManagementProcessor.registerChildren();
+        Assert.assertTrue(server.isRegistered(poolName));
+        Assert.assertEquals(8, server.getAttribute(poolName, "size"));
+        Assert.assertEquals(cacheName, server.getAttribute(poolName, "cache"));
+        Assert.assertEquals(0L, server.getAttribute(cacheName, "hits"));
+
+        ManagementProcessor.unregister(testServer);
+        Assert.assertFalse(server.isRegistered(poolName));
+        Assert.assertFalse(server.isRegistered(cacheName));
+    }
+
+    @Test
+    public void childMBeanTest_registeredWhenEnumerated() throws Exception
+    {
+        final ObjectName processorName = ManagementProcessor.constructObjectName(ManagementProcessor.class);
+        server.invoke(processorName, "registerChildren", new Object[0], new String[0]);
+
+        Assert.assertTrue(server.isRegistered(new ObjectName(serverName.getDomain() + ":type=TestServer,child=pool")));
+        Assert.assertTrue(server.isRegistered(new ObjectName(serverName.getDomain() + ":type=TestServer,child=pool.cache")));
+        Assert.assertNull(server.getAttribute(serverName, "standby"));
+    }
+
+    @Test
+    public void childMBeanTest_replaced() throws Exception
+    {
+        ManagementProcessor.registerChildren();
+        final TestPool replaced = testServer.pool;
+
+        testServer.pool = new TestPool();
+        testServer.pool.size = 16;
+
+        // the new value is registered with the next enumeration
+        final ObjectName poolName = (ObjectName) server.getAttribute(serverName, "pool");
+        Assert.assertEquals(8, server.getAttribute(poolName, "size"));
+        ManagementProcessor.registerChildren();
+        Assert.assertEquals(16, server.getAttribute(poolName, "size"));
+        Assert.assertNull(ManagementProcessor.findObjectName(replaced));
+    }
+
+    private static final class TestServer
+    {
+        @Managed(description = "Connection pool")
+        private volatile TestPool pool = new TestPool();
+
+        @Managed
+        private TestPool standby;
+
+        @Managed
+        private String name = "server";
+    }
+
+    private static final class TestPool
+    {
+        @Managed
+        private int size = 8;
+
+        @Managed
+        private TestCache cache = new TestCache();
+    }
+
+    private static final class TestCache
+    {
+        @Managed
+        private long hits;
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.management.MBeanException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CircuitBreakerTest
+{
+    private static final ObjectName name = ManagementProcessor.constructObjectName(TestFailingClass.class);
+    private static final ObjectName processorName = ManagementProcessor.constructObjectName(ManagementProcessor.class);
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private static final TestFailingClass failing = new TestFailingClass();
+
+    @BeforeClass
+    public static void beforeClass()
+    {
+        ManagementProcessor.register(failing);
+    }
+
+    @AfterClass
+    public static void afterClass()
+    {
+        ManagementProcessor.unregister(failing);
+    }
+
+    @Test
+    public void circuitBreakerTest_attribute() throws Exception
+    {
+        // background samplers of other features share the breaker, so it may open before the third read
+        MBeanException open = null;
+        for (int i = 0; i < 3 && open == null; i++)
+        {
+            try
+            {
+                server.getAttribute(name, "broken");
+                Assert.fail();
+            }
+            catch (MBeanException e)
+            {
+                if (e.getCause() instanceof CircuitBreaker.OpenException)
+                {
+                    open = e;
+                }
+            }
+        }
+
+        // open, the getter is not called and the same exception is thrown every time
+        final int calls = failing.calls.get();
+        Assert.assertTrue(calls >= 3);
+        for (int i = 0; i < 10; i++)
+        {
+            try
+            {
+                server.getAttribute(name, "broken");
+                Assert.fail();
+            }
+            catch (MBeanException e)
+            {
+                Assert.assertTrue(e.getCause() instanceof CircuitBreaker.OpenException);
+                Assert.assertTrue(open == null || open == e);
+                open = e;
+            }
+        }
+        Assert.assertEquals(calls, failing.calls.get());
+
+        final CompositeData row = health().get(new Object[]{name.toString(), "broken"});
+        Assert.assertEquals((long) calls, row.get("failures"));
+        Assert.assertEquals(calls, row.get("consecutiveFailures"));
+        Assert.assertEquals(CircuitBreaker.OPEN, row.get("state"));
+
+        // after the cool down a single call is let through and closes it
+        failing.fail = false;
+        Thread.sleep(150);
+        Assert.assertNotEquals(CircuitBreaker.OPEN, health().get(new Object[]{name.toString(), "broken"}).get("state"));
+        Assert.assertTrue((Integer) server.getAttribute(name, "broken") > calls);
+
+        final CompositeData closed = health().get(new Object[]{name.toString(), "broken"});
+        Assert.assertEquals((long) calls, closed.get("failures"));
+        Assert.assertEquals(0, closed.get("consecutiveFailures"));
+        Assert.assertEquals(CircuitBreaker.CLOSED, closed.get("state"));
+    }
+
+    @Test
+    public void circuitBreakerTest_operation() throws Exception
+    {
+        for (int i = 0; i < 5; i++)
+        {
+            try
+            {
+                server.invoke(name, "explode", new Object[0], new String[0]);
+                Assert.fail();
+            }
+            catch (MBeanException e)
+            {
+                Assert.assertNotNull(e.getCause());
+            }
+        }
+
+        try
+        {
+            server.invoke(name, "explode", new Object[0], new String[0]);
+            Assert.fail();
+        }
+        catch (MBeanException e)
+        {
+            Assert.assertTrue(e.getCause() instanceof CircuitBreaker.OpenException);
+        }
+        Assert.assertEquals(5, failing.explosions.get());
+        Assert.assertEquals(CircuitBreaker.OPEN, health().get(new Object[]{name.toString(), "explode"}).get("state"));
+
+        // healthy members are not listed
+        Assert.assertNull(health().get(new Object[]{name.toString(), "healthy"}));
+    }
+
+    @Test
+    public void circuitBreakerTest_callerFaultNotCounted() throws Exception
+    {
+        for (int i = 0; i < 10; i++)
+        {
+            try
+            {
+                server.invoke(name, "scale", new Object[]{-1}, new String[]{int.class.getName()});
+                Assert.fail();
+            }
+            catch (MBeanException e)
+            {
+                Assert.assertFalse(e.getCause() instanceof CircuitBreaker.OpenException);
+            }
+        }
+
+        // the bad input did not open it, a valid call still goes through
+        Assert.assertEquals(4, server.invoke(name, "scale", new Object[]{2}, new String[]{int.class.getName()}));
+        Assert.assertNull(health().get(new Object[]{name.toString(), "scale"}));
+    }
+
+    private TabularData health() throws Exception
+    {
+        return (TabularData) server.getAttribute(processorName, "memberHealth");
+    }
+
+    private static final class TestFailingClass
+    {
+        private final AtomicInteger calls = new AtomicInteger();
+        private final AtomicInteger explosions = new AtomicInteger();
+        private volatile boolean fail = true;
+
+        @Managed
+        private String healthy = "fine";
+
+        @Managed(failureThreshold = 3, coolDown = 100)
+        public int getBroken()
+        {
+            final int call = calls.incrementAndGet();
+            if (fail)
+            {
+                throw new IllegalStateException("broken");
+            }
+            return call;
+        }
+
+        @Managed
+        public void explode()
+        {
+            explosions.incrementAndGet();
+            throw new IllegalStateException("boom");
+        }
+
+        @Managed
+        public int scale(final int factor)
+        {
+            if (factor < 0)
+            {
+                throw new IllegalArgumentException("factor must not be negative");
+            }
+            return factor * 2;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+public class CollectionAttributeTest
+{
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private final ObjectName registryName = ManagementProcessor.constructObjectName(TestRegistry.class);
+    private TestRegistry registry;
+
+    @Before
+    public void before()
+    {
+        registry = new TestRegistry();
+        for (int i = 0; i < 5000; i++)
+        {
+            registry.sessions.add("session" + i);
+            registry.owners.put(String.format("key%05d", i), i);
+        }
+        ManagementProcessor.register(registry);
+    }
+
+    @After
+    public void after()
+    {
+        ManagementProcessor.unregister(registry);
+    }
+
+    @Test
+    public void collectionAttributeTest_summary() throws Exception
+    {
+        final CompositeData sessions = (CompositeData) server.getAttribute(registryName, "sessions");
+        Assert.assertEquals(5000, sessions.get("size"));
+        Assert.assertArrayEquals(new String[]{"session0", "session1", "session2"}, (String[]) sessions.get("head"));
+
+        final CompositeData owners = (CompositeData) server.getAttribute(registryName, "owners");
+        Assert.assertEquals(5000, owners.get("size"));
+        Assert.assertEquals(0, ((String[]) owners.get("head")).length);
+
+        Assert.assertArrayEquals(new String[]{"a", "b", "c"}, (String[]) server.getAttribute(registryName, "tags"));
+    }
+
+    @Test
+    public void collectionAttributeTest_listPage() throws Exception
+    {
+        final TabularData page = (TabularData) server.invoke(registryName, "sessionsPage", new Object[]{4990, 20}, new String[]{"int", "int"});
+        Assert.assertEquals(10, page.size());
+        Assert.assertEquals("session4995", page.get(new Object[]{4995}).get("value"));
+    }
+
+    @Test
+    public void collectionAttributeTest_mapPage() throws Exception
+    {
+        final TabularData page = (TabularData) server.invoke(registryName, "ownersPage", new Object[]{100, 2}, new String[]{"int", "int"});
+        Assert.assertEquals(2, page.size());
+
+        final CompositeData row = page.get(new Object[]{101});
+        Assert.assertEquals("key00101", row.get("key"));
+        Assert.assertEquals("101", row.get("value"));
+    }
+
+    @Test
+    public void collectionAttributeTest_pageBounded() throws Exception
+    {
+        final TabularData page = (TabularData) server.invoke(registryName, "sessionsPage", new Object[]{0, Integer.MAX_VALUE}, new String[]{"int", "int"});
+        Assert.assertEquals(CollectionAttribute.MAX_PAGE, page.size());
+    }
+
+    private static final class TestRegistry
+    {
+        @Managed(head = 3)
+        private final List<String> sessions = new ArrayList<String>();
+
+        @Managed
+        private final Map<String, Integer> owners = new ConcurrentSkipListMap<String, Integer>();
+
+        @Managed(summarize = false)
+        private final List<String> tags = List.of("a", "b", "c");
+    }
+}
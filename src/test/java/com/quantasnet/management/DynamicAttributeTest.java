@@ -0,0 +1,227 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DynamicAttributeTest
+{
+    private final ObjectName testClassObjName = ManagementProcessor.constructObjectName(TestDynamicClass.class);
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private static final TestDynamicClass testClass = new TestDynamicClass();
+
+    @BeforeClass
+    public static void beforeClass()
+    {
+        ManagementProcessor.register(testClass);
+    }
+
+    @AfterClass
+    public static void afterClass()
+    {
+        ManagementProcessor.unregister(testClass);
+    }
+
+    @Test
+    public void dynamicTest_readAttributes() throws Exception
+    {
+        testClass.partitions.put("partition0", 10L);
+        testClass.tenants.put("tenantA", "active");
+        ManagementProcessor.dynamicAttributesChanged(testClass);
+
+        Assert.assertEquals(10L, server.getAttribute(testClassObjName, "partition0"));
+        Assert.assertEquals("active", server.getAttribute(testClassObjName, "tenantA"));
+        Assert.assertEquals(1, server.getAttribute(testClassObjName, "count"));
+    }
+
+    @Test
+    public void dynamicTest_infoChanged() throws Exception
+    {
+        final List<Notification> received = new ArrayList<Notification>();
+        final NotificationListener listener = new NotificationListener()
+        {
+            public void handleNotification(final Notification notification, final Object handback)
+            {
+                received.add(notification);
+            }
+        };
+
+        server.addNotificationListener(testClassObjName, listener, null, null);
+        try
+        {
+            testClass.partitions.put("partition1", 1L);
+            ManagementProcessor.dynamicAttributesChanged(testClass);
+
+            Assert.assertTrue(hasAttribute(server.getMBeanInfo(testClassObjName), "partition1"));
+            Assert.assertEquals(1, received.size());
+            Assert.assertEquals("jmx.mbean.info.changed", received.get(0).getType());
+            Assert.assertEquals(testClassObjName, received.get(0).getSource());
+
+            // nothing changed, nothing sent
+            server.getMBeanInfo(testClassObjName);
+            Assert.assertEquals(1, received.size());
+
+            testClass.partitions.remove("partition1");
+            ManagementProcessor.dynamicAttributesChanged(testClass);
+
+            final MBeanInfo info = server.getMBeanInfo(testClassObjName);
+            Assert.assertFalse(hasAttribute(info, "partition1"));
+            Assert.assertTrue(hasAttribute(info, "count"));
+            Assert.assertEquals(2, received.size());
+            Assert.assertSame(info, received.get(1).getUserData());
+        }
+        finally
+        {
+            server.removeNotificationListener(testClassObjName, listener);
+        }
+    }
+
+    @Test(expected = MBeanException.class)
+    public void dynamicTest_removedAttribute() throws Exception
+    {
+        testClass.partitions.put("partition2", 2L);
+        ManagementProcessor.dynamicAttributesChanged(testClass);
+        server.getMBeanInfo(testClassObjName);
+        testClass.partitions.remove("partition2");
+        ManagementProcessor.dynamicAttributesChanged(testClass);
+        server.getMBeanInfo(testClassObjName);
+
+        server.getAttribute(testClassObjName, "partition2");
+    }
+
+    @Test
+    public void dynamicTest_refreshRateLimited() throws Exception
+    {
+        ManagementProcessor.dynamicAttributesChanged(testClass);
+        server.getMBeanInfo(testClassObjName);
+
+        // without a signal a new key waits for the periodic refresh
+        testClass.partitions.put("partition3", 3L);
+        final int reads = testClass.reads.get();
+        Assert.assertFalse(hasAttribute(server.getMBeanInfo(testClassObjName), "partition3"));
+        server.getMBeanInfo(testClassObjName);
+        Assert.assertEquals(reads, testClass.reads.get());
+
+        ManagementProcessor.dynamicAttributesChanged(testClass);
+        Assert.assertTrue(hasAttribute(server.getMBeanInfo(testClassObjName), "partition3"));
+        testClass.partitions.remove("partition3");
+        ManagementProcessor.dynamicAttributesChanged(testClass);
+        server.getMBeanInfo(testClassObjName);
+    }
+
+    @Test
+    public void dynamicTest_getAttributesReadsSourceOnce() throws Exception
+    {
+        testClass.tenants.put("tenantB", "idle");
+        testClass.tenants.put("tenantC", "busy");
+        ManagementProcessor.dynamicAttributesChanged(testClass);
+        server.getMBeanInfo(testClassObjName);
+
+        final int reads = testClass.reads.get();
+        Assert.assertEquals(2, server.getAttributes(testClassObjName, new String[]{"tenantB", "tenantC"}).size());
+        Assert.assertEquals(reads + 1, testClass.reads.get());
+
+        // a single get asks the provider for the one key
+        Assert.assertEquals("busy", server.getAttribute(testClassObjName, "tenantC"));
+        Assert.assertEquals(reads + 1, testClass.reads.get());
+    }
+
+    @Test
+    public void dynamicTest_sweepReadsSourceOnce() throws Exception
+    {
+        testClass.tenants.put("tenantD", "idle");
+        testClass.tenants.put("tenantE", "busy");
+        ManagementProcessor.dynamicAttributesChanged(testClass);
+        server.getMBeanInfo(testClassObjName);
+
+        // samplers reading several attributes of an MBean share the values of its source
+        final DynamicManagementMBean mbean = ManagementProcessor.getManagedMBean(testClass);
+        final Map<DynamicAttributeSource, Map<String, ?>> sweep = new HashMap<DynamicAttributeSource, Map<String, ?>>();
+        final int reads = testClass.reads.get();
+        Assert.assertEquals("idle", mbean.sample("tenantD", sweep));
+        Assert.assertEquals("busy", mbean.sample("tenantE", sweep));
+        Assert.assertEquals("busy", mbean.read("tenantE", sweep));
+        Assert.assertEquals(reads + 1, testClass.reads.get());
+    }
+
+    private static boolean hasAttribute(final MBeanInfo info, final String name)
+    {
+        for (final MBeanAttributeInfo attrInfo : info.getAttributes())
+        {
+            if (attrInfo.getName().equals(name))
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static final class TestDynamicClass implements ManagedAttributeProvider
+    {
+        private final Map<String, Long> partitions = new ConcurrentHashMap<String, Long>();
+        private final Map<String, String> tenants = new ConcurrentHashMap<String, String>();
+        private final AtomicInteger reads = new AtomicInteger();
+
+        @Managed
+        private int count = 1;
+
+        @Managed(dynamic = true)
+        public Map<String, Long> partitionStats()
+        {
+            return partitions;
+        }
+
+        public Map<String, ?> getManagedAttributes()
+        {
+            reads.incrementAndGet();
+            return new HashMap<String, String>(tenants);
+        }
+
+        @Override
+        public Object getManagedAttribute(final String name)
+        {
+            return tenants.get(name);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.management.Attribute;
+import javax.management.MBeanException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class ExecutorTest
+{
+    private static final String LOOP_THREAD = "test-event-loop";
+
+    private final ObjectName testClassObjName = ManagementProcessor.constructObjectName(TestLoopClass.class);
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private static final TestLoopClass testClass = new TestLoopClass();
+
+    @BeforeClass
+    public static void beforeClass()
+    {
+        ManagementProcessor.register(testClass);
+    }
+
+    @AfterClass
+    public static void afterClass()
+    {
+        ManagementProcessor.unregister(testClass);
+        testClass.loop.shutdownNow();
+    }
+
+    @Test
+    public void executorTest_getAttribute() throws Exception
+    {
+        Assert.assertEquals(LOOP_THREAD, server.getAttribute(testClassObjName, "threadName"));
+    }
+
+    @Test
+    public void executorTest_setFieldAttribute() throws Exception
+    {
+        server.setAttribute(testClassObjName, new Attribute("limit", 42));
+        Assert.assertEquals(42, server.getAttribute(testClassObjName, "limit"));
+    }
+
+    @Test
+    public void executorTest_invoke() throws Exception
+    {
+        Assert.assertEquals(LOOP_THREAD, server.invoke(testClassObjName, "currentThread", new Object[0], new String[0]));
+    }
+
+    @Test
+    public void executorTest_memberOverridesClass() throws Exception
+    {
+        Assert.assertEquals(Thread.currentThread().getName(), server.invoke(testClassObjName, "callerThread", new Object[0], new String[0]));
+    }
+
+    @Test
+    public void executorTest_reentrant() throws Exception
+    {
+        // the operation reads its own MBean from the loop thread, the read must not queue behind it
+        Assert.assertEquals(LOOP_THREAD, server.invoke(testClassObjName, "ownThreadName", new Object[0], new String[0]));
+    }
+
+    @Test
+    public void executorTest_sampleDoesNotWait() throws Exception
+    {
+        final DynamicManagementMBean mbean = ManagementProcessor.getManagedMBean(testClass);
+        testClass.limit = 7;
+
+        // the first sample only asks the loop for a read
+        final long deadline = System.currentTimeMillis() + 5000L;
+        Object value = null;
+        while (value == null && System.currentTimeMillis() < deadline)
+        {
+            try
+            {
+                value = mbean.sample("limit");
+            }
+            catch (IllegalStateException e)
+            {
+                Thread.sleep(10);
+            }
+        }
+        Assert.assertEquals(7, value);
+
+        // let the read asked for by the last sample finish first
+        testClass.loop.submit(new Runnable()
+        {
+            public void run()
+            {
+                // no-op
+            }
+        }).get();
+
+        final CountDownLatch release = new CountDownLatch(1);
+        testClass.loop.execute(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    release.await();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        try
+        {
+            // a busy loop does not hold up the sampler, it gets the previous value
+            testClass.limit = 8;
+            final long start = System.nanoTime();
+            Assert.assertEquals(7, mbean.sample("limit"));
+            Assert.assertEquals(7, mbean.sample("limit"));
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(250));
+        }
+        finally
+        {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void executorTest_timeout() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        testClass.loop.execute(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    release.await();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        try
+        {
+            server.invoke(testClassObjName, "currentThread", new Object[0], new String[0]);
+            Assert.fail("Expected a timeout");
+        }
+        catch (MBeanException e)
+        {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        finally
+        {
+            release.countDown();
+        }
+    }
+
+    @Managed(executor = "loop", timeout = 500L)
+    private static final class TestLoopClass
+    {
+        private final ExecutorService loop = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            public Thread newThread(final Runnable runnable)
+            {
+                final Thread thread = new Thread(runnable, LOOP_THREAD);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        private final Executor caller = new Executor()
+        {
+            public void execute(final Runnable command)
+            {
+                command.run();
+            }
+        };
+
+        @Managed(writable = true)
+        private int limit;
+
+        @Managed
+        public String getThreadName()
+        {
+            return Thread.currentThread().getName();
+        }
+
+        @Managed
+        public String currentThread()
+        {
+            return Thread.currentThread().getName();
+        }
+
+        @Managed
+        public String ownThreadName() throws Exception
+        {
+            return (String) ManagementFactory.getPlatformMBeanServer().getAttribute(ManagementProcessor.constructObjectName(TestLoopClass.class), "threadName");
+        }
+
+        @Managed(executor = "caller")
+        public String callerThread()
+        {
+            return Thread.currentThread().getName();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.management.Attribute;
+import javax.management.MBeanException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+public class FlightRecorderTest
+{
+    private final ObjectName testClassObjName = ManagementProcessor.constructObjectName(TestRecordedClass.class);
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    @Test
+    public void flightRecorderTest_disabledByDefault()
+    {
+        Assert.assertFalse(AttributeEvent.enabled());
+        Assert.assertFalse(OperationEvent.enabled());
+        Assert.assertFalse(RegistrationEvent.enabled());
+    }
+
+    @Test
+    public void flightRecorderTest_events() throws Exception
+    {
+        final List<RecordedEvent> events;
+
+        final Recording recording = new Recording();
+        try
+        {
+            recording.enable("com.quantasnet.management.Registration");
+            recording.enable("com.quantasnet.management.AttributeAccess");
+            recording.enable("com.quantasnet.management.OperationInvoke");
+            recording.start();
+
+            final TestRecordedClass testClass = new TestRecordedClass();
+            ManagementProcessor.register(testClass);
+            server.setAttribute(testClassObjName, new Attribute("value", 5));
+            server.getAttribute(testClassObjName, "value");
+            server.invoke(testClassObjName, "reset", new Object[0], new String[0]);
+            try
+            {
+                server.invoke(testClassObjName, "fail", new Object[0], new String[0]);
+            }
+            catch (MBeanException e)
+            {
+                // expected
+            }
+            ManagementProcessor.unregister(testClass);
+
+            recording.stop();
+
+            final File file = File.createTempFile("managed", ".jfr");
+            file.deleteOnExit();
+            recording.dump(file.toPath());
+            events = RecordingFile.readAllEvents(file.toPath());
+        }
+        finally
+        {
+            recording.close();
+        }
+
+        final List<String> seen = new ArrayList<String>();
+        for (final RecordedEvent event : events)
+        {
+            if (testClassObjName.getCanonicalName().equals(event.getString("objectName")))
+            {
+                final String action = event.hasField("action") ? event.getString("action") : "invoke";
+                seen.add(action + " " + event.getString("member") + " " + event.getString("outcome"));
+            }
+        }
+
+        Assert.assertTrue(seen.toString(), seen.contains("register null success"));
+        Assert.assertTrue(seen.toString(), seen.contains("set value success"));
+        Assert.assertTrue(seen.toString(), seen.contains("get value success"));
+        Assert.assertTrue(seen.toString(), seen.contains("invoke reset success"));
+        Assert.assertTrue(seen.toString(), seen.contains("invoke fail javax.management.MBeanException"));
+        Assert.assertTrue(seen.toString(), seen.contains("unregister null success"));
+    }
+
+    private static final class TestRecordedClass
+    {
+        @Managed(writable = true)
+        private int value;
+
+        @Managed
+        public void reset()
+        {
+            value = 0;
+        }
+
+        @Managed
+        public void fail()
+        {
+            throw new IllegalStateException("fail");
+        }
+    }
+}
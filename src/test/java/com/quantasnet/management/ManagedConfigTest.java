@@ -0,0 +1,185 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.quantasnet.management;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class ManagedConfigTest
+{
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private final ObjectName name = ManagementProcessor.constructObjectName(TestPool.class);
+    private TestPool pool;
+
+    @Before
+    public void before()
+    {
+        pool = new TestPool();
+        ManagementProcessor.register(pool);
+    }
+
+    @After
+    public void after()
+    {
+        ManagementProcessor.unregister(pool);
+    }
+
+    @Test
+    public void managedConfigTest_attributes() throws Exception
+    {
+        Assert.assertEquals(2, server.getAttribute(name, "settings.min"));
+        Assert.assertEquals(8, server.getAttribute(name, "settings.max"));
+
+        final PoolSettings before = pool.settings.get();
+        server.setAttribute(name, new Attribute("settings.max", 10L));
+
+        // a new snapshot, the old one is unchanged
+        Assert.assertEquals(new PoolSettings(2, 10), pool.settings.get());
+        Assert.assertEquals(new PoolSettings(2, 8), before);
+        Assert.assertSame(pool.settings.get(), pool.settings.get());
+    }
+
+    @Test
+    public void managedConfigTest_namesDoNotCollide() throws Exception
+    {
+        // components of two configs and a field of the same name stay apart
+        Assert.assertEquals(1, server.getAttribute(name, "min"));
+        Assert.assertEquals(2, server.getAttribute(name, "settings.min"));
+        Assert.assertEquals(100, server.getAttribute(name, "limits.max"));
+        Assert.assertEquals(8, server.getAttribute(name, "settings.max"));
+
+        final Set<String> names = new HashSet<String>();
+        for (final MBeanAttributeInfo attrInfo : server.getMBeanInfo(name).getAttributes())
+        {
+            Assert.assertTrue(attrInfo.getName(), names.add(attrInfo.getName()));
+        }
+        Assert.assertEquals(4, names.size());
+    }
+
+    @Test
+    public void managedConfigTest_batchIsOneSnapshot() throws Exception
+    {
+        // min = 12 alone would be rejected by the record, together with max it is valid
+        final AttributeList written = server.setAttributes(name, list(new Attribute("settings.min", 12), new Attribute("settings.max", 20)));
+
+        Assert.assertEquals(2, written.size());
+        Assert.assertEquals(new PoolSettings(12, 20), pool.settings.get());
+    }
+
+    @Test
+    public void managedConfigTest_rejected() throws Exception
+    {
+        final PoolSettings before = pool.settings.get();
+
+        try
+        {
+            server.setAttribute(name, new Attribute("settings.min", 9));
+            Assert.fail();
+        }
+        catch (MBeanException e)
+        {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+
+        Assert.assertTrue(server.setAttributes(name, list(new Attribute("settings.min", 30), new Attribute("settings.max", 5))).isEmpty());
+        Assert.assertSame(before, pool.settings.get());
+    }
+
+    @Test
+    public void managedConfigTest_listener() throws Exception
+    {
+        final BlockingQueue<PoolSettings[]> changes = new ArrayBlockingQueue<PoolSettings[]>(4);
+        pool.settings.addListener(new ManagedConfig.Listener<PoolSettings>()
+        {
+            public void changed(final PoolSettings previous, final PoolSettings current)
+            {
+                changes.add(new PoolSettings[]{previous, current});
+            }
+        });
+
+        server.setAttributes(name, list(new Attribute("settings.min", 3), new Attribute("settings.max", 9)));
+        pool.settings.set(new PoolSettings(1, 1));
+
+        final PoolSettings[] first = changes.poll(5, TimeUnit.SECONDS);
+        Assert.assertEquals(new PoolSettings(2, 8), first[0]);
+        Assert.assertEquals(new PoolSettings(3, 9), first[1]);
+
+        final PoolSettings[] second = changes.poll(5, TimeUnit.SECONDS);
+        Assert.assertEquals(new PoolSettings(3, 9), second[0]);
+        Assert.assertEquals(new PoolSettings(1, 1), second[1]);
+        Assert.assertTrue(changes.isEmpty());
+    }
+
+    private static AttributeList list(final Attribute... attributes)
+    {
+        final AttributeList list = new AttributeList();
+        for (final Attribute attribute : attributes)
+        {
+            list.add(attribute);
+        }
+        return list;
+    }
+
+    private record PoolSettings(int min, int max)
+    {
+        private PoolSettings
+        {
+            if (min > max)
+            {
+                throw new IllegalArgumentException("min " + min + " is above max " + max);
+            }
+        }
+    }
+
+    private record Limits(int max)
+    {
+    }
+
+    private static final class TestPool
+    {
+        @Managed(description = "Pool settings")
+        private final ManagedConfig<PoolSettings> settings = new ManagedConfig<PoolSettings>(new PoolSettings(2, 8));
+
+        @Managed(description = "Pool limits")
+        private final ManagedConfig<Limits> limits = new ManagedConfig<Limits>(new Limits(100));
+
+        @Managed
+        private int min = 1;
+    }
+}
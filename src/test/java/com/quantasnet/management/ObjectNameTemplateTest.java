@@ -0,0 +1,171 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+public class ObjectNameTemplateTest
+{
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    @Test
+    public void templateTest_register() throws Exception
+    {
+        final TestPool first = new TestPool("primary", 1);
+        final TestPool second = new TestPool("secondary", 2);
+
+        ManagementProcessor.register(first);
+        ManagementProcessor.register(second);
+
+        try
+        {
+            Assert.assertTrue(server.isRegistered(new ObjectName("test.svc:type=Pool,name=primary,shard=1")));
+            Assert.assertTrue(server.isRegistered(new ObjectName("test.svc:type=Pool,name=secondary,shard=2")));
+            Assert.assertEquals("type=Pool,name=primary,shard=1", ManagementProcessor.constructObjectName(first).getKeyPropertyListString());
+        }
+        finally
+        {
+            ManagementProcessor.unregister(first);
+            ManagementProcessor.unregister(second);
+        }
+
+        Assert.assertFalse(server.isRegistered(new ObjectName("test.svc:type=Pool,name=primary,shard=1")));
+    }
+
+    @Test
+    public void templateTest_quoting() throws Exception
+    {
+        final ObjectName name = ManagementProcessor.constructObjectName(new TestPool("a,b=c", 3));
+
+        Assert.assertEquals("a,b=c", ObjectName.unquote(name.getKeyProperty("name")));
+        Assert.assertFalse(name.isPattern());
+    }
+
+    @Test
+    public void templateTest_quotedTemplate() throws Exception
+    {
+        final ObjectName name = ObjectNameTemplate.compile(TestPool.class, "test.svc:type=Pool,name=\"pool {name}\"").build(new TestPool("x", 0));
+
+        Assert.assertEquals("\"pool x\"", name.getKeyProperty("name"));
+    }
+
+    @Test
+    public void templateTest_compiledOnce()
+    {
+        Assert.assertSame(ObjectNameTemplate.forClass(TestPool.class), ObjectNameTemplate.forClass(TestPool.class));
+        Assert.assertNull(ObjectNameTemplate.forClass(ObjectNameTemplateTest.class));
+    }
+
+    @Test
+    public void templateTest_loaderNotPinned() throws Exception
+    {
+        final WeakReference<ClassLoader> loader = compileInLoader();
+        for (int i = 0; i < 50 && loader.get() != null; i++)
+        {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertNull(loader.get());
+    }
+
+    /**
+     * Compiles the template of a class of a class loader that is dropped right after
+     */
+    private static WeakReference<ClassLoader> compileInLoader() throws Exception
+    {
+        final URL classes = ObjectNameTemplateTest.class.getProtectionDomain().getCodeSource().getLocation();
+        // defines the test class itself, the annotations still come from the parent so the template is found
+        final URLClassLoader loader = new URLClassLoader(new URL[] { classes }, ManagedName.class.getClassLoader())
+        {
+            @Override
+            protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException
+            {
+                if (!name.equals(TestPool.class.getName()))
+                {
+                    return super.loadClass(name, resolve);
+                }
+
+                synchronized (getClassLoadingLock(name))
+                {
+                    final Class<?> loaded = findLoadedClass(name);
+                    return loaded == null ? findClass(name) : loaded;
+                }
+            }
+        };
+        final Class<?> pool = loader.loadClass(TestPool.class.getName());
+        Assert.assertNotSame(TestPool.class, pool);
+        Assert.assertNotNull(ObjectNameTemplate.forClass(pool));
+        loader.close();
+        return new WeakReference<ClassLoader>(loader);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void templateTest_unknownPlaceholder()
+    {
+        ObjectNameTemplate.compile(TestPool.class, "test.svc:type=Pool,name={missing}");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void templateTest_pattern()
+    {
+        ObjectNameTemplate.compile(TestPool.class, "test.svc:type=Pool,name={name},*");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void templateTest_domainPlaceholder()
+    {
+        ObjectNameTemplate.compile(TestPool.class, "{name}:type=Pool");
+    }
+
+    @ManagedName("test.svc:type=Pool,name={name},shard={shard}")
+    private static final class TestPool
+    {
+        private final String name;
+
+        private final int shardNumber;
+
+        @Managed
+        private int size;
+
+        private TestPool(final String name, final int shardNumber)
+        {
+            this.name = name;
+            this.shardNumber = shardNumber;
+        }
+
+        public int getShard()
+        {
+            return shardNumber;
+        }
+    }
+}
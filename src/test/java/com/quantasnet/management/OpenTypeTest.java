@@ -0,0 +1,262 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.ArrayType;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenMBeanAttributeInfo;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class OpenTypeTest
+{
+    private static final ObjectName name = ManagementProcessor.constructObjectName(TestOpenClass.class);
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private static final TestOpenClass open = new TestOpenClass();
+
+    @BeforeClass
+    public static void beforeClass()
+    {
+        ManagementProcessor.register(open);
+    }
+
+    @AfterClass
+    public static void afterClass()
+    {
+        ManagementProcessor.unregister(open);
+    }
+
+    @Test
+    public void openTypeTest_values() throws Exception
+    {
+        final CompositeData primary = (CompositeData) server.getAttribute(name, "primary");
+        Assert.assertEquals("db1", primary.get("host"));
+        Assert.assertEquals(5432, primary.get("port"));
+        Assert.assertEquals("PRIMARY", primary.get("mode"));
+
+        final CompositeData stats = (CompositeData) server.getAttribute(name, "stats");
+        Assert.assertEquals(42L, stats.get("count"));
+        Assert.assertEquals(true, stats.get("healthy"));
+        Assert.assertArrayEquals(new String[]{"a", "b"}, (String[]) stats.get("tags"));
+
+        Assert.assertEquals("REPLICA", server.getAttribute(name, "mode"));
+
+        final CompositeData[] replicas = (CompositeData[]) server.getAttribute(name, "replicas");
+        Assert.assertEquals(2, replicas.length);
+        Assert.assertEquals("db3", replicas[1].get("host"));
+
+        final TabularData byName = (TabularData) server.getAttribute(name, "byName");
+        Assert.assertEquals(2, byName.size());
+        Assert.assertEquals(5433, ((CompositeData) byName.get(new Object[]{"db2"}).get("value")).get("port"));
+
+        final CompositeData[] endpoints = (CompositeData[]) server.invoke(name, "endpoints", new Object[0], new String[0]);
+        Assert.assertEquals("db1", endpoints[0].get("host"));
+
+        // open data already, or types without an OpenType, are returned as they are
+        Assert.assertArrayEquals(new int[]{1, 2}, (int[]) server.getAttribute(name, "ports"));
+        Assert.assertEquals(Arrays.<Object>asList("x", 1), server.getAttribute(name, "anything"));
+        Assert.assertTrue(server.getAttribute(name, "node") instanceof Node);
+        Assert.assertTrue(server.getAttribute(name, "writable") instanceof Endpoint);
+    }
+
+    @Test
+    public void openTypeTest_info() throws Exception
+    {
+        final MBeanInfo info = server.getMBeanInfo(name);
+
+        final OpenMBeanAttributeInfo primary = (OpenMBeanAttributeInfo) attribute(info, "primary");
+        final CompositeType endpointType = (CompositeType) primary.getOpenType();
+        Assert.assertEquals(Endpoint.class.getName(), endpointType.getTypeName());
+        Assert.assertEquals(SimpleType.INTEGER, endpointType.getType("port"));
+        Assert.assertEquals(SimpleType.STRING, endpointType.getType("mode"));
+        Assert.assertEquals(CompositeData.class.getName(), attribute(info, "primary").getType());
+
+        Assert.assertEquals(ArrayType.getArrayType(endpointType), ((OpenMBeanAttributeInfo) attribute(info, "replicas")).getOpenType());
+        Assert.assertFalse(attribute(info, "anything") instanceof OpenMBeanAttributeInfo);
+        Assert.assertFalse(attribute(info, "writable") instanceof OpenMBeanAttributeInfo);
+
+        for (final MBeanOperationInfo operInfo : info.getOperations())
+        {
+            if (operInfo.getName().equals("endpoints"))
+            {
+                Assert.assertEquals(ArrayType.getArrayType(endpointType), operInfo.getDescriptor().getFieldValue("openType"));
+                Assert.assertEquals(CompositeData[].class.getName(), operInfo.getReturnType());
+            }
+        }
+    }
+
+    @Test
+    public void openTypeTest_cached() throws Exception
+    {
+        final OpenTypeConverter converter = OpenTypeConverter.forType(Endpoint.class);
+        Assert.assertSame(converter, OpenTypeConverter.forType(Endpoint.class));
+
+        // nested occurrences share the derived type
+        final ArrayType<?> replicas = (ArrayType<?>) OpenTypeConverter.forType(TestOpenClass.class.getDeclaredField("replicas").getGenericType()).getOpenType();
+        Assert.assertSame(converter.getOpenType(), replicas.getElementOpenType());
+
+        // recursive types have no OpenType
+        Assert.assertNull(OpenTypeConverter.forType(Node.class));
+    }
+
+    @Test
+    public void openTypeTest_loaderNotPinned() throws Exception
+    {
+        final WeakReference<ClassLoader> loader = convertInLoader();
+        for (int i = 0; i < 50 && loader.get() != null; i++)
+        {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertNull(loader.get());
+    }
+
+    /**
+     * Derives the converter of a class of a class loader that is dropped right after
+     */
+    private static WeakReference<ClassLoader> convertInLoader() throws Exception
+    {
+        final URL classes = OpenTypeTest.class.getProtectionDomain().getCodeSource().getLocation();
+        final URLClassLoader loader = new URLClassLoader(new URL[] { classes }, ClassLoader.getPlatformClassLoader());
+        final Class<?> endpoint = loader.loadClass(Endpoint.class.getName());
+        Assert.assertNotSame(Endpoint.class, endpoint);
+        Assert.assertNotNull(OpenTypeConverter.forType(endpoint));
+        loader.close();
+        return new WeakReference<ClassLoader>(loader);
+    }
+
+    private static MBeanAttributeInfo attribute(final MBeanInfo info, final String attribute)
+    {
+        for (final MBeanAttributeInfo attrInfo : info.getAttributes())
+        {
+            if (attrInfo.getName().equals(attribute))
+            {
+                return attrInfo;
+            }
+        }
+        throw new AssertionError("No attribute " + attribute);
+    }
+
+    private enum Mode
+    {
+        PRIMARY, REPLICA
+    }
+
+    private record Endpoint(String host, int port, Mode mode)
+    {
+    }
+
+    public static final class Stats
+    {
+        public long getCount()
+        {
+            return 42L;
+        }
+
+        public boolean isHealthy()
+        {
+            return true;
+        }
+
+        public List<String> getTags()
+        {
+            return List.of("a", "b");
+        }
+    }
+
+    public static final class Node
+    {
+        public Node getNext()
+        {
+            return null;
+        }
+    }
+
+    private static final class TestOpenClass
+    {
+        @Managed
+        private final Endpoint primary = new Endpoint("db1", 5432, Mode.PRIMARY);
+
+        @Managed(summarize = false)
+        private final List<Endpoint> replicas = List.of(new Endpoint("db2", 5433, Mode.REPLICA), new Endpoint("db3", 5434, Mode.REPLICA));
+
+        @Managed
+        private final Mode mode = Mode.REPLICA;
+
+        @Managed
+        private final int[] ports = {1, 2};
+
+        @Managed(summarize = false)
+        private final List<Object> anything = Arrays.<Object>asList("x", 1);
+
+        @Managed
+        private final Node node = new Node();
+
+        @Managed(writable = true)
+        private Endpoint writable = new Endpoint("db4", 5435, Mode.REPLICA);
+
+        @Managed
+        public Stats getStats()
+        {
+            return new Stats();
+        }
+
+        @Managed(summarize = false)
+        public Map<String, Endpoint> getByName()
+        {
+            final Map<String, Endpoint> byName = new LinkedHashMap<String, Endpoint>();
+            for (final Endpoint replica : replicas)
+            {
+                byName.put(replica.host(), replica);
+            }
+            return byName;
+        }
+
+        @Managed
+        public Endpoint[] endpoints()
+        {
+            return new Endpoint[]{primary};
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class PublisherTest
+{
+    private TestController controller;
+
+    @Before
+    public void before()
+    {
+        controller = new TestController();
+        ManagementProcessor.register(controller);
+    }
+
+    @After
+    public void after()
+    {
+        ManagementProcessor.unregister(controller);
+    }
+
+    @Test
+    public void publisherTest_demand() throws Exception
+    {
+        final TestSubscriber subscriber = new TestSubscriber();
+        ManagementProcessor.publisher(controller, 20L, false, "load", "name").subscribe(subscriber);
+
+        Assert.assertNull(subscriber.items.poll(200, TimeUnit.MILLISECONDS));
+
+        subscriber.subscription.request(2);
+        final Map<String, Object> first = subscriber.items.poll(2, TimeUnit.SECONDS);
+        Assert.assertEquals(0, first.get("load"));
+        Assert.assertEquals("controller", first.get("name"));
+        Assert.assertNotNull(subscriber.items.poll(2, TimeUnit.SECONDS));
+        Assert.assertNull(subscriber.items.poll(200, TimeUnit.MILLISECONDS));
+
+        subscriber.subscription.cancel();
+    }
+
+    @Test
+    public void publisherTest_changesOnly() throws Exception
+    {
+        final TestSubscriber subscriber = new TestSubscriber();
+        ManagementProcessor.publisher(controller, 20L, true, "load").subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        Assert.assertEquals(0, subscriber.items.poll(2, TimeUnit.SECONDS).get("load"));
+        Assert.assertNull(subscriber.items.poll(200, TimeUnit.MILLISECONDS));
+
+        controller.load = 7;
+        Assert.assertEquals(7, subscriber.items.poll(2, TimeUnit.SECONDS).get("load"));
+
+        ManagementProcessor.unregister(controller);
+        Assert.assertTrue(subscriber.completed.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void publisherTest_completesWithoutDemand() throws Exception
+    {
+        final TestSubscriber subscriber = new TestSubscriber();
+        ManagementProcessor.publisher(controller, 20L, false, "load").subscribe(subscriber);
+
+        // never requested anything, is still told the stream ended
+        ManagementProcessor.unregister(controller);
+        Assert.assertTrue(subscriber.completed.await(2, TimeUnit.SECONDS));
+        Assert.assertTrue(subscriber.items.isEmpty());
+    }
+
+    @Test
+    public void publisherTest_invalidRequest() throws Exception
+    {
+        final TestSubscriber subscriber = new TestSubscriber();
+        ManagementProcessor.publisher(controller, 20L, false, "load").subscribe(subscriber);
+
+        subscriber.subscription.request(0);
+        Assert.assertTrue(subscriber.error instanceof IllegalArgumentException);
+    }
+
+    @Test
+    public void publisherTest_survivesReadFailures() throws Exception
+    {
+        final TestSubscriber subscriber = new TestSubscriber();
+        ManagementProcessor.publisher(controller, 20L, false, "flaky").subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        // failed ticks, and the breaker they open, are skipped
+        Assert.assertNull(subscriber.items.poll(300, TimeUnit.MILLISECONDS));
+        Assert.assertNull(subscriber.error);
+
+        controller.failing = false;
+        for (int i = 0; i < 3; i++)
+        {
+            Assert.assertEquals(7, subscriber.items.poll(2, TimeUnit.SECONDS).get("flaky"));
+        }
+        Assert.assertNull(subscriber.error);
+
+        subscriber.subscription.cancel();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void publisherTest_unknownAttribute()
+    {
+        ManagementProcessor.publisher(controller, 20L, false, "missing");
+    }
+
+    private static final class TestSubscriber implements Flow.Subscriber<Map<String, Object>>
+    {
+        private final BlockingQueue<Map<String, Object>> items = new LinkedBlockingQueue<Map<String, Object>>();
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private volatile Flow.Subscription subscription;
+        private volatile Throwable error;
+
+        public void onSubscribe(final Flow.Subscription subscription)
+        {
+            this.subscription = subscription;
+        }
+
+        public void onNext(final Map<String, Object> item)
+        {
+            items.add(item);
+        }
+
+        public void onError(final Throwable throwable)
+        {
+            error = throwable;
+        }
+
+        public void onComplete()
+        {
+            completed.countDown();
+        }
+    }
+
+    private static final class TestController
+    {
+        @Managed
+        private volatile int load;
+
+        @Managed
+        private String name = "controller";
+
+        private volatile boolean failing = true;
+
+        @Managed(coolDown = 50)
+        public int getFlaky()
+        {
+            if (failing)
+            {
+                throw new IllegalStateException("flaky");
+            }
+            return 7;
+        }
+    }
+}
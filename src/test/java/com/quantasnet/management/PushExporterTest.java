@@ -0,0 +1,197 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+public class PushExporterTest
+{
+    private static final int METERS = 100;
+
+    private final List<TestMeter> meters = new ArrayList<TestMeter>();
+    private DatagramSocket listener;
+
+    @Before
+    public void before() throws Exception
+    {
+        listener = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        listener.setSoTimeout(100);
+
+        for (int i = 0; i < METERS; i++)
+        {
+            final TestMeter meter = new TestMeter();
+            meter.count = i;
+            ManagementProcessor.register(meter, "", new ObjectName("com.quantasnet.management:type=Meter,name=m" + i));
+            meters.add(meter);
+        }
+    }
+
+    @After
+    public void after()
+    {
+        for (final TestMeter meter : meters)
+        {
+            ManagementProcessor.unregister(meter);
+        }
+        listener.close();
+    }
+
+    @Test
+    public void pushExporterTest_statsd() throws Exception
+    {
+        final PushExporter exporter = ManagementProcessor.startPushExporter(listener.getLocalSocketAddress(), PushExporter.Format.STATSD, 50L);
+        try
+        {
+            final List<String> datagrams = receive("com.quantasnet.management.m99.Meter.ratio:0.25|g\n", "com.quantasnet.management.m7.Meter.count:7|g\n");
+            for (final String datagram : datagrams)
+            {
+                Assert.assertTrue(datagram.endsWith("\n"));
+            }
+
+            Assert.assertFalse(String.join("", datagrams).contains("name:"));
+            // 300 metrics packed into a handful of datagrams, not one each
+            Assert.assertTrue(datagrams.size() < METERS);
+        }
+        finally
+        {
+            exporter.close();
+        }
+    }
+
+    @Test
+    public void pushExporterTest_lineProtocol() throws Exception
+    {
+        final PushExporter exporter = ManagementProcessor.startPushExporter(listener.getLocalSocketAddress(), PushExporter.Format.LINE_PROTOCOL, 50L);
+        try
+        {
+            receive("com.quantasnet.management,name=m42,type=Meter count=42i ", "com.quantasnet.management,name=m42,type=Meter total=-1i ");
+        }
+        finally
+        {
+            exporter.close();
+        }
+    }
+
+    @Test
+    public void pushExporterTest_numbers()
+    {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(128);
+        PushExporter.putLong(buffer, Long.MIN_VALUE);
+        buffer.put((byte) ' ');
+        PushExporter.putLong(buffer, 1200);
+        buffer.put((byte) ' ');
+        PushExporter.putDouble(buffer, -3.5);
+        buffer.put((byte) ' ');
+        PushExporter.putDouble(buffer, 0.1234567);
+        buffer.put((byte) ' ');
+        PushExporter.putDouble(buffer, 2.9999999);
+        buffer.put((byte) ' ');
+        PushExporter.putDouble(buffer, 1e16);
+        buffer.put((byte) ' ');
+        PushExporter.putDouble(buffer, -1.5e20);
+        buffer.put((byte) ' ');
+        PushExporter.putDouble(buffer, Double.MAX_VALUE);
+        Assert.assertFalse(PushExporter.putDouble(buffer, Double.NaN));
+
+        buffer.flip();
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        Assert.assertEquals(Long.MIN_VALUE + " 1200 -3.5 0.123457 3 10000000000000000 -1.5e20 1.797693e308", new String(bytes, StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Receive datagrams until every expected metric has been seen, or fail after 5 seconds
+     */
+    private List<String> receive(final String... expected) throws Exception
+    {
+        final List<String> datagrams = new ArrayList<String>();
+        final List<String> missing = new ArrayList<String>(Arrays.asList(expected));
+        final byte[] buffer = new byte[65536];
+        final long deadline = System.currentTimeMillis() + 5000L;
+
+        while (System.currentTimeMillis() < deadline)
+        {
+            final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try
+            {
+                listener.receive(packet);
+            }
+            catch (SocketTimeoutException e)
+            {
+                continue;
+            }
+
+            Assert.assertTrue(packet.getLength() <= PushExporter.MAX_DATAGRAM);
+            final String datagram = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
+            datagrams.add(datagram);
+            for (final Iterator<String> it = missing.iterator(); it.hasNext(); )
+            {
+                if (datagram.contains(it.next()))
+                {
+                    it.remove();
+                }
+            }
+
+            if (missing.isEmpty())
+            {
+                return datagrams;
+            }
+        }
+
+        Assert.fail("Metrics not received: " + missing);
+        return datagrams;
+    }
+
+    private static final class TestMeter
+    {
+        @Managed
+        private long count;
+
+        @Managed
+        private double ratio = 0.25;
+
+        @Managed
+        private Integer total = -1;
+
+        @Managed
+        private String name = "meter";
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class RateTest
+{
+    private final ObjectName testClassObjName = ManagementProcessor.constructObjectName(TestCounterClass.class);
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private static final TestCounterClass testClass = new TestCounterClass();
+
+    @BeforeClass
+    public static void beforeClass()
+    {
+        ManagementProcessor.register(testClass);
+    }
+
+    @AfterClass
+    public static void afterClass()
+    {
+        ManagementProcessor.unregister(testClass);
+    }
+
+    @Test
+    public void rateTest_attributes() throws Exception
+    {
+        boolean rate = false;
+        boolean delta = false;
+        for (final MBeanAttributeInfo attrInfo : server.getMBeanInfo(testClassObjName).getAttributes())
+        {
+            if (attrInfo.getName().equals("requestsRate"))
+            {
+                rate = Double.class.getName().equals(attrInfo.getType());
+            }
+            else if (attrInfo.getName().equals("requestsDelta"))
+            {
+                delta = Long.class.getName().equals(attrInfo.getType());
+            }
+        }
+
+        Assert.assertTrue(rate);
+        Assert.assertTrue(delta);
+        Assert.assertTrue(server.isRegistered(testClassObjName));
+    }
+
+    @Test
+    public void rateTest_sampled() throws Exception
+    {
+        final RateAttribute rate = new RateAttribute(ManagementProcessor.getManagedMBean(testClass), "requests", Long.TYPE);
+
+        testClass.requests.set(100);
+        rate.sample();
+        Assert.assertEquals(0.0, rate.getRate(), 0.0);
+
+        testClass.requests.set(150);
+        Thread.sleep(50);
+        rate.sample();
+        Assert.assertEquals(50L, rate.getDelta());
+        Assert.assertTrue(rate.getRate() > 0.0);
+
+        // counter reset counts from zero
+        testClass.requests.set(20);
+        rate.sample();
+        Assert.assertEquals(20L, rate.getDelta());
+    }
+
+    @Test
+    public void rateTest_largeIntegral() throws Exception
+    {
+        final RateAttribute rate = new RateAttribute(ManagementProcessor.getManagedMBean(testClass), "requests", Long.TYPE);
+
+        // above 2^53 neighbouring longs share a double
+        final long base = 1L << 60;
+        testClass.requests.set(base + 100);
+        rate.sample();
+
+        testClass.requests.set(base + 110);
+        Thread.sleep(50);
+        rate.sample();
+        Assert.assertEquals(10L, rate.getDelta());
+        Assert.assertTrue(rate.getRate() > 0.0);
+
+        testClass.requests.set(base + 50);
+        rate.sample();
+        Assert.assertEquals(base + 50, rate.getDelta());
+    }
+
+    @Test
+    public void rateTest_background() throws Exception
+    {
+        final long deadline = System.currentTimeMillis() + 5000L;
+        Object delta = server.getAttribute(testClassObjName, "bytesDelta");
+        while (((Double) delta) <= 0.0 && System.currentTimeMillis() < deadline)
+        {
+            testClass.bytes += 1.5;
+            Thread.sleep(50);
+            delta = server.getAttribute(testClassObjName, "bytesDelta");
+        }
+
+        Assert.assertTrue(((Double) delta) > 0.0);
+        Assert.assertTrue(((Double) server.getAttribute(testClassObjName, "bytesRate")) > 0.0);
+    }
+
+    private static final class TestCounterClass
+    {
+        private final AtomicLong requests = new AtomicLong();
+
+        @Managed(rate = true)
+        private volatile double bytes;
+
+        @Managed(rate = true)
+        public long getRequests()
+        {
+            return requests.get();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.quantasnet.management;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class ServerTest
+{
+    private static final String DOMAIN = "com.quantasnet.management.isolated";
+
+    private final MBeanServer platform = ManagementFactory.getPlatformMBeanServer();
+    private final TestPool pool = new TestPool();
+    private ObjectName poolName;
+    private ObjectName viewName;
+    private MBeanServer server;
+
+    @Before
+    public void before() throws Exception
+    {
+        poolName = new ObjectName(DOMAIN + ":type=TestPool");
+        viewName = ServerView.constructObjectName(DOMAIN);
+        server = ManagementProcessor.newServer(DOMAIN, true);
+        ManagementProcessor.register(pool, "", poolName);
+    }
+
+    @After
+    public void after()
+    {
+        ManagementProcessor.unregister(pool);
+        ManagementProcessor.removeServer(DOMAIN);
+    }
+
+    @Test
+    public void serverTest_isolated() throws Exception
+    {
+        Assert.assertTrue(server.isRegistered(poolName));
+        Assert.assertFalse(platform.isRegistered(poolName));
+        Assert.assertSame(server, ManagementProcessor.getServer(poolName));
+        Assert.assertEquals(3, server.getAttribute(poolName, "size"));
+
+        ManagementProcessor.unregister(pool);
+        Assert.assertFalse(server.isRegistered(poolName));
+    }
+
+    @Test
+    public void serverTest_federatedView() throws Exception
+    {
+        Assert.assertTrue(platform.isRegistered(viewName));
+        Assert.assertTrue(Arrays.asList((String[]) platform.getAttribute(viewName, "names")).contains(poolName.getCanonicalName()));
+
+        final String[] signature = {String.class.getName(), String.class.getName()};
+        Assert.assertEquals(3, platform.invoke(viewName, "read", new Object[]{poolName.toString(), "size"}, signature));
+
+        platform.invoke(viewName, "write", new Object[]{poolName.toString(), "size", 5}, new String[]{String.class.getName(), String.class.getName(), Object.class.getName()});
+        Assert.assertEquals(5, pool.size);
+
+        ManagementProcessor.removeServer(DOMAIN);
+        Assert.assertFalse(platform.isRegistered(viewName));
+    }
+
+    @Test
+    public void serverTest_batch() throws Exception
+    {
+        final List<CommandResult> results = ManagementProcessor.batch(Collections.singletonList(ManagementCommand.getAttribute(poolName, "size")), false, false);
+        Assert.assertTrue(results.get(0).isSuccessful());
+        Assert.assertEquals(3, results.get(0).getValue());
+    }
+
+    private static final class TestPool
+    {
+        @Managed(writable = true)
+        private int size = 3;
+    }
+}
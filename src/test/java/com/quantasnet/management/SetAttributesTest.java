@@ -0,0 +1,227 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class SetAttributesTest
+{
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private final ObjectName plainName = ManagementProcessor.constructObjectName(TestPlain.class);
+    private final ObjectName poolName = ManagementProcessor.constructObjectName(TestPool.class);
+    private TestPlain plain;
+    private TestPool pool;
+
+    @Before
+    public void before()
+    {
+        plain = new TestPlain();
+        pool = new TestPool();
+        ManagementProcessor.register(plain);
+        ManagementProcessor.register(pool);
+    }
+
+    @After
+    public void after()
+    {
+        ManagementProcessor.unregister(plain);
+        ManagementProcessor.unregister(pool);
+    }
+
+    @Test
+    public void setAttributesTest_convertsAndSkipsInvalid() throws Exception
+    {
+        final AttributeList written = server.setAttributes(plainName, list(
+                new Attribute("size", "42"),
+                new Attribute("timeout", 5),
+                new Attribute("ratio", "abc"),
+                new Attribute("missing", 1)));
+
+        Assert.assertEquals(2, written.size());
+        Assert.assertEquals(new Attribute("size", 42), written.asList().get(0));
+        Assert.assertEquals(new Attribute("timeout", 5L), written.asList().get(1));
+        Assert.assertEquals(42, plain.size);
+        Assert.assertEquals(5L, plain.timeout);
+        Assert.assertEquals(0.5d, plain.ratio, 0d);
+    }
+
+    @Test
+    public void setAttributesTest_lossyConversionRejected() throws Exception
+    {
+        final AttributeList written = server.setAttributes(plainName, list(new Attribute("size", 1.5d), new Attribute("size", Long.MAX_VALUE)));
+        Assert.assertTrue(written.isEmpty());
+        Assert.assertEquals(0, plain.size);
+    }
+
+    @Test
+    public void setAttributesTest_transactional() throws Exception
+    {
+        final AttributeList written = server.setAttributes(poolName, list(new Attribute("min", 2), new Attribute("max", 10)));
+
+        Assert.assertEquals(2, written.size());
+        Assert.assertEquals(2, pool.min);
+        Assert.assertEquals(10, pool.max);
+        Assert.assertEquals(2, pool.lockedWrites);
+    }
+
+    @Test
+    public void setAttributesTest_transactionalInvalidValue() throws Exception
+    {
+        final AttributeList written = server.setAttributes(poolName, list(new Attribute("min", 4), new Attribute("max", "lots")));
+
+        Assert.assertTrue(written.isEmpty());
+        Assert.assertEquals(1, pool.min);
+        Assert.assertEquals(0, pool.lockedWrites);
+    }
+
+    @Test
+    public void setAttributesTest_transactionalRollback() throws Exception
+    {
+        final AttributeList written = server.setAttributes(poolName, list(new Attribute("min", 4), new Attribute("max", -1)));
+
+        Assert.assertTrue(written.isEmpty());
+        Assert.assertEquals(1, pool.min);
+        Assert.assertEquals(8, pool.max);
+    }
+
+    @Test
+    public void setAttributesTest_lockBlocksBatch() throws Exception
+    {
+        pool.lock.lock();
+        try
+        {
+            final Thread writer = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        server.setAttributes(poolName, list(new Attribute("min", 3)));
+                    }
+                    catch (Exception e)
+                    {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            writer.start();
+
+            TimeUnit.MILLISECONDS.sleep(100);
+            Assert.assertEquals(1, pool.min);
+            pool.lock.unlock();
+
+            writer.join(2000);
+            Assert.assertEquals(3, pool.min);
+        }
+        finally
+        {
+            if (pool.lock.isHeldByCurrentThread())
+            {
+                pool.lock.unlock();
+            }
+        }
+    }
+
+    private static AttributeList list(final Attribute... attributes)
+    {
+        final AttributeList list = new AttributeList();
+        for (final Attribute attribute : attributes)
+        {
+            list.add(attribute);
+        }
+        return list;
+    }
+
+    private static final class TestPlain
+    {
+        @Managed(writable = true)
+        private int size;
+
+        @Managed(writable = true)
+        private long timeout;
+
+        @Managed(writable = true)
+        private double ratio = 0.5;
+    }
+
+    @Managed(transactional = true, lock = "lock")
+    private static final class TestPool
+    {
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private volatile int min = 1;
+        private volatile int max = 8;
+        private int lockedWrites;
+
+        @Managed
+        public int getMin()
+        {
+            return min;
+        }
+
+        @Managed
+        public void setMin(final int min)
+        {
+            this.min = min;
+            countLocked();
+        }
+
+        @Managed
+        public int getMax()
+        {
+            return max;
+        }
+
+        @Managed
+        public void setMax(final int max)
+        {
+            if (max < 0)
+            {
+                throw new IllegalArgumentException("max must not be negative");
+            }
+            this.max = max;
+            countLocked();
+        }
+
+        private void countLocked()
+        {
+            if (lock.isHeldByCurrentThread())
+            {
+                lockedWrites++;
+            }
+        }
+    }
+}
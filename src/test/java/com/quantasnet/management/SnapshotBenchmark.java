@@ -0,0 +1,170 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.rmi.registry.LocateRegistry;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares a full snapshot through the SnapshotServer with the same bulk read over an RMI connector, one getAttributes
+ * call per MBean.<br />
+ * Run with <code>mvn test-compile exec:java -Dexec.mainClass=com.quantasnet.management.SnapshotBenchmark
+ * -Dexec.classpathScope=test</code>, optionally passing the number of MBeans and iterations.
+ */
+public final class SnapshotBenchmark
+{
+    private SnapshotBenchmark()
+    {
+        // main only
+    }
+
+    public static void main(final String[] args) throws Exception
+    {
+        final int beans = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        final int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        final List<BenchmarkBean> registered = new ArrayList<BenchmarkBean>();
+        for (int i = 0; i < beans; i++)
+        {
+            final BenchmarkBean bean = new BenchmarkBean(i);
+            ManagementProcessor.register(bean, "", new ObjectName("com.quantasnet.management.benchmark:type=Bean,name=b" + i));
+            registered.add(bean);
+        }
+
+        final int port = 19999;
+        LocateRegistry.createRegistry(port);
+        final JMXServiceURL url = new JMXServiceURL("service:jmx:rmi:///jndi/rmi://localhost:" + port + "/jmxrmi");
+        final JMXConnectorServer connectorServer = JMXConnectorServerFactory.newJMXConnectorServer(url, null, ManagementFactory.getPlatformMBeanServer());
+        connectorServer.start();
+
+        final Path directory = Files.createTempDirectory("snapshot-benchmark");
+        final SnapshotServer snapshotServer = ManagementProcessor.startSnapshotServer(directory.resolve("managed.sock"));
+
+        final JMXConnector connector = JMXConnectorFactory.connect(url);
+        final SnapshotClient client = SnapshotClient.connect(snapshotServer.getPath());
+
+        try
+        {
+            final MBeanServerConnection connection = connector.getMBeanServerConnection();
+            final ObjectName pattern = new ObjectName("com.quantasnet.management.benchmark:*");
+
+            // attribute names are looked up once, as a real collector would cache them
+            final Map<ObjectName, String[]> attributes = new HashMap<ObjectName, String[]>();
+            for (final ObjectName name : connection.queryNames(pattern, null))
+            {
+                final MBeanAttributeInfo[] infos = connection.getMBeanInfo(name).getAttributes();
+                final String[] names = new String[infos.length];
+                for (int i = 0; i < infos.length; i++)
+                {
+                    names[i] = infos[i].getName();
+                }
+                attributes.put(name, names);
+            }
+
+            for (int round = 0; round < 2; round++)
+            {
+                final String label = round == 0 ? "warmup" : "measured";
+
+                long values = 0;
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; i++)
+                {
+                    for (final Map.Entry<ObjectName, String[]> entry : attributes.entrySet())
+                    {
+                        final AttributeList list = connection.getAttributes(entry.getKey(), entry.getValue());
+                        for (final Attribute attribute : list.asList())
+                        {
+                            if (attribute.getValue() != null)
+                            {
+                                values++;
+                            }
+                        }
+                    }
+                }
+                final long rmiNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int i = 0; i < iterations; i++)
+                {
+                    values += client.snapshot().size();
+                }
+                final long snapshotNanos = System.nanoTime() - start;
+
+                System.out.printf("%s: %d MBeans, RMI %.2f ms/snapshot, Unix socket %.2f ms/snapshot (%d)%n", label, beans,
+                        rmiNanos / 1e6 / iterations, snapshotNanos / 1e6 / iterations, values);
+            }
+        }
+        finally
+        {
+            client.close();
+            connector.close();
+            snapshotServer.close();
+            connectorServer.stop();
+            Files.deleteIfExists(directory);
+
+            for (final BenchmarkBean bean : registered)
+            {
+                ManagementProcessor.unregister(bean);
+            }
+        }
+    }
+
+    private static final class BenchmarkBean
+    {
+        @Managed
+        private long requests;
+
+        @Managed
+        private int active;
+
+        @Managed
+        private double load = 0.75;
+
+        @Managed
+        private String state = "RUNNING";
+
+        private BenchmarkBean(final int i)
+        {
+            requests = i * 1000L;
+            active = i % 16;
+        }
+    }
+}
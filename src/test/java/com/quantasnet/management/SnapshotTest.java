@@ -0,0 +1,175 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+public class SnapshotTest
+{
+    private final ObjectName gaugeName = ManagementProcessor.constructObjectName(TestGauge.class);
+    private final ObjectName otherName = ManagementProcessor.constructObjectName(TestOther.class);
+    private final TestGauge gauge = new TestGauge();
+    private final TestOther other = new TestOther();
+
+    private Path directory;
+    private SnapshotServer server;
+
+    @Before
+    public void before() throws Exception
+    {
+        ManagementProcessor.register(gauge);
+        directory = Files.createTempDirectory("snapshot");
+        server = ManagementProcessor.startSnapshotServer(directory.resolve("managed.sock"));
+    }
+
+    @After
+    public void after() throws Exception
+    {
+        server.close();
+        Files.deleteIfExists(directory);
+        ManagementProcessor.unregister(gauge);
+        ManagementProcessor.unregister(other);
+    }
+
+    @Test
+    public void snapshotTest_values() throws Exception
+    {
+        final SnapshotClient client = SnapshotClient.connect(server.getPath());
+        try
+        {
+            final Map<String, Object> values = client.snapshot().get(gaugeName);
+            Assert.assertEquals(12L, values.get("count"));
+            Assert.assertEquals(3, values.get("size"));
+            Assert.assertEquals(0.5d, values.get("ratio"));
+            Assert.assertEquals(Boolean.TRUE, values.get("enabled"));
+            Assert.assertEquals("gauge", values.get("name"));
+            Assert.assertTrue(values.containsKey("missing"));
+            Assert.assertNull(values.get("missing"));
+        }
+        finally
+        {
+            client.close();
+        }
+    }
+
+    @Test
+    public void snapshotTest_dictionaryReused() throws Exception
+    {
+        final SnapshotClient client = SnapshotClient.connect(server.getPath());
+        try
+        {
+            Assert.assertFalse(client.snapshot().containsKey(otherName));
+
+            gauge.count = 13;
+            ManagementProcessor.register(other);
+
+            // known names are sent as ids, the new MBean adds its own names
+            final Map<ObjectName, Map<String, Object>> snapshot = client.snapshot();
+            Assert.assertEquals(13L, snapshot.get(gaugeName).get("count"));
+            Assert.assertEquals(7L, snapshot.get(otherName).get("count"));
+            Assert.assertEquals("other", snapshot.get(otherName).get("label"));
+
+            ManagementProcessor.unregister(other);
+            Assert.assertFalse(client.snapshot().containsKey(otherName));
+        }
+        finally
+        {
+            client.close();
+        }
+    }
+
+    @Test
+    public void snapshotTest_dictionaryReset() throws Exception
+    {
+        // a bound of 0 makes every snapshot after the first start the dictionary over
+        final SnapshotServer bounded = new SnapshotServer(directory.resolve("bounded.sock"), 0);
+        final SnapshotClient client = SnapshotClient.connect(bounded.getPath());
+        try
+        {
+            client.snapshot();
+            final int size = client.dictionarySize();
+
+            gauge.count = 13;
+            ManagementProcessor.register(other);
+
+            final Map<ObjectName, Map<String, Object>> snapshot = client.snapshot();
+            Assert.assertEquals(13L, snapshot.get(gaugeName).get("count"));
+            Assert.assertEquals("gauge", snapshot.get(gaugeName).get("name"));
+            Assert.assertEquals(7L, snapshot.get(otherName).get("count"));
+            Assert.assertEquals("other", snapshot.get(otherName).get("label"));
+            Assert.assertTrue(client.dictionarySize() > size);
+
+            // the names of the unregistered MBean are dropped with the next reset
+            ManagementProcessor.unregister(other);
+            final Map<ObjectName, Map<String, Object>> after = client.snapshot();
+            Assert.assertFalse(after.containsKey(otherName));
+            Assert.assertEquals(13L, after.get(gaugeName).get("count"));
+            Assert.assertEquals(size, client.dictionarySize());
+        }
+        finally
+        {
+            client.close();
+            bounded.close();
+        }
+    }
+
+    private static final class TestGauge
+    {
+        @Managed
+        private long count = 12;
+
+        @Managed
+        private int size = 3;
+
+        @Managed
+        private double ratio = 0.5;
+
+        @Managed
+        private boolean enabled = true;
+
+        @Managed
+        private String name = "gauge";
+
+        @Managed
+        private String missing;
+    }
+
+    private static final class TestOther
+    {
+        @Managed
+        private long count = 7;
+
+        @Managed
+        private String label = "other";
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.monitor.MonitorNotification;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class ThresholdTest
+{
+    private final ObjectName testClassObjName = ManagementProcessor.constructObjectName(TestGaugeClass.class);
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private static final TestGaugeClass testClass = new TestGaugeClass();
+
+    @BeforeClass
+    public static void beforeClass()
+    {
+        ManagementProcessor.register(testClass);
+    }
+
+    @AfterClass
+    public static void afterClass()
+    {
+        ManagementProcessor.unregister(testClass);
+    }
+
+    @Test
+    public void thresholdTest_declared() throws Exception
+    {
+        final BlockingQueue<Notification> received = listen();
+
+        testClass.queueDepth = 150;
+        final Notification high = received.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(high);
+        Assert.assertEquals(MonitorNotification.THRESHOLD_HIGH_VALUE_EXCEEDED, high.getType());
+        Assert.assertEquals(150, high.getUserData());
+
+        // hovering between the thresholds sends nothing
+        testClass.queueDepth = 120;
+        Assert.assertNull(received.poll(300, TimeUnit.MILLISECONDS));
+        testClass.queueDepth = 160;
+        Assert.assertNull(received.poll(300, TimeUnit.MILLISECONDS));
+
+        testClass.queueDepth = 10;
+        final Notification low = received.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(low);
+        Assert.assertEquals(MonitorNotification.THRESHOLD_LOW_VALUE_EXCEEDED, low.getType());
+    }
+
+    @Test
+    public void thresholdTest_runtime() throws Exception
+    {
+        final BlockingQueue<Notification> received = listen();
+
+        ManagementProcessor.addThreshold(testClass, "latency", 5.0, 1.0, 50L);
+        try
+        {
+            testClass.latency = 7.5;
+
+            Notification notification = received.poll(5, TimeUnit.SECONDS);
+            while (notification != null && !"latency reached high threshold 5.0".equals(notification.getMessage()))
+            {
+                notification = received.poll(5, TimeUnit.SECONDS);
+            }
+            Assert.assertNotNull(notification);
+        }
+        finally
+        {
+            ManagementProcessor.removeThresholds(testClass, "latency");
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void thresholdTest_unknownAttribute()
+    {
+        ManagementProcessor.addThreshold(testClass, "missing", 1.0, 0.0, 50L);
+    }
+
+    private BlockingQueue<Notification> listen() throws Exception
+    {
+        final BlockingQueue<Notification> received = new LinkedBlockingQueue<Notification>();
+        server.addNotificationListener(testClassObjName, new NotificationListener()
+        {
+            public void handleNotification(final Notification notification, final Object handback)
+            {
+                if (!notification.getType().equals("jmx.mbean.info.changed"))
+                {
+                    received.add(notification);
+                }
+            }
+        }, null, null);
+        return received;
+    }
+
+    private static final class TestGaugeClass
+    {
+        @Managed
+        @ManagedThreshold(high = 100, low = 50, period = 50L)
+        private volatile int queueDepth = 75;
+
+        @Managed
+        private volatile double latency;
+    }
+}
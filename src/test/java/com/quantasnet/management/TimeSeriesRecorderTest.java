@@ -0,0 +1,239 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class TimeSeriesRecorderTest
+{
+    private static final long START = 1700000000000L;
+    private static final TestRecordedClass recorded = new TestRecordedClass();
+
+    private Path file;
+
+    @BeforeClass
+    public static void beforeClass()
+    {
+        ManagementProcessor.register(recorded);
+    }
+
+    @AfterClass
+    public static void afterClass()
+    {
+        ManagementProcessor.unregister(recorded);
+    }
+
+    @Before
+    public void before() throws Exception
+    {
+        file = File.createTempFile("recording", ".ring").toPath();
+        recorded.count = 0;
+        recorded.ratio = 0.5;
+        recorded.broken = false;
+    }
+
+    @After
+    public void after() throws Exception
+    {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    public void recorderTest_values() throws Exception
+    {
+        final TimeSeriesRecorder recorder = ManagementProcessor.startRecorder(recorded, file, 1000L, 64 * 1024, "count", "ratio", "brokenValue");
+        recorded.count = -5;
+        recorder.record(START);
+        recorded.count = 1L << 40;
+        recorded.ratio = 0.75;
+        recorded.broken = true;
+        recorder.record(START + 1003);
+        recorded.count = 7;
+        recorder.record(START + 1990);
+
+        // readable while the recorder is running
+        final TimeSeriesReader reader = TimeSeriesReader.read(file);
+        recorder.close();
+
+        Assert.assertEquals(ManagementProcessor.constructObjectName(TestRecordedClass.class).toString(), reader.getObjectName());
+        Assert.assertEquals(1000L, reader.getPeriod());
+        Assert.assertEquals(3, reader.getSamples().size());
+
+        final TimeSeriesReader.Sample first = reader.getSamples().get(0);
+        Assert.assertEquals(START, first.getTimestamp());
+        Assert.assertEquals(-5L, first.getValue(0));
+        Assert.assertEquals(0.5, first.getValue(1));
+        Assert.assertEquals(1L, first.getValue(2));
+
+        final TimeSeriesReader.Sample second = reader.getSamples().get(1);
+        Assert.assertEquals(START + 1003, second.getTimestamp());
+        Assert.assertEquals(1L << 40, second.getValue(0));
+        Assert.assertEquals(0.75, second.getValue(1));
+        Assert.assertNull(second.getValue(2));
+
+        final TimeSeriesReader.Sample third = reader.getSamples().get(2);
+        Assert.assertEquals(START + 1990, third.getTimestamp());
+        Assert.assertEquals(7L, third.getValue(0));
+
+        final StringBuilder csv = new StringBuilder();
+        reader.writeCsv(csv);
+        final String[] lines = csv.toString().split("\n");
+        Assert.assertEquals("timestamp,count,ratio,brokenValue", lines[0]);
+        Assert.assertEquals("2023-11-14T22:13:20Z,-5,0.5,1", lines[1]);
+        Assert.assertEquals("2023-11-14T22:13:21.003Z,1099511627776,0.75,", lines[2]);
+    }
+
+    @Test
+    public void recorderTest_ring() throws Exception
+    {
+        // the header and 3 blocks, the file never grows
+        final long size = RecordingFormat.HEADER_SIZE + 3 * RecordingFormat.BLOCK_SIZE;
+        final TimeSeriesRecorder recorder = ManagementProcessor.startRecorder(recorded, file, 1000L, size, "count", "ratio");
+        for (int i = 0; i < 20000; i++)
+        {
+            recorded.count = i;
+            recorder.record(START + i * 1000L);
+        }
+        recorder.close();
+        Assert.assertEquals(size, Files.size(file));
+
+        // steady samples take 4 bytes each, so almost 3000 of them fit
+        final List<TimeSeriesReader.Sample> samples = TimeSeriesReader.read(file).getSamples();
+        Assert.assertTrue(samples.size() > 2000);
+
+        for (int i = 0; i < samples.size(); i++)
+        {
+            final long expected = 20000 - samples.size() + i;
+            Assert.assertEquals(expected, samples.get(i).getValue(0));
+            Assert.assertEquals(START + expected * 1000L, samples.get(i).getTimestamp());
+        }
+    }
+
+    @Test
+    public void recorderTest_resume() throws Exception
+    {
+        final TimeSeriesRecorder first = ManagementProcessor.startRecorder(recorded, file, 1000L, 64 * 1024, "count");
+        first.record(START);
+        first.record(START + 1000);
+        first.close();
+
+        // same settings append, different ones start over
+        final TimeSeriesRecorder second = ManagementProcessor.startRecorder(recorded, file, 1000L, 64 * 1024, "count");
+        second.record(START + 60000);
+        second.close();
+        Assert.assertEquals(3, TimeSeriesReader.read(file).getSamples().size());
+        Assert.assertEquals(START + 60000, TimeSeriesReader.read(file).getSamples().get(2).getTimestamp());
+
+        final TimeSeriesRecorder third = ManagementProcessor.startRecorder(recorded, file, 1000L, 64 * 1024, "count", "ratio");
+        third.record(START + 120000);
+        third.close();
+        Assert.assertEquals(1, TimeSeriesReader.read(file).getSamples().size());
+    }
+
+    @Test
+    public void recorderTest_allocation() throws Exception
+    {
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final TimeSeriesRecorder recorder = ManagementProcessor.startRecorder(recorded, file, 1000L, 64 * 1024, "small");
+        for (int i = 0; i < 100000; i++)
+        {
+            recorder.record(START + i * 1000L);
+        }
+
+        final long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (int i = 0; i < 100000; i++)
+        {
+            recorder.record(START + i * 1000L);
+        }
+        final long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        recorder.close();
+
+        // reading a small int boxes to a cached Integer, nothing else may allocate
+        Assert.assertTrue("Bytes allocated per sample: " + allocated / 100000.0, allocated < 100000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void recorderTest_notNumeric() throws Exception
+    {
+        ManagementProcessor.startRecorder(recorded, file, 1000L, 64 * 1024, "name");
+    }
+
+    @Test
+    public void recorderTest_sizeTooLarge() throws Exception
+    {
+        Files.write(file, new byte[]{1, 2, 3});
+
+        // the header and the blocks would not fit in one mapping
+        final long size = RecordingFormat.HEADER_SIZE + (long) (Integer.MAX_VALUE / RecordingFormat.BLOCK_SIZE) * RecordingFormat.BLOCK_SIZE;
+        try
+        {
+            ManagementProcessor.startRecorder(recorded, file, 1000L, size, "count");
+            Assert.fail();
+        }
+        catch (IllegalArgumentException e)
+        {
+            Assert.assertTrue(e.getMessage().startsWith("Size must leave room"));
+        }
+        Assert.assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(file));
+    }
+
+    private static final class TestRecordedClass
+    {
+        @Managed
+        private volatile long count;
+
+        @Managed
+        private volatile double ratio;
+
+        @Managed
+        private int small = 3;
+
+        @Managed
+        private String name = "recorded";
+
+        private volatile boolean broken;
+
+        @Managed
+        public int getBrokenValue()
+        {
+            if (broken)
+            {
+                throw new IllegalStateException("broken");
+            }
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2013 Andrew Landsverk
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.quantasnet.management;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+public class UnregisterAllTest
+{
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    @Test
+    public void unregisterAllTest_domain() throws Exception
+    {
+        final int count = 1000;
+        for (int i = 0; i < count; i++)
+        {
+            ManagementProcessor.register(new TestBulk(), "", new ObjectName("test.bulk:type=TestBulk,id=" + i));
+        }
+
+        Assert.assertEquals(count, server.queryNames(new ObjectName("test.bulk:*"), null).size());
+
+        final UnregistrationReport report = ManagementProcessor.unregisterAll("test.bulk");
+
+        Assert.assertTrue(report.isSuccessful());
+        Assert.assertEquals(count, report.getUnregistered().size());
+        Assert.assertEquals(0, server.queryNames(new ObjectName("test.bulk:*"), null).size());
+        Assert.assertTrue(server.isRegistered(ManagementProcessor.constructObjectName(ManagementProcessor.class)));
+    }
+
+    @Test
+    public void unregisterAllTest_registeredObjects() throws Exception
+    {
+        final ObjectName processorName = ManagementProcessor.constructObjectName(ManagementProcessor.class);
+        final ObjectName name = new ObjectName("test.bulk:type=TestBulk,id=listed");
+        ManagementProcessor.register(new TestBulk(), "", name);
+
+        // the attribute keeps the name it has always had
+        Assert.assertTrue(Arrays.asList((ObjectName[]) server.getAttribute(processorName, "REGISTERED_OBJS")).contains(name));
+
+        ManagementProcessor.unregisterAll("test.bulk");
+        Assert.assertFalse(Arrays.asList((ObjectName[]) server.getAttribute(processorName, "REGISTERED_OBJS")).contains(name));
+    }
+
+    @Test
+    public void unregisterAllTest_class() throws Exception
+    {
+        final TestBulk bulk = new TestBulk();
+        final TestOther other = new TestOther();
+        ManagementProcessor.register(bulk, "", new ObjectName("test.bulkClass:type=TestBulk"));
+        ManagementProcessor.register(other, "", new ObjectName("test.bulkClass:type=TestOther"));
+
+        final UnregistrationReport report = ManagementProcessor.unregisterAll(TestBulk.class);
+
+        Assert.assertEquals(1, report.getUnregistered().size());
+        Assert.assertFalse(server.isRegistered(new ObjectName("test.bulkClass:type=TestBulk")));
+        Assert.assertTrue(server.isRegistered(new ObjectName("test.bulkClass:type=TestOther")));
+
+        ManagementProcessor.unregister(other);
+        Assert.assertFalse(server.isRegistered(new ObjectName("test.bulkClass:type=TestOther")));
+    }
+
+    @Test
+    public void unregisterAllTest_failure() throws Exception
+    {
+        final ObjectName objName = new ObjectName("test.bulkFailure:type=TestBulk");
+        ManagementProcessor.register(new TestBulk(), "", objName);
+
+        // someone else removed it behind our back
+        server.unregisterMBean(objName);
+
+        final UnregistrationReport report = ManagementProcessor.unregisterAll("test.bulkFailure");
+
+        Assert.assertFalse(report.isSuccessful());
+        Assert.assertTrue(report.getFailures().containsKey(objName));
+        Assert.assertFalse(ManagementProcessor.unregisterAll("test.bulkFailure").getFailures().containsKey(objName));
+    }
+
+    @Test
+    public void unregisterAllTest_shutdownHook()
+    {
+        ManagementProcessor.installShutdownHook();
+        ManagementProcessor.installShutdownHook();
+        ManagementProcessor.removeShutdownHook();
+    }
+
+    private static final class TestBulk
+    {
+        @Managed
+        private int value;
+    }
+
+    private static final class TestOther
+    {
+        @Managed
+        private int value;
+    }
+}